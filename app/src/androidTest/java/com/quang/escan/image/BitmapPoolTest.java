@@ -0,0 +1,71 @@
+package com.quang.escan.image;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that released bitmaps come back cleared and that the pool stays within its budget
+ */
+@RunWith(AndroidJUnit4.class)
+public class BitmapPoolTest {
+
+    @Test
+    public void releasedBitmapIsReusedForSameShape() {
+        BitmapPool pool = new BitmapPool(64L * 1024 * 1024);
+        Bitmap first = pool.acquire(400, 300, Bitmap.Config.ARGB_8888);
+        first.eraseColor(Color.RED);
+        pool.release(first);
+
+        Bitmap second = pool.acquire(400, 300, Bitmap.Config.ARGB_8888);
+        assertSame(first, second);
+        assertEquals(Color.TRANSPARENT, second.getPixel(10, 10));
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getMisses());
+    }
+
+    @Test
+    public void differentShapeIsNotReused() {
+        BitmapPool pool = new BitmapPool(64L * 1024 * 1024);
+        Bitmap landscape = pool.acquire(400, 300, Bitmap.Config.ARGB_8888);
+        pool.release(landscape);
+
+        Bitmap portrait = pool.acquire(300, 400, Bitmap.Config.ARGB_8888);
+        assertNotSame(landscape, portrait);
+        assertEquals(0, pool.getHits());
+    }
+
+    @Test
+    public void immutableBitmapIsRecycledInsteadOfPooled() {
+        BitmapPool pool = new BitmapPool(64L * 1024 * 1024);
+        Bitmap immutable = Bitmap.createBitmap(new int[100 * 100], 100, 100, Bitmap.Config.ARGB_8888);
+        pool.release(immutable);
+
+        assertTrue(immutable.isRecycled());
+        assertEquals(0, pool.getSizeBytes());
+    }
+
+    @Test
+    public void oldestBitmapsAreEvictedOverBudget() {
+        int bytesPerBitmap = 100 * 100 * 4;
+        BitmapPool pool = new BitmapPool(2L * bytesPerBitmap);
+        Bitmap oldest = pool.acquire(100, 100, Bitmap.Config.ARGB_8888);
+        Bitmap middle = pool.acquire(100, 100, Bitmap.Config.ARGB_8888);
+        Bitmap newest = pool.acquire(100, 100, Bitmap.Config.ARGB_8888);
+
+        pool.release(oldest);
+        pool.release(middle);
+        pool.release(newest);
+
+        assertTrue(oldest.isRecycled());
+        assertFalse(newest.isRecycled());
+        assertEquals(1, pool.getEvictions());
+        assertTrue(pool.getSizeBytes() <= pool.getMaxSizeBytes());
+    }
+}
@@ -0,0 +1,99 @@
+package com.quang.escan.image;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Times BlurHash encoding at save time and decoding at bind time on the
+ * device. Results are written to logcat under this class name.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BlurHashBenchmark {
+    private static final String TAG = "BlurHashBenchmark";
+
+    private static final int WARMUP_RUNS = 50;
+    private static final int RUNS = 500;
+
+    // The sizes ThumbnailStore encodes from and ImageLoader decodes to
+    private static final int SOURCE_WIDTH = 23;
+    private static final int SOURCE_HEIGHT = 32;
+    private static final int PLACEHOLDER_WIDTH = 15;
+    private static final int PLACEHOLDER_HEIGHT = 20;
+
+    @Test
+    public void encodeAndDecode() {
+        int[] pixels = pagePixels();
+
+        String hash = null;
+        long[] encodeNanos = new long[RUNS];
+        for (int i = -WARMUP_RUNS; i < RUNS; i++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            hash = BlurHash.encode(pixels, SOURCE_WIDTH, SOURCE_HEIGHT,
+                    BlurHash.COMPONENTS_X, BlurHash.COMPONENTS_Y);
+            if (i >= 0) {
+                encodeNanos[i] = SystemClock.elapsedRealtimeNanos() - start;
+            }
+        }
+        assertTrue(BlurHash.isValid(hash));
+
+        long[] decodeNanos = new long[RUNS];
+        for (int i = -WARMUP_RUNS; i < RUNS; i++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            int[] decoded = BlurHash.decode(hash, PLACEHOLDER_WIDTH, PLACEHOLDER_HEIGHT, 1);
+            Bitmap bitmap = Bitmap.createBitmap(decoded, PLACEHOLDER_WIDTH, PLACEHOLDER_HEIGHT,
+                    Bitmap.Config.ARGB_8888);
+            if (i >= 0) {
+                decodeNanos[i] = SystemClock.elapsedRealtimeNanos() - start;
+            }
+            bitmap.recycle();
+        }
+
+        Log.i(TAG, "hash=" + hash +
+                "\n  encode " + SOURCE_WIDTH + "x" + SOURCE_HEIGHT + ": " + report(encodeNanos) +
+                "\n  decode " + PLACEHOLDER_WIDTH + "x" + PLACEHOLDER_HEIGHT + " to bitmap: " +
+                report(decodeNanos));
+    }
+
+    private static String report(long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return String.format("p50=%.1f us p90=%.1f us p99=%.1f us",
+                sorted[sorted.length / 2] / 1e3,
+                sorted[sorted.length * 90 / 100] / 1e3,
+                sorted[sorted.length * 99 / 100] / 1e3);
+    }
+
+    /**
+     * A thumbnail-sized page: pale paper with dark lines of text and a coloured header
+     */
+    private static int[] pagePixels() {
+        Bitmap bitmap = Bitmap.createBitmap(SOURCE_WIDTH, SOURCE_HEIGHT, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        canvas.drawColor(Color.rgb(245, 242, 235));
+        Paint paint = new Paint();
+        paint.setColor(Color.rgb(40, 90, 160));
+        canvas.drawRect(0, 0, SOURCE_WIDTH, 5, paint);
+        paint.setColor(Color.DKGRAY);
+        for (int y = 8; y < SOURCE_HEIGHT - 2; y += 3) {
+            canvas.drawRect(2, y, SOURCE_WIDTH - 2, y + 1, paint);
+        }
+
+        int[] pixels = new int[SOURCE_WIDTH * SOURCE_HEIGHT];
+        bitmap.getPixels(pixels, 0, SOURCE_WIDTH, 0, 0, SOURCE_WIDTH, SOURCE_HEIGHT);
+        bitmap.recycle();
+        return pixels;
+    }
+}
@@ -0,0 +1,187 @@
+package com.quang.escan.image;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Times page detection, skew estimation and the perspective warp of a
+ * full-size photo on the device, with the warp on one thread and on the
+ * common pool. Results are written to logcat under this class name.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DocumentCropBenchmark {
+    private static final String TAG = "DocumentCropBenchmark";
+
+    private static final int DETECT_WARMUP_RUNS = 10;
+    private static final int DETECT_RUNS = 50;
+    private static final int WARP_WARMUP_RUNS = 2;
+    private static final int WARP_RUNS = 10;
+
+    // A 12 MP photo and the copy ImageEditFragment detects in
+    private static final int PHOTO_WIDTH = 3000;
+    private static final int PHOTO_HEIGHT = 4000;
+    private static final Quad PAGE = new Quad(420, 610, 2610, 480, 2790, 3620, 260, 3480);
+    private static final int SKEW_WARMUP_RUNS = 5;
+    private static final int SKEW_RUNS = 30;
+    private static final float TEXT_SKEW_DEGREES = 2.5f;
+
+    @Test
+    public void detectAndWarp() {
+        Bitmap photo = photo();
+        float scale = (float) DocumentDetector.DETECTION_EDGE_PX / Math.max(PHOTO_WIDTH, PHOTO_HEIGHT);
+        int smallWidth = Math.round(PHOTO_WIDTH * scale);
+        int smallHeight = Math.round(PHOTO_HEIGHT * scale);
+        Bitmap small = Bitmap.createScaledBitmap(photo, smallWidth, smallHeight, true);
+        int[] smallPixels = new int[smallWidth * smallHeight];
+        small.getPixels(smallPixels, 0, smallWidth, 0, 0, smallWidth, smallHeight);
+        small.recycle();
+
+        Quad found = null;
+        long[] detectNanos = new long[DETECT_RUNS];
+        for (int i = -DETECT_WARMUP_RUNS; i < DETECT_RUNS; i++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            found = DocumentDetector.detect(smallPixels, smallWidth, smallHeight);
+            if (i >= 0) {
+                detectNanos[i] = SystemClock.elapsedRealtimeNanos() - start;
+            }
+        }
+        assertNotNull(found);
+        Quad page = found.scale((float) PHOTO_WIDTH / smallWidth, (float) PHOTO_HEIGHT / smallHeight);
+
+        int left = page.getLeft();
+        int top = page.getTop();
+        int regionWidth = page.getRight() - left;
+        int regionHeight = page.getBottom() - top;
+        int[] region = new int[regionWidth * regionHeight];
+        photo.getPixels(region, 0, regionWidth, left, top, regionWidth, regionHeight);
+        photo.recycle();
+        Quad local = page.offset(-left, -top);
+        int outputWidth = PerspectiveWarp.outputWidth(local);
+        int outputHeight = PerspectiveWarp.outputHeight(local);
+        int[] output = new int[outputWidth * outputHeight];
+
+        ForkJoinPool single = new ForkJoinPool(1);
+        long[] singleNanos;
+        try {
+            singleNanos = timeWarp(region, regionWidth, regionHeight, local, output, outputWidth, outputHeight, single);
+        } finally {
+            single.shutdown();
+        }
+        long[] parallelNanos = timeWarp(region, regionWidth, regionHeight, local,
+                output, outputWidth, outputHeight, ForkJoinPool.commonPool());
+
+        Log.i(TAG, "found " + found +
+                "\n  detect " + smallWidth + "x" + smallHeight + ": " + report(detectNanos) +
+                "\n  warp to " + outputWidth + "x" + outputHeight + ", 1 thread: " + report(singleNanos) +
+                "\n  warp to " + outputWidth + "x" + outputHeight + ", " +
+                ForkJoinPool.commonPool().getParallelism() + " threads: " + report(parallelNanos));
+    }
+
+    @Test
+    public void estimateSkew() {
+        Bitmap photo = skewedText();
+        double angle = 0;
+        long[] nanos = new long[SKEW_RUNS];
+        for (int i = -SKEW_WARMUP_RUNS; i < SKEW_RUNS; i++) {
+            // From the full photo, as ImageEditFragment does: the downscale is part of the cost
+            long start = SystemClock.elapsedRealtimeNanos();
+            float scale = (float) Deskew.ESTIMATION_EDGE_PX / Math.max(PHOTO_WIDTH, PHOTO_HEIGHT);
+            int width = Math.round(PHOTO_WIDTH * scale);
+            int height = Math.round(PHOTO_HEIGHT * scale);
+            Bitmap small = Bitmap.createScaledBitmap(photo, width, height, true);
+            int[] pixels = new int[width * height];
+            small.getPixels(pixels, 0, width, 0, 0, width, height);
+            small.recycle();
+            angle = Deskew.estimateAngle(pixels, width, height);
+            if (i >= 0) {
+                nanos[i] = SystemClock.elapsedRealtimeNanos() - start;
+            }
+        }
+        photo.recycle();
+
+        assertEquals(TEXT_SKEW_DEGREES, angle, 0.2);
+        Log.i(TAG, "skew " + angle + " of " + PHOTO_WIDTH + "x" + PHOTO_HEIGHT + ": " + report(nanos));
+    }
+
+    private static long[] timeWarp(int[] region, int regionWidth, int regionHeight, Quad quad,
+                                   int[] output, int outputWidth, int outputHeight, ForkJoinPool pool) {
+        long[] nanos = new long[WARP_RUNS];
+        for (int i = -WARP_WARMUP_RUNS; i < WARP_RUNS; i++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            PerspectiveWarp.warp(region, regionWidth, regionHeight, quad, output, outputWidth, outputHeight, pool);
+            if (i >= 0) {
+                nanos[i] = SystemClock.elapsedRealtimeNanos() - start;
+            }
+        }
+        return nanos;
+    }
+
+    private static String report(long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return String.format("p50=%.1f ms p90=%.1f ms",
+                sorted[sorted.length / 2] / 1e6,
+                sorted[sorted.length * 90 / 100] / 1e6);
+    }
+
+    /**
+     * A tilted page with rows of text on a dark table
+     */
+    private static Bitmap photo() {
+        Bitmap bitmap = Bitmap.createBitmap(PHOTO_WIDTH, PHOTO_HEIGHT, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        canvas.drawColor(Color.rgb(74, 60, 48));
+
+        Path outline = new Path();
+        outline.moveTo(PAGE.getX(Quad.TOP_LEFT), PAGE.getY(Quad.TOP_LEFT));
+        for (int corner = Quad.TOP_RIGHT; corner <= Quad.BOTTOM_LEFT; corner++) {
+            outline.lineTo(PAGE.getX(corner), PAGE.getY(corner));
+        }
+        outline.close();
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(Color.rgb(240, 238, 230));
+        canvas.drawPath(outline, paint);
+
+        canvas.save();
+        canvas.clipPath(outline);
+        paint.setColor(Color.DKGRAY);
+        for (int y = 900; y < 3200; y += 90) {
+            canvas.drawRect(700, y, 2400, y + 30, paint);
+        }
+        canvas.restore();
+        return bitmap;
+    }
+
+    /**
+     * A whole page of text rows, turned clockwise by {@link #TEXT_SKEW_DEGREES}
+     */
+    private static Bitmap skewedText() {
+        Bitmap bitmap = Bitmap.createBitmap(PHOTO_WIDTH, PHOTO_HEIGHT, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        canvas.drawColor(Color.rgb(240, 238, 230));
+        canvas.rotate(TEXT_SKEW_DEGREES, PHOTO_WIDTH / 2f, PHOTO_HEIGHT / 2f);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(Color.DKGRAY);
+        for (int y = 400; y < PHOTO_HEIGHT - 400; y += 90) {
+            for (int x = 300; x < PHOTO_WIDTH - 300; x += 160) {
+                canvas.drawRect(x, y, x + 120, y + 30, paint);
+            }
+        }
+        return bitmap;
+    }
+}
@@ -0,0 +1,111 @@
+package com.quang.escan.image;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Times each stage of the document filter on a 12 MP page on the device,
+ * on one thread and on the common pool. Results are written to logcat under
+ * this class name.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DocumentFilterBenchmark {
+    private static final String TAG = "DocumentFilterBenchmark";
+
+    private static final int WARMUP_RUNS = 2;
+    private static final int RUNS = 10;
+
+    private static final int PHOTO_WIDTH = 3000;
+    private static final int PHOTO_HEIGHT = 4000;
+
+    /**
+     * One stage of the filter, run over the shared buffers
+     */
+    private interface Stage {
+        void run(ForkJoinPool pool);
+    }
+
+    @Test
+    public void stages() {
+        int[] page = page();
+        int[] pixels = new int[page.length];
+        int radius = DocumentFilter.windowRadius(PHOTO_WIDTH, PHOTO_HEIGHT);
+        byte[][] gray = {DocumentFilter.toGray(page, PHOTO_WIDTH, PHOTO_HEIGHT, ForkJoinPool.commonPool())};
+        byte[] stretched = gray[0].clone();
+        DocumentFilter.stretchContrast(stretched, PHOTO_WIDTH, PHOTO_HEIGHT, ForkJoinPool.commonPool());
+
+        String[] names = {"gray", "contrast stretch", "sauvola", "wolf", "gray to ARGB", "apply(SAUVOLA, stretch)"};
+        Stage[] stages = {
+                pool -> gray[0] = DocumentFilter.toGray(page, PHOTO_WIDTH, PHOTO_HEIGHT, pool),
+                // Stretching an already stretched image does the same work
+                pool -> DocumentFilter.stretchContrast(gray[0], PHOTO_WIDTH, PHOTO_HEIGHT, pool),
+                pool -> DocumentFilter.binarize(stretched, pixels, PHOTO_WIDTH, PHOTO_HEIGHT, radius,
+                        DocumentFilter.Mode.SAUVOLA, pool),
+                pool -> DocumentFilter.binarize(stretched, pixels, PHOTO_WIDTH, PHOTO_HEIGHT, radius,
+                        DocumentFilter.Mode.WOLF, pool),
+                pool -> DocumentFilter.toArgb(stretched, pixels, PHOTO_WIDTH, PHOTO_HEIGHT, pool),
+                pool -> {
+                    System.arraycopy(page, 0, pixels, 0, page.length);
+                    DocumentFilter.apply(pixels, PHOTO_WIDTH, PHOTO_HEIGHT, DocumentFilter.Mode.SAUVOLA, true, pool);
+                }
+        };
+
+        StringBuilder summary = new StringBuilder(PHOTO_WIDTH + "x" + PHOTO_HEIGHT + ", window radius " + radius);
+        ForkJoinPool single = new ForkJoinPool(1);
+        try {
+            for (int i = 0; i < stages.length; i++) {
+                summary.append("\n  ").append(names[i])
+                        .append(", 1 thread: ").append(report(time(stages[i], single)))
+                        .append(", ").append(ForkJoinPool.commonPool().getParallelism()).append(" threads: ")
+                        .append(report(time(stages[i], ForkJoinPool.commonPool())));
+            }
+        } finally {
+            single.shutdown();
+        }
+        Log.i(TAG, summary.toString());
+    }
+
+    private static long[] time(Stage stage, ForkJoinPool pool) {
+        long[] nanos = new long[RUNS];
+        for (int i = -WARMUP_RUNS; i < RUNS; i++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            stage.run(pool);
+            if (i >= 0) {
+                nanos[i] = SystemClock.elapsedRealtimeNanos() - start;
+            }
+        }
+        return nanos;
+    }
+
+    private static String report(long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return String.format("p50=%.1f ms p90=%.1f ms",
+                sorted[sorted.length / 2] / 1e6,
+                sorted[sorted.length * 90 / 100] / 1e6);
+    }
+
+    /**
+     * A page of text rows under a shadow that deepens to the right
+     */
+    private static int[] page() {
+        int[] pixels = new int[PHOTO_WIDTH * PHOTO_HEIGHT];
+        for (int y = 0; y < PHOTO_HEIGHT; y++) {
+            for (int x = 0; x < PHOTO_WIDTH; x++) {
+                int paper = 235 - 130 * x / PHOTO_WIDTH;
+                boolean ink = y % 90 >= 40 && y % 90 < 70 && x % 60 < 40 && x > 200 && x < PHOTO_WIDTH - 200;
+                int level = ink ? paper - 80 : paper;
+                pixels[y * PHOTO_WIDTH + x] = 0xFF000000 | level * 0x010101;
+            }
+        }
+        return pixels;
+    }
+}
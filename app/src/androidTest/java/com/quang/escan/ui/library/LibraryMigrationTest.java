@@ -0,0 +1,192 @@
+package com.quang.escan.ui.library;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.quang.escan.model.DocumentSummary;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Upgrades a seeded version 1 database and checks that no data is lost,
+ * timestamps are backfilled, and list queries use the new indexes.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LibraryMigrationTest {
+
+    private static final int SEEDED_ROWS = 100_000;
+    private static final String[] CATEGORIES = {"Personal", "Work", "School", "Others"};
+
+    private Context context;
+    private File databaseFile;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        databaseFile = context.getDatabasePath(LibraryRepository.DATABASE_NAME);
+        context.deleteDatabase(LibraryRepository.DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(LibraryRepository.DATABASE_NAME);
+    }
+
+    @Test
+    public void upgradeFromVersion1_keepsRowsAndBackfillsTimestamps() throws Exception {
+        seedVersion1Database();
+
+        LibraryRepository repository = new LibraryRepository(context);
+        List<DocumentSummary> recent = repository.getRecentDocumentSummaries(10);
+        assertEquals(10, recent.size());
+
+        try (SQLiteDatabase db = openRaw()) {
+            assertEquals(7, db.getVersion());
+            assertEquals(SEEDED_ROWS, count(db, "SELECT COUNT(*) FROM documents"));
+            assertEquals(0, count(db, "SELECT COUNT(*) FROM documents WHERE created_at IS NULL"));
+            assertFalse(MigrationRunner.hasPendingBackfills(db));
+
+            // Backfilled values must match the legacy text column exactly
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+            try (Cursor cursor = db.rawQuery(
+                    "SELECT creation_date, created_at FROM documents ORDER BY id LIMIT 100", null)) {
+                while (cursor.moveToNext()) {
+                    assertEquals(format.parse(cursor.getString(0)).getTime(), cursor.getLong(1));
+                }
+            }
+        }
+
+        // Newest document first
+        assertEquals(SEEDED_ROWS, recent.get(0).getId());
+    }
+
+    @Test
+    public void interruptedBackfill_resumesOnNextOpen() {
+        seedVersion1Database();
+
+        // Apply the schema and a single backfill batch, as if the process died mid-backfill
+        try (SQLiteDatabase db = openRaw()) {
+            MigrationRunner runner = new MigrationRunner(DatabaseMigrations.all(), 1_000);
+            db.beginTransaction();
+            try {
+                runner.upgrade(db, 1, 3);
+                db.setVersion(3);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+
+            db.beginTransaction();
+            try {
+                new DatabaseMigrations.EpochTimestampMigration().backfillBatch(db, 1_000);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+
+            assertEquals(SEEDED_ROWS - 1_000,
+                    count(db, "SELECT COUNT(*) FROM documents WHERE created_at IS NULL"));
+            assertTrue(MigrationRunner.hasPendingBackfills(db));
+        }
+
+        // Opening through the repository finishes the remaining rows
+        new LibraryRepository(context).getRecentDocumentSummaries(1);
+
+        try (SQLiteDatabase db = openRaw()) {
+            assertEquals(0, count(db, "SELECT COUNT(*) FROM documents WHERE created_at IS NULL"));
+            assertFalse(MigrationRunner.hasPendingBackfills(db));
+        }
+    }
+
+    @Test
+    public void categoryQuery_usesCompositeIndexWithoutSorting() {
+        seedVersion1Database();
+        new LibraryRepository(context).getRecentDocumentSummaries(1);
+
+        try (SQLiteDatabase db = openRaw();
+             Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN SELECT id FROM documents " +
+                     "WHERE category = ? ORDER BY created_at DESC, id DESC LIMIT 30",
+                     new String[]{"Work"})) {
+            StringBuilder plan = new StringBuilder();
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(cursor.getColumnCount() - 1)).append('\n');
+            }
+
+            assertTrue(plan.toString(), plan.toString().contains(DatabaseMigrations.INDEX_CATEGORY_CREATED_AT));
+            assertFalse(plan.toString(), plan.toString().contains("TEMP B-TREE"));
+        }
+    }
+
+    @Test
+    public void upgradeFromVersion1_indexesExistingRowsForSearch() {
+        seedVersion1Database();
+
+        LibraryRepository repository = new LibraryRepository(context);
+        assertEquals(1, repository.searchDocuments("document99999", 10, 0).size());
+    }
+
+    /**
+     * Create the original version 1 schema and fill it with test rows
+     */
+    private void seedVersion1Database() {
+        databaseFile.getParentFile().mkdirs();
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+        long baseTime = 1_600_000_000_000L;
+
+        try (SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(databaseFile, null)) {
+            db.execSQL("CREATE TABLE documents (" +
+                    "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                    "file_name TEXT NOT NULL, " +
+                    "category TEXT NOT NULL, " +
+                    "extracted_text TEXT, " +
+                    "image_path TEXT, " +
+                    "creation_date TEXT NOT NULL);");
+
+            db.beginTransaction();
+            try (SQLiteStatement insert = db.compileStatement("INSERT INTO documents " +
+                    "(file_name, category, extracted_text, image_path, creation_date) VALUES (?, ?, ?, ?, ?)")) {
+                for (int i = 1; i <= SEEDED_ROWS; i++) {
+                    insert.bindString(1, "Text_" + i);
+                    insert.bindString(2, CATEGORIES[i % CATEGORIES.length]);
+                    insert.bindString(3, "Extracted text of document" + i);
+                    insert.bindNull(4);
+                    insert.bindString(5, format.format(new Date(baseTime + i * 60_000L)));
+                    insert.executeInsert();
+                    insert.clearBindings();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+
+            db.setVersion(1);
+        }
+    }
+
+    private SQLiteDatabase openRaw() {
+        return SQLiteDatabase.openDatabase(databaseFile.getPath(), null, SQLiteDatabase.OPEN_READWRITE);
+    }
+
+    private static long count(SQLiteDatabase db, String sql) {
+        try (Cursor cursor = db.rawQuery(sql, null)) {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.quang.escan.ui.library;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.FrameMetrics;
+import android.view.Window;
+
+import androidx.navigation.Navigation;
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.quang.escan.MainActivity;
+import com.quang.escan.R;
+import com.quang.escan.image.BitmapCache;
+import com.quang.escan.image.ThumbnailStore;
+import com.quang.escan.model.ExtractedDocument;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Flings the library grid over 1,000 documents with thumbnails and records
+ * a histogram of frame times from FrameMetrics. Results are written to
+ * logcat under this class name.
+ *
+ * Only public app APIs are used, so the same test can be run on an older
+ * revision to compare synchronous and asynchronous image binding.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LibraryScrollJankBenchmark {
+    private static final String TAG = "LibraryScrollJankBenchmark";
+
+    private static final int DOCUMENTS = 1_000;
+    private static final int SAVE_BATCH = 200;
+    private static final int FLINGS = 12;
+    private static final int FLING_VELOCITY = 15_000;
+    private static final long FLING_SETTLE_MS = 1_500;
+
+    // Upper bounds of the histogram buckets, in milliseconds
+    private static final double[] BUCKETS_MS = {8.3, 16.7, 33.3, 50, 100, Double.MAX_VALUE};
+
+    private Context context;
+    private LibraryRepository repository;
+    private long[] seededIds;
+    private final List<File> seededImages = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        // The app's own instance, so the screen under test sees the seeded rows
+        repository = LibraryRepository.getInstance(context);
+        ThumbnailStore thumbnails = ThumbnailStore.getInstance(context);
+
+        File directory = new File(context.getExternalFilesDir(null), "scans");
+        assertTrue(directory.isDirectory() || directory.mkdirs());
+
+        List<Long> ids = new ArrayList<>(DOCUMENTS);
+        for (int saved = 0; saved < DOCUMENTS; saved += SAVE_BATCH) {
+            List<ExtractedDocument> batch = new ArrayList<>(SAVE_BATCH);
+            for (int i = saved; i < saved + SAVE_BATCH; i++) {
+                File image = writeScan(directory, i);
+                seededImages.add(image);
+
+                ExtractedDocument document = new ExtractedDocument();
+                document.setFileName("Jank_" + i);
+                document.setCategory("Work");
+                document.setExtractedText("Benchmark document " + i);
+                document.setImagePath(image.getAbsolutePath());
+                document.setThumbnailKey(thumbnails.createThumbnails(image));
+                document.setBlurHash(thumbnails.createBlurHash(document.getThumbnailKey()));
+                document.setCreationDate(new Date(System.currentTimeMillis() - i * 1_000L));
+                batch.add(document);
+            }
+            for (long id : repository.saveDocuments(batch)) {
+                ids.add(id);
+            }
+        }
+
+        seededIds = new long[ids.size()];
+        for (int i = 0; i < seededIds.length; i++) {
+            seededIds[i] = ids.get(i);
+        }
+
+        // Start cold, like the first scroll after launching the app
+        BitmapCache.getInstance().trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    }
+
+    @After
+    public void tearDown() {
+        if (seededIds != null) {
+            repository.deleteDocuments(seededIds);
+        }
+        for (File image : seededImages) {
+            image.delete();
+        }
+    }
+
+    @Test
+    public void flingLibraryGrid() {
+        List<Long> frameNanos = new ArrayList<>();
+        HandlerThread metricsThread = new HandlerThread("frame-metrics");
+        metricsThread.start();
+        Window.OnFrameMetricsAvailableListener listener = (window, metrics, dropped) -> {
+            synchronized (frameNanos) {
+                frameNanos.add(metrics.getMetric(FrameMetrics.TOTAL_DURATION));
+            }
+        };
+
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(MainActivity.class)) {
+            scenario.onActivity(activity -> Navigation.findNavController(activity, R.id.nav_host_fragment)
+                    .navigate(R.id.navigation_library));
+            InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+            SystemClock.sleep(FLING_SETTLE_MS);
+
+            scenario.onActivity(activity -> activity.getWindow()
+                    .addOnFrameMetricsAvailableListener(listener, new Handler(metricsThread.getLooper())));
+
+            // Down through the whole library, then back up
+            for (int i = 0; i < FLINGS; i++) {
+                int velocity = i < FLINGS * 3 / 4 ? FLING_VELOCITY : -FLING_VELOCITY;
+                scenario.onActivity(activity -> {
+                    RecyclerView recyclerView = activity.findViewById(R.id.recycler_documents);
+                    recyclerView.fling(0, velocity);
+                });
+                SystemClock.sleep(FLING_SETTLE_MS);
+            }
+
+            scenario.onActivity(activity -> activity.getWindow().removeOnFrameMetricsAvailableListener(listener));
+        } finally {
+            metricsThread.quitSafely();
+        }
+
+        long[] frames;
+        synchronized (frameNanos) {
+            frames = new long[frameNanos.size()];
+            for (int i = 0; i < frames.length; i++) {
+                frames[i] = frameNanos.get(i);
+            }
+        }
+        assertTrue("No frames were rendered", frames.length > 0);
+        Log.i(TAG, report(frames));
+    }
+
+    private static String report(long[] frameNanos) {
+        long[] sorted = frameNanos.clone();
+        Arrays.sort(sorted);
+
+        int[] counts = new int[BUCKETS_MS.length];
+        int janky = 0;
+        for (long nanos : sorted) {
+            double millis = nanos / 1e6;
+            int bucket = 0;
+            while (millis >= BUCKETS_MS[bucket]) {
+                bucket++;
+            }
+            counts[bucket]++;
+            if (millis >= BUCKETS_MS[1]) {
+                janky++;
+            }
+        }
+
+        StringBuilder report = new StringBuilder()
+                .append(sorted.length).append(" frames, ")
+                .append(String.format("%.1f", 100.0 * janky / sorted.length)).append("% over 16.7 ms, ")
+                .append("p50=").append(percentileMs(sorted, 50))
+                .append(" p90=").append(percentileMs(sorted, 90))
+                .append(" p99=").append(percentileMs(sorted, 99)).append(" ms\n");
+        double lower = 0;
+        for (int i = 0; i < BUCKETS_MS.length; i++) {
+            String upper = BUCKETS_MS[i] == Double.MAX_VALUE ? "inf" : String.valueOf(BUCKETS_MS[i]);
+            report.append(String.format("  [%5.1f, %5s) ms: %d%n", lower, upper, counts[i]));
+            lower = BUCKETS_MS[i];
+        }
+        return report.toString();
+    }
+
+    private static String percentileMs(long[] sorted, int percentile) {
+        int index = Math.min(sorted.length - 1, sorted.length * percentile / 100);
+        return String.format("%.1f", sorted[index] / 1e6);
+    }
+
+    /**
+     * Write a page-sized JPEG that differs per document, so every thumbnail is distinct
+     */
+    private static File writeScan(File directory, int index) throws IOException {
+        Bitmap bitmap = Bitmap.createBitmap(1240, 1754, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        canvas.drawColor(Color.HSVToColor(new float[]{index * 37 % 360, 0.15f, 1f}));
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setTextSize(48);
+        for (int line = 0; line < 30; line++) {
+            canvas.drawText("Document " + index + " line " + line, 80, 120 + line * 52, paint);
+        }
+
+        File file = new File(directory, "jank_benchmark_" + index + ".jpg");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        } finally {
+            bitmap.recycle();
+        }
+        return file;
+    }
+}
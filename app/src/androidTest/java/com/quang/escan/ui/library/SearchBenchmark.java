@@ -0,0 +1,120 @@
+package com.quang.escan.ui.library;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.quang.escan.model.DocumentSearchResult;
+import com.quang.escan.model.ExtractedDocument;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Times searches over 10k documents for a term in nearly every document,
+ * the same term typed as a prefix, and a rare term. Every match is ranked,
+ * so the common term is the worst case. Results are written to logcat under
+ * this class name.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SearchBenchmark {
+    private static final String TAG = "SearchBenchmark";
+
+    private static final int DOCUMENTS = 10_000;
+    private static final int SAVE_BATCH = 500;
+    private static final int WARMUP_RUNS = 5;
+    private static final int RUNS = 50;
+    // One page of results, as the search screen asks for
+    private static final int PAGE = 20;
+    // Roughly one page of OCR output
+    private static final int WORDS_PER_DOCUMENT = 400;
+    // In one document out of this many
+    private static final int RARE_TERM_EVERY = 500;
+
+    private static final String[] VOCABULARY = (
+            "the of and to in a is that for it as was with be by on not he this are or his from at which " +
+            "but have an they you were her she there been one all we their has would when if so no will " +
+            "invoice total amount date page account payment customer address number order tax receipt " +
+            "section chapter report summary table figure student lecture meeting agenda signature").split(" ");
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(LibraryRepository.DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(LibraryRepository.DATABASE_NAME);
+    }
+
+    @Test
+    public void searchLatencyAt10kDocuments() {
+        LibraryRepository repository = new LibraryRepository(context);
+        Random random = new Random(42);
+        for (int saved = 0; saved < DOCUMENTS; saved += SAVE_BATCH) {
+            List<ExtractedDocument> batch = new ArrayList<>(SAVE_BATCH);
+            for (int i = 0; i < SAVE_BATCH; i++) {
+                batch.add(newDocument(random, saved + i));
+            }
+            repository.saveDocuments(batch);
+        }
+        repository.runMaintenance();
+
+        Log.i(TAG, "common term:   " + time(repository, "invoice", PAGE));
+        Log.i(TAG, "common prefix: " + time(repository, "inv", PAGE));
+        Log.i(TAG, "two terms:     " + time(repository, "payment tax", PAGE));
+        Log.i(TAG, "rare term:     " + time(repository, "zyxwvut", DOCUMENTS / RARE_TERM_EVERY));
+    }
+
+    /**
+     * @param expected Results the query must return, so a broken index cannot look fast
+     */
+    private static String time(LibraryRepository repository, String query, int expected) {
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            repository.searchDocuments(query, PAGE, 0);
+        }
+
+        long[] latencies = new long[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            List<DocumentSearchResult> results = repository.searchDocuments(query, PAGE, 0);
+            latencies[i] = System.nanoTime() - start;
+            assertEquals(query, expected, results.size());
+        }
+        Arrays.sort(latencies);
+        return "median=" + latencies[RUNS / 2] / 1_000 + " us, p95=" + latencies[RUNS * 95 / 100] / 1_000 + " us";
+    }
+
+    private static ExtractedDocument newDocument(Random random, int index) {
+        StringBuilder text = new StringBuilder(WORDS_PER_DOCUMENT * 6);
+        for (int word = 0; word < WORDS_PER_DOCUMENT; word++) {
+            text.append(VOCABULARY[random.nextInt(VOCABULARY.length)]);
+            text.append(word % 12 == 11 ? '\n' : ' ');
+        }
+        if (index % RARE_TERM_EVERY == 0) {
+            text.append("zyxwvut");
+        }
+
+        ExtractedDocument document = new ExtractedDocument();
+        document.setFileName("Scan_" + index);
+        document.setCategory("Work");
+        document.setExtractedText(text.toString());
+        document.setCreationDate(new Date(1_600_000_000_000L + index * 60_000L));
+        return document;
+    }
+}
@@ -0,0 +1,165 @@
+package com.quang.escan.ui.library;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.quang.escan.model.DocumentSearchResult;
+import com.quang.escan.model.ExtractedDocument;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares database size and text read latency for 10k multi-page documents
+ * stored plain and compressed. Results are written to logcat under this class name.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TextCompressionBenchmark {
+    private static final String TAG = "TextCompressionBenchmark";
+
+    private static final int DOCUMENTS = 10_000;
+    private static final int SAVE_BATCH = 500;
+    private static final int READS = 1_000;
+    // Roughly three pages of OCR output
+    private static final int WORDS_PER_DOCUMENT = 1_200;
+
+    private static final String[] VOCABULARY = (
+            "the of and to in a is that for it as was with be by on not he this are or his from at which " +
+            "but have an they you were her she there been one all we their has would when if so no will " +
+            "invoice total amount date page account payment customer address number order tax receipt " +
+            "section chapter report summary table figure student lecture meeting agenda signature").split(" ");
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(LibraryRepository.DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(LibraryRepository.DATABASE_NAME);
+    }
+
+    @Test
+    public void compareSizeAndReadLatency() {
+        DatabaseConfig defaults = DatabaseConfig.DEFAULT;
+        DatabaseConfig uncompressed = new DatabaseConfig(
+                defaults.getPageSizeBytes(),
+                defaults.getCacheSizeKb(),
+                defaults.getMmapSizeBytes(),
+                defaults.getStatementCacheSize(),
+                defaults.getWritesBetweenMaintenance(),
+                Integer.MAX_VALUE);
+
+        Result plain = run(uncompressed);
+        Result compressed = run(defaults);
+
+        Log.i(TAG, "plain:      " + plain);
+        Log.i(TAG, "compressed: " + compressed);
+
+        assertTrue(compressed.fileBytes < plain.fileBytes);
+    }
+
+    @Test
+    public void compressedRows_staySearchableAndDeletable() {
+        LibraryRepository repository = new LibraryRepository(context);
+        Random random = new Random(7);
+        ExtractedDocument document = newDocument(random, 0);
+        document.setExtractedText(document.getExtractedText() + " zyxwvut");
+        long id = repository.saveDocument(document);
+
+        assertEquals(document.getExtractedText(), repository.getExtractedText(id));
+
+        List<DocumentSearchResult> results = repository.searchDocuments("zyxwv", 10, 0);
+        assertEquals(1, results.size());
+        assertTrue(results.get(0).getSnippet().contains("<b>zyxwvut</b>"));
+
+        // Removing a compressed row must also remove its index entries
+        assertTrue(repository.deleteDocument(id));
+        assertTrue(repository.searchDocuments("zyxwvut", 10, 0).isEmpty());
+    }
+
+    private Result run(DatabaseConfig config) {
+        context.deleteDatabase(LibraryRepository.DATABASE_NAME);
+        LibraryRepository repository = new LibraryRepository(context, config);
+        Random random = new Random(42);
+
+        List<Long> ids = new ArrayList<>(DOCUMENTS);
+        for (int saved = 0; saved < DOCUMENTS; saved += SAVE_BATCH) {
+            List<ExtractedDocument> batch = new ArrayList<>(SAVE_BATCH);
+            for (int i = 0; i < SAVE_BATCH; i++) {
+                batch.add(newDocument(random, saved + i));
+            }
+            for (long id : repository.saveDocuments(batch)) {
+                ids.add(id);
+            }
+        }
+        repository.runMaintenance();
+
+        Result result = new Result();
+        File databaseFile = context.getDatabasePath(LibraryRepository.DATABASE_NAME);
+        result.fileBytes = databaseFile.length()
+                + new File(databaseFile.getPath() + "-wal").length();
+
+        // Distinct ids, so every read misses the document cache and goes to SQLite
+        long[] latencies = new long[READS];
+        for (int i = 0; i < READS; i++) {
+            long id = ids.remove(random.nextInt(ids.size()));
+            long start = System.nanoTime();
+            String text = repository.getExtractedText(id);
+            latencies[i] = System.nanoTime() - start;
+            assertNotNull(text);
+        }
+        Arrays.sort(latencies);
+        result.medianMicros = latencies[READS / 2] / 1_000;
+        result.p95Micros = latencies[READS * 95 / 100] / 1_000;
+        return result;
+    }
+
+    private static ExtractedDocument newDocument(Random random, int index) {
+        StringBuilder text = new StringBuilder(WORDS_PER_DOCUMENT * 6);
+        for (int word = 0; word < WORDS_PER_DOCUMENT; word++) {
+            text.append(VOCABULARY[random.nextInt(VOCABULARY.length)]);
+            // Numbers are what OCR of real documents is full of, and they compress worse
+            if (random.nextInt(10) == 0) {
+                text.append(' ').append(random.nextInt(100_000));
+            }
+            text.append(word % 12 == 11 ? '\n' : ' ');
+        }
+
+        ExtractedDocument document = new ExtractedDocument();
+        document.setFileName("Scan_" + index);
+        document.setCategory("Work");
+        document.setExtractedText(text.toString());
+        document.setCreationDate(new Date(1_600_000_000_000L + index * 60_000L));
+        return document;
+    }
+
+    private static class Result {
+        long fileBytes;
+        long medianMicros;
+        long p95Micros;
+
+        @Override
+        public String toString() {
+            return "size=" + fileBytes / 1024 + " KiB, read median=" + medianMicros +
+                    " us, p95=" + p95Micros + " us";
+        }
+    }
+}
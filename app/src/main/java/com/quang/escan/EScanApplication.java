@@ -5,6 +5,10 @@ import android.util.Log;
 
 import com.google.firebase.FirebaseApp;
 import com.google.firebase.auth.FirebaseAuth;
+import com.quang.escan.image.BitmapCache;
+import com.quang.escan.image.BitmapPool;
+import com.quang.escan.image.ThumbnailStore;
+import com.quang.escan.ui.library.AsyncLibraryRepository;
 import com.quang.escan.utils.ThemeUtils;
 
 /**
@@ -23,8 +27,28 @@ public class EScanApplication extends Application {
         
         // Initialize Firebase
         initializeFirebase();
+        
+        // Compress text saved before compression existed; a no-op once done
+        AsyncLibraryRepository.getInstance(this).recompressTexts();
+
+        // Render images of edited documents again when rendering changed, then
+        // thumbnail those and documents saved before the thumbnail store existed
+        AsyncLibraryRepository.getInstance(this).renderEditedImages(ThumbnailStore.getInstance(this));
     }
     
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+
+        // The app just went to the background: a good moment for database upkeep
+        if (level == TRIM_MEMORY_UI_HIDDEN) {
+            AsyncLibraryRepository.getInstance(this).runMaintenance();
+        }
+
+        BitmapCache.getInstance().trimMemory(level);
+        BitmapPool.getInstance().trimMemory(level);
+    }
+
     /**
      * Initialize Firebase SDK
      */
@@ -0,0 +1,192 @@
+package com.quang.escan.image;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * App-wide LRU cache of decoded bitmaps, shared by every list and preview screen.
+ *
+ * Entries are keyed by source plus the size they were decoded for, and
+ * weighed by their real allocation, so the cache holds a fixed fraction of
+ * the heap no matter how large the individual images are. Cached bitmaps
+ * may be on screen in several places at once: callers must never recycle
+ * or modify them.
+ */
+public class BitmapCache {
+    private static final String TAG = "BitmapCache";
+
+    // Share of the app's maximum heap given to decoded bitmaps
+    private static final int HEAP_FRACTION = 8;
+
+    private static volatile BitmapCache instance;
+
+    private final LruCache<Key, Bitmap> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Get singleton instance of BitmapCache
+     */
+    public static BitmapCache getInstance() {
+        if (instance == null) {
+            synchronized (BitmapCache.class) {
+                if (instance == null) {
+                    instance = new BitmapCache((int) Math.min(Integer.MAX_VALUE,
+                            Runtime.getRuntime().maxMemory() / HEAP_FRACTION));
+                }
+            }
+        }
+        return instance;
+    }
+
+    BitmapCache(int maxBytes) {
+        entries = new LruCache<Key, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(Key key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+        };
+    }
+
+    /**
+     * @param source A file path or URI string
+     * @param targetSizePx The size the bitmap was decoded for, usually its longest edge
+     * @return The cached bitmap, or null on a miss
+     */
+    public Bitmap get(String source, int targetSizePx) {
+        Bitmap bitmap = entries.get(new Key(source, targetSizePx));
+        if (bitmap == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return bitmap;
+    }
+
+    /**
+     * Check for an entry without counting a hit or miss, for prefetching
+     */
+    public boolean contains(String source, int targetSizePx) {
+        return entries.get(new Key(source, targetSizePx)) != null;
+    }
+
+    public void put(String source, int targetSizePx, Bitmap bitmap) {
+        entries.put(new Key(source, targetSizePx), bitmap);
+    }
+
+    /**
+     * Get a file decoded as a preview to fit maxEdgePx, decoding and caching it on a miss.
+     * The bitmap may be hardware or RGB_565: only draw it.
+     * May block on disk; call off the main thread where possible.
+     * @return The bitmap, or null if the file cannot be decoded
+     */
+    public Bitmap getOrDecode(String path, int maxEdgePx) {
+        Bitmap bitmap = get(path, maxEdgePx);
+        if (bitmap == null) {
+            try {
+                bitmap = BitmapDecoder.decode(new File(path), maxEdgePx, maxEdgePx,
+                        BitmapDecoder.Purpose.PREVIEW);
+            } catch (IOException e) {
+                Log.e(TAG, "Error decoding " + path, e);
+                return null;
+            }
+            put(path, maxEdgePx, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Drop every size of a source whose content changed or was deleted
+     */
+    public void invalidate(String source) {
+        for (Key key : entries.snapshot().keySet()) {
+            if (key.source.equals(source)) {
+                entries.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Give memory back when the system asks for it
+     * @param level The level passed to {@link ComponentCallbacks2#onTrimMemory}
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            entries.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            // Nothing is on screen; keep half for a quick return to the app
+            entries.trimToSize(entries.maxSize() / 2);
+        }
+        Log.d(TAG, "Trimmed for level " + level + ", " + this);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return Share of lookups served from memory, between 0 and 1
+     */
+    public double getHitRate() {
+        long lookups = hits.get() + misses.get();
+        return lookups == 0 ? 0 : (double) hits.get() / lookups;
+    }
+
+    /**
+     * @return Bytes allocated by the cached bitmaps
+     */
+    public int getSizeBytes() {
+        return entries.size();
+    }
+
+    public int getMaxSizeBytes() {
+        return entries.maxSize();
+    }
+
+    @Override
+    public String toString() {
+        return "BitmapCache{" +
+                "hits=" + hits + "/" + (hits.get() + misses.get()) +
+                ", bytes=" + entries.size() + "/" + entries.maxSize() +
+                ", entries=" + entries.snapshot().size() +
+                '}';
+    }
+
+    /**
+     * Identifies one decoded size of one source
+     */
+    private static final class Key {
+        final String source;
+        final int targetSizePx;
+
+        Key(String source, int targetSizePx) {
+            this.source = source;
+            this.targetSizePx = targetSizePx;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return targetSizePx == other.targetSizePx && source.equals(other.source);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(source, targetSizePx);
+        }
+    }
+}
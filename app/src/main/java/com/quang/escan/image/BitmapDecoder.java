@@ -0,0 +1,156 @@
+package com.quang.escan.image;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.ImageDecoder;
+import android.net.Uri;
+import android.util.DisplayMetrics;
+import android.util.Size;
+import android.view.View;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Decodes images at the size they are needed, never larger.
+ *
+ * Every decode goes through {@link ImageDecoder} with a target size chosen
+ * from the caller's box and {@link Purpose}, so the full-resolution bitmap
+ * is never allocated. ImageDecoder applies the EXIF orientation itself and
+ * reports sizes after rotation, so boxes are in upright pixels. On top of
+ * the box a pixel-count guard applies: a 50 MP photo comes out at most
+ * {@link #MAX_PIXELS} pixels whatever the caller asks for.
+ *
+ * Surfaces that only show an image decode with {@link Purpose#PREVIEW}: a
+ * hardware bitmap, and 16 bits per pixel for opaque images. Anything that
+ * reads or draws into the pixels decodes again with a software purpose.
+ */
+public class BitmapDecoder {
+
+    /**
+     * Upper bound on decoded pixels for any purpose: 64 MB as ARGB_8888
+     */
+    public static final long MAX_PIXELS = 16_000_000L;
+
+    /**
+     * What the bitmap is for; sets the default size and how it is allocated
+     */
+    public enum Purpose {
+        // On-screen only; may be a hardware bitmap. Defaults to the screen size.
+        DISPLAY(0, false, false, false),
+        // Thumbnails and previews; like DISPLAY, but opaque images may come
+        // out as RGB_565, half the memory of ARGB_8888
+        PREVIEW(0, false, false, true),
+        // Text recognition; dense enough for small print without the full photo
+        OCR(2560, true, false, false),
+        // Saved, edited or shared; pixels must be readable, and mutable so
+        // that BitmapPool can reuse the bitmap once the edit is done
+        EXPORT(4096, true, true, false);
+
+        private final int defaultMaxEdgePx;
+        private final boolean software;
+        private final boolean mutable;
+        private final boolean reducedPrecision;
+
+        Purpose(int defaultMaxEdgePx, boolean software, boolean mutable, boolean reducedPrecision) {
+            this.defaultMaxEdgePx = defaultMaxEdgePx;
+            this.software = software;
+            this.mutable = mutable;
+            this.reducedPrecision = reducedPrecision;
+        }
+    }
+
+    private BitmapDecoder() {
+        // Utility class
+    }
+
+    /**
+     * Decode for a purpose at its default size
+     */
+    public static Bitmap decode(Context context, Uri uri, Purpose purpose) throws IOException {
+        int edge = defaultEdgePx(context, purpose);
+        return decode(context, uri, edge, edge, purpose);
+    }
+
+    /**
+     * Decode to fit the current or expected size of a view
+     */
+    public static Bitmap decode(Context context, Uri uri, View target, Purpose purpose) throws IOException {
+        int edge = targetEdgePx(target);
+        return decode(context, uri, edge, edge, purpose);
+    }
+
+    /**
+     * Decode to fit inside a box, keeping the aspect ratio
+     * @param maxWidthPx Maximum width of the upright image
+     * @param maxHeightPx Maximum height of the upright image
+     */
+    public static Bitmap decode(Context context, Uri uri, int maxWidthPx, int maxHeightPx,
+                                Purpose purpose) throws IOException {
+        return decode(ImageDecoder.createSource(context.getContentResolver(), uri),
+                maxWidthPx, maxHeightPx, purpose);
+    }
+
+    public static Bitmap decode(Context context, File file, Purpose purpose) throws IOException {
+        int edge = defaultEdgePx(context, purpose);
+        return decode(file, edge, edge, purpose);
+    }
+
+    public static Bitmap decode(File file, int maxWidthPx, int maxHeightPx, Purpose purpose) throws IOException {
+        return decode(ImageDecoder.createSource(file), maxWidthPx, maxHeightPx, purpose);
+    }
+
+    /**
+     * Compute the decoded size of an image, scaled down to fit the box and the pixel guard
+     * @return The target size; never larger than the source
+     */
+    static Size targetSize(int width, int height, int maxWidthPx, int maxHeightPx) {
+        double scale = Math.min(1.0, Math.min((double) maxWidthPx / width, (double) maxHeightPx / height));
+        double pixels = (double) width * height * scale * scale;
+        if (pixels > MAX_PIXELS) {
+            scale *= Math.sqrt(MAX_PIXELS / pixels);
+        }
+        return new Size(
+                Math.max(1, (int) Math.floor(width * scale)),
+                Math.max(1, (int) Math.floor(height * scale)));
+    }
+
+    /**
+     * @return The longest edge of the screen, in pixels
+     */
+    public static int screenEdgePx(Context context) {
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        return Math.max(metrics.widthPixels, metrics.heightPixels);
+    }
+
+    private static int defaultEdgePx(Context context, Purpose purpose) {
+        return purpose.defaultMaxEdgePx > 0 ? purpose.defaultMaxEdgePx : screenEdgePx(context);
+    }
+
+    /**
+     * The longest edge of a view; before layout, the screen it will be laid out on
+     */
+    private static int targetEdgePx(View view) {
+        int edge = Math.max(view.getWidth(), view.getHeight());
+        return edge > 0 ? edge : screenEdgePx(view.getContext());
+    }
+
+    private static Bitmap decode(ImageDecoder.Source source, int maxWidthPx, int maxHeightPx,
+                                 Purpose purpose) throws IOException {
+        return ImageDecoder.decodeBitmap(source, (decoder, info, src) -> {
+            Size size = info.getSize();
+            Size target = targetSize(size.getWidth(), size.getHeight(), maxWidthPx, maxHeightPx);
+            if (target.getWidth() != size.getWidth() || target.getHeight() != size.getHeight()) {
+                decoder.setTargetSize(target.getWidth(), target.getHeight());
+            }
+            if (purpose.software) {
+                decoder.setAllocator(ImageDecoder.ALLOCATOR_SOFTWARE);
+            }
+            decoder.setMutableRequired(purpose.mutable);
+            if (purpose.reducedPrecision) {
+                // Lets the decoder pick RGB_565 for images without alpha; banding is invisible at thumbnail size
+                decoder.setMemorySizePolicy(ImageDecoder.MEMORY_POLICY_LOW_RAM);
+            }
+        });
+    }
+}
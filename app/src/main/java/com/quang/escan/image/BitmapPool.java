@@ -0,0 +1,219 @@
+package com.quang.escan.image;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Pool of mutable bitmaps that transforms and decoders can draw into again
+ * instead of allocating a fresh full-size bitmap each time.
+ *
+ * Bitmaps are grouped by width, height and config. {@link #acquire} hands
+ * out a pooled bitmap of exactly that shape, cleared to transparent, or
+ * allocates one on a miss; {@link #release} gives a bitmap back once
+ * nothing draws or shows it any more. The pool is bounded in bytes and
+ * drops the bitmaps released longest ago first. Bitmaps that cannot be
+ * reused, such as immutable or hardware ones, are recycled on release.
+ *
+ * Bitmaps from {@link BitmapCache} are shared and must never be released here.
+ */
+public class BitmapPool {
+    private static final String TAG = "BitmapPool";
+
+    // Share of the app's maximum heap that idle pooled bitmaps may hold
+    private static final int HEAP_FRACTION = 4;
+
+    private static volatile BitmapPool instance;
+
+    private final long maxBytes;
+    private final Map<Key, ArrayDeque<Bitmap>> free = new HashMap<>();
+    // Every pooled bitmap, oldest release first
+    private final LinkedHashSet<Bitmap> releaseOrder = new LinkedHashSet<>();
+    private long sizeBytes;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Get singleton instance of BitmapPool
+     */
+    public static BitmapPool getInstance() {
+        if (instance == null) {
+            synchronized (BitmapPool.class) {
+                if (instance == null) {
+                    instance = new BitmapPool(Runtime.getRuntime().maxMemory() / HEAP_FRACTION);
+                }
+            }
+        }
+        return instance;
+    }
+
+    BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Get a mutable, transparent bitmap, reusing a released one of the same shape if there is one
+     * @param config The config wanted; null or {@link Bitmap.Config#HARDWARE} mean ARGB_8888
+     */
+    public Bitmap acquire(int width, int height, Bitmap.Config config) {
+        Key key = new Key(width, height, poolableConfig(config));
+        Bitmap bitmap = null;
+        synchronized (this) {
+            ArrayDeque<Bitmap> bitmaps = free.get(key);
+            if (bitmaps != null && !bitmaps.isEmpty()) {
+                bitmap = bitmaps.pollLast();
+                releaseOrder.remove(bitmap);
+                sizeBytes -= bitmap.getAllocationByteCount();
+                hits++;
+            } else {
+                misses++;
+            }
+        }
+
+        if (bitmap == null) {
+            return Bitmap.createBitmap(width, height, key.config);
+        }
+        bitmap.eraseColor(Color.TRANSPARENT);
+        return bitmap;
+    }
+
+    /**
+     * Give a bitmap back for reuse. The caller must not touch it afterwards.
+     * @param bitmap The bitmap to give back; null is ignored
+     */
+    public void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        if (!bitmap.isMutable() || bitmap.getConfig() != poolableConfig(bitmap.getConfig())
+                || bitmap.getAllocationByteCount() > maxBytes) {
+            bitmap.recycle();
+            return;
+        }
+
+        synchronized (this) {
+            if (!releaseOrder.add(bitmap)) {
+                Log.e(TAG, "Bitmap released twice: " + bitmap);
+                return;
+            }
+            Key key = new Key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+            ArrayDeque<Bitmap> bitmaps = free.get(key);
+            if (bitmaps == null) {
+                bitmaps = new ArrayDeque<>();
+                free.put(key, bitmaps);
+            }
+            bitmaps.addLast(bitmap);
+            sizeBytes += bitmap.getAllocationByteCount();
+            trimToSize(maxBytes);
+        }
+    }
+
+    /**
+     * Give memory back when the system asks for it
+     * @param level The level passed to {@link ComponentCallbacks2#onTrimMemory}
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            // Pooled bitmaps only help while the user is editing
+            synchronized (this) {
+                trimToSize(0);
+            }
+        }
+        Log.d(TAG, "Trimmed for level " + level + ", " + this);
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return Share of acquires served from the pool, between 0 and 1
+     */
+    public synchronized double getHitRate() {
+        long acquires = hits + misses;
+        return acquires == 0 ? 0 : (double) hits / acquires;
+    }
+
+    /**
+     * @return Bytes held by idle pooled bitmaps
+     */
+    public synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    public long getMaxSizeBytes() {
+        return maxBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BitmapPool{" +
+                "hits=" + hits + "/" + (hits + misses) +
+                ", evictions=" + evictions +
+                ", bytes=" + sizeBytes + "/" + maxBytes +
+                ", bitmaps=" + releaseOrder.size() +
+                '}';
+    }
+
+    private void trimToSize(long targetBytes) {
+        Iterator<Bitmap> oldest = releaseOrder.iterator();
+        while (sizeBytes > targetBytes && oldest.hasNext()) {
+            Bitmap bitmap = oldest.next();
+            oldest.remove();
+            free.get(new Key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig())).remove(bitmap);
+            sizeBytes -= bitmap.getAllocationByteCount();
+            evictions++;
+            bitmap.recycle();
+        }
+    }
+
+    private static Bitmap.Config poolableConfig(Bitmap.Config config) {
+        return config == null || config == Bitmap.Config.HARDWARE ? Bitmap.Config.ARGB_8888 : config;
+    }
+
+    /**
+     * Identifies bitmaps that can stand in for each other
+     */
+    private static final class Key {
+        final int width;
+        final int height;
+        final Bitmap.Config config;
+
+        Key(int width, int height, Bitmap.Config config) {
+            this.width = width;
+            this.height = height;
+            this.config = config;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return width == other.width && height == other.height && config == other.config;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(width, height, config);
+        }
+    }
+}
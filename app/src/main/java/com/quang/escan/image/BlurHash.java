@@ -0,0 +1,256 @@
+package com.quang.escan.image;
+
+/**
+ * Encoder and decoder for BlurHash, a 20 to 30 character string that
+ * describes a blurred version of an image.
+ *
+ * The image is reduced to a few DCT components in linear RGB: the average
+ * colour plus some low-frequency detail. Encoding happens once when a
+ * thumbnail is made; decoding a tiny bitmap from the stored string is cheap
+ * enough to do while a list row binds, so rows show the page's colours and
+ * layout before the real thumbnail is read from disk.
+ *
+ * Plain Java over packed ARGB pixels, with no Android types, so it is unit
+ * tested on the JVM. The format follows the reference implementation at
+ * https://github.com/woltapp/blurhash, so hashes are interchangeable.
+ */
+public final class BlurHash {
+
+    /**
+     * Components used for document thumbnails: more rows than columns, like a page
+     */
+    public static final int COMPONENTS_X = 3;
+    public static final int COMPONENTS_Y = 4;
+
+    private static final String BASE83_CHARS =
+            "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz#$%*+,-.:;=?@[]^_{|}~";
+
+    // sRGB byte to linear light; the conversion is the hot part of encoding
+    private static final double[] SRGB_TO_LINEAR = new double[256];
+
+    static {
+        for (int i = 0; i < SRGB_TO_LINEAR.length; i++) {
+            double value = i / 255.0;
+            SRGB_TO_LINEAR[i] = value <= 0.04045 ? value / 12.92 : Math.pow((value + 0.055) / 1.055, 2.4);
+        }
+    }
+
+    private BlurHash() {
+        // Utility class
+    }
+
+    /**
+     * Encode an image. Pass a small copy, such as a 32 px wide thumbnail:
+     * the cost grows with the pixel count, the result does not improve.
+     * @param pixels Packed ARGB pixels, row by row; alpha is ignored
+     * @param width Width of the image
+     * @param height Height of the image
+     * @param componentsX Horizontal components, 1 to 9
+     * @param componentsY Vertical components, 1 to 9
+     * @return The hash, 4 + 2 * componentsX * componentsY characters long
+     */
+    public static String encode(int[] pixels, int width, int height, int componentsX, int componentsY) {
+        if (componentsX < 1 || componentsX > 9 || componentsY < 1 || componentsY > 9) {
+            throw new IllegalArgumentException("Components must be between 1 and 9");
+        }
+        if (width < 1 || height < 1 || pixels.length < width * height) {
+            throw new IllegalArgumentException("Pixels do not match " + width + "x" + height);
+        }
+
+        double[][] cosX = cosines(componentsX, width);
+        double[][] cosY = cosines(componentsY, height);
+
+        // Linearise once, not once per component
+        int pixelCount = width * height;
+        double[] red = new double[pixelCount];
+        double[] green = new double[pixelCount];
+        double[] blue = new double[pixelCount];
+        for (int i = 0; i < pixelCount; i++) {
+            int pixel = pixels[i];
+            red[i] = SRGB_TO_LINEAR[(pixel >> 16) & 0xFF];
+            green[i] = SRGB_TO_LINEAR[(pixel >> 8) & 0xFF];
+            blue[i] = SRGB_TO_LINEAR[pixel & 0xFF];
+        }
+
+        double[][] factors = new double[componentsX * componentsY][3];
+        for (int j = 0; j < componentsY; j++) {
+            for (int i = 0; i < componentsX; i++) {
+                double r = 0;
+                double g = 0;
+                double b = 0;
+                for (int y = 0; y < height; y++) {
+                    double basisY = cosY[j][y];
+                    int row = y * width;
+                    for (int x = 0; x < width; x++) {
+                        double basis = cosX[i][x] * basisY;
+                        r += basis * red[row + x];
+                        g += basis * green[row + x];
+                        b += basis * blue[row + x];
+                    }
+                }
+                double scale = (i == 0 && j == 0 ? 1.0 : 2.0) / pixelCount;
+                double[] factor = factors[j * componentsX + i];
+                factor[0] = r * scale;
+                factor[1] = g * scale;
+                factor[2] = b * scale;
+            }
+        }
+
+        StringBuilder hash = new StringBuilder(4 + 2 * factors.length);
+        appendBase83(hash, (componentsX - 1) + (componentsY - 1) * 9, 1);
+
+        double maximumValue;
+        if (factors.length > 1) {
+            double actualMaximum = 0;
+            for (int k = 1; k < factors.length; k++) {
+                for (double value : factors[k]) {
+                    actualMaximum = Math.max(actualMaximum, Math.abs(value));
+                }
+            }
+            int quantisedMaximum = (int) Math.max(0, Math.min(82, Math.floor(actualMaximum * 166 - 0.5)));
+            maximumValue = (quantisedMaximum + 1) / 166.0;
+            appendBase83(hash, quantisedMaximum, 1);
+        } else {
+            maximumValue = 1;
+            appendBase83(hash, 0, 1);
+        }
+
+        double[] dc = factors[0];
+        appendBase83(hash, (linearToSrgb(dc[0]) << 16) | (linearToSrgb(dc[1]) << 8) | linearToSrgb(dc[2]), 4);
+        for (int k = 1; k < factors.length; k++) {
+            double[] ac = factors[k];
+            appendBase83(hash, quantiseAc(ac[0], maximumValue) * 19 * 19
+                    + quantiseAc(ac[1], maximumValue) * 19
+                    + quantiseAc(ac[2], maximumValue), 2);
+        }
+        return hash.toString();
+    }
+
+    /**
+     * Decode a hash into an opaque image of any size; a few dozen pixels a side is plenty
+     * @param hash A hash made by {@link #encode}
+     * @param punch Contrast boost; 1 for the encoded contrast
+     * @return Packed ARGB pixels, row by row
+     * @throws IllegalArgumentException if the hash is malformed
+     */
+    public static int[] decode(String hash, int width, int height, double punch) {
+        if (!isValid(hash)) {
+            throw new IllegalArgumentException("Invalid BlurHash: " + hash);
+        }
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("Invalid size " + width + "x" + height);
+        }
+
+        int sizeFlag = decodeBase83(hash, 0, 1);
+        int componentsX = sizeFlag % 9 + 1;
+        int componentsY = sizeFlag / 9 + 1;
+        double maximumValue = (decodeBase83(hash, 1, 2) + 1) / 166.0 * punch;
+
+        double[][] colors = new double[componentsX * componentsY][];
+        int dc = decodeBase83(hash, 2, 6);
+        colors[0] = new double[]{
+                SRGB_TO_LINEAR[(dc >> 16) & 0xFF],
+                SRGB_TO_LINEAR[(dc >> 8) & 0xFF],
+                SRGB_TO_LINEAR[dc & 0xFF]};
+        for (int k = 1; k < colors.length; k++) {
+            int ac = decodeBase83(hash, 4 + k * 2, 6 + k * 2);
+            colors[k] = new double[]{
+                    dequantiseAc(ac / (19 * 19), maximumValue),
+                    dequantiseAc((ac / 19) % 19, maximumValue),
+                    dequantiseAc(ac % 19, maximumValue)};
+        }
+
+        double[][] cosX = cosines(componentsX, width);
+        double[][] cosY = cosines(componentsY, height);
+
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double r = 0;
+                double g = 0;
+                double b = 0;
+                for (int j = 0; j < componentsY; j++) {
+                    for (int i = 0; i < componentsX; i++) {
+                        double basis = cosX[i][x] * cosY[j][y];
+                        double[] color = colors[j * componentsX + i];
+                        r += color[0] * basis;
+                        g += color[1] * basis;
+                        b += color[2] * basis;
+                    }
+                }
+                pixels[y * width + x] = 0xFF000000
+                        | (linearToSrgb(r) << 16) | (linearToSrgb(g) << 8) | linearToSrgb(b);
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * @return Whether a string has the shape of a hash: known characters and the length its size flag implies
+     */
+    public static boolean isValid(String hash) {
+        if (hash == null || hash.length() < 6) {
+            return false;
+        }
+        for (int i = 0; i < hash.length(); i++) {
+            if (BASE83_CHARS.indexOf(hash.charAt(i)) < 0) {
+                return false;
+            }
+        }
+        int sizeFlag = decodeBase83(hash, 0, 1);
+        int components = (sizeFlag % 9 + 1) * (sizeFlag / 9 + 1);
+        return hash.length() == 4 + 2 * components;
+    }
+
+    /**
+     * @return cos(pi * component * position / size) for every component and position
+     */
+    private static double[][] cosines(int components, int size) {
+        double[][] table = new double[components][size];
+        for (int component = 0; component < components; component++) {
+            for (int position = 0; position < size; position++) {
+                table[component][position] = Math.cos(Math.PI * component * position / size);
+            }
+        }
+        return table;
+    }
+
+    private static int linearToSrgb(double value) {
+        double clamped = Math.max(0, Math.min(1, value));
+        if (clamped <= 0.0031308) {
+            return (int) (clamped * 12.92 * 255 + 0.5);
+        }
+        return (int) ((1.055 * Math.pow(clamped, 1 / 2.4) - 0.055) * 255 + 0.5);
+    }
+
+    private static int quantiseAc(double value, double maximumValue) {
+        return (int) Math.max(0, Math.min(18, Math.floor(signPow(value / maximumValue, 0.5) * 9 + 9.5)));
+    }
+
+    private static double dequantiseAc(int quantised, double maximumValue) {
+        return signPow((quantised - 9) / 9.0, 2.0) * maximumValue;
+    }
+
+    private static double signPow(double value, double exponent) {
+        return Math.copySign(Math.pow(Math.abs(value), exponent), value);
+    }
+
+    private static void appendBase83(StringBuilder out, int value, int length) {
+        int divisor = 1;
+        for (int i = 1; i < length; i++) {
+            divisor *= 83;
+        }
+        for (int i = 0; i < length; i++) {
+            out.append(BASE83_CHARS.charAt((value / divisor) % 83));
+            divisor /= 83;
+        }
+    }
+
+    private static int decodeBase83(String hash, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            value = value * 83 + BASE83_CHARS.indexOf(hash.charAt(i));
+        }
+        return value;
+    }
+}
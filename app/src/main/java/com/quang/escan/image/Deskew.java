@@ -0,0 +1,198 @@
+package com.quang.escan.image;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures how far the lines of text on a page are turned from level, and
+ * folds the correction into the quad a {@link PerspectiveWarp} reads, so
+ * straightening costs no resampling pass of its own.
+ *
+ * The angle is found on a copy no larger than {@link #ESTIMATION_EDGE_PX},
+ * binarized with {@link DocumentFilter}. Ink pixels are projected across
+ * candidate line directions, coarse to fine; along the true direction the
+ * projection falls into sharp peaks for the lines and gaps between them,
+ * which makes the sum of squared differences of neighbouring bins largest.
+ * Plain Java over packed ARGB pixels, so it is unit tested on the JVM.
+ */
+public final class Deskew {
+
+    /**
+     * Longest edge of the copy the angle is measured on
+     */
+    public static final int ESTIMATION_EDGE_PX = 800;
+
+    /**
+     * Smaller angles are left alone; they are within the error of the estimate
+     */
+    public static final double MIN_CORRECTION_DEGREES = 0.2;
+
+    // Larger angles are a photo held sideways or a design, not a skewed capture
+    static final double MAX_SKEW_DEGREES = 15;
+    private static final double COARSE_STEP_DEGREES = 0.5;
+    private static final double FINE_STEP_DEGREES = 0.05;
+    // Share of ink pixels below which the page has no text to go by
+    private static final double MIN_INK_FRACTION = 0.002;
+    // Ink pixels projected at most; more are sampled evenly
+    private static final int MAX_INK_POINTS = 50_000;
+    // How much sharper than average the best projection must be to be trusted
+    private static final double MIN_SHARPNESS_GAIN = 1.2;
+    // Share of the best sharpness that still counts as the top of the peak
+    private static final double PLATEAU_SHARE = 0.97;
+
+    private static final int INK = 0xFF000000;
+
+    private Deskew() {
+        // Utility class
+    }
+
+    /**
+     * Measure the skew of the text in an image
+     * @param pixels Packed ARGB pixels, row by row, no larger than about {@link #ESTIMATION_EDGE_PX}; left unchanged
+     * @return Degrees the text lines are turned clockwise, within {@link #MAX_SKEW_DEGREES};
+     * 0 if there is no text to go by
+     */
+    public static double estimateAngle(int[] pixels, int width, int height) {
+        if (width < 1 || height < 1 || pixels.length < width * height) {
+            throw new IllegalArgumentException("Pixels do not match " + width + "x" + height);
+        }
+        int[] binary = new int[width * height];
+        System.arraycopy(pixels, 0, binary, 0, binary.length);
+        DocumentFilter.apply(binary, width, height, DocumentFilter.Mode.SAUVOLA, false, ForkJoinPool.commonPool());
+
+        int ink = 0;
+        for (int pixel : binary) {
+            ink += pixel == INK ? 1 : 0;
+        }
+        if (ink < MIN_INK_FRACTION * binary.length) {
+            return 0;
+        }
+
+        // Ink positions relative to the centre, so every direction projects into the same range
+        int stride = (ink + MAX_INK_POINTS - 1) / MAX_INK_POINTS;
+        float[] xs = new float[(ink + stride - 1) / stride];
+        float[] ys = new float[xs.length];
+        int points = 0;
+        int seen = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (binary[y * width + x] == INK && seen++ % stride == 0) {
+                    xs[points] = x - width / 2f;
+                    ys[points] = y - height / 2f;
+                    points++;
+                }
+            }
+        }
+        int[] profile = new int[(int) Math.ceil(Math.hypot(width, height)) + 2];
+
+        int coarseSteps = (int) Math.round(MAX_SKEW_DEGREES / COARSE_STEP_DEGREES);
+        double bestAngle = 0;
+        double bestSharpness = -1;
+        double totalSharpness = 0;
+        for (int step = -coarseSteps; step <= coarseSteps; step++) {
+            double angle = step * COARSE_STEP_DEGREES;
+            double sharpness = sharpness(xs, ys, points, angle, profile);
+            totalSharpness += sharpness;
+            if (sharpness > bestSharpness) {
+                bestSharpness = sharpness;
+                bestAngle = angle;
+            }
+        }
+        if (bestSharpness < MIN_SHARPNESS_GAIN * totalSharpness / (2 * coarseSteps + 1)) {
+            return 0;
+        }
+
+        // Thick lines make a flat top about the true angle rather than a point; take its middle
+        int fineSteps = (int) Math.round(COARSE_STEP_DEGREES / FINE_STEP_DEGREES);
+        double[] fine = new double[2 * fineSteps + 1];
+        double fineBest = 0;
+        for (int step = -fineSteps; step <= fineSteps; step++) {
+            fine[step + fineSteps] = sharpness(xs, ys, points, bestAngle + step * FINE_STEP_DEGREES, profile);
+            fineBest = Math.max(fineBest, fine[step + fineSteps]);
+        }
+        int first = 0;
+        while (fine[first] < PLATEAU_SHARE * fineBest) {
+            first++;
+        }
+        int last = fine.length - 1;
+        while (fine[last] < PLATEAU_SHARE * fineBest) {
+            last--;
+        }
+        bestAngle += ((first + last) / 2.0 - fineSteps) * FINE_STEP_DEGREES;
+        return Math.max(-MAX_SKEW_DEGREES, Math.min(MAX_SKEW_DEGREES, bestAngle));
+    }
+
+    /**
+     * Measure the skew of the text inside a region, as it will be after warping the region upright
+     * @param region Corners in image coordinates, or null for the whole image
+     */
+    public static double estimateAngle(int[] pixels, int width, int height, Quad region) {
+        if (region == null) {
+            return estimateAngle(pixels, width, height);
+        }
+        int regionWidth = PerspectiveWarp.outputWidth(region);
+        int regionHeight = PerspectiveWarp.outputHeight(region);
+        int[] upright = new int[regionWidth * regionHeight];
+        PerspectiveWarp.warp(pixels, width, height, region,
+                upright, regionWidth, regionHeight, ForkJoinPool.commonPool());
+        return estimateAngle(upright, regionWidth, regionHeight);
+    }
+
+    /**
+     * Turn the part of a region that is read so that text skewed by the angle comes out
+     * level. The result is the largest rectangle of the region's proportions that fits
+     * inside it once turned, so no corner is left blank.
+     * @param region Corners in image coordinates, warped upright as they are
+     * @param degrees Skew of the text in the upright region, from {@link #estimateAngle}
+     * @return Corners to warp instead, with {@link PerspectiveWarp#outputWidth} and
+     * {@link PerspectiveWarp#outputHeight} still choosing the size
+     */
+    public static Quad straighten(Quad region, double degrees) {
+        double width = PerspectiveWarp.outputWidth(region);
+        double height = PerspectiveWarp.outputHeight(region);
+        double radians = Math.toRadians(degrees);
+        double cos = Math.cos(radians);
+        double sin = Math.sin(radians);
+        double fit = Math.min(
+                width / (width * Math.abs(cos) + height * Math.abs(sin)),
+                height / (width * Math.abs(sin) + height * Math.abs(cos)));
+
+        // Corners of the turned rectangle in the upright region, then through the region's own map
+        double[] homography = PerspectiveWarp.squareToQuad(region);
+        float[] corners = new float[8];
+        double[][] directions = {{-1, -1}, {1, -1}, {1, 1}, {-1, 1}};
+        for (int corner = 0; corner < 4; corner++) {
+            double dx = directions[corner][0] * width / 2 * fit;
+            double dy = directions[corner][1] * height / 2 * fit;
+            double u = (width / 2 + dx * cos - dy * sin) / width;
+            double v = (height / 2 + dx * sin + dy * cos) / height;
+            double w = homography[6] * u + homography[7] * v + 1;
+            corners[corner * 2] = (float) ((homography[0] * u + homography[1] * v + homography[2]) / w);
+            corners[corner * 2 + 1] = (float) ((homography[3] * u + homography[4] * v + homography[5]) / w);
+        }
+        return new Quad(corners[0], corners[1], corners[2], corners[3],
+                corners[4], corners[5], corners[6], corners[7]);
+    }
+
+    /**
+     * Project ink points across lines at an angle
+     * @return Sum of squared differences between neighbouring bins of the projection
+     */
+    private static double sharpness(float[] xs, float[] ys, int points, double degrees, int[] profile) {
+        Arrays.fill(profile, 0);
+        double radians = Math.toRadians(degrees);
+        float cos = (float) Math.cos(radians);
+        float sin = (float) Math.sin(radians);
+        float offset = profile.length / 2f;
+        for (int i = 0; i < points; i++) {
+            // Distance across a line running in the direction (cos, sin)
+            profile[(int) (ys[i] * cos - xs[i] * sin + offset)]++;
+        }
+        long sum = 0;
+        for (int bin = 1; bin < profile.length; bin++) {
+            long difference = profile[bin] - profile[bin - 1];
+            sum += difference * difference;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,491 @@
+package com.quang.escan.image;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Finds the four edges of a page in a photo.
+ *
+ * Works on a grayscale copy no larger than {@link #DETECTION_EDGE_PX}: the
+ * page edges are long, straight and high in contrast, so they survive the
+ * downscale while paper texture and print do not. The copy is blurred, its
+ * Sobel edges thinned and thresholded, and straight lines found with a Hough
+ * transform in which every edge pixel votes only near its own gradient
+ * direction. Pairs of near-horizontal and near-vertical lines make candidate
+ * quads, scored by how much of their outline lies on edges and by their
+ * size, since rows of print inside the page make straight edges as well. Plain Java over packed ARGB pixels, so it is unit tested and
+ * benchmarked on the JVM.
+ */
+public final class DocumentDetector {
+
+    /**
+     * Longest edge of the copy lines are searched in
+     */
+    public static final int DETECTION_EDGE_PX = 256;
+
+    // Sobel magnitude (|gx| + |gy|, up to 2040) an edge needs, whatever the image contrast
+    private static final int MIN_EDGE_STRENGTH = 60;
+    // Share of the strongest edge an edge needs in a high-contrast image
+    private static final double RELATIVE_EDGE_STRENGTH = 0.15;
+    // An edge pixel votes for line angles this close to its gradient direction
+    private static final int VOTE_SPREAD_DEGREES = 8;
+    // Lines shorter than this share of the shorter image side are not page edges
+    private static final double MIN_LINE_FRACTION = 0.2;
+    // Strongest lines kept per orientation; quads are tried for every pair of pairs.
+    // Rows of print make lines as strong as the page edges, so keep plenty
+    private static final int LINES_PER_ORIENTATION = 16;
+    // Peaks closer than this in angle and distance are the same line
+    private static final int PEAK_RADIUS_DEGREES = 6;
+    private static final int PEAK_RADIUS_PX = 4;
+    // Opposite edges must be at least this share of the image apart
+    private static final double MIN_SEPARATION_FRACTION = 0.2;
+    // A page is at least this share of the photo
+    private static final double MIN_AREA_FRACTION = 0.15;
+    // Corners may lie this share of the image outside it, for pages cut by the frame
+    private static final double CORNER_MARGIN_FRACTION = 0.05;
+    // Every side must have at least this share of its length on edges
+    private static final double MIN_SIDE_SUPPORT = 0.5;
+
+    private static final int THETA_BINS = 180;
+    private static final double[] COS = new double[THETA_BINS];
+    private static final double[] SIN = new double[THETA_BINS];
+
+    static {
+        for (int theta = 0; theta < THETA_BINS; theta++) {
+            COS[theta] = Math.cos(Math.toRadians(theta));
+            SIN[theta] = Math.sin(Math.toRadians(theta));
+        }
+    }
+
+    private DocumentDetector() {
+        // Utility class
+    }
+
+    /**
+     * Find the page in an image. Pass a copy a few hundred pixels across where
+     * possible: anything larger is averaged down to {@link #DETECTION_EDGE_PX} first.
+     * @param pixels Packed ARGB pixels, row by row
+     * @return The page corners in the coordinates of the given image, or null if no page stands out
+     */
+    public static Quad detect(int[] pixels, int width, int height) {
+        if (width < 1 || height < 1 || pixels.length < width * height) {
+            throw new IllegalArgumentException("Pixels do not match " + width + "x" + height);
+        }
+
+        float scale = Math.min(1f, (float) DETECTION_EDGE_PX / Math.max(width, height));
+        int smallWidth = Math.max(1, Math.round(width * scale));
+        int smallHeight = Math.max(1, Math.round(height * scale));
+        if (smallWidth < 8 || smallHeight < 8) {
+            return null;
+        }
+
+        int[] gray = blur(downscaleToGray(pixels, width, height, smallWidth, smallHeight),
+                smallWidth, smallHeight);
+        EdgeMap edges = findEdges(gray, smallWidth, smallHeight);
+        Quad quad = findQuad(edges);
+        if (quad == null) {
+            return null;
+        }
+        // The copy may be scaled slightly differently along each axis after rounding
+        return quad.scale((float) width / smallWidth, (float) height / smallHeight).clamp(width, height);
+    }
+
+    /**
+     * Average blocks of pixels into luma, 0 to 255
+     */
+    static int[] downscaleToGray(int[] pixels, int width, int height, int outWidth, int outHeight) {
+        int[] gray = new int[outWidth * outHeight];
+        for (int y = 0; y < outHeight; y++) {
+            int top = (int) ((long) y * height / outHeight);
+            int bottom = Math.max(top + 1, (int) ((long) (y + 1) * height / outHeight));
+            for (int x = 0; x < outWidth; x++) {
+                int left = (int) ((long) x * width / outWidth);
+                int right = Math.max(left + 1, (int) ((long) (x + 1) * width / outWidth));
+                long sum = 0;
+                for (int sy = top; sy < bottom; sy++) {
+                    int row = sy * width;
+                    for (int sx = left; sx < right; sx++) {
+                        sum += luma(pixels[row + sx]);
+                    }
+                }
+                gray[y * outWidth + x] = (int) (sum / ((long) (bottom - top) * (right - left)));
+            }
+        }
+        return gray;
+    }
+
+    private static int luma(int pixel) {
+        return (((pixel >> 16) & 0xFF) * 299 + ((pixel >> 8) & 0xFF) * 587 + (pixel & 0xFF) * 114) / 1000;
+    }
+
+    /**
+     * 5-tap binomial blur, horizontal then vertical, repeating edge pixels
+     */
+    private static int[] blur(int[] gray, int width, int height) {
+        int[] horizontal = new int[gray.length];
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                horizontal[row + x] = (gray[row + clampIndex(x - 2, width)]
+                        + 4 * gray[row + clampIndex(x - 1, width)]
+                        + 6 * gray[row + x]
+                        + 4 * gray[row + clampIndex(x + 1, width)]
+                        + gray[row + clampIndex(x + 2, width)] + 8) >> 4;
+            }
+        }
+        int[] blurred = new int[gray.length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                blurred[y * width + x] = (horizontal[clampIndex(y - 2, height) * width + x]
+                        + 4 * horizontal[clampIndex(y - 1, height) * width + x]
+                        + 6 * horizontal[y * width + x]
+                        + 4 * horizontal[clampIndex(y + 1, height) * width + x]
+                        + horizontal[clampIndex(y + 2, height) * width + x] + 8) >> 4;
+            }
+        }
+        return blurred;
+    }
+
+    private static int clampIndex(int index, int size) {
+        return index < 0 ? 0 : Math.min(index, size - 1);
+    }
+
+    /**
+     * Sobel edges, thinned to one pixel across by keeping only local maxima along the gradient
+     */
+    private static EdgeMap findEdges(int[] gray, int width, int height) {
+        int[] magnitude = new int[gray.length];
+        // Gradient direction in whole degrees, 0 to 179
+        int[] direction = new int[gray.length];
+        int strongest = 0;
+        for (int y = 1; y < height - 1; y++) {
+            for (int x = 1; x < width - 1; x++) {
+                int i = y * width + x;
+                int gx = gray[i - width + 1] + 2 * gray[i + 1] + gray[i + width + 1]
+                        - gray[i - width - 1] - 2 * gray[i - 1] - gray[i + width - 1];
+                int gy = gray[i + width - 1] + 2 * gray[i + width] + gray[i + width + 1]
+                        - gray[i - width - 1] - 2 * gray[i - width] - gray[i - width + 1];
+                int value = Math.abs(gx) + Math.abs(gy);
+                magnitude[i] = value;
+                int degrees = (int) Math.round(Math.toDegrees(Math.atan2(gy, gx)));
+                direction[i] = ((degrees % THETA_BINS) + THETA_BINS) % THETA_BINS;
+                strongest = Math.max(strongest, value);
+            }
+        }
+
+        int threshold = Math.max(MIN_EDGE_STRENGTH, (int) (strongest * RELATIVE_EDGE_STRENGTH));
+        boolean[] edge = new boolean[gray.length];
+        for (int y = 1; y < height - 1; y++) {
+            for (int x = 1; x < width - 1; x++) {
+                int i = y * width + x;
+                int value = magnitude[i];
+                if (value < threshold) {
+                    continue;
+                }
+                // Neighbours along the gradient, in one of four directions
+                int angle = direction[i];
+                int step;
+                if (angle < 23 || angle >= 158) {
+                    step = 1;
+                } else if (angle < 68) {
+                    step = width + 1;
+                } else if (angle < 113) {
+                    step = width;
+                } else {
+                    step = width - 1;
+                }
+                if (value >= magnitude[i - step] && value >= magnitude[i + step]) {
+                    edge[i] = true;
+                }
+            }
+        }
+        return new EdgeMap(width, height, edge, direction);
+    }
+
+    private static Quad findQuad(EdgeMap edges) {
+        int width = edges.width;
+        int height = edges.height;
+        int maxRho = (int) Math.ceil(Math.hypot(width, height));
+        int rhoBins = 2 * maxRho + 1;
+        int[] votes = new int[THETA_BINS * rhoBins];
+
+        // Vote only near each pixel's gradient direction: page edges agree, print and noise mostly do not
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = y * width + x;
+                if (!edges.edge[i]) {
+                    continue;
+                }
+                int center = edges.direction[i];
+                for (int offset = -VOTE_SPREAD_DEGREES; offset <= VOTE_SPREAD_DEGREES; offset++) {
+                    // Angles wrap round: theta + 180 is the same line with rho negated
+                    int theta = (center + offset + THETA_BINS) % THETA_BINS;
+                    int rho = (int) Math.round(x * COS[theta] + y * SIN[theta]);
+                    votes[theta * rhoBins + rho + maxRho]++;
+                }
+            }
+        }
+
+        int minVotes = (int) (MIN_LINE_FRACTION * Math.min(width, height));
+        List<Line> horizontal = new ArrayList<>();
+        List<Line> vertical = new ArrayList<>();
+        for (Line line : findPeaks(votes, rhoBins, maxRho, minVotes)) {
+            // Normal near 90 degrees: the line itself runs across
+            (Math.abs(line.theta - 90) < 45 ? horizontal : vertical).add(line);
+        }
+        horizontal = candidates(horizontal, line -> line.yAt(width / 2.0));
+        vertical = candidates(vertical, line -> line.xAt(height / 2.0));
+
+        Quad best = null;
+        double bestScore = 0;
+        double imageArea = (double) width * height;
+        for (int i = 0; i < horizontal.size(); i++) {
+            for (int j = i + 1; j < horizontal.size(); j++) {
+                Line top = horizontal.get(i);
+                Line bottom = horizontal.get(j);
+                if (top.yAt(width / 2.0) > bottom.yAt(width / 2.0)) {
+                    Line swap = top;
+                    top = bottom;
+                    bottom = swap;
+                }
+                if (bottom.yAt(width / 2.0) - top.yAt(width / 2.0) < MIN_SEPARATION_FRACTION * height) {
+                    continue;
+                }
+                for (int k = 0; k < vertical.size(); k++) {
+                    for (int l = k + 1; l < vertical.size(); l++) {
+                        Line left = vertical.get(k);
+                        Line right = vertical.get(l);
+                        if (left.xAt(height / 2.0) > right.xAt(height / 2.0)) {
+                            Line swap = left;
+                            left = right;
+                            right = swap;
+                        }
+                        if (right.xAt(height / 2.0) - left.xAt(height / 2.0) < MIN_SEPARATION_FRACTION * width) {
+                            continue;
+                        }
+                        Quad quad = corners(top, right, bottom, left);
+                        if (quad == null || !quad.isConvex() || !withinMargin(quad, width, height)) {
+                            continue;
+                        }
+                        double areaFraction = quad.area() / imageArea;
+                        // Support is at most 1, so a quad too small to beat the best is not traced
+                        double areaScore = Math.sqrt(Math.min(1, areaFraction));
+                        if (areaFraction < MIN_AREA_FRACTION || areaScore <= bestScore) {
+                            continue;
+                        }
+                        double support = support(quad, edges);
+                        if (support < 0) {
+                            continue;
+                        }
+                        // Print inside the page lines up too; of the well-supported quads the page is the largest
+                        double score = support * areaScore;
+                        if (score > bestScore) {
+                            bestScore = score;
+                            best = quad;
+                        }
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Local maxima of the accumulator, strongest first
+     */
+    private static List<Line> findPeaks(int[] votes, int rhoBins, int maxRho, int minVotes) {
+        List<Line> peaks = new ArrayList<>();
+        for (int theta = 0; theta < THETA_BINS; theta++) {
+            for (int rhoIndex = 0; rhoIndex < rhoBins; rhoIndex++) {
+                int value = votes[theta * rhoBins + rhoIndex];
+                if (value >= minVotes && isLocalMaximum(votes, rhoBins, theta, rhoIndex, value)) {
+                    peaks.add(new Line(theta, rhoIndex - maxRho, value));
+                }
+            }
+        }
+        peaks.sort((a, b) -> Integer.compare(b.votes, a.votes));
+        return peaks;
+    }
+
+    /**
+     * The strongest lines of one orientation, plus the outermost two: a page
+     * full of print can push its own edges out of the strongest
+     * @param lines Lines strongest first
+     * @param position Where a line crosses the middle of the image
+     */
+    private static List<Line> candidates(List<Line> lines, ToDoubleFunction<Line> position) {
+        if (lines.size() <= LINES_PER_ORIENTATION) {
+            return lines;
+        }
+        List<Line> kept = new ArrayList<>(lines.subList(0, LINES_PER_ORIENTATION));
+        Line first = Collections.min(lines, Comparator.comparingDouble(position));
+        Line last = Collections.max(lines, Comparator.comparingDouble(position));
+        if (!kept.contains(first)) {
+            kept.add(first);
+        }
+        if (!kept.contains(last)) {
+            kept.add(last);
+        }
+        return kept;
+    }
+
+    private static boolean isLocalMaximum(int[] votes, int rhoBins, int theta, int rhoIndex, int value) {
+        for (int dt = -PEAK_RADIUS_DEGREES; dt <= PEAK_RADIUS_DEGREES; dt++) {
+            int otherTheta = theta + dt;
+            int otherRho = rhoIndex;
+            // Angles wrap round, with rho mirrored
+            if (otherTheta < 0 || otherTheta >= THETA_BINS) {
+                otherTheta = (otherTheta + THETA_BINS) % THETA_BINS;
+                otherRho = rhoBins - 1 - rhoIndex;
+            }
+            for (int dr = -PEAK_RADIUS_PX; dr <= PEAK_RADIUS_PX; dr++) {
+                int r = otherRho + dr;
+                if (r < 0 || r >= rhoBins || (dt == 0 && dr == 0)) {
+                    continue;
+                }
+                int other = votes[otherTheta * rhoBins + r];
+                // Ties go to the first cell, so a flat peak still yields one line
+                if (other > value || (other == value && (otherTheta * rhoBins + r) < theta * rhoBins + rhoIndex)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static Quad corners(Line top, Line right, Line bottom, Line left) {
+        double[] topLeft = top.intersect(left);
+        double[] topRight = top.intersect(right);
+        double[] bottomRight = bottom.intersect(right);
+        double[] bottomLeft = bottom.intersect(left);
+        if (topLeft == null || topRight == null || bottomRight == null || bottomLeft == null) {
+            return null;
+        }
+        return new Quad((float) topLeft[0], (float) topLeft[1], (float) topRight[0], (float) topRight[1],
+                (float) bottomRight[0], (float) bottomRight[1], (float) bottomLeft[0], (float) bottomLeft[1]);
+    }
+
+    private static boolean withinMargin(Quad quad, int width, int height) {
+        double marginX = CORNER_MARGIN_FRACTION * width;
+        double marginY = CORNER_MARGIN_FRACTION * height;
+        for (int corner = 0; corner < 4; corner++) {
+            float x = quad.getX(corner);
+            float y = quad.getY(corner);
+            if (x < -marginX || x > width + marginX || y < -marginY || y > height + marginY) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Share of the outline lying on or next to an edge pixel
+     * @return The share over all four sides, or -1 if any side is too weak
+     */
+    private static double support(Quad quad, EdgeMap edges) {
+        int totalSamples = 0;
+        int totalHits = 0;
+        for (int corner = 0; corner < 4; corner++) {
+            int next = (corner + 1) % 4;
+            double x0 = quad.getX(corner);
+            double y0 = quad.getY(corner);
+            double x1 = quad.getX(next);
+            double y1 = quad.getY(next);
+            int samples = Math.max(1, (int) Math.round(quad.sideLength(corner)));
+            int hits = 0;
+            int inside = 0;
+            for (int s = 0; s <= samples; s++) {
+                double t = (double) s / samples;
+                // Pixel centres sit at half coordinates
+                int x = (int) Math.floor(x0 + (x1 - x0) * t);
+                int y = (int) Math.floor(y0 + (y1 - y0) * t);
+                if (x < 0 || y < 0 || x >= edges.width || y >= edges.height) {
+                    continue;
+                }
+                inside++;
+                if (edges.near[y * edges.width + x]) {
+                    hits++;
+                }
+            }
+            // A side cut off by the frame cannot be checked, and is not counted against the quad
+            if (inside > samples / 2 && hits < MIN_SIDE_SUPPORT * inside) {
+                return -1;
+            }
+            totalSamples += inside;
+            totalHits += hits;
+        }
+        return totalSamples > 0 ? (double) totalHits / totalSamples : -1;
+    }
+
+    /**
+     * Thinned edge pixels of the detection copy, with their gradient directions
+     */
+    private static final class EdgeMap {
+        final int width;
+        final int height;
+        final boolean[] edge;
+        final int[] direction;
+        // Within one pixel of an edge, allowing for thinning and rounding when tracing quads
+        final boolean[] near;
+
+        EdgeMap(int width, int height, boolean[] edge, int[] direction) {
+            this.width = width;
+            this.height = height;
+            this.edge = edge;
+            this.direction = direction;
+            this.near = new boolean[edge.length];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    if (!edge[y * width + x]) {
+                        continue;
+                    }
+                    for (int row = Math.max(0, y - 1); row <= Math.min(height - 1, y + 1); row++) {
+                        for (int column = Math.max(0, x - 1); column <= Math.min(width - 1, x + 1); column++) {
+                            near[row * width + column] = true;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A Hough line: the points where x cos(theta) + y sin(theta) = rho, in pixel-centre coordinates
+     */
+    private static final class Line {
+        final int theta;
+        final int rho;
+        final int votes;
+
+        Line(int theta, int rho, int votes) {
+            this.theta = theta;
+            this.rho = rho;
+            this.votes = votes;
+        }
+
+        double yAt(double x) {
+            return (rho - x * COS[theta]) / SIN[theta];
+        }
+
+        double xAt(double y) {
+            return (rho - y * SIN[theta]) / COS[theta];
+        }
+
+        /**
+         * @return The crossing point in continuous coordinates, or null for parallel lines
+         */
+        double[] intersect(Line other) {
+            double determinant = COS[theta] * SIN[other.theta] - SIN[theta] * COS[other.theta];
+            if (Math.abs(determinant) < 1e-6) {
+                return null;
+            }
+            double x = (rho * SIN[other.theta] - other.rho * SIN[theta]) / determinant;
+            double y = (other.rho * COS[theta] - rho * COS[other.theta]) / determinant;
+            // Lines pass through pixel centres; shift to continuous coordinates
+            return new double[]{x + 0.5, y + 0.5};
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package com.quang.escan.image;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * "Document mode" enhancement: evens out shadows and uneven lighting so a
+ * photographed page reads like a scan, for the eye and for text recognition.
+ *
+ * The image is turned to gray, optionally contrast-stretched, then
+ * binarized with a threshold that follows the local mean and deviation of a
+ * window around each pixel (Sauvola, or Wolf and Jolion's variant, which
+ * adapts to the contrast of the whole page). Window sums come from integral
+ * images. Every stage runs in {@link #TILE_SIZE} tiles on a
+ * {@link ForkJoinPool}; a binarized tile builds its own integral image over
+ * the tile plus the window margin, so tiles share nothing and memory stays at
+ * one byte per pixel plus a small buffer per thread. Plain Java over packed
+ * ARGB pixels, so it is unit tested on the JVM.
+ */
+public final class DocumentFilter {
+
+    /**
+     * What the page becomes
+     */
+    public enum Mode {
+        // Gray levels only; keeps photos and faint pencil
+        GRAYSCALE,
+        // Black and white against the local mean and deviation
+        SAUVOLA,
+        // Like SAUVOLA, also adapting to the darkest pixel and the strongest contrast of the page;
+        // better on low-contrast pages, at about twice the cost
+        WOLF
+    }
+
+    /**
+     * Side of the square tiles work is split into
+     */
+    static final int TILE_SIZE = 256;
+
+    private static final int BLACK = 0xFF000000;
+    private static final int WHITE = 0xFFFFFFFF;
+
+    // Sauvola's weight of the deviation, and the deviation of a fully contrasted 8-bit window
+    private static final double SAUVOLA_K = 0.2;
+    private static final double SAUVOLA_R = 128;
+    private static final double WOLF_K = 0.5;
+    // Share of pixels clipped at each end of the range by the contrast stretch
+    private static final double STRETCH_CLIP = 0.01;
+    // The window must be wider than a letter stroke; a page photo is about 80 windows across
+    private static final int MIN_WINDOW_RADIUS = 7;
+    private static final int WINDOW_DIVISOR = 80;
+
+    // Per-thread integral image buffers of the binarization, grown as needed
+    private static final ThreadLocal<long[][]> INTEGRAL_BUFFERS = new ThreadLocal<>();
+
+    private DocumentFilter() {
+        // Utility class
+    }
+
+    /**
+     * Enhance an image in place
+     * @param pixels Packed ARGB pixels, row by row; replaced by opaque gray or black and white
+     * @param stretchContrast Whether to spread the gray levels over the full range first
+     */
+    public static void apply(int[] pixels, int width, int height, Mode mode, boolean stretchContrast,
+                             ForkJoinPool pool) {
+        if (width < 1 || height < 1 || pixels.length < width * height) {
+            throw new IllegalArgumentException("Pixels do not match " + width + "x" + height);
+        }
+        byte[] gray = toGray(pixels, width, height, pool);
+        if (stretchContrast) {
+            stretchContrast(gray, width, height, pool);
+        }
+        if (mode == Mode.GRAYSCALE) {
+            toArgb(gray, pixels, width, height, pool);
+        } else {
+            binarize(gray, pixels, width, height, windowRadius(width, height), mode, pool);
+        }
+    }
+
+    /**
+     * @return Half the side of the binarization window for an image
+     */
+    static int windowRadius(int width, int height) {
+        return Math.max(MIN_WINDOW_RADIUS, Math.min(width, height) / WINDOW_DIVISOR);
+    }
+
+    /**
+     * @return Luma of an ARGB pixel, 0 to 255; alpha is ignored
+     */
+    static int luma(int pixel) {
+        return (((pixel >> 16) & 0xFF) * 77 + ((pixel >> 8) & 0xFF) * 150 + (pixel & 0xFF) * 29) >> 8;
+    }
+
+    /**
+     * @return Luma of every pixel, 0 to 255, one byte each
+     */
+    static byte[] toGray(int[] pixels, int width, int height, ForkJoinPool pool) {
+        byte[] gray = new byte[width * height];
+        pool.invoke(new Tiles<Void>(width, height, (left, top, right, bottom) -> {
+            for (int y = top; y < bottom; y++) {
+                int row = y * width;
+                for (int x = left; x < right; x++) {
+                    gray[row + x] = (byte) luma(pixels[row + x]);
+                }
+            }
+            return null;
+        }, null));
+        return gray;
+    }
+
+    /**
+     * Map the gray levels linearly so the darkest and brightest percent reach 0 and 255
+     */
+    static void stretchContrast(byte[] gray, int width, int height, ForkJoinPool pool) {
+        int[] histogram = pool.invoke(new Tiles<>(width, height, (left, top, right, bottom) -> {
+            int[] counts = new int[256];
+            for (int y = top; y < bottom; y++) {
+                int row = y * width;
+                for (int x = left; x < right; x++) {
+                    counts[gray[row + x] & 0xFF]++;
+                }
+            }
+            return counts;
+        }, (a, b) -> {
+            for (int i = 0; i < a.length; i++) {
+                a[i] += b[i];
+            }
+            return a;
+        }));
+
+        long clip = (long) (STRETCH_CLIP * width * height);
+        int low = 0;
+        for (long seen = histogram[0]; low < 255 && seen <= clip; seen += histogram[++low]) {
+            // Find the level below which the darkest pixels lie
+        }
+        int high = 255;
+        for (long seen = histogram[255]; high > 0 && seen <= clip; seen += histogram[--high]) {
+            // Find the level above which the brightest pixels lie
+        }
+        if (high <= low) {
+            // A flat image has no range to stretch
+            return;
+        }
+
+        byte[] lookup = new byte[256];
+        for (int level = 0; level < 256; level++) {
+            int stretched = (level - low) * 255 / (high - low);
+            lookup[level] = (byte) Math.max(0, Math.min(255, stretched));
+        }
+        pool.invoke(new Tiles<Void>(width, height, (left, top, right, bottom) -> {
+            for (int y = top; y < bottom; y++) {
+                int row = y * width;
+                for (int x = left; x < right; x++) {
+                    gray[row + x] = lookup[gray[row + x] & 0xFF];
+                }
+            }
+            return null;
+        }, null));
+    }
+
+    /**
+     * Write gray levels out as opaque ARGB
+     */
+    static void toArgb(byte[] gray, int[] pixels, int width, int height, ForkJoinPool pool) {
+        pool.invoke(new Tiles<Void>(width, height, (left, top, right, bottom) -> {
+            for (int y = top; y < bottom; y++) {
+                int row = y * width;
+                for (int x = left; x < right; x++) {
+                    pixels[row + x] = BLACK | (gray[row + x] & 0xFF) * 0x010101;
+                }
+            }
+            return null;
+        }, null));
+    }
+
+    /**
+     * Threshold every pixel against its window and write black or white
+     * @param radius Half the window side; windows are cut off at the image border
+     */
+    static void binarize(byte[] gray, int[] pixels, int width, int height, int radius, Mode mode,
+                         ForkJoinPool pool) {
+        // Wolf needs the darkest pixel and the strongest deviation of the page before any threshold
+        double[] page = mode == Mode.WOLF
+                ? pool.invoke(new Tiles<>(width, height, (left, top, right, bottom) ->
+                        pageStatistics(gray, width, height, radius, left, top, right, bottom),
+                        (a, b) -> new double[]{Math.min(a[0], b[0]), Math.max(a[1], b[1])}))
+                : null;
+
+        pool.invoke(new Tiles<Void>(width, height, (left, top, right, bottom) -> {
+            Window window = new Window(gray, width, height, radius, left, top, right, bottom);
+            for (int y = top; y < bottom; y++) {
+                int row = y * width;
+                for (int x = left; x < right; x++) {
+                    double mean = window.mean(x, y);
+                    double deviation = window.deviation(x, y, mean);
+                    double threshold;
+                    if (page == null) {
+                        threshold = mean * (1 + SAUVOLA_K * (deviation / SAUVOLA_R - 1));
+                    } else {
+                        double darkest = page[0];
+                        double maxDeviation = Math.max(1, page[1]);
+                        threshold = (1 - WOLF_K) * mean + WOLF_K * darkest
+                                + WOLF_K * deviation / maxDeviation * (mean - darkest);
+                    }
+                    pixels[row + x] = (gray[row + x] & 0xFF) > threshold ? WHITE : BLACK;
+                }
+            }
+            return null;
+        }, null));
+    }
+
+    /**
+     * @return {darkest gray level, largest window deviation} within a tile
+     */
+    private static double[] pageStatistics(byte[] gray, int width, int height, int radius,
+                                           int left, int top, int right, int bottom) {
+        Window window = new Window(gray, width, height, radius, left, top, right, bottom);
+        double darkest = 255;
+        double maxDeviation = 0;
+        for (int y = top; y < bottom; y++) {
+            int row = y * width;
+            for (int x = left; x < right; x++) {
+                darkest = Math.min(darkest, gray[row + x] & 0xFF);
+                maxDeviation = Math.max(maxDeviation, window.deviation(x, y, window.mean(x, y)));
+            }
+        }
+        return new double[]{darkest, maxDeviation};
+    }
+
+    /**
+     * Integral images of gray levels and their squares over one tile plus the
+     * window margin, answering window sums around any pixel of the tile in
+     * constant time
+     */
+    private static final class Window {
+        private final int radius;
+        private final int width;
+        private final int height;
+        // The area covered, in image coordinates
+        private final int originX;
+        private final int originY;
+        private final int stride;
+        private final long[] sums;
+        private final long[] squares;
+
+        Window(byte[] gray, int width, int height, int radius, int left, int top, int right, int bottom) {
+            this.radius = radius;
+            this.width = width;
+            this.height = height;
+            originX = Math.max(0, left - radius);
+            originY = Math.max(0, top - radius);
+            int endX = Math.min(width, right + radius);
+            int endY = Math.min(height, bottom + radius);
+            // One extra row and column of zeros, so sums need no edge cases
+            stride = endX - originX + 1;
+            int size = stride * (endY - originY + 1);
+
+            long[][] buffers = INTEGRAL_BUFFERS.get();
+            if (buffers == null || buffers[0].length < size) {
+                buffers = new long[][]{new long[size], new long[size]};
+                INTEGRAL_BUFFERS.set(buffers);
+            }
+            sums = buffers[0];
+            squares = buffers[1];
+
+            Arrays.fill(sums, 0, stride, 0);
+            Arrays.fill(squares, 0, stride, 0);
+            for (int y = originY; y < endY; y++) {
+                int above = (y - originY) * stride;
+                int here = above + stride;
+                sums[here] = 0;
+                squares[here] = 0;
+                long rowSum = 0;
+                long rowSquares = 0;
+                int source = y * width;
+                for (int x = originX; x < endX; x++) {
+                    int value = gray[source + x] & 0xFF;
+                    rowSum += value;
+                    rowSquares += value * value;
+                    int column = x - originX + 1;
+                    sums[here + column] = sums[above + column] + rowSum;
+                    squares[here + column] = squares[above + column] + rowSquares;
+                }
+            }
+        }
+
+        double mean(int x, int y) {
+            return sum(sums, x, y) / (double) area(x, y);
+        }
+
+        double deviation(int x, int y, double mean) {
+            double variance = sum(squares, x, y) / (double) area(x, y) - mean * mean;
+            return variance > 0 ? Math.sqrt(variance) : 0;
+        }
+
+        private long area(int x, int y) {
+            long across = Math.min(width, x + radius + 1) - Math.max(0, x - radius);
+            long down = Math.min(height, y + radius + 1) - Math.max(0, y - radius);
+            return across * down;
+        }
+
+        private long sum(long[] table, int x, int y) {
+            int x0 = Math.max(0, x - radius) - originX;
+            int y0 = Math.max(0, y - radius) - originY;
+            int x1 = Math.min(width, x + radius + 1) - originX;
+            int y1 = Math.min(height, y + radius + 1) - originY;
+            return table[y1 * stride + x1] - table[y0 * stride + x1]
+                    - table[y1 * stride + x0] + table[y0 * stride + x0];
+        }
+    }
+
+    /**
+     * Work on one tile: [left, right) by [top, bottom)
+     */
+    private interface TileOperation<T> {
+        T apply(int left, int top, int right, int bottom);
+    }
+
+    private interface Merge<T> {
+        T merge(T a, T b);
+    }
+
+    /**
+     * A range of tiles, split in halves until one is left; results are merged on the way back
+     */
+    @SuppressWarnings("serial") // A fork/join task is never serialized
+    private static final class Tiles<T> extends RecursiveTask<T> {
+        private final int width;
+        private final int height;
+        private final int columns;
+        private final int from;
+        private final int to;
+        private final TileOperation<T> operation;
+        private final Merge<T> merge;
+
+        Tiles(int width, int height, TileOperation<T> operation, Merge<T> merge) {
+            this(width, height, operation, merge, 0,
+                    ((width + TILE_SIZE - 1) / TILE_SIZE) * ((height + TILE_SIZE - 1) / TILE_SIZE));
+        }
+
+        private Tiles(int width, int height, TileOperation<T> operation, Merge<T> merge, int from, int to) {
+            this.width = width;
+            this.height = height;
+            this.columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+            this.operation = operation;
+            this.merge = merge;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected T compute() {
+            if (to - from == 1) {
+                int left = (from % columns) * TILE_SIZE;
+                int top = (from / columns) * TILE_SIZE;
+                return operation.apply(left, top, Math.min(width, left + TILE_SIZE), Math.min(height, top + TILE_SIZE));
+            }
+            int middle = (from + to) >>> 1;
+            Tiles<T> first = new Tiles<>(width, height, operation, merge, from, middle);
+            Tiles<T> second = new Tiles<>(width, height, operation, merge, middle, to);
+            first.fork();
+            T secondResult = second.compute();
+            T firstResult = first.join();
+            return merge != null ? merge.merge(firstResult, secondResult) : null;
+        }
+    }
+}
@@ -0,0 +1,697 @@
+package com.quang.escan.image;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A chain of edits that is applied only when an image is needed, at the
+ * size it is needed: the preview size while editing, full size on export.
+ *
+ * Edits are recorded, not run. Rendering plans them into as few passes over
+ * the pixels as possible: consecutive geometric edits (quarter turns, crops,
+ * perspective warps) fold into one projective map and a single resampling,
+ * and the per-pixel edits after them (grayscale, overlays) run in the same
+ * loop on each pixel as it is produced. Edits that need the whole image,
+ * like adaptive binarization, end a pass. Maps that only move whole pixels
+ * copy them instead of interpolating, so a chain with at most one warp
+ * gives the same pixels as running its edits one by one; with several
+ * warps, the fused pass interpolates once and is sharper.
+ *
+ * Coordinates of edits are in pixels of the image at a reference size, as
+ * it is at that point of the chain; the image rendered may be any size of
+ * the same proportions. Instances are immutable; every edit returns a new
+ * pipeline. Plain Java over packed ARGB pixels, so it is unit tested on the JVM.
+ * {@link EditRecipe} stores a pipeline with the reference size it was made at.
+ */
+public final class EditPipeline {
+
+    /**
+     * Rows below which a band is rendered on the current thread instead of split further
+     */
+    static final int BAND_ROWS = 32;
+
+    public static final EditPipeline EMPTY = new EditPipeline(Collections.emptyList());
+
+    /**
+     * Something drawn over the image, like a watermark
+     */
+    public interface Overlay {
+        /**
+         * @param scale Rendered pixels per reference pixel, for sizes given in pixels
+         * @return width * height packed ARGB pixels, not premultiplied; transparent where the image shows
+         */
+        int[] render(int width, int height, float scale);
+    }
+
+    /**
+     * Packed ARGB pixels, row by row, and their size
+     */
+    public static final class Raster {
+        public final int[] pixels;
+        public final int width;
+        public final int height;
+
+        public Raster(int[] pixels, int width, int height) {
+            if (width < 1 || height < 1 || pixels.length < width * height) {
+                throw new IllegalArgumentException("Pixels do not match " + width + "x" + height);
+            }
+            this.pixels = pixels;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    private final List<Step> steps;
+
+    private EditPipeline(List<Step> steps) {
+        this.steps = steps;
+    }
+
+    /**
+     * Turn clockwise by a multiple of 90 degrees
+     */
+    public EditPipeline rotate(int degrees) {
+        if (degrees % 90 != 0) {
+            throw new IllegalArgumentException("Not a quarter turn: " + degrees);
+        }
+        int quarterTurns = ((degrees / 90) % 4 + 4) % 4;
+        return quarterTurns == 0 ? this : then(new Rotate(quarterTurns));
+    }
+
+    /**
+     * Keep the rectangle [left, right) by [top, bottom)
+     */
+    public EditPipeline crop(int left, int top, int right, int bottom) {
+        if (left < 0 || top < 0 || right <= left || bottom <= top) {
+            throw new IllegalArgumentException("Empty crop " + left + "," + top + "," + right + "," + bottom);
+        }
+        return then(new Crop(left, top, right, bottom));
+    }
+
+    /**
+     * Resample the inside of a quad into an upright rectangle, as {@link PerspectiveWarp} does
+     */
+    public EditPipeline warp(Quad quad) {
+        // Fails now on a degenerate quad, not on the first render
+        PerspectiveWarp.squareToQuad(quad);
+        return then(new Warp(quad));
+    }
+
+    /**
+     * Apply a {@link DocumentFilter}. Plain grayscale is per pixel; the rest need the whole image.
+     */
+    public EditPipeline filter(DocumentFilter.Mode mode, boolean stretchContrast) {
+        return then(mode == DocumentFilter.Mode.GRAYSCALE && !stretchContrast
+                ? new Grayscale() : new Filter(mode, stretchContrast));
+    }
+
+    /**
+     * Draw over the image as it is at this point of the chain
+     */
+    public EditPipeline overlay(Overlay overlay) {
+        return then(new OverlayStep(overlay));
+    }
+
+    /**
+     * Follow these edits with another pipeline's, whose coordinates start from this one's result
+     */
+    public EditPipeline append(EditPipeline next) {
+        if (next.steps.isEmpty()) {
+            return this;
+        }
+        List<Step> joined = new ArrayList<>(steps);
+        joined.addAll(next.steps);
+        return new EditPipeline(Collections.unmodifiableList(joined));
+    }
+
+    public boolean isEmpty() {
+        return steps.isEmpty();
+    }
+
+    /**
+     * @return {width, height} of the result for a source at the reference size
+     */
+    public int[] outputSize(int referenceWidth, int referenceHeight) {
+        int[] size = {referenceWidth, referenceHeight};
+        for (Step step : steps) {
+            size = step.size(size[0], size[1]);
+        }
+        return size;
+    }
+
+    /**
+     * Render a source at the reference size
+     */
+    public Raster render(Raster source, ForkJoinPool pool) {
+        return render(source, source.width, source.height, pool);
+    }
+
+    /**
+     * Render a source of any size with the proportions of the reference size.
+     * The source is left unchanged.
+     */
+    public Raster render(Raster source, int referenceWidth, int referenceHeight, ForkJoinPool pool) {
+        return render(source, false, referenceWidth, referenceHeight, pool);
+    }
+
+    /**
+     * Render a source the caller no longer needs. Edits that keep pixels where
+     * they are overwrite its pixels instead of filling a new array, and an
+     * empty pipeline returns the source itself.
+     */
+    public Raster renderInPlace(Raster source, int referenceWidth, int referenceHeight, ForkJoinPool pool) {
+        return render(source, true, referenceWidth, referenceHeight, pool);
+    }
+
+    private Raster render(Raster source, boolean sourceOwned, int referenceWidth, int referenceHeight,
+                          ForkJoinPool pool) {
+        Raster image = source;
+        boolean owned = sourceOwned;
+        for (Pass pass : plan(referenceWidth, referenceHeight, source.width, source.height)) {
+            if (pass.map != null || !pass.pixelSteps.isEmpty()) {
+                image = pass.run(image, owned, pool);
+                owned = true;
+            }
+            if (pass.filter != null) {
+                if (!owned) {
+                    image = new Raster(image.pixels.clone(), image.width, image.height);
+                    owned = true;
+                }
+                pass.filter.apply(image, pool);
+            }
+        }
+        return owned ? image : new Raster(source.pixels.clone(), source.width, source.height);
+    }
+
+    /**
+     * Write the edits compactly, for {@link EditRecipe}
+     * @throws IllegalArgumentException If an edit is an overlay; those are app code and cannot be stored
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeShort(steps.size());
+        for (Step step : steps) {
+            step.write(out);
+        }
+    }
+
+    /**
+     * Read edits written by {@link #write}
+     * @throws IOException If the data is cut short or has an edit this version does not know
+     */
+    static EditPipeline read(DataInputStream in) throws IOException {
+        int count = in.readUnsignedShort();
+        EditPipeline pipeline = EMPTY;
+        for (int i = 0; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case Rotate.TAG:
+                    pipeline = pipeline.rotate(90 * in.readUnsignedByte());
+                    break;
+                case Crop.TAG:
+                    pipeline = pipeline.crop(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+                    break;
+                case Warp.TAG:
+                    float[] corners = new float[8];
+                    for (int corner = 0; corner < corners.length; corner++) {
+                        corners[corner] = in.readFloat();
+                    }
+                    pipeline = pipeline.warp(new Quad(corners[0], corners[1], corners[2], corners[3],
+                            corners[4], corners[5], corners[6], corners[7]));
+                    break;
+                case Grayscale.TAG:
+                    pipeline = pipeline.then(new Grayscale());
+                    break;
+                case Filter.TAG:
+                    pipeline = pipeline.then(new Filter(readMode(in), in.readBoolean()));
+                    break;
+                default:
+                    throw new IOException("Unknown edit " + tag);
+            }
+        }
+        return pipeline;
+    }
+
+    private static DocumentFilter.Mode readMode(DataInputStream in) throws IOException {
+        String name = in.readUTF();
+        try {
+            return DocumentFilter.Mode.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unknown filter " + name, e);
+        }
+    }
+
+    /**
+     * Group the edits into passes over the pixels
+     * @param width Width of the source rendered, which may differ from the reference
+     */
+    List<Pass> plan(int referenceWidth, int referenceHeight, int width, int height) {
+        double scale = (double) width / referenceWidth;
+        List<Pass> passes = new ArrayList<>();
+        Pass pass = null;
+        // Reference and rendered size of the image entering the current geometric run
+        int runReferenceWidth = 0;
+        int runReferenceHeight = 0;
+        int runWidth = 0;
+        int runHeight = 0;
+        double[] runMap = null;
+        int referenceW = referenceWidth;
+        int referenceH = referenceHeight;
+        int renderedW = width;
+        int renderedH = height;
+
+        for (Step step : steps) {
+            int[] size = step.size(referenceW, referenceH);
+            if (step instanceof Geometric) {
+                if (runMap == null) {
+                    runReferenceWidth = referenceW;
+                    runReferenceHeight = referenceH;
+                    runWidth = renderedW;
+                    runHeight = renderedH;
+                    runMap = identity();
+                }
+                // Maps run from output back to input, so later steps multiply on the right
+                runMap = multiply(runMap, ((Geometric) step).map(referenceW, referenceH, size[0], size[1]));
+            } else {
+                if (runMap != null) {
+                    pass = geometricPass(runMap, runReferenceWidth, runReferenceHeight, runWidth, runHeight,
+                            referenceW, referenceH, scale);
+                    passes.add(pass);
+                    renderedW = pass.width;
+                    renderedH = pass.height;
+                    runMap = null;
+                }
+                if (pass == null || pass.filter != null) {
+                    pass = new Pass(null, renderedW, renderedH, scale);
+                    passes.add(pass);
+                }
+                if (step instanceof PixelStep) {
+                    pass.pixelSteps.add((PixelStep) step);
+                } else {
+                    pass.filter = (Filter) step;
+                }
+            }
+            referenceW = size[0];
+            referenceH = size[1];
+        }
+        if (runMap != null) {
+            passes.add(geometricPass(runMap, runReferenceWidth, runReferenceHeight, runWidth, runHeight,
+                    referenceW, referenceH, scale));
+        }
+        return passes;
+    }
+
+    /**
+     * A pass resampling through a run of geometric edits, in rendered pixels
+     */
+    private static Pass geometricPass(double[] referenceMap, int inReferenceWidth, int inReferenceHeight,
+                                      int inWidth, int inHeight, int outReferenceWidth, int outReferenceHeight,
+                                      double scale) {
+        int outWidth = Math.max(1, (int) Math.round(outReferenceWidth * scale));
+        int outHeight = Math.max(1, (int) Math.round(outReferenceHeight * scale));
+        double[] map = referenceMap;
+        if (inWidth != inReferenceWidth || inHeight != inReferenceHeight
+                || outWidth != outReferenceWidth || outHeight != outReferenceHeight) {
+            double[] toReference = {
+                    (double) outReferenceWidth / outWidth, 0, 0,
+                    0, (double) outReferenceHeight / outHeight, 0,
+                    0, 0, 1};
+            double[] fromReference = {
+                    (double) inWidth / inReferenceWidth, 0, 0,
+                    0, (double) inHeight / inReferenceHeight, 0,
+                    0, 0, 1};
+            map = multiply(fromReference, multiply(referenceMap, toReference));
+        }
+        boolean identity = outWidth == inWidth && outHeight == inHeight && isIdentity(map);
+        return new Pass(identity ? null : map, outWidth, outHeight, scale);
+    }
+
+    private EditPipeline then(Step step) {
+        List<Step> next = new ArrayList<>(steps);
+        next.add(step);
+        return new EditPipeline(Collections.unmodifiableList(next));
+    }
+
+    private static double[] identity() {
+        return new double[]{1, 0, 0, 0, 1, 0, 0, 0, 1};
+    }
+
+    private static boolean isIdentity(double[] m) {
+        return m[0] == 1 && m[1] == 0 && m[2] == 0 && m[3] == 0 && m[4] == 1 && m[5] == 0
+                && m[6] == 0 && m[7] == 0 && m[8] == 1;
+    }
+
+    /**
+     * @return Whether the map sends pixel centres to pixel centres: a signed
+     * permutation of the axes and a whole-pixel shift, with no perspective
+     */
+    static boolean movesWholePixels(double[] m) {
+        boolean axesKept = m[1] == 0 && m[3] == 0 && Math.abs(m[0]) == 1 && Math.abs(m[4]) == 1;
+        boolean axesSwapped = m[0] == 0 && m[4] == 0 && Math.abs(m[1]) == 1 && Math.abs(m[3]) == 1;
+        return (axesKept || axesSwapped) && m[6] == 0 && m[7] == 0 && m[8] == 1
+                && m[2] == Math.rint(m[2]) && m[5] == Math.rint(m[5]);
+    }
+
+    /**
+     * @return a * b for 3x3 matrices, row by row
+     */
+    static double[] multiply(double[] a, double[] b) {
+        double[] product = new double[9];
+        for (int row = 0; row < 3; row++) {
+            for (int column = 0; column < 3; column++) {
+                product[row * 3 + column] = a[row * 3] * b[column]
+                        + a[row * 3 + 1] * b[3 + column]
+                        + a[row * 3 + 2] * b[6 + column];
+            }
+        }
+        return product;
+    }
+
+    /**
+     * One walk over the pixels: resample through a map if there is one, then
+     * the per-pixel edits on every pixel; a whole-image filter may follow
+     */
+    static final class Pass {
+        // Output to input, in continuous coordinates where pixel centres sit at halves; null to keep pixels
+        final double[] map;
+        final int width;
+        final int height;
+        // Rendered pixels per reference pixel
+        final double scale;
+        final List<PixelStep> pixelSteps = new ArrayList<>();
+        Filter filter;
+
+        Pass(double[] map, int width, int height, double scale) {
+            this.map = map;
+            this.width = width;
+            this.height = height;
+            this.scale = scale;
+        }
+
+        Raster run(Raster input, boolean inputOwned, ForkJoinPool pool) {
+            // Without a map the pixels stay where they are; edit them in place if they are ours
+            int[] output = map == null && inputOwned ? input.pixels : new int[width * height];
+            PixelOperation[] operations = new PixelOperation[pixelSteps.size()];
+            for (int i = 0; i < operations.length; i++) {
+                operations[i] = pixelSteps.get(i).prepare(width, height, (float) scale);
+            }
+            pool.invoke(new Rows(this, input, output, operations, 0, height));
+            return new Raster(output, width, height);
+        }
+
+        void renderRows(Raster input, int[] output, PixelOperation[] operations, int startRow, int endRow) {
+            boolean wholePixels = map != null && movesWholePixels(map);
+            for (int y = startRow; y < endRow; y++) {
+                int row = y * width;
+                double centreY = y + 0.5;
+                for (int x = 0; x < width; x++) {
+                    int pixel;
+                    if (map == null) {
+                        pixel = input.pixels[row + x];
+                    } else {
+                        double centreX = x + 0.5;
+                        double w = map[6] * centreX + map[7] * centreY + map[8];
+                        double sourceX = (map[0] * centreX + map[1] * centreY + map[2]) / w;
+                        double sourceY = (map[3] * centreX + map[4] * centreY + map[5]) / w;
+                        if (wholePixels) {
+                            int column = clamp((int) Math.floor(sourceX), input.width - 1);
+                            int line = clamp((int) Math.floor(sourceY), input.height - 1);
+                            pixel = input.pixels[line * input.width + column];
+                        } else {
+                            pixel = PerspectiveWarp.sampleBilinear(input.pixels, input.width, input.height,
+                                    sourceX, sourceY);
+                        }
+                    }
+                    for (PixelOperation operation : operations) {
+                        pixel = operation.apply(pixel, row + x);
+                    }
+                    output[row + x] = pixel;
+                }
+            }
+        }
+
+        private static int clamp(int value, int max) {
+            return value < 0 ? 0 : Math.min(value, max);
+        }
+    }
+
+    /**
+     * Output rows [startRow, endRow) of a pass, split in halves until a band is small enough
+     */
+    @SuppressWarnings("serial") // A fork/join task is never serialized
+    private static final class Rows extends RecursiveAction {
+        private final Pass pass;
+        private final Raster input;
+        private final int[] output;
+        private final PixelOperation[] operations;
+        private final int startRow;
+        private final int endRow;
+
+        Rows(Pass pass, Raster input, int[] output, PixelOperation[] operations, int startRow, int endRow) {
+            this.pass = pass;
+            this.input = input;
+            this.output = output;
+            this.operations = operations;
+            this.startRow = startRow;
+            this.endRow = endRow;
+        }
+
+        @Override
+        protected void compute() {
+            if (endRow - startRow <= BAND_ROWS) {
+                pass.renderRows(input, output, operations, startRow, endRow);
+                return;
+            }
+            int middle = (startRow + endRow) >>> 1;
+            invokeAll(new Rows(pass, input, output, operations, startRow, middle),
+                    new Rows(pass, input, output, operations, middle, endRow));
+        }
+    }
+
+    /**
+     * One edit, sizes in reference pixels
+     */
+    private abstract static class Step {
+        abstract int[] size(int width, int height);
+
+        /**
+         * Write a tag byte, then the parameters {@link #read} expects after it
+         */
+        abstract void write(DataOutputStream out) throws IOException;
+    }
+
+    private abstract static class Geometric extends Step {
+        /**
+         * @return 3x3 map from output to input coordinates, row by row
+         */
+        abstract double[] map(int inWidth, int inHeight, int outWidth, int outHeight);
+    }
+
+    private abstract static class PixelStep extends Step {
+        @Override
+        int[] size(int width, int height) {
+            return new int[]{width, height};
+        }
+
+        /**
+         * Get ready for a pass over an image of this rendered size
+         */
+        abstract PixelOperation prepare(int width, int height, float scale);
+    }
+
+    private interface PixelOperation {
+        int apply(int pixel, int index);
+    }
+
+    private static final class Rotate extends Geometric {
+        static final int TAG = 1;
+        private final int quarterTurns;
+
+        Rotate(int quarterTurns) {
+            this.quarterTurns = quarterTurns;
+        }
+
+        @Override
+        int[] size(int width, int height) {
+            return quarterTurns % 2 == 0 ? new int[]{width, height} : new int[]{height, width};
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeByte(TAG);
+            out.writeByte(quarterTurns);
+        }
+
+        @Override
+        double[] map(int inWidth, int inHeight, int outWidth, int outHeight) {
+            switch (quarterTurns) {
+                case 1:
+                    // The left edge becomes the top: x = Y, y = H - X
+                    return new double[]{0, 1, 0, -1, 0, inHeight, 0, 0, 1};
+                case 2:
+                    return new double[]{-1, 0, inWidth, 0, -1, inHeight, 0, 0, 1};
+                default:
+                    // The right edge becomes the top: x = W - Y, y = X
+                    return new double[]{0, -1, inWidth, 1, 0, 0, 0, 0, 1};
+            }
+        }
+    }
+
+    private static final class Crop extends Geometric {
+        static final int TAG = 2;
+        private final int left;
+        private final int top;
+        private final int right;
+        private final int bottom;
+
+        Crop(int left, int top, int right, int bottom) {
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+        }
+
+        @Override
+        int[] size(int width, int height) {
+            return new int[]{right - left, bottom - top};
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeByte(TAG);
+            out.writeInt(left);
+            out.writeInt(top);
+            out.writeInt(right);
+            out.writeInt(bottom);
+        }
+
+        @Override
+        double[] map(int inWidth, int inHeight, int outWidth, int outHeight) {
+            return new double[]{1, 0, left, 0, 1, top, 0, 0, 1};
+        }
+    }
+
+    private static final class Warp extends Geometric {
+        static final int TAG = 3;
+        private final Quad quad;
+
+        Warp(Quad quad) {
+            this.quad = quad;
+        }
+
+        @Override
+        int[] size(int width, int height) {
+            return new int[]{PerspectiveWarp.outputWidth(quad), PerspectiveWarp.outputHeight(quad)};
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeByte(TAG);
+            for (int corner = 0; corner < 4; corner++) {
+                out.writeFloat(quad.getX(corner));
+                out.writeFloat(quad.getY(corner));
+            }
+        }
+
+        @Override
+        double[] map(int inWidth, int inHeight, int outWidth, int outHeight) {
+            double[] h = PerspectiveWarp.squareToQuad(quad);
+            double[] square = {h[0], h[1], h[2], h[3], h[4], h[5], h[6], h[7], 1};
+            // Output pixels to the unit square first
+            return multiply(square, new double[]{1.0 / outWidth, 0, 0, 0, 1.0 / outHeight, 0, 0, 0, 1});
+        }
+    }
+
+    private static final class Grayscale extends PixelStep {
+        static final int TAG = 4;
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeByte(TAG);
+        }
+
+        @Override
+        PixelOperation prepare(int width, int height, float scale) {
+            return (pixel, index) -> 0xFF000000 | DocumentFilter.luma(pixel) * 0x010101;
+        }
+    }
+
+    private static final class OverlayStep extends PixelStep {
+        private final Overlay overlay;
+
+        OverlayStep(Overlay overlay) {
+            this.overlay = overlay;
+        }
+
+        @Override
+        PixelOperation prepare(int width, int height, float scale) {
+            int[] layer = overlay.render(width, height, scale);
+            return (pixel, index) -> over(layer[index], pixel);
+        }
+
+        @Override
+        void write(DataOutputStream out) {
+            throw new IllegalArgumentException("Overlays are drawn at render time and cannot be stored");
+        }
+    }
+
+    /**
+     * Whole-image {@link DocumentFilter}; ends a pass
+     */
+    private static final class Filter extends Step {
+        static final int TAG = 5;
+        private final DocumentFilter.Mode mode;
+        private final boolean stretchContrast;
+
+        Filter(DocumentFilter.Mode mode, boolean stretchContrast) {
+            this.mode = mode;
+            this.stretchContrast = stretchContrast;
+        }
+
+        @Override
+        int[] size(int width, int height) {
+            return new int[]{width, height};
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeByte(TAG);
+            // By name, so reordering the modes keeps stored recipes
+            out.writeUTF(mode.name());
+            out.writeBoolean(stretchContrast);
+        }
+
+        void apply(Raster image, ForkJoinPool pool) {
+            DocumentFilter.apply(image.pixels, image.width, image.height, mode, stretchContrast, pool);
+        }
+    }
+
+    /**
+     * Blend a pixel that is not premultiplied over another
+     */
+    static int over(int top, int bottom) {
+        int topAlpha = top >>> 24;
+        if (topAlpha == 0) {
+            return bottom;
+        }
+        if (topAlpha == 255) {
+            return top;
+        }
+        int bottomAlpha = bottom >>> 24;
+        // Out of 255 * 255, to round once
+        int bottomShare = bottomAlpha * (255 - topAlpha);
+        int alpha = topAlpha * 255 + bottomShare;
+        int result = ((alpha + 127) / 255) << 24;
+        for (int shift = 0; shift <= 16; shift += 8) {
+            int channel = (((top >>> shift) & 0xFF) * topAlpha * 255
+                    + ((bottom >>> shift) & 0xFF) * bottomShare + alpha / 2) / alpha;
+            result |= channel << shift;
+        }
+        return result;
+    }
+}
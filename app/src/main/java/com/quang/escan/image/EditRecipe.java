@@ -0,0 +1,98 @@
+package com.quang.escan.image;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The edits of a document and the image size their coordinates refer to,
+ * stored next to the untouched original instead of baking them into it.
+ * The edited image is rendered from the two whenever it is needed, so edits
+ * never compound JPEG loss, and renders can be redone when rendering improves.
+ *
+ * Stored as a few dozen bytes: a format byte, the reference size, then each
+ * edit as a tag and its parameters. Overlays are app code, not data, and
+ * cannot be stored. Plain Java, so it is unit tested on the JVM.
+ */
+public final class EditRecipe {
+
+    /**
+     * Version of the way recipes are rendered. Bump it when a filter or the
+     * resampling changes, so images rendered by an older version are rendered again.
+     */
+    public static final int RENDER_VERSION = 1;
+
+    private static final int FORMAT_VERSION = 1;
+
+    public final EditPipeline edits;
+    public final int referenceWidth;
+    public final int referenceHeight;
+
+    /**
+     * @param referenceWidth Width of the image the edits were made on; the original may be decoded at any size
+     */
+    public EditRecipe(EditPipeline edits, int referenceWidth, int referenceHeight) {
+        if (referenceWidth < 1 || referenceHeight < 1) {
+            throw new IllegalArgumentException("Empty reference size " + referenceWidth + "x" + referenceHeight);
+        }
+        this.edits = edits;
+        this.referenceWidth = referenceWidth;
+        this.referenceHeight = referenceHeight;
+    }
+
+    /**
+     * @throws IllegalArgumentException If an edit is an overlay
+     */
+    public byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(FORMAT_VERSION);
+            out.writeInt(referenceWidth);
+            out.writeInt(referenceHeight);
+            edits.write(out);
+        } catch (IOException e) {
+            // Only in-memory streams are involved
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @throws IllegalArgumentException If the bytes are not a recipe this version can read
+     */
+    public static EditRecipe fromBytes(byte[] bytes) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            int format = in.readUnsignedByte();
+            if (format != FORMAT_VERSION) {
+                throw new IllegalArgumentException("Unknown recipe format " + format);
+            }
+            int width = in.readInt();
+            int height = in.readInt();
+            EditPipeline edits = EditPipeline.read(in);
+            if (in.read() != -1) {
+                throw new IllegalArgumentException("Trailing bytes after recipe");
+            }
+            return new EditRecipe(edits, width, height);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Corrupt recipe", e);
+        }
+    }
+
+    /**
+     * @return {width, height} of the edited image when the original is at the reference size
+     */
+    public int[] outputSize() {
+        return edits.outputSize(referenceWidth, referenceHeight);
+    }
+
+    /**
+     * Render the edits over the original, decoded at any size of the reference proportions
+     */
+    public EditPipeline.Raster render(EditPipeline.Raster original, ForkJoinPool pool) {
+        return edits.render(original, referenceWidth, referenceHeight, pool);
+    }
+}
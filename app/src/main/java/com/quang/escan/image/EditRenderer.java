@@ -0,0 +1,73 @@
+package com.quang.escan.image;
+
+import android.graphics.Bitmap;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Renders an {@link EditPipeline} between bitmaps. The pipeline itself works
+ * on pixel arrays so that it runs on the JVM; this is the Android side.
+ */
+public final class EditRenderer {
+
+    private EditRenderer() {
+        // Utility class
+    }
+
+    /**
+     * Copy the pixels of a software bitmap
+     */
+    public static EditPipeline.Raster rasterOf(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] pixels = new int[width * height];
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+        return new EditPipeline.Raster(pixels, width, height);
+    }
+
+    /**
+     * @return A bitmap from the pool holding the pixels
+     */
+    public static Bitmap toBitmap(EditPipeline.Raster raster) {
+        Bitmap bitmap = BitmapPool.getInstance().acquire(raster.width, raster.height, Bitmap.Config.ARGB_8888);
+        bitmap.setPixels(raster.pixels, 0, raster.width, 0, 0, raster.width, raster.height);
+        return bitmap;
+    }
+
+    /**
+     * Render the edits over pixels already read, on the common pool. Blocks.
+     * @param referenceWidth Width of the image the edits' coordinates refer to
+     * @return The edited image from the pool
+     */
+    public static Bitmap render(EditPipeline edits, EditPipeline.Raster source,
+                                int referenceWidth, int referenceHeight) {
+        return toBitmap(edits.render(source, referenceWidth, referenceHeight, ForkJoinPool.commonPool()));
+    }
+
+    /**
+     * Render the edits over a software bitmap, which is left unchanged. Blocks.
+     * @return The edited image from the pool
+     */
+    public static Bitmap render(EditPipeline edits, Bitmap source, int referenceWidth, int referenceHeight) {
+        // The copy is ours, so edits that keep pixels in place write over it
+        return toBitmap(edits.renderInPlace(rasterOf(source), referenceWidth, referenceHeight,
+                ForkJoinPool.commonPool()));
+    }
+
+    /**
+     * Render the edits over a software bitmap and give it back to the pool as
+     * soon as its pixels are read, so it is never held with the rendered ones.
+     * For full-size images, where each copy of the pixels is tens of megabytes. Blocks.
+     * @return The edited image from the pool
+     */
+    public static Bitmap renderAndRelease(EditPipeline edits, Bitmap source,
+                                          int referenceWidth, int referenceHeight) {
+        EditPipeline.Raster raster;
+        try {
+            raster = rasterOf(source);
+        } finally {
+            BitmapPool.getInstance().release(source);
+        }
+        return toBitmap(edits.renderInPlace(raster, referenceWidth, referenceHeight, ForkJoinPool.commonPool()));
+    }
+}
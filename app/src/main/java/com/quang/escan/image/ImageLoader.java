@@ -0,0 +1,251 @@
+package com.quang.escan.image;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.TransitionDrawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.ImageView;
+
+import androidx.annotation.DrawableRes;
+
+import com.quang.escan.R;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads images into list rows without decoding on the main thread.
+ *
+ * Bitmaps come from {@link BitmapCache}; a hit is shown immediately, a miss
+ * shows the placeholder and is decoded on a small background pool, then
+ * faded in. Rows that stored a {@link BlurHash} show it decoded as the
+ * placeholder, and the image cross-fades over it. Each request is tagged on its ImageView: binding the view again
+ * or calling {@link #cancel(ImageView)} when it is recycled drops the old
+ * request, so a slow decode can never land on a row that moved on.
+ *
+ * Glide is on the classpath but knows nothing about the thumbnail store or
+ * the shared cache; this covers the few things the lists need.
+ */
+public class ImageLoader {
+    private static final String TAG = "ImageLoader";
+
+    private static final int DECODE_THREADS = 2;
+    private static final long FADE_IN_MS = 150;
+    // BlurHash placeholders are decoded this small and stretched; they are blurred anyway
+    private static final int BLUR_HASH_WIDTH_PX = 15;
+    private static final int BLUR_HASH_HEIGHT_PX = 20;
+    private static final String BLUR_HASH_SOURCE_PREFIX = "blurhash:";
+
+    private static volatile ImageLoader instance;
+
+    private final ThreadPoolExecutor decoders;
+    // One low-priority thread that warms the cache ahead of scrolling, nearest rows first
+    private final ThreadPoolExecutor prefetcher;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final BitmapCache cache;
+
+    /**
+     * Get singleton instance of ImageLoader
+     */
+    public static ImageLoader getInstance() {
+        if (instance == null) {
+            synchronized (ImageLoader.class) {
+                if (instance == null) {
+                    instance = new ImageLoader(BitmapCache.getInstance());
+                }
+            }
+        }
+        return instance;
+    }
+
+    private ImageLoader(BitmapCache cache) {
+        this.cache = cache;
+        AtomicInteger count = new AtomicInteger();
+        // Newest request first: during a fling the rows bound last are the ones on screen
+        decoders = new ThreadPoolExecutor(DECODE_THREADS, DECODE_THREADS, 0L, TimeUnit.MILLISECONDS,
+                new LifoQueue(), runnable -> new Thread(() -> {
+                    android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }, "escan-image-" + count.incrementAndGet()));
+        prefetcher = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), runnable -> new Thread(() -> {
+                    android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_LOWEST);
+                    runnable.run();
+                }, "escan-image-prefetch"));
+    }
+
+    /**
+     * Show a file in an ImageView, decoding it in the background on a cache miss.
+     * Must be called on the main thread.
+     * @param view The view to fill
+     * @param path The file to show, or null to show only the placeholder
+     * @param targetSizePx Longest edge to decode for
+     * @param placeholder Shown until the image is ready, and if it cannot be decoded
+     */
+    public void load(ImageView view, String path, int targetSizePx, @DrawableRes int placeholder) {
+        load(view, path, targetSizePx, null, placeholder);
+    }
+
+    /**
+     * Show a file in an ImageView, with its BlurHash as the placeholder while it decodes.
+     * Must be called on the main thread.
+     * @param blurHash Stored BlurHash of the image; null, empty or malformed falls back to the placeholder
+     */
+    public void load(ImageView view, String path, int targetSizePx, String blurHash,
+                     @DrawableRes int placeholder) {
+        cancel(view);
+
+        Bitmap cached = path != null ? cache.get(path, targetSizePx) : null;
+        if (cached != null) {
+            view.setImageBitmap(cached);
+            return;
+        }
+
+        Bitmap blurred = decodeBlurHash(blurHash);
+        if (blurred != null) {
+            view.setImageBitmap(blurred);
+        } else {
+            view.setImageResource(placeholder);
+        }
+        if (path == null) {
+            return;
+        }
+
+        Request request = new Request(view, path, targetSizePx, blurred);
+        view.setTag(R.id.image_loader_request, request);
+        request.future = decoders.submit(() -> decode(request));
+    }
+
+    /**
+     * Decode a file into the cache before any view asks for it, behind all visible requests
+     * @return The queued work, to cancel if the row is scrolled past first; null if already cached
+     */
+    public Future<?> prefetch(String path, int targetSizePx) {
+        if (path == null || cache.contains(path, targetSizePx)) {
+            return null;
+        }
+        return prefetcher.submit(() -> {
+            // A bind may have decoded it while this was queued
+            if (!cache.contains(path, targetSizePx)) {
+                cache.getOrDecode(path, targetSizePx);
+            }
+        });
+    }
+
+    /**
+     * Drop the pending request of a view, if any; call when its ViewHolder is recycled
+     */
+    public void cancel(ImageView view) {
+        Request request = (Request) view.getTag(R.id.image_loader_request);
+        if (request != null) {
+            request.cancelled = true;
+            if (request.future != null) {
+                // A queued decode never starts; a running one is dropped when it finishes
+                request.future.cancel(false);
+            }
+            view.setTag(R.id.image_loader_request, null);
+        }
+        view.animate().cancel();
+        view.setAlpha(1f);
+    }
+
+    private void decode(Request request) {
+        if (request.cancelled) {
+            return;
+        }
+
+        Bitmap bitmap;
+        try {
+            bitmap = cache.getOrDecode(request.path, request.targetSizePx);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Error decoding " + request.path, e);
+            return;
+        }
+        if (bitmap == null) {
+            return;
+        }
+
+        mainHandler.post(() -> deliver(request, bitmap));
+    }
+
+    private void deliver(Request request, Bitmap bitmap) {
+        ImageView view = request.view;
+        // The view may have been rebound to another row since
+        if (request.cancelled || view.getTag(R.id.image_loader_request) != request) {
+            return;
+        }
+        view.setTag(R.id.image_loader_request, null);
+        if (request.blurred != null) {
+            // Fading the view would flash the background; blend from the blurred image instead
+            TransitionDrawable transition = new TransitionDrawable(new Drawable[]{
+                    new BitmapDrawable(view.getResources(), request.blurred),
+                    new BitmapDrawable(view.getResources(), bitmap)});
+            transition.setCrossFadeEnabled(true);
+            view.setImageDrawable(transition);
+            transition.startTransition((int) FADE_IN_MS);
+            return;
+        }
+        view.setImageBitmap(bitmap);
+        view.setAlpha(0f);
+        view.animate().alpha(1f).setDuration(FADE_IN_MS);
+    }
+
+    /**
+     * Decode a BlurHash placeholder, or take it from the cache; cheap enough for the main thread
+     * @return The placeholder, or null if there is no usable hash
+     */
+    private Bitmap decodeBlurHash(String blurHash) {
+        if (blurHash == null || blurHash.isEmpty()) {
+            return null;
+        }
+        String source = BLUR_HASH_SOURCE_PREFIX + blurHash;
+        Bitmap bitmap = cache.get(source, BLUR_HASH_HEIGHT_PX);
+        if (bitmap != null) {
+            return bitmap;
+        }
+        if (!BlurHash.isValid(blurHash)) {
+            Log.e(TAG, "Ignoring malformed BlurHash " + blurHash);
+            return null;
+        }
+        int[] pixels = BlurHash.decode(blurHash, BLUR_HASH_WIDTH_PX, BLUR_HASH_HEIGHT_PX, 1);
+        // Decoded hashes are always opaque, so 16 bits per pixel lose nothing visible
+        bitmap = Bitmap.createBitmap(pixels, BLUR_HASH_WIDTH_PX, BLUR_HASH_HEIGHT_PX, Bitmap.Config.RGB_565);
+        cache.put(source, BLUR_HASH_HEIGHT_PX, bitmap);
+        return bitmap;
+    }
+
+    private static final class Request {
+        final ImageView view;
+        final String path;
+        final int targetSizePx;
+        // The BlurHash placeholder on screen while decoding, or null
+        final Bitmap blurred;
+        // Only written on the main thread; read by the decoder to skip dropped work early
+        volatile boolean cancelled;
+        Future<?> future;
+
+        Request(ImageView view, String path, int targetSizePx, Bitmap blurred) {
+            this.view = view;
+            this.path = path;
+            this.targetSizePx = targetSizePx;
+            this.blurred = blurred;
+        }
+    }
+
+    /**
+     * Work queue that hands out the most recently added task first
+     */
+    private static final class LifoQueue extends LinkedBlockingDeque<Runnable> {
+        @Override
+        public boolean offer(Runnable runnable) {
+            return offerFirst(runnable);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.quang.escan.image;
+
+import android.media.ExifInterface;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Rotates JPEG files by rewriting their EXIF orientation tag instead of
+ * their pixels.
+ *
+ * No pixel is decoded or re-encoded, so rotating loses no quality and needs
+ * no bitmap memory. It is not free: saving the tag rewrites the whole file,
+ * copying the compressed data through unchanged, so it costs about as much as
+ * copying a file of that size, far less than a decode and re-encode. Every decoder
+ * in the app honours the tag: {@link BitmapDecoder} through ImageDecoder,
+ * and {@link TiledImageView} through {@link #getRotationDegrees}.
+ */
+public final class ImageRotation {
+
+    // Orientations reached from each other by clockwise quarter turns
+    private static final int[] ROTATION_ORDER = {
+            ExifInterface.ORIENTATION_NORMAL,
+            ExifInterface.ORIENTATION_ROTATE_90,
+            ExifInterface.ORIENTATION_ROTATE_180,
+            ExifInterface.ORIENTATION_ROTATE_270};
+    private static final int[] FLIP_ORDER = {
+            ExifInterface.ORIENTATION_FLIP_HORIZONTAL,
+            ExifInterface.ORIENTATION_TRANSVERSE,
+            ExifInterface.ORIENTATION_FLIP_VERTICAL,
+            ExifInterface.ORIENTATION_TRANSPOSE};
+
+    private ImageRotation() {
+        // Utility class
+    }
+
+    /**
+     * @return Whether the file is a JPEG, whose orientation tag every decoder honours
+     */
+    public static boolean canRotateLosslessly(File file) {
+        byte[] magic = new byte[2];
+        try (InputStream in = new FileInputStream(file)) {
+            return in.read(magic) == 2 && (magic[0] & 0xFF) == 0xFF && (magic[1] & 0xFF) == 0xD8;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Rotate a JPEG clockwise by updating its orientation tag, rewriting the file
+     * @param degrees A multiple of 90
+     * @throws IOException If the file cannot be read or rewritten
+     */
+    public static void rotate(File file, int degrees) throws IOException {
+        ExifInterface exif = new ExifInterface(file);
+        int orientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        exif.setAttribute(ExifInterface.TAG_ORIENTATION, String.valueOf(rotate(orientation, degrees)));
+        exif.saveAttributes();
+    }
+
+    /**
+     * @return Clockwise degrees to turn the stored pixels to show them upright;
+     *         mirrored orientations report their rotation only, as this app never writes them
+     */
+    public static int getRotationDegrees(File file) throws IOException {
+        int orientation = new ExifInterface(file)
+                .getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_ROTATE_90:
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                return 90;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                return 180;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @return The orientation tag after turning an image with the given tag clockwise
+     */
+    static int rotate(int orientation, int degrees) {
+        if (degrees % 90 != 0) {
+            throw new IllegalArgumentException("Degrees must be a multiple of 90: " + degrees);
+        }
+        int quarterTurns = ((degrees / 90) % 4 + 4) % 4;
+        for (int[] order : new int[][]{ROTATION_ORDER, FLIP_ORDER}) {
+            for (int i = 0; i < order.length; i++) {
+                if (order[i] == orientation) {
+                    return order[(i + quarterTurns) % 4];
+                }
+            }
+        }
+        // Missing or unknown tags are taken as upright
+        return ROTATION_ORDER[quarterTurns];
+    }
+}
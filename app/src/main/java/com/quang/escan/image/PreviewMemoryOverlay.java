@@ -0,0 +1,154 @@
+package com.quang.escan.image;
+
+import android.app.Activity;
+import android.content.pm.ApplicationInfo;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.LayerDrawable;
+import android.util.Log;
+import android.util.TypedValue;
+import android.view.Gravity;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Debug-only label showing what the images on screen cost, next to what they
+ * would cost decoded as ARGB_8888.
+ *
+ * The label walks the current screen's views, so it reports per screen
+ * without any bookkeeping in the decoders: the home recent list, the library
+ * grid and the save screen each show their own numbers. Bitmaps shown in
+ * several views are counted once. Never attached in release builds.
+ */
+public class PreviewMemoryOverlay {
+    private static final String TAG = "PreviewMemoryOverlay";
+
+    private static final long REFRESH_MS = 1000;
+    private static final int ARGB_8888_BYTES_PER_PIXEL = 4;
+
+    private final Activity activity;
+    private final TextView label;
+    private long lastActualBytes = -1;
+
+    private final Runnable refresh = new Runnable() {
+        @Override
+        public void run() {
+            update();
+            label.postDelayed(this, REFRESH_MS);
+        }
+    };
+
+    /**
+     * Show the overlay on an activity if the app is debuggable; call after setContentView
+     */
+    public static void attachIfDebuggable(Activity activity) {
+        if ((activity.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) == 0) {
+            return;
+        }
+        ViewGroup content = activity.findViewById(android.R.id.content);
+        if (content != null) {
+            new PreviewMemoryOverlay(activity).attach(content);
+        }
+    }
+
+    private PreviewMemoryOverlay(Activity activity) {
+        this.activity = activity;
+        label = new TextView(activity);
+        label.setTextSize(TypedValue.COMPLEX_UNIT_SP, 10);
+        label.setTextColor(Color.WHITE);
+        label.setBackgroundColor(0x99000000);
+        int padding = Math.round(4 * activity.getResources().getDisplayMetrics().density);
+        label.setPadding(padding, padding, padding, padding);
+        // Purely informative; touches go to the screen underneath
+        label.setClickable(false);
+        label.setFocusable(false);
+        label.setImportantForAccessibility(View.IMPORTANT_FOR_ACCESSIBILITY_NO);
+    }
+
+    private void attach(ViewGroup content) {
+        content.addView(label, new FrameLayout.LayoutParams(
+                ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT,
+                Gravity.TOP | Gravity.END));
+        label.addOnAttachStateChangeListener(new View.OnAttachStateChangeListener() {
+            @Override
+            public void onViewAttachedToWindow(View view) {
+                view.post(refresh);
+            }
+
+            @Override
+            public void onViewDetachedFromWindow(View view) {
+                view.removeCallbacks(refresh);
+            }
+        });
+    }
+
+    private void update() {
+        Set<Bitmap> bitmaps = Collections.newSetFromMap(new IdentityHashMap<>());
+        collect(activity.getWindow().getDecorView(), bitmaps);
+
+        long actualBytes = 0;
+        long fullPrecisionBytes = 0;
+        for (Bitmap bitmap : bitmaps) {
+            actualBytes += bitmap.getAllocationByteCount();
+            fullPrecisionBytes += (long) bitmap.getWidth() * bitmap.getHeight() * ARGB_8888_BYTES_PER_PIXEL;
+        }
+        long savedBytes = fullPrecisionBytes - actualBytes;
+        int savedPercent = fullPrecisionBytes > 0 ? (int) (100 * savedBytes / fullPrecisionBytes) : 0;
+
+        String text = String.format(Locale.US, "%s: %d images, %s (ARGB_8888 %s, saved %s / %d%%)",
+                activity.getClass().getSimpleName(), bitmaps.size(), megabytes(actualBytes),
+                megabytes(fullPrecisionBytes), megabytes(savedBytes), savedPercent);
+        label.setText(text);
+        if (actualBytes != lastActualBytes) {
+            lastActualBytes = actualBytes;
+            Log.d(TAG, text);
+        }
+    }
+
+    /**
+     * Gather the bitmaps drawn by visible ImageViews under a view
+     */
+    private void collect(View view, Set<Bitmap> bitmaps) {
+        if (view == label || view.getVisibility() != View.VISIBLE) {
+            return;
+        }
+        if (view instanceof ImageView) {
+            collect(((ImageView) view).getDrawable(), bitmaps);
+        }
+        if (view instanceof ViewGroup) {
+            ViewGroup group = (ViewGroup) view;
+            for (int i = 0; i < group.getChildCount(); i++) {
+                collect(group.getChildAt(i), bitmaps);
+            }
+        }
+    }
+
+    private static void collect(Drawable drawable, Set<Bitmap> bitmaps) {
+        if (drawable instanceof BitmapDrawable) {
+            Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
+            if (bitmap != null && !bitmap.isRecycled()) {
+                bitmaps.add(bitmap);
+            }
+        } else if (drawable instanceof LayerDrawable) {
+            // Includes the BlurHash cross-fades of ImageLoader
+            LayerDrawable layers = (LayerDrawable) drawable;
+            for (int i = 0; i < layers.getNumberOfLayers(); i++) {
+                collect(layers.getDrawable(i), bitmaps);
+            }
+        }
+    }
+
+    private static String megabytes(long bytes) {
+        return String.format(Locale.US, "%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+}
@@ -0,0 +1,163 @@
+package com.quang.escan.image;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Four corners of a document in an image, in the order top left, top right,
+ * bottom right, bottom left.
+ *
+ * Coordinates are continuous: pixel (x, y) covers [x, x + 1) by [y, y + 1),
+ * so the quad (0, 0), (w, 0), (w, h), (0, h) is the whole image. Immutable
+ * and free of Android types, like the rest of the crop pipeline.
+ */
+public final class Quad {
+
+    public static final int TOP_LEFT = 0;
+    public static final int TOP_RIGHT = 1;
+    public static final int BOTTOM_RIGHT = 2;
+    public static final int BOTTOM_LEFT = 3;
+
+    // x0, y0, x1, y1, ... in corner order
+    private final float[] points;
+
+    public Quad(float topLeftX, float topLeftY, float topRightX, float topRightY,
+                float bottomRightX, float bottomRightY, float bottomLeftX, float bottomLeftY) {
+        this(new float[]{topLeftX, topLeftY, topRightX, topRightY,
+                bottomRightX, bottomRightY, bottomLeftX, bottomLeftY});
+    }
+
+    private Quad(float[] points) {
+        this.points = points;
+    }
+
+    /**
+     * @return The quad covering a whole image
+     */
+    public static Quad of(int width, int height) {
+        return new Quad(0, 0, width, 0, width, height, 0, height);
+    }
+
+    public float getX(int corner) {
+        return points[corner * 2];
+    }
+
+    public float getY(int corner) {
+        return points[corner * 2 + 1];
+    }
+
+    /**
+     * @return This quad with every coordinate multiplied by a factor, such as from a downscaled copy to the original
+     */
+    public Quad scale(float factor) {
+        return scale(factor, factor);
+    }
+
+    /**
+     * @return This quad with x and y multiplied by separate factors, for copies rounded to whole pixels
+     */
+    public Quad scale(float factorX, float factorY) {
+        float[] scaled = new float[points.length];
+        for (int i = 0; i < points.length; i += 2) {
+            scaled[i] = points[i] * factorX;
+            scaled[i + 1] = points[i + 1] * factorY;
+        }
+        return new Quad(scaled);
+    }
+
+    /**
+     * @return This quad moved by (dx, dy), such as into the coordinates of a region
+     */
+    public Quad offset(float dx, float dy) {
+        float[] moved = points.clone();
+        for (int i = 0; i < moved.length; i += 2) {
+            moved[i] += dx;
+            moved[i + 1] += dy;
+        }
+        return new Quad(moved);
+    }
+
+    /**
+     * @return This quad with every corner moved inside [0, width] by [0, height]
+     */
+    public Quad clamp(int width, int height) {
+        float[] clamped = points.clone();
+        for (int i = 0; i < clamped.length; i += 2) {
+            clamped[i] = Math.max(0, Math.min(width, clamped[i]));
+            clamped[i + 1] = Math.max(0, Math.min(height, clamped[i + 1]));
+        }
+        return new Quad(clamped);
+    }
+
+    public int getLeft() {
+        return (int) Math.floor(Math.min(Math.min(points[0], points[2]), Math.min(points[4], points[6])));
+    }
+
+    public int getTop() {
+        return (int) Math.floor(Math.min(Math.min(points[1], points[3]), Math.min(points[5], points[7])));
+    }
+
+    public int getRight() {
+        return (int) Math.ceil(Math.max(Math.max(points[0], points[2]), Math.max(points[4], points[6])));
+    }
+
+    public int getBottom() {
+        return (int) Math.ceil(Math.max(Math.max(points[1], points[3]), Math.max(points[5], points[7])));
+    }
+
+    /**
+     * @return Length of the side from one corner to the next, clockwise
+     */
+    public double sideLength(int corner) {
+        int next = (corner + 1) % 4;
+        return Math.hypot(getX(next) - getX(corner), getY(next) - getY(corner));
+    }
+
+    /**
+     * @return The enclosed area, by the shoelace formula
+     */
+    public double area() {
+        double twiceArea = 0;
+        for (int corner = 0; corner < 4; corner++) {
+            int next = (corner + 1) % 4;
+            twiceArea += (double) getX(corner) * getY(next) - (double) getX(next) * getY(corner);
+        }
+        return Math.abs(twiceArea) / 2;
+    }
+
+    /**
+     * @return Whether the corners turn the same way all round, so the quad is a
+     *         convex shape in clockwise order on screen
+     */
+    public boolean isConvex() {
+        for (int corner = 0; corner < 4; corner++) {
+            int next = (corner + 1) % 4;
+            int after = (corner + 2) % 4;
+            double cross = (double) (getX(next) - getX(corner)) * (getY(after) - getY(next))
+                    - (double) (getY(next) - getY(corner)) * (getX(after) - getX(next));
+            // Y grows downwards, so clockwise on screen is a positive cross product
+            if (cross <= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Quad)) return false;
+        return Arrays.equals(points, ((Quad) o).points);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(points);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "Quad[(%.1f, %.1f) (%.1f, %.1f) (%.1f, %.1f) (%.1f, %.1f)]",
+                points[0], points[1], points[2], points[3], points[4], points[5], points[6], points[7]);
+    }
+}
@@ -0,0 +1,229 @@
+package com.quang.escan.image;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+
+/**
+ * Persistent store of small WebP thumbnails for document images.
+ *
+ * Thumbnails are keyed by a hash of the source image's content, so identical
+ * images share files and a changed image never shows a stale thumbnail.
+ * Each key has one file per {@link Size} bucket. List screens decode only
+ * these files and never touch the full-size scans.
+ */
+public class ThumbnailStore {
+    private static final String TAG = "ThumbnailStore";
+
+    private static final String DIRECTORY = "thumbnails";
+    private static final String EXTENSION = ".webp";
+    private static final int WEBP_QUALITY = 75;
+    // BlurHash only keeps a few components, so a tiny source is as good as a large one
+    private static final int BLUR_HASH_SOURCE_PX = 32;
+
+    /**
+     * Thumbnail size buckets, by longest edge in pixels
+     */
+    public enum Size {
+        // Recent files rows on the home screen
+        SMALL(160),
+        // Library grid cells
+        LARGE(384);
+
+        private final int maxEdgePx;
+
+        Size(int maxEdgePx) {
+            this.maxEdgePx = maxEdgePx;
+        }
+
+        public int getMaxEdgePx() {
+            return maxEdgePx;
+        }
+    }
+
+    private static volatile ThumbnailStore instance;
+
+    private final File directory;
+
+    /**
+     * Get singleton instance of ThumbnailStore
+     */
+    public static ThumbnailStore getInstance(Context context) {
+        if (instance == null) {
+            synchronized (ThumbnailStore.class) {
+                if (instance == null) {
+                    instance = new ThumbnailStore(new File(context.getApplicationContext().getFilesDir(), DIRECTORY));
+                }
+            }
+        }
+        return instance;
+    }
+
+    ThumbnailStore(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Write thumbnails in every size bucket for an image. Blocks; call off the main thread.
+     * @param image The full-size source image
+     * @return The key to store with the document
+     * @throws IOException If the image cannot be read or the thumbnails cannot be written
+     */
+    public String createThumbnails(File image) throws IOException {
+        String key = hash(image);
+        if (hasAll(key)) {
+            return key;
+        }
+
+        Bitmap largest = BitmapDecoder.decode(image, Size.LARGE.getMaxEdgePx(), Size.LARGE.getMaxEdgePx(),
+                BitmapDecoder.Purpose.EXPORT);
+
+        try {
+            for (Size size : Size.values()) {
+                Bitmap scaled = scaleToFit(largest, size.getMaxEdgePx());
+                try {
+                    write(scaled, getFile(key, size));
+                } finally {
+                    if (scaled != largest) {
+                        scaled.recycle();
+                    }
+                }
+            }
+        } finally {
+            largest.recycle();
+        }
+
+        Log.d(TAG, "Created thumbnails " + key + " for " + image.getName());
+        return key;
+    }
+
+    /**
+     * Compute the BlurHash placeholder of a thumbnail made by {@link #createThumbnails}.
+     * Blocks; call off the main thread.
+     * @return The hash to store with the document
+     * @throws IOException If the thumbnail cannot be read
+     */
+    public String createBlurHash(String key) throws IOException {
+        Bitmap bitmap = BitmapDecoder.decode(getFile(key, Size.SMALL),
+                BLUR_HASH_SOURCE_PX, BLUR_HASH_SOURCE_PX, BitmapDecoder.Purpose.EXPORT);
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] pixels = new int[width * height];
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+        bitmap.recycle();
+        return BlurHash.encode(pixels, width, height, BlurHash.COMPONENTS_X, BlurHash.COMPONENTS_Y);
+    }
+
+    /**
+     * @return The thumbnail file for a key and size; it may not exist yet
+     */
+    public File getFile(String key, Size size) {
+        return new File(directory, key + "_" + size.name().toLowerCase() + EXTENSION);
+    }
+
+    /**
+     * @return Whether a usable key was stored for the document
+     */
+    public static boolean isValidKey(String key) {
+        return key != null && !key.isEmpty();
+    }
+
+    /**
+     * Delete thumbnails whose key is no longer used by any document
+     * @param referencedKeys Every key still stored in the library
+     * @return The number of files deleted
+     */
+    public int deleteUnreferenced(Set<String> referencedKeys) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return 0;
+        }
+
+        int deleted = 0;
+        for (File file : files) {
+            String name = file.getName();
+            int separator = name.lastIndexOf('_');
+            String key = separator > 0 ? name.substring(0, separator) : name;
+            if (!referencedKeys.contains(key) && file.delete()) {
+                deleted++;
+            }
+        }
+        if (deleted > 0) {
+            Log.d(TAG, "Deleted " + deleted + " unreferenced thumbnails");
+        }
+        return deleted;
+    }
+
+    private boolean hasAll(String key) {
+        for (Size size : Size.values()) {
+            if (!getFile(key, size).exists()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Bitmap scaleToFit(Bitmap bitmap, int maxEdgePx) {
+        int longestEdge = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (longestEdge <= maxEdgePx) {
+            return bitmap;
+        }
+        float scale = (float) maxEdgePx / longestEdge;
+        return Bitmap.createScaledBitmap(bitmap,
+                Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                Math.max(1, Math.round(bitmap.getHeight() * scale)),
+                true);
+    }
+
+    private void write(Bitmap bitmap, File target) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+
+        // Write to a temporary file first so readers never see a partial thumbnail
+        File temp = new File(directory, target.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            if (!bitmap.compress(Bitmap.CompressFormat.WEBP_LOSSY, WEBP_QUALITY, out)) {
+                throw new IOException("Cannot encode " + target);
+            }
+        }
+        if (!temp.renameTo(target)) {
+            temp.delete();
+            throw new IOException("Cannot move " + temp + " to " + target);
+        }
+    }
+
+    private static String hash(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is always available", e);
+        }
+
+        byte[] buffer = new byte[16 * 1024];
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+
+        // 128 bits are plenty to tell a user's scans apart and keep file names short
+        byte[] hash = digest.digest();
+        StringBuilder hex = new StringBuilder(32);
+        for (int i = 0; i < 16; i++) {
+            hex.append(String.format("%02x", hash[i]));
+        }
+        return hex.toString();
+    }
+}
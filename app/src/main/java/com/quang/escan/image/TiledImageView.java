@@ -0,0 +1,535 @@
+package com.quang.escan.image;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.AttributeSet;
+import android.util.Log;
+import android.util.LruCache;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+import android.widget.OverScroller;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pan and zoom view for large scans that only decodes what is on screen.
+ *
+ * A screen-sized preview of the whole image, taken from {@link BitmapCache},
+ * is always drawn first. Once zoomed in past it, the image is cut into
+ * tiles of {@link #TILE_SIZE_PX} decoded pixels at the power-of-two sample
+ * size that matches the zoom, and only visible tiles are decoded with
+ * {@link BitmapRegionDecoder} on a small pool. Decoded tiles of every level
+ * share one byte-bounded LRU cache, and evicted tiles go to {@link BitmapPool}
+ * to be decoded into again. While a tile is missing, coarser cached tiles
+ * and the preview fill its place, so drawing never waits on a decode.
+ *
+ * Region decoding ignores EXIF orientation, so the view maps each upright
+ * tile back to the stored pixels and turns it after decoding. Mirrored
+ * orientations are shown by their rotation only.
+ */
+public class TiledImageView extends View {
+    private static final String TAG = "TiledImageView";
+
+    // Edge of a tile in decoded pixels, whatever the sample size
+    private static final int TILE_SIZE_PX = 512;
+    private static final int DECODE_THREADS = 3;
+    private static final int MAX_TILE_CACHE_BYTES = 24 * 1024 * 1024;
+    // Deepest zoom, in screen pixels per image pixel
+    private static final float MAX_SCALE = 2f;
+    private static final float DOUBLE_TAP_ZOOM = 3f;
+
+    private static ExecutorService decodePool;
+
+    /**
+     * Result of {@link #setImage}, delivered on the main thread
+     */
+    public interface OnImageLoadListener {
+        void onImageLoaded();
+
+        void onImageError(Exception e);
+    }
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect source = new Rect();
+    private final Rect destination = new Rect();
+
+    private final LruCache<Long, Bitmap> tiles;
+    // Tiles queued or being decoded; only touched on the main thread
+    private final Set<Long> pendingTiles = new HashSet<>();
+    // Region decoders are not safe to share, so each concurrent decode borrows its own
+    private final ConcurrentLinkedQueue<BitmapRegionDecoder> idleDecoders = new ConcurrentLinkedQueue<>();
+
+    private final ScaleGestureDetector scaleDetector;
+    private final GestureDetector gestureDetector;
+    private final OverScroller scroller;
+
+    // Bumped whenever the image changes; results of older work are dropped
+    private volatile int generation;
+    private File file;
+    private Bitmap preview;
+    // Upright size, after the EXIF rotation
+    private int imageWidth;
+    private int imageHeight;
+    // Clockwise turn from the stored pixels to upright, and the stored size
+    private int rotationDegrees;
+    private int storedWidth;
+    private int storedHeight;
+
+    // Screen pixels per image pixel, and where the image origin is on screen
+    private float scale;
+    private float minScale;
+    private float translateX;
+    private float translateY;
+
+    // What is on screen, read by decode tasks to skip tiles scrolled away from
+    private volatile int visibleSampleSize;
+    private volatile Rect visibleRegion = new Rect();
+
+    public TiledImageView(Context context) {
+        this(context, null);
+    }
+
+    public TiledImageView(Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+        tiles = new LruCache<Long, Bitmap>((int) Math.min(MAX_TILE_CACHE_BYTES,
+                Runtime.getRuntime().maxMemory() / 8)) {
+            @Override
+            protected int sizeOf(Long key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Long key, Bitmap oldValue, Bitmap newValue) {
+                // Only ever drawn by this view, so the next tile can be decoded into it
+                BitmapPool.getInstance().release(oldValue);
+            }
+        };
+        scaleDetector = new ScaleGestureDetector(context, new ScaleListener());
+        gestureDetector = new GestureDetector(context, new PanListener());
+        scroller = new OverScroller(context);
+    }
+
+    /**
+     * Show an image file, replacing the current one
+     * @param imageFile The image to show
+     * @param listener Told when the preview is shown or the file cannot be read; may be null
+     */
+    public void setImage(File imageFile, @Nullable OnImageLoadListener listener) {
+        recycle();
+        file = imageFile;
+        int requestGeneration = generation;
+        int previewEdgePx = BitmapDecoder.screenEdgePx(getContext());
+
+        pool().execute(() -> {
+            try {
+                BitmapRegionDecoder decoder = openDecoder(imageFile);
+                int width = decoder.getWidth();
+                int height = decoder.getHeight();
+                releaseDecoder(decoder, requestGeneration);
+                int rotation = ImageRotation.getRotationDegrees(imageFile);
+
+                Bitmap previewBitmap = BitmapCache.getInstance()
+                        .getOrDecode(imageFile.getAbsolutePath(), previewEdgePx);
+                if (previewBitmap == null) {
+                    throw new IOException("Cannot decode " + imageFile);
+                }
+
+                mainHandler.post(() -> {
+                    if (requestGeneration != generation) {
+                        return;
+                    }
+                    rotationDegrees = rotation;
+                    storedWidth = width;
+                    storedHeight = height;
+                    boolean quarterTurn = rotation == 90 || rotation == 270;
+                    imageWidth = quarterTurn ? height : width;
+                    imageHeight = quarterTurn ? width : height;
+                    preview = previewBitmap;
+                    fitToView();
+                    if (listener != null) {
+                        listener.onImageLoaded();
+                    }
+                });
+            } catch (IOException e) {
+                Log.e(TAG, "Error opening " + imageFile, e);
+                mainHandler.post(() -> {
+                    if (requestGeneration == generation && listener != null) {
+                        listener.onImageError(e);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Drop the image, its tiles and its decoders
+     */
+    public void recycle() {
+        generation++;
+        file = null;
+        preview = null;
+        imageWidth = 0;
+        imageHeight = 0;
+        rotationDegrees = 0;
+        pendingTiles.clear();
+        tiles.evictAll();
+        scroller.forceFinished(true);
+        closeIdleDecoders();
+        invalidate();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        recycle();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        if (preview != null) {
+            fitToView();
+        }
+    }
+
+    @Override
+    protected void onDraw(@NonNull Canvas canvas) {
+        super.onDraw(canvas);
+        if (preview == null) {
+            return;
+        }
+
+        // The preview covers the whole image and sits under every tile
+        source.set(0, 0, preview.getWidth(), preview.getHeight());
+        toScreen(0, 0, imageWidth, imageHeight, destination);
+        canvas.drawBitmap(preview, source, destination, paint);
+
+        int left = Math.max(0, (int) Math.floor(-translateX / scale));
+        int top = Math.max(0, (int) Math.floor(-translateY / scale));
+        int right = Math.min(imageWidth, (int) Math.ceil((getWidth() - translateX) / scale));
+        int bottom = Math.min(imageHeight, (int) Math.ceil((getHeight() - translateY) / scale));
+        int sampleSize = sampleSizeFor(scale);
+        Rect region = visibleRegion;
+        visibleSampleSize = sampleSize;
+        if (region.left != left || region.top != top || region.right != right || region.bottom != bottom) {
+            visibleRegion = new Rect(left, top, right, bottom);
+        }
+
+        // The preview is sharp enough at this zoom
+        float previewScale = (float) preview.getWidth() / imageWidth;
+        if (scale <= previewScale) {
+            return;
+        }
+
+        // Coarser levels that are still sharper than the preview go first,
+        // so finer tiles draw over them as they arrive
+        int coarsest = sampleSize;
+        while (1f / (coarsest * 2) > previewScale) {
+            coarsest *= 2;
+        }
+        for (int level = coarsest; level > sampleSize; level /= 2) {
+            drawTiles(canvas, level, left, top, right, bottom, false);
+        }
+        drawTiles(canvas, sampleSize, left, top, right, bottom, true);
+    }
+
+    @Override
+    public void computeScroll() {
+        if (scroller.computeScrollOffset()) {
+            translateX = scroller.getCurrX();
+            translateY = scroller.getCurrY();
+            constrain();
+            postInvalidateOnAnimation();
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (preview == null) {
+            return false;
+        }
+        // Pinches and pans of a zoomed image belong to this view, not the scrolling parent
+        if (event.getPointerCount() > 1 || scale > minScale * 1.01f) {
+            getParent().requestDisallowInterceptTouchEvent(true);
+        }
+        boolean handled = scaleDetector.onTouchEvent(event);
+        handled |= gestureDetector.onTouchEvent(event);
+        return handled || super.onTouchEvent(event);
+    }
+
+    private void drawTiles(Canvas canvas, int sampleSize, int left, int top, int right, int bottom,
+                           boolean request) {
+        int tileImageSize = TILE_SIZE_PX * sampleSize;
+        int firstColumn = left / tileImageSize;
+        int lastColumn = (right - 1) / tileImageSize;
+        int firstRow = top / tileImageSize;
+        int lastRow = (bottom - 1) / tileImageSize;
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                long key = tileKey(sampleSize, column, row);
+                Bitmap tile = tiles.get(key);
+                if (tile != null) {
+                    int x = column * tileImageSize;
+                    int y = row * tileImageSize;
+                    source.set(0, 0, tile.getWidth(), tile.getHeight());
+                    toScreen(x, y, Math.min(imageWidth, x + tileImageSize),
+                            Math.min(imageHeight, y + tileImageSize), destination);
+                    canvas.drawBitmap(tile, source, destination, paint);
+                } else if (request) {
+                    requestTile(key, sampleSize, column, row);
+                }
+            }
+        }
+    }
+
+    private void requestTile(long key, int sampleSize, int column, int row) {
+        if (!pendingTiles.add(key)) {
+            return;
+        }
+
+        int requestGeneration = generation;
+        File imageFile = file;
+        int tileImageSize = TILE_SIZE_PX * sampleSize;
+        Rect region = new Rect(column * tileImageSize, row * tileImageSize,
+                Math.min(imageWidth, (column + 1) * tileImageSize),
+                Math.min(imageHeight, (row + 1) * tileImageSize));
+        int rotation = rotationDegrees;
+        Rect storedRegion = toStored(region, rotation, storedWidth, storedHeight);
+
+        pool().execute(() -> {
+            Bitmap tile = null;
+            // Skip tiles that were scrolled or zoomed away from while queued
+            if (requestGeneration == generation && isStillVisible(sampleSize, region)) {
+                try {
+                    BitmapRegionDecoder decoder = openDecoder(imageFile);
+                    try {
+                        BitmapFactory.Options options = new BitmapFactory.Options();
+                        options.inSampleSize = sampleSize;
+                        options.inMutable = true;
+                        // A region decoder keeps the size of inBitmap, so only full tiles reuse one
+                        if (region.width() == tileImageSize && region.height() == tileImageSize) {
+                            options.inBitmap = BitmapPool.getInstance()
+                                    .acquire(TILE_SIZE_PX, TILE_SIZE_PX, Bitmap.Config.ARGB_8888);
+                        }
+                        tile = decoder.decodeRegion(storedRegion, options);
+                    } finally {
+                        releaseDecoder(decoder, requestGeneration);
+                    }
+                    if (tile != null && rotation != 0) {
+                        Matrix matrix = new Matrix();
+                        matrix.postRotate(rotation);
+                        Bitmap stored = tile;
+                        tile = Bitmap.createBitmap(stored, 0, 0, stored.getWidth(), stored.getHeight(),
+                                matrix, false);
+                        BitmapPool.getInstance().release(stored);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    Log.e(TAG, "Error decoding tile " + region, e);
+                }
+            }
+
+            Bitmap decoded = tile;
+            mainHandler.post(() -> {
+                if (requestGeneration != generation) {
+                    BitmapPool.getInstance().release(decoded);
+                    return;
+                }
+                pendingTiles.remove(key);
+                if (decoded != null) {
+                    tiles.put(key, decoded);
+                    postInvalidateOnAnimation();
+                }
+            });
+        });
+    }
+
+    /**
+     * Map a rectangle of the upright image to the stored pixels it comes from
+     */
+    private static Rect toStored(Rect upright, int rotation, int storedWidth, int storedHeight) {
+        switch (rotation) {
+            case 90:
+                return new Rect(upright.top, storedHeight - upright.right,
+                        upright.bottom, storedHeight - upright.left);
+            case 180:
+                return new Rect(storedWidth - upright.right, storedHeight - upright.bottom,
+                        storedWidth - upright.left, storedHeight - upright.top);
+            case 270:
+                return new Rect(storedWidth - upright.bottom, upright.left,
+                        storedWidth - upright.top, upright.right);
+            default:
+                return new Rect(upright);
+        }
+    }
+
+    private boolean isStillVisible(int sampleSize, Rect region) {
+        return sampleSize == visibleSampleSize && Rect.intersects(region, visibleRegion);
+    }
+
+    private BitmapRegionDecoder openDecoder(File imageFile) throws IOException {
+        BitmapRegionDecoder decoder = idleDecoders.poll();
+        if (decoder != null) {
+            return decoder;
+        }
+        return BitmapRegionDecoder.newInstance(imageFile.getAbsolutePath());
+    }
+
+    /**
+     * Return a decoder for reuse, or close it if its image was replaced meanwhile
+     */
+    private void releaseDecoder(BitmapRegionDecoder decoder, int decoderGeneration) {
+        if (decoderGeneration == generation) {
+            idleDecoders.offer(decoder);
+        } else {
+            decoder.recycle();
+        }
+    }
+
+    private void closeIdleDecoders() {
+        BitmapRegionDecoder decoder;
+        while ((decoder = idleDecoders.poll()) != null) {
+            decoder.recycle();
+        }
+    }
+
+    /**
+     * Show the whole image, centered
+     */
+    private void fitToView() {
+        if (getWidth() == 0 || getHeight() == 0 || imageWidth == 0 || imageHeight == 0) {
+            return;
+        }
+        minScale = Math.min((float) getWidth() / imageWidth, (float) getHeight() / imageHeight);
+        scale = minScale;
+        constrain();
+        invalidate();
+    }
+
+    /**
+     * Keep the image on screen: centered along an axis where it fits, edge to edge where it does not
+     */
+    private void constrain() {
+        translateX = constrainAxis(translateX, imageWidth * scale, getWidth());
+        translateY = constrainAxis(translateY, imageHeight * scale, getHeight());
+    }
+
+    private static float constrainAxis(float translate, float contentSize, int viewSize) {
+        if (contentSize <= viewSize) {
+            return (viewSize - contentSize) / 2f;
+        }
+        return Math.max(viewSize - contentSize, Math.min(0, translate));
+    }
+
+    private float maxScale() {
+        return Math.max(MAX_SCALE, minScale);
+    }
+
+    private void zoomTo(float newScale, float focusX, float focusY) {
+        newScale = Math.max(minScale, Math.min(maxScale(), newScale));
+        translateX = focusX - (focusX - translateX) * (newScale / scale);
+        translateY = focusY - (focusY - translateY) * (newScale / scale);
+        scale = newScale;
+        constrain();
+        invalidate();
+    }
+
+    private void toScreen(int left, int top, int right, int bottom, Rect out) {
+        // Rounded to whole pixels so neighbouring tiles meet without seams
+        out.set(Math.round(translateX + left * scale),
+                Math.round(translateY + top * scale),
+                Math.round(translateX + right * scale),
+                Math.round(translateY + bottom * scale));
+    }
+
+    /**
+     * @return The largest power-of-two sample size that still has a decoded pixel per screen pixel
+     */
+    private static int sampleSizeFor(float scale) {
+        int sampleSize = 1;
+        while (sampleSize * 2 * scale <= 1f) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static long tileKey(int sampleSize, int column, int row) {
+        return ((long) Integer.numberOfTrailingZeros(sampleSize) << 48) | ((long) column << 24) | row;
+    }
+
+    private static synchronized ExecutorService pool() {
+        if (decodePool == null) {
+            AtomicInteger count = new AtomicInteger();
+            decodePool = Executors.newFixedThreadPool(DECODE_THREADS, runnable -> new Thread(() -> {
+                android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, "escan-tiles-" + count.incrementAndGet()));
+        }
+        return decodePool;
+    }
+
+    private class ScaleListener extends ScaleGestureDetector.SimpleOnScaleGestureListener {
+        @Override
+        public boolean onScale(@NonNull ScaleGestureDetector detector) {
+            zoomTo(scale * detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY());
+            return true;
+        }
+    }
+
+    private class PanListener extends GestureDetector.SimpleOnGestureListener {
+        @Override
+        public boolean onDown(@NonNull MotionEvent e) {
+            scroller.forceFinished(true);
+            return true;
+        }
+
+        @Override
+        public boolean onScroll(@Nullable MotionEvent e1, @NonNull MotionEvent e2,
+                                float distanceX, float distanceY) {
+            translateX -= distanceX;
+            translateY -= distanceY;
+            constrain();
+            invalidate();
+            return true;
+        }
+
+        @Override
+        public boolean onFling(@Nullable MotionEvent e1, @NonNull MotionEvent e2,
+                               float velocityX, float velocityY) {
+            int minX = Math.min(0, Math.round(getWidth() - imageWidth * scale));
+            int minY = Math.min(0, Math.round(getHeight() - imageHeight * scale));
+            scroller.fling(Math.round(translateX), Math.round(translateY),
+                    Math.round(velocityX), Math.round(velocityY), minX, 0, minY, 0);
+            postInvalidateOnAnimation();
+            return true;
+        }
+
+        @Override
+        public boolean onDoubleTap(@NonNull MotionEvent e) {
+            float target = scale > minScale * 1.01f ? minScale : minScale * DOUBLE_TAP_ZOOM;
+            zoomTo(target, e.getX(), e.getY());
+            return true;
+        }
+    }
+}
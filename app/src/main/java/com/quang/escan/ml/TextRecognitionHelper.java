@@ -3,6 +3,7 @@ package com.quang.escan.ml;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.net.Uri;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -19,11 +20,20 @@ import com.google.mlkit.vision.text.devanagari.DevanagariTextRecognizerOptions;
 import com.google.mlkit.vision.text.japanese.JapaneseTextRecognizerOptions;
 import com.google.mlkit.vision.text.korean.KoreanTextRecognizerOptions;
 import com.google.mlkit.vision.text.latin.TextRecognizerOptions;
+import com.quang.escan.image.DocumentFilter;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Helper class for handling text recognition across multiple languages
+ *
+ * Bitmaps are cleaned up with {@link DocumentFilter} before recognition:
+ * shadows and uneven light are flattened to black text on white paper.
+ * The cleaned copy is kept for the last bitmap, so recognizing it again in
+ * another language skips the filter.
  */
 public class TextRecognitionHelper {
     private static final String TAG = "TextRecognitionHelper";
@@ -39,6 +49,11 @@ public class TextRecognitionHelper {
 
     private Context context;
     private TextRecognitionCallback callback;
+    private final ExecutorService enhanceExecutor = Executors.newSingleThreadExecutor();
+    private boolean documentEnhancement = true;
+    // The last bitmap passed in and its filtered copy; only touched on enhanceExecutor
+    private Bitmap enhancedSource;
+    private Bitmap enhancedBitmap;
 
     /**
      * Callback interface for text recognition results
@@ -59,6 +74,13 @@ public class TextRecognitionHelper {
         this.callback = callback;
     }
 
+    /**
+     * Turn the document filter in front of bitmap recognition on or off; on by default
+     */
+    public void setDocumentEnhancement(boolean enabled) {
+        this.documentEnhancement = enabled;
+    }
+
     /**
      * Recognize text from bitmap using the specified language model
      * 
@@ -66,15 +88,66 @@ public class TextRecognitionHelper {
      * @param languageModel Language model to use
      */
     public void recognizeText(Bitmap bitmap, LanguageModel languageModel) {
-        try {
-            InputImage image = InputImage.fromBitmap(bitmap, 0);
-            processTextRecognition(image, languageModel);
-        } catch (Exception e) {
-            Log.e(TAG, "Error creating input image from bitmap", e);
-            if (callback != null) {
-                callback.onError(e);
+        if (!documentEnhancement) {
+            try {
+                processTextRecognition(InputImage.fromBitmap(bitmap, 0), null, languageModel);
+            } catch (Exception e) {
+                Log.e(TAG, "Error creating input image from bitmap", e);
+                if (callback != null) {
+                    callback.onError(e);
+                }
             }
+            return;
+        }
+
+        enhanceExecutor.execute(() -> {
+            try {
+                InputImage original = InputImage.fromBitmap(bitmap, 0);
+                InputImage enhanced = InputImage.fromBitmap(enhance(bitmap), 0);
+                processTextRecognition(enhanced, original, languageModel);
+            } catch (Exception e) {
+                Log.e(TAG, "Error preparing bitmap for recognition", e);
+                if (callback != null) {
+                    callback.onError(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stop the background filter and drop the filtered copy. The copy is
+     * left to the garbage collector rather than pooled, since a recognition
+     * still in flight may be reading it.
+     */
+    public void release() {
+        enhanceExecutor.execute(() -> {
+            enhancedBitmap = null;
+            enhancedSource = null;
+        });
+        enhanceExecutor.shutdown();
+    }
+
+    /**
+     * @return A black-and-white copy of the bitmap, reused while the same bitmap comes back
+     */
+    private Bitmap enhance(Bitmap bitmap) {
+        if (bitmap == enhancedSource && enhancedBitmap != null) {
+            return enhancedBitmap;
         }
+
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] pixels = new int[width * height];
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+
+        long start = SystemClock.elapsedRealtime();
+        DocumentFilter.apply(pixels, width, height, DocumentFilter.Mode.SAUVOLA, true, ForkJoinPool.commonPool());
+        Log.d(TAG, "Document filter on " + width + "x" + height + " took "
+                + (SystemClock.elapsedRealtime() - start) + " ms");
+
+        enhancedBitmap = Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
+        enhancedSource = bitmap;
+        return enhancedBitmap;
     }
 
     /**
@@ -86,7 +159,7 @@ public class TextRecognitionHelper {
     public void recognizeText(Uri imageUri, LanguageModel languageModel) {
         try {
             InputImage image = InputImage.fromFilePath(context, imageUri);
-            processTextRecognition(image, languageModel);
+            processTextRecognition(image, null, languageModel);
         } catch (IOException e) {
             Log.e(TAG, "Error creating input image from URI", e);
             if (callback != null) {
@@ -99,9 +172,10 @@ public class TextRecognitionHelper {
      * Process text recognition with appropriate text recognizer
      * 
      * @param image Input image
+     * @param fallback Image to try instead if nothing is found in the first one, or null
      * @param languageModel Language model to use
      */
-    private void processTextRecognition(InputImage image, LanguageModel languageModel) {
+    private void processTextRecognition(InputImage image, InputImage fallback, LanguageModel languageModel) {
         // Create text recognizer based on selected language model
         TextRecognizer recognizer = getTextRecognizer(languageModel);
         
@@ -111,6 +185,12 @@ public class TextRecognitionHelper {
                     @Override
                     public void onSuccess(Text text) {
                         String recognizedText = text.getText();
+                        if (recognizedText.isEmpty() && fallback != null) {
+                            // Faint or colored print can be lost by the filter
+                            Log.d(TAG, "No text after document filter, retrying original");
+                            processTextRecognition(fallback, null, languageModel);
+                            return;
+                        }
                         Log.d(TAG, "Text recognition successful");
                         
                         if (callback != null) {
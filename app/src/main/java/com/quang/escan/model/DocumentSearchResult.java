@@ -0,0 +1,75 @@
+package com.quang.escan.model;
+
+import java.util.Date;
+
+/**
+ * Model class representing a single full-text search hit in the library
+ */
+public class DocumentSearchResult {
+    // Markers wrapped around matched terms inside the snippet
+    public static final String MATCH_START = "<b>";
+    public static final String MATCH_END = "</b>";
+
+    private final long documentId;
+    private final String fileName;
+    private final String category;
+    private final String imagePath;
+    private final Date creationDate;
+    private final String snippet;
+    private final double score;
+
+    public DocumentSearchResult(long documentId, String fileName, String category, String imagePath,
+                                Date creationDate, String snippet, double score) {
+        this.documentId = documentId;
+        this.fileName = fileName;
+        this.category = category;
+        this.imagePath = imagePath;
+        this.creationDate = creationDate;
+        this.snippet = snippet;
+        this.score = score;
+    }
+
+    public long getDocumentId() {
+        return documentId;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public String getImagePath() {
+        return imagePath;
+    }
+
+    public Date getCreationDate() {
+        return creationDate;
+    }
+
+    /**
+     * Excerpt of the extracted text around the matches, with matched terms
+     * wrapped in {@link #MATCH_START} and {@link #MATCH_END}
+     */
+    public String getSnippet() {
+        return snippet;
+    }
+
+    /**
+     * BM25 relevance score, higher is more relevant
+     */
+    public double getScore() {
+        return score;
+    }
+
+    @Override
+    public String toString() {
+        return "DocumentSearchResult{" +
+                "documentId=" + documentId +
+                ", fileName='" + fileName + '\'' +
+                ", score=" + score +
+                '}';
+    }
+}
@@ -0,0 +1,85 @@
+package com.quang.escan.model;
+
+import java.util.Date;
+
+/**
+ * Lightweight view of a library document for list screens.
+ * Carries everything a list row needs without the extracted text itself,
+ * which is loaded by id only when the document is opened.
+ */
+public class DocumentSummary {
+    private final long id;
+    private final String fileName;
+    private final String category;
+    private final Date creationDate;
+    private final String imagePath;
+    private final String thumbnailKey;
+    private final String blurHash;
+    private final int textLength;
+
+    public DocumentSummary(long id, String fileName, String category, Date creationDate,
+                           String imagePath, String thumbnailKey, String blurHash, int textLength) {
+        this.id = id;
+        this.fileName = fileName;
+        this.category = category;
+        this.creationDate = creationDate;
+        this.imagePath = imagePath;
+        this.thumbnailKey = thumbnailKey;
+        this.blurHash = blurHash;
+        this.textLength = textLength;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public Date getCreationDate() {
+        return creationDate;
+    }
+
+    /**
+     * Path of the full-size scan, for opening or deleting the document
+     */
+    public String getImagePath() {
+        return imagePath;
+    }
+
+    /**
+     * Key of the document's thumbnails in the ThumbnailStore, or null if none exist yet
+     */
+    public String getThumbnailKey() {
+        return thumbnailKey;
+    }
+
+    /**
+     * BlurHash of the thumbnail, to show while it loads; null or empty if there is none
+     */
+    public String getBlurHash() {
+        return blurHash;
+    }
+
+    /**
+     * Length of the extracted text in characters
+     */
+    public int getTextLength() {
+        return textLength;
+    }
+
+    @Override
+    public String toString() {
+        return "DocumentSummary{" +
+                "id=" + id +
+                ", fileName='" + fileName + '\'' +
+                ", category='" + category + '\'' +
+                ", creationDate=" + creationDate +
+                '}';
+    }
+}
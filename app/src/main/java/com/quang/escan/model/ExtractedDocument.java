@@ -11,6 +11,11 @@ public class ExtractedDocument {
     private String category;
     private String extractedText;
     private String imagePath;
+    private String thumbnailKey;
+    private String blurHash;
+    private String originalPath;
+    private byte[] editRecipe;
+    private int renderVersion;
     private Date creationDate;
 
     public ExtractedDocument() {
@@ -67,6 +72,61 @@ public class ExtractedDocument {
         this.imagePath = imagePath;
     }
 
+    /**
+     * Key of the image's thumbnails in the ThumbnailStore, or null if none exist yet
+     */
+    public String getThumbnailKey() {
+        return thumbnailKey;
+    }
+
+    public void setThumbnailKey(String thumbnailKey) {
+        this.thumbnailKey = thumbnailKey;
+    }
+
+    /**
+     * BlurHash of the image's thumbnail, or null if none was made yet
+     */
+    public String getBlurHash() {
+        return blurHash;
+    }
+
+    public void setBlurHash(String blurHash) {
+        this.blurHash = blurHash;
+    }
+
+    /**
+     * The image as captured, before any edits, or null if only the edited image was kept
+     */
+    public String getOriginalPath() {
+        return originalPath;
+    }
+
+    public void setOriginalPath(String originalPath) {
+        this.originalPath = originalPath;
+    }
+
+    /**
+     * Stored EditRecipe the image at {@link #getImagePath()} is rendered from, or null if it has none
+     */
+    public byte[] getEditRecipe() {
+        return editRecipe;
+    }
+
+    public void setEditRecipe(byte[] editRecipe) {
+        this.editRecipe = editRecipe;
+    }
+
+    /**
+     * EditRecipe.RENDER_VERSION the image was last rendered with; 0 if never
+     */
+    public int getRenderVersion() {
+        return renderVersion;
+    }
+
+    public void setRenderVersion(int renderVersion) {
+        this.renderVersion = renderVersion;
+    }
+
     public Date getCreationDate() {
         return creationDate;
     }
@@ -4,8 +4,6 @@ import android.app.Activity;
 import android.app.AlertDialog;
 import android.content.Intent;
 import android.database.Cursor;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Bundle;
 import android.provider.MediaStore;
@@ -27,9 +25,13 @@ import androidx.recyclerview.widget.LinearLayoutManager;
 import com.quang.escan.R;
 import com.quang.escan.auth.SignInActivity;
 import com.quang.escan.databinding.FragmentHomeBinding;
+import com.quang.escan.image.BitmapCache;
+import com.quang.escan.image.ThumbnailStore;
+import com.quang.escan.model.DocumentSummary;
 import com.quang.escan.model.ExtractedDocument;
 import com.quang.escan.ui.library.DocumentViewerFragment;
-import com.quang.escan.ui.library.LibraryRepository;
+import com.quang.escan.ui.library.AsyncLibraryRepository;
+import com.quang.escan.ui.library.DocumentChangeBus;
 import com.quang.escan.ui.scan.ImageSourceDialogFragment;
 import com.quang.escan.util.AuthManager;
 import com.quang.escan.util.FileHelper;
@@ -49,6 +51,7 @@ public class HomeFragment extends Fragment implements
 
     private static final String TAG = "HomeFragment";
     private static final int REQUEST_IMAGE_PICK = 1;
+    private static final int RECENT_FILES_LIMIT = 10;
     
     // Feature identifiers
     private static final int FEATURE_EXTRACT_TEXT = 1;
@@ -61,8 +64,11 @@ public class HomeFragment extends Fragment implements
     private int lastClickedFeature;
     private AuthManager authManager;
     
-    private LibraryRepository libraryRepository;
+    private AsyncLibraryRepository libraryRepository;
+    private ThumbnailStore thumbnailStore;
     private RecentFilesAdapter recentFilesAdapter;
+    // Any write to the library may change the recent files
+    private final DocumentChangeBus.Listener changeListener = change -> loadRecentDocuments();
 
     @Nullable
     @Override
@@ -80,10 +86,12 @@ public class HomeFragment extends Fragment implements
         
         navController = Navigation.findNavController(view);
         authManager = AuthManager.getInstance(requireContext());
-        libraryRepository = new LibraryRepository(requireContext());
+        libraryRepository = AsyncLibraryRepository.getInstance(requireContext());
+        thumbnailStore = ThumbnailStore.getInstance(requireContext());
         
         setupRecentFiles();
         setupClickListeners();
+        libraryRepository.getChangeBus().register(changeListener);
         loadRecentDocuments();
         
         // Show feature usage dialog for anonymous users
@@ -92,13 +100,6 @@ public class HomeFragment extends Fragment implements
         }
     }
 
-    @Override
-    public void onResume() {
-        super.onResume();
-        // Refresh documents when returning to this fragment
-        loadRecentDocuments();
-    }
-
     private void setupRecentFiles() {
         // Set up RecyclerView
         binding.recyclerviewRecentFiles.setLayoutManager(new LinearLayoutManager(requireContext()));
@@ -134,22 +135,25 @@ public class HomeFragment extends Fragment implements
      * Load recent documents from the library
      */
     private void loadRecentDocuments() {
-        List<ExtractedDocument> documents = libraryRepository.getAllDocuments();
+        if (binding == null) {
+            return;
+        }
+
+        // Query and decode thumbnails in the background, then show the result
+        libraryRepository.read(
+                () -> buildRecentFiles(libraryRepository.getRepository()
+                        .getRecentDocumentSummaries(RECENT_FILES_LIMIT)),
+                this::showRecentFiles);
+    }
+
+    /**
+     * Convert document summaries to recent file rows, off the main thread
+     */
+    private List<RecentFile> buildRecentFiles(List<DocumentSummary> documents) {
         List<RecentFile> recentFiles = new ArrayList<>();
         
-        for (ExtractedDocument document : documents) {
-            // Convert ExtractedDocument to RecentFile
-            Bitmap thumbnail = null;
-            if (document.getImagePath() != null && !document.getImagePath().isEmpty()) {
-                File imageFile = new File(document.getImagePath());
-                if (imageFile.exists()) {
-                    // Load a downsampled thumbnail to save memory
-                    BitmapFactory.Options options = new BitmapFactory.Options();
-                    options.inSampleSize = 4; // Scale down to 1/4 the original size
-                    thumbnail = BitmapFactory.decodeFile(imageFile.getAbsolutePath(), options);
-                }
-            }
-            
+        for (DocumentSummary document : documents) {
+            // Convert DocumentSummary to RecentFile
             // Format date
             SimpleDateFormat dateFormat = new SimpleDateFormat("MMM dd, yyyy HH:mm", Locale.US);
             String formattedDate = document.getCreationDate() != null ? 
@@ -158,15 +162,32 @@ public class HomeFragment extends Fragment implements
             RecentFile recentFile = new RecentFile(
                     document.getFileName(),
                     formattedDate,
-                    thumbnail
+                    null
             );
             
             // Store document ID for later use
             recentFile.setDocumentId(document.getId());
+            if (ThumbnailStore.isValidKey(document.getThumbnailKey())) {
+                // A few-KB WebP file, never the full-size scan; decoded when the row is bound
+                recentFile.setThumbnailPath(thumbnailStore.getFile(
+                        document.getThumbnailKey(), ThumbnailStore.Size.SMALL).getAbsolutePath());
+                recentFile.setBlurHash(document.getBlurHash());
+            }
             
             recentFiles.add(recentFile);
         }
         
+        return recentFiles;
+    }
+
+    /**
+     * Show the recent files, or the empty state if there are none
+     */
+    private void showRecentFiles(List<RecentFile> recentFiles) {
+        if (binding == null) {
+            return;
+        }
+        
         // Update UI based on data
         if (recentFiles.isEmpty()) {
             binding.emptyState.setVisibility(View.VISIBLE);
@@ -287,14 +308,24 @@ public class HomeFragment extends Fragment implements
             return;
         }
         
-        try {
-            // Get document from repository
-            ExtractedDocument document = libraryRepository.getDocumentById(file.getDocumentId());
+        // Get document from repository
+        libraryRepository.getDocumentById(file.getDocumentId(), document -> {
+            if (binding == null) {
+                return;
+            }
             if (document == null) {
                 Toast.makeText(requireContext(), "Document not found", Toast.LENGTH_SHORT).show();
                 return;
             }
-            
+            shareLoadedDocument(document);
+        });
+    }
+
+    /**
+     * Share a document that has been loaded from the repository
+     */
+    private void shareLoadedDocument(ExtractedDocument document) {
+        try {
             // Create intent to share text
             Intent shareIntent = new Intent(Intent.ACTION_SEND);
             shareIntent.setType("text/plain");
@@ -377,12 +408,22 @@ public class HomeFragment extends Fragment implements
      */
     private void showRenameDialog(RecentFile file) {
         // Get document from repository
-        ExtractedDocument document = libraryRepository.getDocumentById(file.getDocumentId());
-        if (document == null) {
-            Toast.makeText(requireContext(), "Document not found", Toast.LENGTH_SHORT).show();
-            return;
-        }
-        
+        libraryRepository.getDocumentById(file.getDocumentId(), document -> {
+            if (binding == null) {
+                return;
+            }
+            if (document == null) {
+                Toast.makeText(requireContext(), "Document not found", Toast.LENGTH_SHORT).show();
+                return;
+            }
+            showRenameDialog(document);
+        });
+    }
+
+    /**
+     * Show dialog to rename a document that has been loaded from the repository
+     */
+    private void showRenameDialog(ExtractedDocument document) {
         // Create edit text for new name
         android.widget.EditText input = new android.widget.EditText(requireContext());
         input.setText(document.getFileName());
@@ -400,16 +441,18 @@ public class HomeFragment extends Fragment implements
                 return;
             }
             
-            // Update document name
+            // Update document name in place
             document.setFileName(newName);
-            long result = libraryRepository.saveDocument(document);
-            
-            if (result > 0) {
-                // Refresh list without toast message
-                loadRecentDocuments();
-            } else {
-                Toast.makeText(requireContext(), "Error renaming document", Toast.LENGTH_SHORT).show();
-            }
+            libraryRepository.updateDocument(document, result -> {
+                if (binding == null) {
+                    return;
+                }
+                
+                // On success the list refreshes through the change bus
+                if (result <= 0) {
+                    Toast.makeText(requireContext(), "Error renaming document", Toast.LENGTH_SHORT).show();
+                }
+            });
         });
         
         builder.setNegativeButton("Cancel", null);
@@ -425,26 +468,38 @@ public class HomeFragment extends Fragment implements
         builder.setMessage("Are you sure you want to delete '" + file.getFileName() + "'?");
         
         builder.setPositiveButton("Delete", (dialog, which) -> {
-            // Get document to access the image path
-            ExtractedDocument document = libraryRepository.getDocumentById(file.getDocumentId());
-            
-            // Delete from repository
-            boolean deleted = libraryRepository.deleteDocument(file.getDocumentId());
-            
-            if (deleted) {
+            libraryRepository.write(() -> {
+                // Get document to access the image path
+                ExtractedDocument document = libraryRepository.getRepository()
+                        .getDocumentById(file.getDocumentId());
+                
+                // Delete from repository
+                boolean deleted = libraryRepository.getRepository().deleteDocument(file.getDocumentId());
+                
                 // Also delete the image file if it exists
-                if (document != null && document.getImagePath() != null && !document.getImagePath().isEmpty()) {
+                if (deleted && document != null && document.getImagePath() != null
+                        && !document.getImagePath().isEmpty()) {
                     File imageFile = new File(document.getImagePath());
                     if (imageFile.exists()) {
                         imageFile.delete();
                     }
+                    BitmapCache.getInstance().invalidate(imageFile.getAbsolutePath());
+                }
+                // As does the original of an edited document
+                if (deleted && document != null && document.getOriginalPath() != null) {
+                    new File(document.getOriginalPath()).delete();
+                }
+                return deleted;
+            }, deleted -> {
+                if (binding == null) {
+                    return;
                 }
                 
-                // Refresh list without toast message
-                loadRecentDocuments();
-            } else {
-                Toast.makeText(requireContext(), "Error deleting document", Toast.LENGTH_SHORT).show();
-            }
+                // On success the list refreshes through the change bus
+                if (!deleted) {
+                    Toast.makeText(requireContext(), "Error deleting document", Toast.LENGTH_SHORT).show();
+                }
+            });
         });
         
         builder.setNegativeButton("Cancel", null);
@@ -637,6 +692,9 @@ public class HomeFragment extends Fragment implements
     public void onDestroyView() {
         super.onDestroyView();
         Log.d(TAG, "onDestroyView: Cleaning up home fragment");
+        if (libraryRepository != null) {
+            libraryRepository.getChangeBus().unregister(changeListener);
+        }
         binding = null;
     }
 } 
\ No newline at end of file
@@ -10,6 +10,8 @@ public class RecentFile {
     private String dateModified;
     private Bitmap thumbnail;
     private long documentId; // ID of the document in the library database
+    private String thumbnailPath; // Thumbnail file, decoded when the row is shown
+    private String blurHash; // Shown while the thumbnail file decodes
 
     public RecentFile(String fileName, String dateModified, Bitmap thumbnail) {
         this.fileName = fileName;
@@ -49,4 +51,20 @@ public class RecentFile {
     public void setDocumentId(long documentId) {
         this.documentId = documentId;
     }
+
+    public String getThumbnailPath() {
+        return thumbnailPath;
+    }
+
+    public void setThumbnailPath(String thumbnailPath) {
+        this.thumbnailPath = thumbnailPath;
+    }
+
+    public String getBlurHash() {
+        return blurHash;
+    }
+
+    public void setBlurHash(String blurHash) {
+        this.blurHash = blurHash;
+    }
 } 
\ No newline at end of file
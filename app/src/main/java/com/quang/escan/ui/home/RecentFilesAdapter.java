@@ -8,18 +8,42 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.quang.escan.R;
+import com.quang.escan.image.ImageLoader;
+import com.quang.escan.image.ThumbnailStore;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 /**
- * Adapter for displaying recent files in a RecyclerView
+ * Adapter for displaying recent files in a RecyclerView.
+ * Lists are diffed on a background thread, so only changed rows are rebound.
  */
-public class RecentFilesAdapter extends RecyclerView.Adapter<RecentFilesAdapter.FileViewHolder> {
+public class RecentFilesAdapter extends ListAdapter<RecentFile, RecentFilesAdapter.FileViewHolder> {
+
+    private static final DiffUtil.ItemCallback<RecentFile> DIFF_CALLBACK =
+            new DiffUtil.ItemCallback<RecentFile>() {
+                @Override
+                public boolean areItemsTheSame(@NonNull RecentFile oldItem, @NonNull RecentFile newItem) {
+                    return oldItem.getDocumentId() == newItem.getDocumentId();
+                }
+
+                @Override
+                public boolean areContentsTheSame(@NonNull RecentFile oldItem, @NonNull RecentFile newItem) {
+                    // Thumbnails are compared by source, not by bitmap instance
+                    return Objects.equals(oldItem.getFileName(), newItem.getFileName())
+                            && Objects.equals(oldItem.getDateModified(), newItem.getDateModified())
+                            && Objects.equals(oldItem.getThumbnailPath(), newItem.getThumbnailPath())
+                            && Objects.equals(oldItem.getBlurHash(), newItem.getBlurHash())
+                            && (oldItem.getThumbnail() == null) == (newItem.getThumbnail() == null);
+                }
+            };
 
-    private List<RecentFile> recentFiles;
     private OnItemClickListener listener;
 
     /**
@@ -32,7 +56,8 @@ public class RecentFilesAdapter extends RecyclerView.Adapter<RecentFilesAdapter.
     }
 
     public RecentFilesAdapter(List<RecentFile> recentFiles) {
-        this.recentFiles = recentFiles;
+        super(DIFF_CALLBACK);
+        submitList(new ArrayList<>(recentFiles));
     }
     
     public void setOnItemClickListener(OnItemClickListener listener) {
@@ -40,9 +65,7 @@ public class RecentFilesAdapter extends RecyclerView.Adapter<RecentFilesAdapter.
     }
     
     public void updateRecentFiles(List<RecentFile> newFiles) {
-        this.recentFiles.clear();
-        this.recentFiles.addAll(newFiles);
-        notifyDataSetChanged();
+        submitList(new ArrayList<>(newFiles));
     }
 
     @NonNull
@@ -55,7 +78,7 @@ public class RecentFilesAdapter extends RecyclerView.Adapter<RecentFilesAdapter.
 
     @Override
     public void onBindViewHolder(@NonNull FileViewHolder holder, int position) {
-        RecentFile file = recentFiles.get(position);
+        RecentFile file = getItem(position);
         
         // Set file name and date
         holder.fileName.setText(file.getFileName());
@@ -63,10 +86,12 @@ public class RecentFilesAdapter extends RecyclerView.Adapter<RecentFilesAdapter.
         
         // Set thumbnail if available
         if (file.getThumbnail() != null) {
+            ImageLoader.getInstance().cancel(holder.fileThumbnail);
             holder.fileThumbnail.setImageBitmap(file.getThumbnail());
         } else {
-            // Set a default thumbnail for the file type (PDF, image, etc.)
-            holder.fileThumbnail.setImageResource(R.drawable.ic_library);
+            // Decoded in the background; the BlurHash or default thumbnail shows until then
+            ImageLoader.getInstance().load(holder.fileThumbnail, file.getThumbnailPath(),
+                    ThumbnailStore.Size.SMALL.getMaxEdgePx(), file.getBlurHash(), R.drawable.ic_library);
         }
         
         // Set click listeners for buttons
@@ -91,8 +116,9 @@ public class RecentFilesAdapter extends RecyclerView.Adapter<RecentFilesAdapter.
     }
 
     @Override
-    public int getItemCount() {
-        return recentFiles.size();
+    public void onViewRecycled(@NonNull FileViewHolder holder) {
+        super.onViewRecycled(holder);
+        ImageLoader.getInstance().cancel(holder.fileThumbnail);
     }
 
     public static class FileViewHolder extends RecyclerView.ViewHolder {
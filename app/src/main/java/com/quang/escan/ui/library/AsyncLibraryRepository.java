@@ -0,0 +1,339 @@
+package com.quang.escan.ui.library;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.quang.escan.image.EditRecipe;
+import com.quang.escan.image.ThumbnailStore;
+import com.quang.escan.model.DocumentSearchResult;
+import com.quang.escan.model.DocumentSummary;
+import com.quang.escan.model.ExtractedDocument;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Asynchronous facade over {@link LibraryRepository} for UI code.
+ * Queries run on the reader pool and writes on the single writer thread of
+ * {@link DatabaseExecutors}, and image work between them on its image thread;
+ * results are always delivered on the main thread.
+ */
+public class AsyncLibraryRepository {
+    private static final String TAG = "AsyncLibraryRepository";
+
+    // Rows compressed per writer task by recompressTexts()
+    private static final int RECOMPRESS_BATCH_SIZE = 50;
+    // Images thumbnailed per image task by createMissingThumbnails(); each takes a full decode
+    private static final int THUMBNAIL_BATCH_SIZE = 8;
+    // Images rendered per image task by renderEditedImages(); each decodes an original
+    private static final int RENDER_BATCH_SIZE = 4;
+
+    private static volatile AsyncLibraryRepository instance;
+
+    private final LibraryRepository repository;
+    private final DatabaseExecutors executors;
+    // Thumbnails written by saves whose row is not committed yet
+    private final Set<String> pendingThumbnailKeys = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Callback for an asynchronous repository call, invoked on the main thread
+     */
+    public interface Callback<T> {
+        void onResult(T result);
+
+        default void onError(Exception e) {
+            Log.e(TAG, "Repository call failed", e);
+        }
+    }
+
+    /**
+     * Get singleton instance of AsyncLibraryRepository
+     */
+    public static AsyncLibraryRepository getInstance(Context context) {
+        if (instance == null) {
+            synchronized (AsyncLibraryRepository.class) {
+                if (instance == null) {
+                    instance = new AsyncLibraryRepository(
+                            LibraryRepository.getInstance(context), DatabaseExecutors.getInstance());
+                }
+            }
+        }
+        return instance;
+    }
+
+    AsyncLibraryRepository(LibraryRepository repository, DatabaseExecutors executors) {
+        this.repository = repository;
+        this.executors = executors;
+    }
+
+    /**
+     * @return The synchronous repository, for code that already runs off the main thread
+     */
+    public LibraryRepository getRepository() {
+        return repository;
+    }
+
+    public void saveDocument(ExtractedDocument document, Callback<Long> callback) {
+        write(() -> repository.saveDocument(document), callback);
+    }
+
+    /**
+     * Save a document whose image files are written first, on the image thread,
+     * so the writer only runs the insert. Its thumbnails are kept from
+     * {@link #deleteUnreferencedThumbnails} until the row is committed.
+     * @param prepare Writes the image files and returns the document to insert
+     */
+    public void saveDocument(Callable<ExtractedDocument> prepare, Callback<Long> callback) {
+        processImages(() -> {
+            ExtractedDocument document = prepare.call();
+            if (ThumbnailStore.isValidKey(document.getThumbnailKey())) {
+                pendingThumbnailKeys.add(document.getThumbnailKey());
+            }
+            return document;
+        }, new Callback<ExtractedDocument>() {
+            @Override
+            public void onResult(ExtractedDocument document) {
+                write(() -> {
+                    try {
+                        return repository.saveDocument(document);
+                    } finally {
+                        // Committed or failed, the sweep may see the key's real state now
+                        if (document.getThumbnailKey() != null) {
+                            pendingThumbnailKeys.remove(document.getThumbnailKey());
+                        }
+                    }
+                }, callback);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                callback.onError(e);
+            }
+        });
+    }
+
+    public void updateDocument(ExtractedDocument document, Callback<Long> callback) {
+        write(() -> repository.updateDocument(document), callback);
+    }
+
+    public void deleteDocument(long documentId, Callback<Boolean> callback) {
+        write(() -> repository.deleteDocument(documentId), callback);
+    }
+
+    public void saveDocuments(List<ExtractedDocument> documents, Callback<long[]> callback) {
+        write(() -> repository.saveDocuments(documents), callback);
+    }
+
+    public void deleteDocuments(long[] documentIds, Callback<Integer> callback) {
+        write(() -> repository.deleteDocuments(documentIds), callback);
+    }
+
+    public void updateCategory(long[] documentIds, String category, Callback<Integer> callback) {
+        write(() -> repository.updateCategory(documentIds, category), callback);
+    }
+
+    public void setEditRecipe(long documentId, byte[] recipe, Callback<Boolean> callback) {
+        write(() -> repository.setEditRecipe(documentId, recipe), callback);
+    }
+
+    public void getDocumentById(long documentId, Callback<ExtractedDocument> callback) {
+        read(() -> repository.getDocumentById(documentId), callback);
+    }
+
+    public void getExtractedText(long documentId, Callback<String> callback) {
+        read(() -> repository.getExtractedText(documentId), callback);
+    }
+
+    public void getRecentDocumentSummaries(int limit, Callback<List<DocumentSummary>> callback) {
+        read(() -> repository.getRecentDocumentSummaries(limit), callback);
+    }
+
+    public void getDocumentSummariesPage(String category, DocumentSummary after, int limit,
+                                         Callback<List<DocumentSummary>> callback) {
+        read(() -> repository.getDocumentSummariesPage(category, after, limit), callback);
+    }
+
+    public void getDocumentSummaries(long[] documentIds, Callback<List<DocumentSummary>> callback) {
+        read(() -> repository.getDocumentSummaries(documentIds), callback);
+    }
+
+    /**
+     * @return The bus that announces every committed write to the documents table
+     */
+    public DocumentChangeBus getChangeBus() {
+        return repository.getChangeBus();
+    }
+
+    public void searchDocuments(String query, int limit, int offset,
+                                Callback<List<DocumentSearchResult>> callback) {
+        read(() -> repository.searchDocuments(query, limit, offset), callback);
+    }
+
+    /**
+     * Compress the text of existing documents in the background. Each batch is
+     * a separate writer task, so saves made meanwhile are not held up for long.
+     */
+    public void recompressTexts() {
+        write(() -> repository.recompressBatch(RECOMPRESS_BATCH_SIZE), compressed -> {
+            if (compressed == RECOMPRESS_BATCH_SIZE) {
+                recompressTexts();
+            }
+        });
+    }
+
+    /**
+     * Render again, a few at a time, the images of documents whose recipe changed
+     * or that were rendered by an older {@link EditRecipe#RENDER_VERSION}, then
+     * make the thumbnails of the new images with {@link #createMissingThumbnails}.
+     */
+    public void renderEditedImages(ThumbnailStore store) {
+        read(() -> repository.getDocumentsToRender(EditRecipe.RENDER_VERSION, RENDER_BATCH_SIZE), documents -> {
+            if (documents.isEmpty()) {
+                createMissingThumbnails(store);
+                return;
+            }
+            processImages(() -> {
+                Map<Long, Boolean> rendered = new HashMap<>();
+                for (ExtractedDocument document : documents) {
+                    rendered.put(document.getId(), DocumentImageRenderer.render(document));
+                }
+                return rendered;
+            }, rendered -> write(() -> repository.setRendered(rendered, EditRecipe.RENDER_VERSION), updated -> {
+                if (rendered.size() == RENDER_BATCH_SIZE) {
+                    renderEditedImages(store);
+                } else {
+                    createMissingThumbnails(store);
+                }
+            }));
+        });
+    }
+
+    /**
+     * Make thumbnails and BlurHashes for documents saved before they existed,
+     * a few at a time, then delete thumbnails no document refers to any more.
+     * Updated rows are announced on the change bus, so lists pick them up.
+     */
+    public void createMissingThumbnails(ThumbnailStore store) {
+        read(() -> repository.getImagePathsMissingThumbnail(THUMBNAIL_BATCH_SIZE), imagePaths -> {
+            if (imagePaths.isEmpty()) {
+                deleteUnreferencedThumbnails(store);
+                return;
+            }
+            Map<Long, String> blurHashes = new HashMap<>();
+            processImages(() -> {
+                Map<Long, String> keys = new HashMap<>();
+                for (Map.Entry<Long, String> entry : imagePaths.entrySet()) {
+                    String key = createThumbnailKey(store, entry.getValue());
+                    keys.put(entry.getKey(), key);
+                    blurHashes.put(entry.getKey(), createBlurHash(store, key));
+                }
+                return keys;
+            }, keys -> write(() -> repository.setThumbnails(keys, blurHashes), updated -> {
+                if (keys.size() == THUMBNAIL_BATCH_SIZE) {
+                    createMissingThumbnails(store);
+                } else {
+                    deleteUnreferencedThumbnails(store);
+                }
+            }));
+        });
+    }
+
+    /**
+     * @return The thumbnail key for an image, or an empty key if it is gone or unreadable
+     */
+    private static String createThumbnailKey(ThumbnailStore store, String imagePath) {
+        File image = new File(imagePath);
+        if (!image.isFile()) {
+            return "";
+        }
+        try {
+            return store.createThumbnails(image);
+        } catch (IOException e) {
+            Log.e(TAG, "Error creating thumbnails for " + imagePath, e);
+            return "";
+        }
+    }
+
+    /**
+     * @return The BlurHash of a thumbnail, or an empty hash if there is no usable thumbnail
+     */
+    private static String createBlurHash(ThumbnailStore store, String key) {
+        if (!ThumbnailStore.isValidKey(key)) {
+            return "";
+        }
+        try {
+            return store.createBlurHash(key);
+        } catch (IOException e) {
+            Log.e(TAG, "Error creating BlurHash for " + key, e);
+            return "";
+        }
+    }
+
+    /**
+     * Runs on the image thread, after or before any save's thumbnails are written
+     * but never during. A save whose files exist has its key pending until its
+     * row is committed, so pending keys are read before the committed ones.
+     */
+    private void deleteUnreferencedThumbnails(ThumbnailStore store) {
+        processImages(() -> {
+            Set<String> keys = new HashSet<>(pendingThumbnailKeys);
+            keys.addAll(repository.getThumbnailKeys());
+            return store.deleteUnreferenced(keys);
+        }, null);
+    }
+
+    /**
+     * Run optimize and a WAL checkpoint on the writer thread, behind any pending writes
+     */
+    public void runMaintenance() {
+        write(() -> {
+            repository.runMaintenance();
+            return null;
+        }, null);
+    }
+
+    /**
+     * Run a write on the writer thread
+     */
+    public <T> void write(Callable<T> task, Callback<T> callback) {
+        submit(executors.writer(), task, callback);
+    }
+
+    /**
+     * Run image decoding, rendering or encoding on the image thread, away from queries
+     */
+    public <T> void processImages(Callable<T> task, Callback<T> callback) {
+        submit(executors.images(), task, callback);
+    }
+
+    /**
+     * Run a query on the reader pool
+     */
+    public <T> void read(Callable<T> task, Callback<T> callback) {
+        submit(executors.readers(), task, callback);
+    }
+
+    private <T> void submit(Executor executor, Callable<T> task, Callback<T> callback) {
+        executor.execute(() -> {
+            try {
+                T result = task.call();
+                if (callback != null) {
+                    executors.mainThread().execute(() -> callback.onResult(result));
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Error in background database task", e);
+                if (callback != null) {
+                    executors.mainThread().execute(() -> callback.onError(e));
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,74 @@
+package com.quang.escan.ui.library;
+
+/**
+ * Tuning knobs for the documents database connection.
+ * The page cache and mmap sizes are per connection, and the framework gives
+ * the app no hook into the pooled read-only connections. These two settings
+ * therefore apply to the primary connection only. That connection runs every
+ * write and the queries made inside them, while the reader pool keeps SQLite's
+ * defaults.
+ */
+public class DatabaseConfig {
+
+    /**
+     * Defaults sized for a library of tens of thousands of documents
+     */
+    public static final DatabaseConfig DEFAULT = new DatabaseConfig(
+            4096,
+            8 * 1024,
+            64L * 1024 * 1024,
+            50,
+            500,
+            1024);
+
+    private final int pageSizeBytes;
+    private final int cacheSizeKb;
+    private final long mmapSizeBytes;
+    private final int statementCacheSize;
+    private final int writesBetweenMaintenance;
+    private final int compressionThresholdChars;
+
+    /**
+     * @param pageSizeBytes SQLite page size; only applies when the database file is first created
+     * @param cacheSizeKb Page cache size of the primary connection, in KiB
+     * @param mmapSizeBytes Maximum bytes of the file the primary connection memory-maps, 0 to disable
+     * @param statementCacheSize Compiled statements kept per connection (at most 100)
+     * @param writesBetweenMaintenance Rows written before running optimize and a WAL checkpoint
+     * @param compressionThresholdChars Extracted text longer than this is stored compressed;
+     *                                  Integer.MAX_VALUE disables compression
+     */
+    public DatabaseConfig(int pageSizeBytes, int cacheSizeKb, long mmapSizeBytes,
+                          int statementCacheSize, int writesBetweenMaintenance,
+                          int compressionThresholdChars) {
+        this.pageSizeBytes = pageSizeBytes;
+        this.cacheSizeKb = cacheSizeKb;
+        this.mmapSizeBytes = mmapSizeBytes;
+        this.statementCacheSize = statementCacheSize;
+        this.writesBetweenMaintenance = writesBetweenMaintenance;
+        this.compressionThresholdChars = compressionThresholdChars;
+    }
+
+    public int getPageSizeBytes() {
+        return pageSizeBytes;
+    }
+
+    public int getCacheSizeKb() {
+        return cacheSizeKb;
+    }
+
+    public long getMmapSizeBytes() {
+        return mmapSizeBytes;
+    }
+
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    public int getWritesBetweenMaintenance() {
+        return writesBetweenMaintenance;
+    }
+
+    public int getCompressionThresholdChars() {
+        return compressionThresholdChars;
+    }
+}
@@ -0,0 +1,102 @@
+package com.quang.escan.ui.library;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Threads used for database work.
+ *
+ * SQLite allows a single writer at a time, so all writes go through one
+ * thread in submission order; reads run on a small pool so list screens are
+ * never queued behind a save. Background decoding and encoding of library
+ * images gets a thread of its own, so it never holds up either.
+ */
+public class DatabaseExecutors {
+
+    private static final int READER_THREADS = 3;
+
+    private static volatile DatabaseExecutors instance;
+
+    private final ExecutorService writer;
+    private final ExecutorService readers;
+    private final ExecutorService images;
+    private final Executor mainThread;
+
+    /**
+     * Get the shared executors
+     */
+    public static DatabaseExecutors getInstance() {
+        if (instance == null) {
+            synchronized (DatabaseExecutors.class) {
+                if (instance == null) {
+                    instance = new DatabaseExecutors();
+                }
+            }
+        }
+        return instance;
+    }
+
+    private DatabaseExecutors() {
+        writer = Executors.newSingleThreadExecutor(new NamedThreadFactory("escan-db-writer"));
+        readers = Executors.newFixedThreadPool(READER_THREADS, new NamedThreadFactory("escan-db-reader"));
+        // One at a time: each image already renders on every core through the common pool
+        images = Executors.newSingleThreadExecutor(new NamedThreadFactory("escan-image"));
+        Handler mainHandler = new Handler(Looper.getMainLooper());
+        mainThread = mainHandler::post;
+    }
+
+    /**
+     * Executor for inserts, updates and deletes, run one at a time in order
+     */
+    public ExecutorService writer() {
+        return writer;
+    }
+
+    /**
+     * Executor for queries
+     */
+    public ExecutorService readers() {
+        return readers;
+    }
+
+    /**
+     * Executor for decoding, rendering and encoding library images; no SQL runs here
+     */
+    public ExecutorService images() {
+        return images;
+    }
+
+    /**
+     * Executor that posts to the main thread
+     */
+    public Executor mainThread() {
+        return mainThread;
+    }
+
+    /**
+     * Names threads so they are easy to find in traces, and keeps them below UI priority
+     */
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(() -> {
+                android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, prefix + "-" + count.incrementAndGet());
+            return thread;
+        }
+    }
+}
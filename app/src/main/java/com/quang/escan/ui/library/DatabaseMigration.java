@@ -0,0 +1,52 @@
+package com.quang.escan.ui.library;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * A single step in the schema history of the documents database.
+ *
+ * A migration has two parts. {@link #migrateSchema(SQLiteDatabase)} runs inside
+ * the upgrade transaction and must stay cheap (DDL only). Data rewrites go in
+ * {@link #backfillBatch(SQLiteDatabase, int)}, which is called repeatedly with
+ * each batch in its own transaction, so a backfill interrupted by a crash or a
+ * killed process simply continues with the remaining rows on the next open.
+ */
+abstract class DatabaseMigration {
+
+    private final int version;
+
+    /**
+     * @param version The database version this migration upgrades to
+     */
+    DatabaseMigration(int version) {
+        this.version = version;
+    }
+
+    int getVersion() {
+        return version;
+    }
+
+    /**
+     * Apply the schema changes for this version
+     * @param db The database, inside the upgrade transaction
+     */
+    abstract void migrateSchema(SQLiteDatabase db);
+
+    /**
+     * Whether this migration has data to backfill after the schema change
+     */
+    boolean hasBackfill() {
+        return false;
+    }
+
+    /**
+     * Backfill one batch of rows. Must only touch rows that still need work,
+     * so that it can be resumed at any point.
+     * @param db The database, inside a transaction owned by the caller
+     * @param batchSize Maximum number of rows to process
+     * @return True if there may be more rows left to process
+     */
+    boolean backfillBatch(SQLiteDatabase db, int batchSize) {
+        return false;
+    }
+}
@@ -0,0 +1,254 @@
+package com.quang.escan.ui.library;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import static com.quang.escan.ui.library.LibraryRepository.COLUMN_BLUR_HASH;
+import static com.quang.escan.ui.library.LibraryRepository.COLUMN_CATEGORY;
+import static com.quang.escan.ui.library.LibraryRepository.COLUMN_CREATED_AT;
+import static com.quang.escan.ui.library.LibraryRepository.COLUMN_CREATION_DATE;
+import static com.quang.escan.ui.library.LibraryRepository.COLUMN_EDIT_RECIPE;
+import static com.quang.escan.ui.library.LibraryRepository.COLUMN_EXTRACTED_TEXT;
+import static com.quang.escan.ui.library.LibraryRepository.COLUMN_FILE_NAME;
+import static com.quang.escan.ui.library.LibraryRepository.COLUMN_ID;
+import static com.quang.escan.ui.library.LibraryRepository.COLUMN_ORIGINAL_PATH;
+import static com.quang.escan.ui.library.LibraryRepository.COLUMN_RENDER_VERSION;
+import static com.quang.escan.ui.library.LibraryRepository.COLUMN_TEXT_CODEC;
+import static com.quang.escan.ui.library.LibraryRepository.COLUMN_TEXT_LENGTH;
+import static com.quang.escan.ui.library.LibraryRepository.COLUMN_THUMBNAIL_KEY;
+import static com.quang.escan.ui.library.LibraryRepository.TABLE_DOCUMENTS;
+
+/**
+ * The schema history of the documents database, oldest first.
+ * Add new versions at the end and bump {@code LibraryRepository.DATABASE_VERSION}.
+ */
+class DatabaseMigrations {
+    private static final String TAG = "DatabaseMigrations";
+
+    static final String INDEX_CATEGORY_CREATED_AT = "idx_documents_category_created_at";
+    static final String INDEX_CREATED_AT = "idx_documents_created_at";
+
+    private DatabaseMigrations() {
+        // Utility class
+    }
+
+    /**
+     * @return Every migration, in version order
+     */
+    static List<DatabaseMigration> all() {
+        return Collections.unmodifiableList(new ArrayList<>(Arrays.asList(
+                new SearchIndexMigration(),
+                new EpochTimestampMigration(),
+                new TextCompressionMigration(),
+                new ThumbnailKeyMigration(),
+                new BlurHashMigration(),
+                new EditRecipeMigration())));
+    }
+
+    /**
+     * Create the list indexes; shared by onCreate and the version 3 migration
+     */
+    static void createListIndexes(SQLiteDatabase db) {
+        // Category tabs: WHERE category = ? ORDER BY created_at DESC becomes a range scan
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_CATEGORY_CREATED_AT + " ON " +
+                TABLE_DOCUMENTS + " (" + COLUMN_CATEGORY + ", " + COLUMN_CREATED_AT + ")");
+        // Recent files and the unfiltered list
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_CREATED_AT + " ON " +
+                TABLE_DOCUMENTS + " (" + COLUMN_CREATED_AT + ")");
+    }
+
+    /**
+     * Version 2: full-text search index over names and extracted text.
+     * Existing rows are indexed by the backfill, in ID order, so the index
+     * holds a prefix of them and the next batch starts after its last ID.
+     * The sync triggers this version once created are left out: version 4
+     * drops them, and they would fire on rows the backfill has not reached.
+     */
+    static class SearchIndexMigration extends DatabaseMigration {
+        SearchIndexMigration() {
+            super(2);
+        }
+
+        @Override
+        void migrateSchema(SQLiteDatabase db) {
+            DocumentSearchIndex.createTable(db, TABLE_DOCUMENTS, COLUMN_FILE_NAME, COLUMN_EXTRACTED_TEXT);
+        }
+
+        @Override
+        boolean hasBackfill() {
+            return true;
+        }
+
+        @Override
+        boolean backfillBatch(SQLiteDatabase db, int batchSize) {
+            int processed = 0;
+
+            // Backfills run before any other write, so every row is still plain text
+            try (Cursor cursor = db.rawQuery("SELECT " + COLUMN_ID + ", " + COLUMN_FILE_NAME + ", " +
+                            COLUMN_EXTRACTED_TEXT + " FROM " + TABLE_DOCUMENTS +
+                            " WHERE " + COLUMN_ID + " > ? ORDER BY " + COLUMN_ID + " LIMIT ?",
+                    new String[]{String.valueOf(DocumentSearchIndex.lastIndexedId(db)),
+                            String.valueOf(batchSize)})) {
+
+                while (cursor.moveToNext()) {
+                    DocumentSearchIndex.insert(db, cursor.getLong(0), cursor.getString(1), cursor.getString(2));
+                    processed++;
+                }
+            }
+
+            return processed == batchSize;
+        }
+    }
+
+    /**
+     * Version 3: creation time as INTEGER epoch milliseconds plus list indexes.
+     * The legacy TEXT column is kept (SQLite cannot drop it on this API level)
+     * and still written, but is no longer read.
+     */
+    static class EpochTimestampMigration extends DatabaseMigration {
+        private final SimpleDateFormat legacyFormat =
+                new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+
+        EpochTimestampMigration() {
+            super(3);
+        }
+
+        @Override
+        void migrateSchema(SQLiteDatabase db) {
+            db.execSQL("ALTER TABLE " + TABLE_DOCUMENTS + " ADD COLUMN " + COLUMN_CREATED_AT + " INTEGER");
+            createListIndexes(db);
+        }
+
+        @Override
+        boolean hasBackfill() {
+            return true;
+        }
+
+        @Override
+        boolean backfillBatch(SQLiteDatabase db, int batchSize) {
+            int processed = 0;
+
+            try (Cursor cursor = db.rawQuery("SELECT " + COLUMN_ID + ", " + COLUMN_CREATION_DATE +
+                            " FROM " + TABLE_DOCUMENTS +
+                            " WHERE " + COLUMN_CREATED_AT + " IS NULL LIMIT ?",
+                    new String[]{String.valueOf(batchSize)});
+                 SQLiteStatement update = db.compileStatement("UPDATE " + TABLE_DOCUMENTS +
+                         " SET " + COLUMN_CREATED_AT + " = ? WHERE " + COLUMN_ID + " = ?")) {
+
+                while (cursor.moveToNext()) {
+                    update.bindLong(1, parseLegacyDate(cursor.getString(1)));
+                    update.bindLong(2, cursor.getLong(0));
+                    update.executeUpdateDelete();
+                    update.clearBindings();
+                    processed++;
+                }
+            }
+
+            return processed == batchSize;
+        }
+
+        private long parseLegacyDate(String dateString) {
+            try {
+                return legacyFormat.parse(dateString).getTime();
+            } catch (ParseException | NullPointerException e) {
+                // Malformed rows must still be backfilled or the migration would never finish
+                Log.e(TAG, "Error parsing legacy date: " + dateString, e);
+                return System.currentTimeMillis();
+            }
+        }
+    }
+
+    /**
+     * Version 4: codec and length columns for compressed extracted text.
+     * FTS4 cannot read compressed values, so the search index sync triggers
+     * are dropped and LibraryRepository maintains the index itself. Existing
+     * rows stay plain here; they are compressed later by a background job.
+     */
+    static class TextCompressionMigration extends DatabaseMigration {
+        TextCompressionMigration() {
+            super(4);
+        }
+
+        @Override
+        void migrateSchema(SQLiteDatabase db) {
+            db.execSQL("ALTER TABLE " + TABLE_DOCUMENTS + " ADD COLUMN " + COLUMN_TEXT_CODEC +
+                    " INTEGER NOT NULL DEFAULT " + TextCodec.CODEC_PLAIN);
+            db.execSQL("ALTER TABLE " + TABLE_DOCUMENTS + " ADD COLUMN " + COLUMN_TEXT_LENGTH + " INTEGER");
+            DocumentSearchIndex.dropTriggers(db, TABLE_DOCUMENTS);
+        }
+
+        @Override
+        boolean hasBackfill() {
+            return true;
+        }
+
+        @Override
+        boolean backfillBatch(SQLiteDatabase db, int batchSize) {
+            // Every row is still plain, so length() is the character count
+            try (SQLiteStatement update = db.compileStatement("UPDATE " + TABLE_DOCUMENTS +
+                    " SET " + COLUMN_TEXT_LENGTH + " = ifnull(length(" + COLUMN_EXTRACTED_TEXT + "), 0)" +
+                    " WHERE " + COLUMN_ID + " IN (SELECT " + COLUMN_ID + " FROM " + TABLE_DOCUMENTS +
+                    " WHERE " + COLUMN_TEXT_LENGTH + " IS NULL LIMIT ?)")) {
+                update.bindLong(1, batchSize);
+                return update.executeUpdateDelete() == batchSize;
+            }
+        }
+    }
+
+    /**
+     * Version 5: thumbnail key column. Existing rows stay NULL here; making
+     * thumbnails needs the image files, so a background job fills them in.
+     */
+    static class ThumbnailKeyMigration extends DatabaseMigration {
+        ThumbnailKeyMigration() {
+            super(5);
+        }
+
+        @Override
+        void migrateSchema(SQLiteDatabase db) {
+            db.execSQL("ALTER TABLE " + TABLE_DOCUMENTS + " ADD COLUMN " + COLUMN_THUMBNAIL_KEY + " TEXT");
+        }
+    }
+
+    /**
+     * Version 6: BlurHash column. Like thumbnail keys, hashes are made from
+     * image files by the background thumbnail job, not here.
+     */
+    static class BlurHashMigration extends DatabaseMigration {
+        BlurHashMigration() {
+            super(6);
+        }
+
+        @Override
+        void migrateSchema(SQLiteDatabase db) {
+            db.execSQL("ALTER TABLE " + TABLE_DOCUMENTS + " ADD COLUMN " + COLUMN_BLUR_HASH + " TEXT");
+        }
+    }
+
+    /**
+     * Version 7: original image, edit recipe and render version columns.
+     * Existing rows only have their edited image and stay NULL.
+     */
+    static class EditRecipeMigration extends DatabaseMigration {
+        EditRecipeMigration() {
+            super(7);
+        }
+
+        @Override
+        void migrateSchema(SQLiteDatabase db) {
+            db.execSQL("ALTER TABLE " + TABLE_DOCUMENTS + " ADD COLUMN " + COLUMN_ORIGINAL_PATH + " TEXT");
+            db.execSQL("ALTER TABLE " + TABLE_DOCUMENTS + " ADD COLUMN " + COLUMN_EDIT_RECIPE + " BLOB");
+            db.execSQL("ALTER TABLE " + TABLE_DOCUMENTS + " ADD COLUMN " + COLUMN_RENDER_VERSION + " INTEGER");
+        }
+    }
+}
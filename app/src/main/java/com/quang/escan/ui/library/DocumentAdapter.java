@@ -1,8 +1,6 @@
 package com.quang.escan.ui.library;
 
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -10,44 +8,148 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.quang.escan.R;
-import com.quang.escan.model.ExtractedDocument;
+import com.quang.escan.image.ImageLoader;
+import com.quang.escan.image.ThumbnailStore;
+import com.quang.escan.model.DocumentSummary;
 
-import java.io.File;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
 
 /**
- * Adapter for displaying documents in the library
+ * Adapter for displaying documents in the library.
+ * Lists are diffed on a background thread, so only rows whose content
+ * changed are rebound.
  */
-public class DocumentAdapter extends RecyclerView.Adapter<DocumentAdapter.DocumentViewHolder> {
+public class DocumentAdapter extends ListAdapter<DocumentSummary, DocumentAdapter.DocumentViewHolder> {
+
+    // Rebind only the selection overlay, leaving the thumbnail alone
+    private static final Object PAYLOAD_SELECTION = new Object();
+
+    // Thumbnail bucket shown in grid cells
+    static final ThumbnailStore.Size THUMBNAIL_SIZE = ThumbnailStore.Size.LARGE;
+
+    private static final DiffUtil.ItemCallback<DocumentSummary> DIFF_CALLBACK =
+            new DiffUtil.ItemCallback<DocumentSummary>() {
+                @Override
+                public boolean areItemsTheSame(@NonNull DocumentSummary oldItem,
+                                               @NonNull DocumentSummary newItem) {
+                    return oldItem.getId() == newItem.getId();
+                }
+
+                @Override
+                public boolean areContentsTheSame(@NonNull DocumentSummary oldItem,
+                                                  @NonNull DocumentSummary newItem) {
+                    return Objects.equals(oldItem.getFileName(), newItem.getFileName())
+                            && Objects.equals(oldItem.getCategory(), newItem.getCategory())
+                            && Objects.equals(oldItem.getCreationDate(), newItem.getCreationDate())
+                            && Objects.equals(oldItem.getThumbnailKey(), newItem.getThumbnailKey())
+                            && Objects.equals(oldItem.getBlurHash(), newItem.getBlurHash());
+                }
+            };
 
     private Context context;
-    private List<ExtractedDocument> documents;
     private DocumentClickListener listener;
     private SimpleDateFormat dateFormat = new SimpleDateFormat("MMM dd, yyyy", Locale.US);
+    private boolean selectionMode;
+    private final Set<Long> selectedIds = new LinkedHashSet<>();
 
     /**
      * Interface for handling document clicks
      */
     public interface DocumentClickListener {
-        void onDocumentClick(ExtractedDocument document);
-        boolean onDocumentLongClick(ExtractedDocument document);
+        void onDocumentClick(DocumentSummary document);
+        boolean onDocumentLongClick(DocumentSummary document);
     }
 
     public DocumentAdapter(Context context, DocumentClickListener listener) {
+        super(DIFF_CALLBACK);
         this.context = context;
         this.listener = listener;
-        this.documents = new ArrayList<>();
     }
 
-    public void setDocuments(List<ExtractedDocument> documents) {
-        this.documents = documents;
-        notifyDataSetChanged();
+    /**
+     * Enter or leave multi-select mode; leaving clears the selection
+     */
+    public void setSelectionMode(boolean enabled) {
+        if (selectionMode == enabled) {
+            return;
+        }
+        selectionMode = enabled;
+        if (!enabled) {
+            selectedIds.clear();
+        }
+        notifyItemRangeChanged(0, getItemCount(), PAYLOAD_SELECTION);
+    }
+
+    public boolean isSelectionMode() {
+        return selectionMode;
+    }
+
+    /**
+     * Select or deselect a document
+     */
+    public void toggleSelection(DocumentSummary document) {
+        if (!selectedIds.remove(document.getId())) {
+            selectedIds.add(document.getId());
+        }
+        int position = getCurrentList().indexOf(document);
+        if (position >= 0) {
+            notifyItemChanged(position, PAYLOAD_SELECTION);
+        }
+    }
+
+    /**
+     * @return The IDs of the selected documents, in selection order
+     */
+    public long[] getSelectedIds() {
+        long[] ids = new long[selectedIds.size()];
+        int i = 0;
+        for (Long id : selectedIds) {
+            ids[i++] = id;
+        }
+        return ids;
+    }
+
+    /**
+     * @return The selected documents that are currently loaded
+     */
+    public List<DocumentSummary> getSelectedDocuments() {
+        List<DocumentSummary> selected = new ArrayList<>();
+        for (DocumentSummary document : getCurrentList()) {
+            if (selectedIds.contains(document.getId())) {
+                selected.add(document);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * @return The thumbnail file the row at a position shows, or null if it has none
+     */
+    String getThumbnailPath(int position) {
+        if (position < 0 || position >= getItemCount()) {
+            return null;
+        }
+        return thumbnailPath(getItem(position));
+    }
+
+    private String thumbnailPath(DocumentSummary document) {
+        if (!ThumbnailStore.isValidKey(document.getThumbnailKey())) {
+            return null;
+        }
+        return ThumbnailStore.getInstance(context)
+                .getFile(document.getThumbnailKey(), THUMBNAIL_SIZE)
+                .getAbsolutePath();
     }
 
     @NonNull
@@ -59,17 +161,29 @@ public class DocumentAdapter extends RecyclerView.Adapter<DocumentAdapter.Docume
 
     @Override
     public void onBindViewHolder(@NonNull DocumentViewHolder holder, int position) {
-        ExtractedDocument document = documents.get(position);
+        DocumentSummary document = getItem(position);
         holder.bind(document);
     }
 
     @Override
-    public int getItemCount() {
-        return documents.size();
+    public void onBindViewHolder(@NonNull DocumentViewHolder holder, int position,
+                                 @NonNull List<Object> payloads) {
+        if (!payloads.isEmpty() && payloads.stream().allMatch(p -> p == PAYLOAD_SELECTION)) {
+            holder.bindSelection(getItem(position));
+        } else {
+            onBindViewHolder(holder, position);
+        }
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull DocumentViewHolder holder) {
+        super.onViewRecycled(holder);
+        holder.unbind();
     }
 
     class DocumentViewHolder extends RecyclerView.ViewHolder {
         private ImageView imagePreview;
+        private ImageView imageSelected;
         private TextView textFileName;
         private TextView textCategory;
         private TextView textDate;
@@ -77,6 +191,7 @@ public class DocumentAdapter extends RecyclerView.Adapter<DocumentAdapter.Docume
         public DocumentViewHolder(@NonNull View itemView) {
             super(itemView);
             imagePreview = itemView.findViewById(R.id.image_preview);
+            imageSelected = itemView.findViewById(R.id.image_selected);
             textFileName = itemView.findViewById(R.id.text_file_name);
             textCategory = itemView.findViewById(R.id.text_category);
             textDate = itemView.findViewById(R.id.text_date);
@@ -85,23 +200,24 @@ public class DocumentAdapter extends RecyclerView.Adapter<DocumentAdapter.Docume
             itemView.setOnClickListener(v -> {
                 int position = getAdapterPosition();
                 if (position != RecyclerView.NO_POSITION && listener != null) {
-                    listener.onDocumentClick(documents.get(position));
+                    listener.onDocumentClick(getItem(position));
                 }
             });
 
             itemView.setOnLongClickListener(v -> {
                 int position = getAdapterPosition();
                 if (position != RecyclerView.NO_POSITION && listener != null) {
-                    return listener.onDocumentLongClick(documents.get(position));
+                    return listener.onDocumentLongClick(getItem(position));
                 }
                 return false;
             });
         }
 
-        public void bind(ExtractedDocument document) {
+        public void bind(DocumentSummary document) {
             // Set text data
             textFileName.setText(document.getFileName());
             textCategory.setText(document.getCategory());
+            bindSelection(document);
             
             if (document.getCreationDate() != null) {
                 textDate.setText(dateFormat.format(document.getCreationDate()));
@@ -109,20 +225,19 @@ public class DocumentAdapter extends RecyclerView.Adapter<DocumentAdapter.Docume
                 textDate.setText("Unknown date");
             }
 
-            // Load image if available
-            if (document.getImagePath() != null && !document.getImagePath().isEmpty()) {
-                File imageFile = new File(document.getImagePath());
-                if (imageFile.exists()) {
-                    Bitmap bitmap = BitmapFactory.decodeFile(imageFile.getAbsolutePath());
-                    if (bitmap != null) {
-                        imagePreview.setImageBitmap(bitmap);
-                        return;
-                    }
-                }
-            }
-            
-            // If no image or error loading, show placeholder
-            imagePreview.setImageResource(R.drawable.ic_verified);
+            // Load the thumbnail if one was made, never the full-size scan; its
+            // BlurHash, or else the placeholder, stays up while it decodes
+            ImageLoader.getInstance().load(imagePreview, thumbnailPath(document),
+                    THUMBNAIL_SIZE.getMaxEdgePx(), document.getBlurHash(), R.drawable.ic_verified);
+        }
+
+        void unbind() {
+            ImageLoader.getInstance().cancel(imagePreview);
+        }
+
+        void bindSelection(DocumentSummary document) {
+            imageSelected.setVisibility(selectionMode && selectedIds.contains(document.getId())
+                    ? View.VISIBLE : View.GONE);
         }
     }
 } 
\ No newline at end of file
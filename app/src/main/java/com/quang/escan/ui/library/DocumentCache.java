@@ -0,0 +1,275 @@
+package com.quang.escan.ui.library;
+
+import android.util.LruCache;
+
+import com.quang.escan.model.DocumentSummary;
+import com.quang.escan.model.ExtractedDocument;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size-bounded LRU cache of documents and summary pages read from {@link LibraryRepository}.
+ *
+ * Entries are weighed by the characters they hold, so one long OCR text
+ * evicts many short ones. Only the repository writes to the cache: every
+ * write path invalidates the rows and categories it touched, and a version
+ * counter keeps a query that raced with a write from caching a stale result.
+ */
+public class DocumentCache {
+
+    /**
+     * Default budget for cached text, in bytes
+     */
+    public static final int DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+
+    // Rough per-entry cost of the objects around the strings
+    private static final int ENTRY_OVERHEAD_BYTES = 64;
+
+    private final LruCache<Object, Object> entries;
+    // Bumped by every invalidation; a read may only fill the cache if it did not change meanwhile
+    private final AtomicLong version = new AtomicLong();
+
+    private final AtomicLong documentHits = new AtomicLong();
+    private final AtomicLong documentMisses = new AtomicLong();
+    private final AtomicLong pageHits = new AtomicLong();
+    private final AtomicLong pageMisses = new AtomicLong();
+
+    DocumentCache(int maxBytes) {
+        entries = new LruCache<Object, Object>(maxBytes) {
+            @Override
+            protected int sizeOf(Object key, Object value) {
+                return value instanceof ExtractedDocument
+                        ? sizeOf((ExtractedDocument) value)
+                        : sizeOf(((SummaryPage) value).summaries);
+            }
+        };
+    }
+
+    /**
+     * @return The current version, to pass to a put after the query completes
+     */
+    long version() {
+        return version.get();
+    }
+
+    /**
+     * @return A copy of the cached document, or null on a miss
+     */
+    ExtractedDocument getDocument(long documentId) {
+        ExtractedDocument document = (ExtractedDocument) entries.get(documentId);
+        if (document == null) {
+            documentMisses.incrementAndGet();
+            return null;
+        }
+        documentHits.incrementAndGet();
+        return copyOf(document);
+    }
+
+    void putDocument(ExtractedDocument document, long readVersion) {
+        synchronized (this) {
+            if (readVersion == version.get()) {
+                // Store a copy; callers are free to modify what they got back
+                entries.put(document.getId(), copyOf(document));
+            }
+        }
+    }
+
+    /**
+     * @return The cached page, or null on a miss
+     */
+    List<DocumentSummary> getPage(String category, DocumentSummary after, int limit) {
+        SummaryPage page = (SummaryPage) entries.get(new PageKey(category, after, limit));
+        if (page == null) {
+            pageMisses.incrementAndGet();
+            return null;
+        }
+        pageHits.incrementAndGet();
+        return new ArrayList<>(page.summaries);
+    }
+
+    void putPage(String category, DocumentSummary after, int limit,
+                 List<DocumentSummary> summaries, long readVersion) {
+        synchronized (this) {
+            if (readVersion == version.get()) {
+                entries.put(new PageKey(category, after, limit),
+                        new SummaryPage(Collections.unmodifiableList(new ArrayList<>(summaries))));
+            }
+        }
+    }
+
+    /**
+     * A document was updated or deleted; drop it and every page of the given categories
+     * @param documentId The changed document
+     * @param categories Categories whose lists changed; null when they are not known
+     */
+    void invalidateDocument(long documentId, String... categories) {
+        synchronized (this) {
+            version.incrementAndGet();
+            entries.remove(documentId);
+            invalidatePages(categories);
+        }
+    }
+
+    /**
+     * Documents were inserted, moved or removed; drop every page of the given categories
+     * @param categories Categories whose lists changed; null when they are not known
+     */
+    void invalidateCategories(String... categories) {
+        synchronized (this) {
+            version.incrementAndGet();
+            invalidatePages(categories);
+        }
+    }
+
+    /**
+     * Drop everything
+     */
+    void clear() {
+        synchronized (this) {
+            version.incrementAndGet();
+            entries.evictAll();
+        }
+    }
+
+    public long getDocumentHits() {
+        return documentHits.get();
+    }
+
+    public long getDocumentMisses() {
+        return documentMisses.get();
+    }
+
+    public long getPageHits() {
+        return pageHits.get();
+    }
+
+    public long getPageMisses() {
+        return pageMisses.get();
+    }
+
+    /**
+     * @return Bytes currently held, as weighed by this cache
+     */
+    public int getSizeBytes() {
+        return entries.size();
+    }
+
+    @Override
+    public String toString() {
+        return "DocumentCache{" +
+                "documents=" + documentHits + "/" + (documentHits.get() + documentMisses.get()) +
+                ", pages=" + pageHits + "/" + (pageHits.get() + pageMisses.get()) +
+                ", bytes=" + entries.size() + "/" + entries.maxSize() +
+                '}';
+    }
+
+    private void invalidatePages(String[] categories) {
+        boolean all = categories == null;
+        for (Map.Entry<Object, Object> entry : entries.snapshot().entrySet()) {
+            if (!(entry.getKey() instanceof PageKey)) {
+                continue;
+            }
+            PageKey key = (PageKey) entry.getKey();
+            // The unfiltered list contains every category
+            if (all || key.category == null || contains(categories, key.category)) {
+                entries.remove(key);
+            }
+        }
+    }
+
+    private static boolean contains(String[] categories, String category) {
+        for (String candidate : categories) {
+            if (category.equals(candidate)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static ExtractedDocument copyOf(ExtractedDocument document) {
+        Date creationDate = document.getCreationDate();
+        ExtractedDocument copy = new ExtractedDocument(
+                document.getId(),
+                document.getFileName(),
+                document.getCategory(),
+                document.getExtractedText(),
+                document.getImagePath(),
+                creationDate != null ? new Date(creationDate.getTime()) : null);
+        copy.setThumbnailKey(document.getThumbnailKey());
+        copy.setBlurHash(document.getBlurHash());
+        copy.setOriginalPath(document.getOriginalPath());
+        byte[] recipe = document.getEditRecipe();
+        copy.setEditRecipe(recipe != null ? recipe.clone() : null);
+        copy.setRenderVersion(document.getRenderVersion());
+        return copy;
+    }
+
+    private static int sizeOf(ExtractedDocument document) {
+        byte[] recipe = document.getEditRecipe();
+        return ENTRY_OVERHEAD_BYTES + 2 * (length(document.getExtractedText()) +
+                length(document.getFileName()) + length(document.getImagePath()) +
+                length(document.getThumbnailKey()) + length(document.getBlurHash()) +
+                length(document.getOriginalPath())) + (recipe != null ? recipe.length : 0);
+    }
+
+    private static int sizeOf(List<DocumentSummary> summaries) {
+        int size = ENTRY_OVERHEAD_BYTES;
+        for (DocumentSummary summary : summaries) {
+            size += ENTRY_OVERHEAD_BYTES + 2 * (length(summary.getFileName()) +
+                    length(summary.getImagePath()) + length(summary.getThumbnailKey()) +
+                    length(summary.getBlurHash()));
+        }
+        return size;
+    }
+
+    private static int length(String value) {
+        return value != null ? value.length() : 0;
+    }
+
+    /**
+     * Identifies one keyset page; a null category means all documents
+     */
+    private static final class PageKey {
+        final String category;
+        final long afterCreatedAt;
+        final long afterId;
+        final int limit;
+
+        PageKey(String category, DocumentSummary after, int limit) {
+            this.category = category != null && !category.isEmpty() ? category : null;
+            this.afterCreatedAt = after != null ? after.getCreationDate().getTime() : Long.MAX_VALUE;
+            this.afterId = after != null ? after.getId() : Long.MAX_VALUE;
+            this.limit = limit;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof PageKey)) return false;
+            PageKey other = (PageKey) o;
+            return afterCreatedAt == other.afterCreatedAt
+                    && afterId == other.afterId
+                    && limit == other.limit
+                    && Objects.equals(category, other.category);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(category, afterCreatedAt, afterId, limit);
+        }
+    }
+
+    private static final class SummaryPage {
+        final List<DocumentSummary> summaries;
+
+        SummaryPage(List<DocumentSummary> summaries) {
+            this.summaries = summaries;
+        }
+    }
+}
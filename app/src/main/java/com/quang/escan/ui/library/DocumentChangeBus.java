@@ -0,0 +1,119 @@
+package com.quang.escan.ui.library;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Table-level change notifications for the documents table.
+ * {@link LibraryRepository} publishes one event per committed write and
+ * listeners receive it on the main thread, so screens can update only the
+ * rows that changed instead of re-querying everything.
+ */
+public class DocumentChangeBus {
+    private static final String TAG = "DocumentChangeBus";
+
+    /**
+     * Kind of write that produced a change
+     */
+    public enum Type {
+        INSERT,
+        UPDATE,
+        DELETE
+    }
+
+    /**
+     * Receives changes on the main thread
+     */
+    public interface Listener {
+        void onDocumentsChanged(Change change);
+    }
+
+    /**
+     * One committed write
+     */
+    public static final class Change {
+        private final Type type;
+        private final long[] ids;
+        private final String[] categories;
+
+        Change(Type type, long[] ids, String[] categories) {
+            this.type = type;
+            this.ids = ids;
+            this.categories = categories;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * @return The IDs of the affected documents
+         */
+        public long[] getIds() {
+            return ids.clone();
+        }
+
+        public boolean contains(long documentId) {
+            for (long id : ids) {
+                if (id == documentId) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Whether a list filtered by the given category may have changed
+         * @param category The category, or null for the unfiltered list
+         */
+        public boolean affectsCategory(String category) {
+            if (categories == null || category == null || category.isEmpty()) {
+                return true;
+            }
+            for (String candidate : categories) {
+                if (category.equals(candidate)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return type + " " + Arrays.toString(ids);
+        }
+    }
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public void register(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void unregister(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Publish a committed write; safe to call from any thread
+     * @param categories Categories whose lists changed, or null when not known
+     */
+    void publish(Type type, long[] ids, String... categories) {
+        if (ids.length == 0) {
+            return;
+        }
+        Change change = new Change(type, ids.clone(), categories);
+        Log.d(TAG, "Documents changed: " + change);
+        mainHandler.post(() -> {
+            for (Listener listener : listeners) {
+                listener.onDocumentsChanged(change);
+            }
+        });
+    }
+}
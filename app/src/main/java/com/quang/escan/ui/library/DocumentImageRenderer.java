@@ -0,0 +1,101 @@
+package com.quang.escan.ui.library;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import com.quang.escan.image.BitmapCache;
+import com.quang.escan.image.BitmapDecoder;
+import com.quang.escan.image.BitmapPool;
+import com.quang.escan.image.EditRecipe;
+import com.quang.escan.image.EditRenderer;
+import com.quang.escan.model.ExtractedDocument;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Renders a document's image from its untouched original and its {@link EditRecipe}.
+ * The image at the document's image path is the cached render: list and
+ * viewer screens read it as before, and it is only written again when missing
+ * or rendered by an older {@link EditRecipe#RENDER_VERSION}.
+ */
+public final class DocumentImageRenderer {
+    private static final String TAG = "DocumentImageRenderer";
+
+    // Width documents are saved at, as SaveExtractedTextActivity does
+    static final int IMAGE_WIDTH_PX = 800;
+    private static final int JPEG_QUALITY = 90;
+
+    private DocumentImageRenderer() {
+        // Utility class
+    }
+
+    /**
+     * @return Whether the document has an original and a recipe to render its image from
+     */
+    public static boolean canRender(ExtractedDocument document) {
+        return document.getOriginalPath() != null && document.getEditRecipe() != null
+                && document.getImagePath() != null;
+    }
+
+    /**
+     * Render the document's image and write it over the one at its image path. Blocks.
+     * @return Whether the image was written; the previous one is kept if not
+     */
+    public static boolean render(ExtractedDocument document) {
+        if (!canRender(document)) {
+            return false;
+        }
+        File original = new File(document.getOriginalPath());
+        if (!original.isFile()) {
+            Log.e(TAG, "Original image is gone: " + original);
+            return false;
+        }
+
+        Bitmap rendered = null;
+        try {
+            EditRecipe recipe = EditRecipe.fromBytes(document.getEditRecipe());
+            // Decode the original no larger than the saved width needs
+            double scale = Math.min(1.0, (double) IMAGE_WIDTH_PX / recipe.outputSize()[0]);
+            Bitmap source = BitmapDecoder.decode(original,
+                    (int) Math.ceil(recipe.referenceWidth * scale),
+                    (int) Math.ceil(recipe.referenceHeight * scale),
+                    BitmapDecoder.Purpose.EXPORT);
+            // The source goes back to the pool once its pixels are read
+            rendered = EditRenderer.renderAndRelease(recipe.edits, source,
+                    recipe.referenceWidth, recipe.referenceHeight);
+            write(rendered, new File(document.getImagePath()));
+            return true;
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Error rendering document " + document.getId(), e);
+            return false;
+        } finally {
+            BitmapPool.getInstance().release(rendered);
+        }
+    }
+
+    /**
+     * Write to a temporary file first, so a failure never leaves half an image
+     */
+    private static void write(Bitmap image, File file) throws IOException {
+        File directory = file.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        File temporary = new File(file.getPath() + ".rendering");
+        try (FileOutputStream out = new FileOutputStream(temporary)) {
+            if (!image.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out)) {
+                throw new IOException("Cannot write " + temporary);
+            }
+        } catch (IOException e) {
+            temporary.delete();
+            throw e;
+        }
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+            throw new IOException("Cannot replace " + file);
+        }
+        BitmapCache.getInstance().invalidate(file.getAbsolutePath());
+    }
+}
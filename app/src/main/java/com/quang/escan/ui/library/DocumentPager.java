@@ -0,0 +1,408 @@
+package com.quang.escan.ui.library;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.quang.escan.model.DocumentSummary;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loads document summaries page by page as a RecyclerView scrolls.
+ * Pages are fetched with keyset pagination off the main thread, and the page
+ * after the one just shown is prefetched so it is usually ready before the
+ * user reaches the end of the list. Changes published on the
+ * {@link DocumentChangeBus} are applied to the loaded rows via {@link #applyChange}.
+ */
+public class DocumentPager {
+
+    private static final String TAG = "DocumentPager";
+    public static final int DEFAULT_PAGE_SIZE = 30;
+
+    // Start loading the next page when this many items remain below the last visible one
+    private static final int LOAD_THRESHOLD = 10;
+
+    /**
+     * Callback for list changes, always invoked on the main thread
+     */
+    public interface Listener {
+        /**
+         * @param items A new snapshot of every loaded document, suitable for
+         *              {@code ListAdapter.submitList}
+         */
+        void onItemsChanged(List<DocumentSummary> items);
+    }
+
+    private final AsyncLibraryRepository repository;
+    private final int pageSize;
+    private final Listener listener;
+    private final List<DocumentSummary> items = new ArrayList<>();
+
+    private String category;
+    private List<DocumentSummary> prefetchedPage;
+    // A page to show is being fetched: the first page, the next one, or a reload
+    private boolean loading;
+    // The page after the loaded rows is being fetched ahead of need
+    private boolean prefetching;
+    private boolean endReached;
+    // Set when the list reached its end while a fetch was still in flight
+    private boolean appendRequested;
+    // Incremented on every reset so results for an old query are discarded
+    private int generation;
+    // Incremented on every prefetch and when one is cancelled, which leaves other fetches alone
+    private int prefetchGeneration;
+    private RecyclerView attachedView;
+
+    private final RecyclerView.OnScrollListener scrollListener = new RecyclerView.OnScrollListener() {
+        @Override
+        public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+            if (dy <= 0) {
+                return;
+            }
+            RecyclerView.LayoutManager layoutManager = recyclerView.getLayoutManager();
+            if (layoutManager instanceof LinearLayoutManager) {
+                int lastVisible = ((LinearLayoutManager) layoutManager).findLastVisibleItemPosition();
+                if (lastVisible >= items.size() - LOAD_THRESHOLD) {
+                    loadMore();
+                }
+            }
+        }
+    };
+
+    public DocumentPager(AsyncLibraryRepository repository, int pageSize, Listener listener) {
+        this.repository = repository;
+        this.pageSize = pageSize;
+        this.listener = listener;
+    }
+
+    /**
+     * Load more pages automatically as the given RecyclerView scrolls.
+     * Works with LinearLayoutManager and its subclasses, including GridLayoutManager.
+     */
+    public void attachTo(RecyclerView recyclerView) {
+        detach();
+        attachedView = recyclerView;
+        recyclerView.addOnScrollListener(scrollListener);
+    }
+
+    /**
+     * Stop listening to the attached RecyclerView
+     */
+    public void detach() {
+        if (attachedView != null) {
+            attachedView.removeOnScrollListener(scrollListener);
+            attachedView = null;
+        }
+    }
+
+    /**
+     * Discard the current list and load the first page for a category
+     * @param category The category to page through, or null for all documents
+     */
+    public void load(String category) {
+        this.category = category;
+        generation++;
+        items.clear();
+        prefetchedPage = null;
+        loading = false;
+        prefetching = false;
+        endReached = false;
+        appendRequested = false;
+        fetchPage(null, pageSize);
+    }
+
+    /**
+     * Reload the first page of the current category
+     */
+    public void refresh() {
+        load(category);
+    }
+
+    /**
+     * Append the next page, using the prefetched one when it is already available
+     */
+    public void loadMore() {
+        if (endReached) {
+            return;
+        }
+        if (loading || prefetching) {
+            appendRequested = true;
+            return;
+        }
+
+        if (prefetchedPage != null) {
+            List<DocumentSummary> page = prefetchedPage;
+            prefetchedPage = null;
+            deliver(page, pageSize);
+            return;
+        }
+
+        fetchPage(lastItem(), pageSize);
+    }
+
+    /**
+     * Bring the loaded rows in line with a committed write.
+     * Deletes are applied locally, updates of loaded rows re-read only those
+     * rows, and anything that may add rows reloads the loaded range.
+     */
+    public void applyChange(DocumentChangeBus.Change change) {
+        if (!change.affectsCategory(category)) {
+            return;
+        }
+
+        switch (change.getType()) {
+            case DELETE:
+                removeItems(change);
+                break;
+            case UPDATE:
+                if (allLoaded(change.getIds())) {
+                    patchItems(change.getIds());
+                } else {
+                    // Documents may have moved into this category
+                    reloadLoadedRange();
+                }
+                break;
+            case INSERT:
+            default:
+                reloadLoadedRange();
+                break;
+        }
+    }
+
+    /**
+     * @return An unmodifiable view of all loaded documents
+     */
+    public List<DocumentSummary> getItems() {
+        return Collections.unmodifiableList(items);
+    }
+
+    /**
+     * Stop delivering results; the pager must not be used afterwards
+     */
+    public void release() {
+        detach();
+        generation++;
+    }
+
+    private void removeItems(DocumentChangeBus.Change change) {
+        boolean removed = false;
+        for (Iterator<DocumentSummary> it = items.iterator(); it.hasNext(); ) {
+            if (change.contains(it.next().getId())) {
+                it.remove();
+                removed = true;
+            }
+        }
+        discardPrefetch();
+        if (removed) {
+            notifyItemsChanged();
+        }
+
+        // Fetches for the first page or a reload run on; they already see the delete
+        if (endReached || loading) {
+            return;
+        }
+        if (items.size() < pageSize) {
+            // Maybe too few rows to fill the screen, so no scroll would ask for more
+            loadMore();
+        } else {
+            prefetchNext();
+        }
+    }
+
+    /**
+     * Re-read a few loaded rows and replace them in place
+     */
+    private void patchItems(long[] ids) {
+        discardPrefetch();
+        final int requestGeneration = generation;
+        final String requestCategory = category;
+
+        repository.getDocumentSummaries(ids, updated -> {
+            if (requestGeneration != generation) {
+                return;
+            }
+
+            Map<Long, DocumentSummary> byId = new HashMap<>();
+            for (DocumentSummary summary : updated) {
+                byId.put(summary.getId(), summary);
+            }
+
+            for (int i = items.size() - 1; i >= 0; i--) {
+                long id = items.get(i).getId();
+                if (!contains(ids, id)) {
+                    continue;
+                }
+                DocumentSummary summary = byId.get(id);
+                if (summary == null || !matchesCategory(summary, requestCategory)) {
+                    // Deleted meanwhile, or moved to another category
+                    items.remove(i);
+                } else {
+                    items.set(i, summary);
+                }
+            }
+            notifyItemsChanged();
+            if (!endReached && !loading && !prefetching && prefetchedPage == null) {
+                prefetchNext();
+            }
+        });
+    }
+
+    /**
+     * Reload everything loaded so far as one query, keeping the scroll depth
+     */
+    private void reloadLoadedRange() {
+        int count = Math.max(pageSize, items.size());
+        generation++;
+        prefetchedPage = null;
+        prefetching = false;
+        appendRequested = false;
+        endReached = false;
+        items.clear();
+        fetchPage(null, count);
+    }
+
+    /**
+     * Drop the prefetched page and any prefetch in flight; it may predate the change.
+     * A page being fetched to show is kept. A pending append waits for the next prefetch.
+     */
+    private void discardPrefetch() {
+        prefetchedPage = null;
+        if (prefetching) {
+            prefetchGeneration++;
+            prefetching = false;
+        }
+    }
+
+    private boolean allLoaded(long[] ids) {
+        for (long id : ids) {
+            boolean found = false;
+            for (DocumentSummary item : items) {
+                if (item.getId() == id) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean contains(long[] ids, long id) {
+        for (long candidate : ids) {
+            if (candidate == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchesCategory(DocumentSummary summary, String category) {
+        return category == null || category.isEmpty() || category.equals(summary.getCategory());
+    }
+
+    private void fetchPage(DocumentSummary after, int limit) {
+        loading = true;
+        final int requestGeneration = generation;
+        final String requestCategory = category;
+
+        repository.getDocumentSummariesPage(requestCategory, after, limit,
+                new AsyncLibraryRepository.Callback<List<DocumentSummary>>() {
+                    @Override
+                    public void onResult(List<DocumentSummary> page) {
+                        if (requestGeneration != generation) {
+                            return;
+                        }
+                        loading = false;
+                        deliver(page, limit);
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        Log.e(TAG, "Error loading page of documents", e);
+                        if (requestGeneration != generation) {
+                            return;
+                        }
+                        // The end is not reached, so the next scroll asks again
+                        loading = false;
+                        appendRequested = false;
+                    }
+                });
+    }
+
+    private void deliver(List<DocumentSummary> page, int limit) {
+        items.addAll(page);
+        if (page.size() < limit) {
+            endReached = true;
+        }
+
+        Log.d(TAG, "Loaded page of " + page.size() + " documents, total " + items.size());
+        notifyItemsChanged();
+
+        if (!endReached) {
+            prefetchNext();
+        }
+    }
+
+    /**
+     * Fetch the following page in the background and keep it until it is needed
+     */
+    private void prefetchNext() {
+        prefetching = true;
+        final int requestGeneration = generation;
+        final int requestPrefetch = ++prefetchGeneration;
+        final String requestCategory = category;
+        final DocumentSummary after = lastItem();
+
+        repository.getDocumentSummariesPage(requestCategory, after, pageSize,
+                new AsyncLibraryRepository.Callback<List<DocumentSummary>>() {
+                    @Override
+                    public void onResult(List<DocumentSummary> page) {
+                        if (requestGeneration != generation || requestPrefetch != prefetchGeneration) {
+                            return;
+                        }
+                        prefetching = false;
+                        if (page.isEmpty()) {
+                            endReached = true;
+                        } else {
+                            prefetchedPage = page;
+                            if (appendRequested) {
+                                appendRequested = false;
+                                loadMore();
+                            }
+                        }
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        Log.e(TAG, "Error prefetching page of documents", e);
+                        if (requestGeneration != generation || requestPrefetch != prefetchGeneration) {
+                            return;
+                        }
+                        prefetching = false;
+                        if (appendRequested) {
+                            // Retry once as a plain fetch; if that fails too, the next scroll asks again
+                            appendRequested = false;
+                            loadMore();
+                        }
+                    }
+                });
+    }
+
+    private void notifyItemsChanged() {
+        listener.onItemsChanged(new ArrayList<>(items));
+    }
+
+    private DocumentSummary lastItem() {
+        return items.isEmpty() ? null : items.get(items.size() - 1);
+    }
+}
@@ -0,0 +1,297 @@
+package com.quang.escan.ui.library;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.quang.escan.model.DocumentSearchResult;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Full-text search index over the documents table.
+ *
+ * The platform SQLite build does not ship FTS5, so the index is an FTS4
+ * external-content table linked to {@code documents}. FTS4 has no built-in
+ * ranking function, so BM25 is computed here from the {@code matchinfo()} blob.
+ *
+ * Since schema version 4 the extracted text may be stored compressed, which
+ * FTS4 cannot read. The index is therefore maintained from Java with the
+ * plain text instead of by triggers, and snippets are built here as well.
+ * FTS4 still reads a row back from the content table when it is removed from
+ * the index; callers must make sure that row holds plain text at that point.
+ */
+class DocumentSearchIndex {
+    static final String TABLE_FTS = "documents_fts";
+
+    // BM25 tuning parameters
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    // Per-column weights, in FTS column order (file_name, extracted_text)
+    private static final double[] COLUMN_WEIGHTS = {2.0, 1.0};
+
+    // p: phrases, c: columns, n: rows, a: avg tokens, l: row tokens, x: hit counts
+    static final String MATCHINFO_FORMAT = "pcnalx";
+
+    // Token characters, close to what the unicode61 tokenizer keeps
+    private static final Pattern TOKEN = Pattern.compile("[\\p{L}\\p{N}]+");
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final String ELLIPSIS = "\u2026";
+
+    private DocumentSearchIndex() {
+        // Utility class
+    }
+
+    /**
+     * Create the FTS table only; rows are indexed with {@link #insert}
+     */
+    static void createTable(SQLiteDatabase db, String contentTable, String fileNameColumn, String textColumn) {
+        db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS " + TABLE_FTS + " USING fts4(" +
+                "content=\"" + contentTable + "\", " +
+                fileNameColumn + ", " +
+                textColumn + ", " +
+                "tokenize=unicode61)");
+    }
+
+    /**
+     * Drop the sync triggers databases upgraded before schema version 4 still
+     * have; the index is maintained from Java from then on
+     */
+    static void dropTriggers(SQLiteDatabase db, String contentTable) {
+        for (String suffix : new String[]{"_fts_bu", "_fts_bd", "_fts_au", "_fts_ai"}) {
+            db.execSQL("DROP TRIGGER IF EXISTS " + contentTable + suffix);
+        }
+    }
+
+    /**
+     * Index a document
+     * @param text The plain extracted text, never the stored encoding
+     */
+    static void insert(SQLiteDatabase db, long documentId, String fileName, String text) {
+        db.execSQL("INSERT INTO " + TABLE_FTS + "(docid, " + LibraryRepository.COLUMN_FILE_NAME + ", " +
+                        LibraryRepository.COLUMN_EXTRACTED_TEXT + ") VALUES (?, ?, ?)",
+                new Object[]{documentId, fileName, text});
+    }
+
+    /**
+     * Remove a document from the index. Its content row must still exist and hold plain text.
+     */
+    static void delete(SQLiteDatabase db, long documentId) {
+        db.execSQL("DELETE FROM " + TABLE_FTS + " WHERE docid = ?", new Object[]{documentId});
+    }
+
+    /**
+     * @return The highest document ID in the index, or 0 if it is empty. Selecting
+     *         docid from the FTS table itself would read the content table, so this
+     *         asks the docsize shadow table, which has a row per indexed document.
+     */
+    static long lastIndexedId(SQLiteDatabase db) {
+        try (Cursor cursor = db.rawQuery("SELECT ifnull(max(docid), 0) FROM " + TABLE_FTS + "_docsize", null)) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+    }
+
+    /**
+     * Turn free-form user input into a safe FTS MATCH expression.
+     * Every word becomes a quoted term (implicit AND), and the last word is
+     * treated as a prefix so results update while the user is typing.
+     * @param query The raw query
+     * @return The MATCH expression, or null if the query has no searchable terms
+     */
+    static String toMatchExpression(String query) {
+        List<String> terms = terms(query);
+        if (terms.isEmpty()) {
+            return null;
+        }
+
+        StringBuilder expression = new StringBuilder();
+        for (int i = 0; i < terms.size(); i++) {
+            if (i > 0) {
+                expression.append(' ');
+            }
+            expression.append('"').append(terms.get(i));
+            if (i == terms.size() - 1) {
+                expression.append('*');
+            }
+            expression.append('"');
+        }
+        return expression.toString();
+    }
+
+    /**
+     * Split a user query into lower-case search terms. Words without a letter
+     * or digit are dropped: the tokenizer indexes none, so they would match nothing.
+     * @param query The raw query
+     * @return The terms, in query order; the last one is matched as a prefix
+     */
+    static List<String> terms(String query) {
+        List<String> terms = new ArrayList<>();
+        if (query == null) {
+            return terms;
+        }
+
+        for (String word : query.trim().split("\\s+")) {
+            String term = word.replace("\"", "").replace("*", "");
+            if (TOKEN.matcher(term).find()) {
+                terms.add(term.toLowerCase(Locale.ROOT));
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Build a snippet of about maxTokens words around the densest cluster of
+     * matches, with matches wrapped in {@link DocumentSearchResult#MATCH_START}
+     * and {@link DocumentSearchResult#MATCH_END}
+     * @param text The plain text to take the snippet from
+     * @param terms The terms from {@link #terms(String)}
+     * @param maxTokens Maximum number of words in the snippet
+     * @return The snippet, or null if no term occurs in the text
+     */
+    static String snippet(String text, List<String> terms, int maxTokens) {
+        if (text == null || terms.isEmpty()) {
+            return null;
+        }
+
+        // Terms are tokenized like the text; only the very last token is a prefix
+        Set<String> exact = new HashSet<>();
+        String prefix = null;
+        for (int i = 0; i < terms.size(); i++) {
+            List<String> atoms = new ArrayList<>();
+            Matcher matcher = TOKEN.matcher(normalize(terms.get(i)));
+            while (matcher.find()) {
+                atoms.add(matcher.group());
+            }
+            for (int j = 0; j < atoms.size(); j++) {
+                if (i == terms.size() - 1 && j == atoms.size() - 1) {
+                    prefix = atoms.get(j);
+                } else {
+                    exact.add(atoms.get(j));
+                }
+            }
+        }
+
+        List<int[]> tokens = new ArrayList<>();
+        List<Boolean> hits = new ArrayList<>();
+        Matcher matcher = TOKEN.matcher(text);
+        while (matcher.find()) {
+            String token = normalize(matcher.group());
+            tokens.add(new int[]{matcher.start(), matcher.end()});
+            hits.add(exact.contains(token) || (prefix != null && token.startsWith(prefix)));
+        }
+
+        // Slide a window over the tokens and keep the one with the most hits
+        int window = Math.min(maxTokens, tokens.size());
+        int bestStart = -1;
+        int bestHits = 0;
+        int windowHits = 0;
+        for (int i = 0; i < tokens.size(); i++) {
+            if (hits.get(i)) {
+                windowHits++;
+            }
+            if (i >= window && hits.get(i - window)) {
+                windowHits--;
+            }
+            if (i >= window - 1 && windowHits > bestHits) {
+                bestHits = windowHits;
+                bestStart = i - window + 1;
+            }
+        }
+        if (bestStart < 0) {
+            return null;
+        }
+
+        // Center the hits of the best window
+        int firstHit = bestStart;
+        while (!hits.get(firstHit)) {
+            firstHit++;
+        }
+        int lastHit = bestStart + window - 1;
+        while (!hits.get(lastHit)) {
+            lastHit--;
+        }
+        int start = firstHit - (window - (lastHit - firstHit + 1)) / 2;
+        start = Math.max(0, Math.min(start, tokens.size() - window));
+        int end = start + window;
+
+        StringBuilder snippet = new StringBuilder();
+        if (start > 0) {
+            snippet.append(ELLIPSIS);
+        }
+        int position = tokens.get(start)[0];
+        for (int i = start; i < end; i++) {
+            int[] token = tokens.get(i);
+            snippet.append(text, position, token[0]);
+            if (hits.get(i)) {
+                snippet.append(DocumentSearchResult.MATCH_START)
+                        .append(text, token[0], token[1])
+                        .append(DocumentSearchResult.MATCH_END);
+            } else {
+                snippet.append(text, token[0], token[1]);
+            }
+            position = token[1];
+        }
+        if (end < tokens.size()) {
+            snippet.append(ELLIPSIS);
+        }
+        return snippet.toString();
+    }
+
+    /**
+     * Fold case and diacritics the way unicode61 does
+     */
+    private static String normalize(String token) {
+        String decomposed = Normalizer.normalize(token.toLowerCase(Locale.ROOT), Normalizer.Form.NFD);
+        return MARKS.matcher(decomposed).replaceAll("");
+    }
+
+    /**
+     * Compute an Okapi BM25 score from a matchinfo('pcnalx') blob
+     * @param matchInfo The blob returned by matchinfo()
+     * @return The score, higher is more relevant
+     */
+    static double bm25(byte[] matchInfo) {
+        ByteBuffer buffer = ByteBuffer.wrap(matchInfo).order(ByteOrder.nativeOrder());
+
+        int phraseCount = buffer.getInt(0);
+        int columnCount = buffer.getInt(4);
+        long rowCount = buffer.getInt(8) & 0xFFFFFFFFL;
+
+        int avgOffset = 12;
+        int lengthOffset = avgOffset + columnCount * 4;
+        int hitsOffset = lengthOffset + columnCount * 4;
+
+        double score = 0;
+        for (int phrase = 0; phrase < phraseCount; phrase++) {
+            for (int column = 0; column < columnCount; column++) {
+                int hitBase = hitsOffset + (phrase * columnCount + column) * 3 * 4;
+                long termFrequency = buffer.getInt(hitBase) & 0xFFFFFFFFL;
+                if (termFrequency == 0) {
+                    continue;
+                }
+                long docsWithHit = buffer.getInt(hitBase + 8) & 0xFFFFFFFFL;
+                double avgLength = Math.max(1, buffer.getInt(avgOffset + column * 4) & 0xFFFFFFFFL);
+                double length = buffer.getInt(lengthOffset + column * 4) & 0xFFFFFFFFL;
+
+                // Clamp idf so very common terms still contribute a little
+                double idf = Math.log((rowCount - docsWithHit + 0.5) / (docsWithHit + 0.5));
+                idf = Math.max(idf, 1e-6);
+
+                double weight = column < COLUMN_WEIGHTS.length ? COLUMN_WEIGHTS[column] : 1.0;
+                double tf = termFrequency * (K1 + 1)
+                        / (termFrequency + K1 * (1 - B + B * length / avgLength));
+                score += weight * idf * tf;
+            }
+        }
+        return score;
+    }
+}
@@ -5,8 +5,6 @@ import android.content.ClipData;
 import android.content.ClipboardManager;
 import android.content.Context;
 import android.content.Intent;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Bundle;
 import android.util.Log;
@@ -26,6 +24,8 @@ import androidx.navigation.Navigation;
 
 import com.quang.escan.R;
 import com.quang.escan.databinding.FragmentDocumentViewerBinding;
+import com.quang.escan.image.BitmapCache;
+import com.quang.escan.image.TiledImageView;
 import com.quang.escan.model.ExtractedDocument;
 import com.quang.escan.util.FileHelper;
 
@@ -46,7 +46,7 @@ public class DocumentViewerFragment extends Fragment {
     private static final String ARG_DOCUMENT_ID = "document_id";
     
     private FragmentDocumentViewerBinding binding;
-    private LibraryRepository repository;
+    private AsyncLibraryRepository repository;
     private ExtractedDocument document;
     private long documentId;
     private SimpleDateFormat dateFormat = new SimpleDateFormat("MMM dd, yyyy", Locale.US);
@@ -78,7 +78,7 @@ public class DocumentViewerFragment extends Fragment {
         }
         
         // Initialize repository
-        repository = new LibraryRepository(requireContext());
+        repository = AsyncLibraryRepository.getInstance(requireContext());
     }
     
     @Nullable
@@ -118,21 +118,26 @@ public class DocumentViewerFragment extends Fragment {
         }
         
         // Load document from repository
-        document = repository.getDocumentById(documentId);
-        
-        if (document == null) {
-            showError("Document not found");
-            return;
-        }
-        
-        // Display document info
-        displayDocumentInfo();
-        
-        // Load and display image
-        loadDocumentImage();
-        
-        // Display text content
-        binding.textContent.setText(document.getExtractedText());
+        repository.getDocumentById(documentId, loaded -> {
+            if (binding == null) {
+                return;
+            }
+            
+            document = loaded;
+            if (document == null) {
+                showError("Document not found");
+                return;
+            }
+            
+            // Display document info
+            displayDocumentInfo();
+            
+            // Load and display image
+            loadDocumentImage();
+            
+            // Display text content
+            binding.textContent.setText(document.getExtractedText());
+        });
     }
     
     private void displayDocumentInfo() {
@@ -159,13 +164,36 @@ public class DocumentViewerFragment extends Fragment {
         if (imagePath != null && !imagePath.isEmpty()) {
             File imageFile = new File(imagePath);
             
+            if (!imageFile.exists() && DocumentImageRenderer.canRender(document)) {
+                // The image is a render of the original; make it again, then show it
+                binding.imagePreview.setImageResource(R.drawable.ic_verified);
+                ExtractedDocument shown = document;
+                repository.processImages(() -> DocumentImageRenderer.render(shown), rendered -> {
+                    if (binding != null && shown == document && rendered) {
+                        loadDocumentImage();
+                    }
+                });
+                return;
+            }
+            
             if (imageFile.exists()) {
-                Bitmap bitmap = BitmapFactory.decodeFile(imageFile.getAbsolutePath());
-                
-                if (bitmap != null) {
-                    binding.imagePreview.setImageBitmap(bitmap);
-                    return;
-                }
+                // Decoded off the main thread; zooming in decodes only the visible tiles
+                binding.imagePreview.setImageResource(R.drawable.ic_verified);
+                binding.imageTiled.setImage(imageFile, new TiledImageView.OnImageLoadListener() {
+                    @Override
+                    public void onImageLoaded() {
+                        if (binding != null) {
+                            binding.imagePreview.setVisibility(View.GONE);
+                            binding.imageTiled.setVisibility(View.VISIBLE);
+                        }
+                    }
+
+                    @Override
+                    public void onImageError(Exception e) {
+                        Log.e(TAG, "Error loading image: " + imagePath, e);
+                    }
+                });
+                return;
             }
         }
         
@@ -320,15 +348,19 @@ public class DocumentViewerFragment extends Fragment {
      * Update document in repository
      */
     private void updateDocument(String successMessage) {
-        long result = repository.updateDocument(document);
-        
-        if (result > 0) {
-            Toast.makeText(requireContext(), successMessage, Toast.LENGTH_SHORT).show();
-            // Refresh UI
-            displayDocumentInfo();
-        } else {
-            Toast.makeText(requireContext(), "Error updating document", Toast.LENGTH_SHORT).show();
-        }
+        repository.updateDocument(document, result -> {
+            if (binding == null) {
+                return;
+            }
+            
+            if (result > 0) {
+                Toast.makeText(requireContext(), successMessage, Toast.LENGTH_SHORT).show();
+                // Refresh UI
+                displayDocumentInfo();
+            } else {
+                Toast.makeText(requireContext(), "Error updating document", Toast.LENGTH_SHORT).show();
+            }
+        });
     }
     
     /**
@@ -395,24 +427,35 @@ public class DocumentViewerFragment extends Fragment {
         
         builder.setPositiveButton("Delete", (dialog, which) -> {
             // Delete from repository
-            boolean deleted = repository.deleteDocument(document.getId());
-            
-            if (deleted) {
-                // Also delete the image file if it exists
-                if (document.getImagePath() != null && !document.getImagePath().isEmpty()) {
-                    File imageFile = new File(document.getImagePath());
-                    if (imageFile.exists()) {
-                        imageFile.delete();
+            repository.deleteDocument(document.getId(), deleted -> {
+                if (deleted) {
+                    // Also delete the image file if it exists
+                    if (document.getImagePath() != null && !document.getImagePath().isEmpty()) {
+                        File imageFile = new File(document.getImagePath());
+                        if (imageFile.exists()) {
+                            imageFile.delete();
+                        }
+                        BitmapCache.getInstance().invalidate(imageFile.getAbsolutePath());
+                    }
+                    // As does the original of an edited document
+                    if (document.getOriginalPath() != null) {
+                        new File(document.getOriginalPath()).delete();
                     }
                 }
                 
-                Toast.makeText(requireContext(), "Document deleted", Toast.LENGTH_SHORT).show();
+                if (binding == null) {
+                    return;
+                }
                 
-                // Navigate back to library
-                navigateBack();
-            } else {
-                Toast.makeText(requireContext(), "Error deleting document", Toast.LENGTH_SHORT).show();
-            }
+                if (deleted) {
+                    Toast.makeText(requireContext(), "Document deleted", Toast.LENGTH_SHORT).show();
+                    
+                    // Navigate back to library
+                    navigateBack();
+                } else {
+                    Toast.makeText(requireContext(), "Error deleting document", Toast.LENGTH_SHORT).show();
+                }
+            });
         });
         
         builder.setNegativeButton("Cancel", null);
@@ -498,6 +541,7 @@ public class DocumentViewerFragment extends Fragment {
     @Override
     public void onDestroyView() {
         super.onDestroyView();
+        binding.imageTiled.recycle();
         binding = null;
     }
 } 
\ No newline at end of file
@@ -11,6 +11,7 @@ import android.view.ViewGroup;
 import android.widget.EditText;
 import android.widget.Toast;
 
+import androidx.activity.OnBackPressedCallback;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
@@ -21,8 +22,10 @@ import androidx.recyclerview.widget.GridLayoutManager;
 import com.google.android.material.tabs.TabLayout;
 import com.quang.escan.R;
 import com.quang.escan.databinding.FragmentLibraryBinding;
-import com.quang.escan.model.ExtractedDocument;
+import com.quang.escan.image.BitmapCache;
+import com.quang.escan.model.DocumentSummary;
 
+import java.io.File;
 import java.util.List;
 
 /**
@@ -34,8 +37,24 @@ public class LibraryFragment extends Fragment implements DocumentAdapter.Documen
     private static final String TAG = "LibraryFragment";
     private FragmentLibraryBinding binding;
     private NavController navController;
-    private LibraryRepository repository;
+    private AsyncLibraryRepository repository;
     private DocumentAdapter adapter;
+    private DocumentPager pager;
+    private ThumbnailPrefetcher prefetcher;
+    // Applies writes made anywhere in the app to the loaded rows
+    private final DocumentChangeBus.Listener changeListener = change -> {
+        if (pager != null) {
+            pager.applyChange(change);
+        }
+    };
+    
+    // Leaves multi-select mode instead of navigating back while it is active
+    private final OnBackPressedCallback exitSelectionCallback = new OnBackPressedCallback(false) {
+        @Override
+        public void handleOnBackPressed() {
+            exitSelectionMode();
+        }
+    };
     private String[] categories = {"Personal", "Work", "School", "Others"};
 
     @Nullable
@@ -53,7 +72,7 @@ public class LibraryFragment extends Fragment implements DocumentAdapter.Documen
         Log.d(TAG, "onViewCreated: Setting up library fragment");
         
         navController = Navigation.findNavController(view);
-        repository = new LibraryRepository(requireContext());
+        repository = AsyncLibraryRepository.getInstance(requireContext());
         
         setupTabLayout();
         setupRecyclerView();
@@ -90,6 +109,10 @@ public class LibraryFragment extends Fragment implements DocumentAdapter.Documen
             @Override
             public void onTabSelected(TabLayout.Tab tab) {
                 Log.d(TAG, "Tab selected: " + tab.getPosition());
+                // A selection only applies to the category it was made in
+                if (adapter != null && adapter.isSelectionMode()) {
+                    exitSelectionMode();
+                }
                 // Filter documents based on selected category
                 filterDocumentsByCategory(tab.getPosition());
             }
@@ -113,14 +136,20 @@ public class LibraryFragment extends Fragment implements DocumentAdapter.Documen
     private void filterDocumentsByCategory(int tabPosition) {
         Log.d(TAG, "Filtering documents by category: " + categories[tabPosition]);
         
-        // Get documents from repository
-        List<ExtractedDocument> documents = repository.getDocumentsByCategory(categories[tabPosition]);
-        
-        // Update adapter
-        adapter.setDocuments(documents);
-        
-        // Show empty state if needed
-        checkIfEmpty(documents.isEmpty());
+        // Load the first page; further pages are loaded as the list scrolls
+        pager.load(categories[tabPosition]);
+    }
+
+    /**
+     * Show the documents loaded by the pager; the adapter diffs against the current list
+     */
+    private void onItemsChanged(List<DocumentSummary> items) {
+        if (binding == null) {
+            return;
+        }
+
+        adapter.submitList(items);
+        checkIfEmpty(items.isEmpty());
     }
 
     /**
@@ -136,12 +165,17 @@ public class LibraryFragment extends Fragment implements DocumentAdapter.Documen
         binding.recyclerDocuments.setLayoutManager(new GridLayoutManager(requireContext(), 2));
         binding.recyclerDocuments.setAdapter(adapter);
         
-        // Load initial data (Personal category)
-        List<ExtractedDocument> documents = repository.getDocumentsByCategory("Personal");
-        adapter.setDocuments(documents);
+        // Page through documents instead of loading the whole category at once
+        pager = new DocumentPager(repository, DocumentPager.DEFAULT_PAGE_SIZE, this::onItemsChanged);
+        pager.attachTo(binding.recyclerDocuments);
+        repository.getChangeBus().register(changeListener);
         
-        // Check if empty for initial state
-        checkIfEmpty(documents.isEmpty());
+        // Decode thumbnails of the rows ahead before they scroll into view
+        prefetcher = new ThumbnailPrefetcher(adapter);
+        prefetcher.attachTo(binding.recyclerDocuments);
+        
+        // Load initial data (Personal category)
+        pager.load("Personal");
     }
 
     /**
@@ -164,13 +198,141 @@ public class LibraryFragment extends Fragment implements DocumentAdapter.Documen
      */
     private void setupClickListeners() {
         Log.d(TAG, "Setting up click listeners");
+        
+        binding.btnSelectionMove.setOnClickListener(v -> showMoveSelectionDialog());
+        binding.btnSelectionDelete.setOnClickListener(v -> confirmSelectionDeletion());
+        binding.btnSelectionCancel.setOnClickListener(v -> exitSelectionMode());
+        
+        requireActivity().getOnBackPressedDispatcher()
+                .addCallback(getViewLifecycleOwner(), exitSelectionCallback);
+    }
+    
+    /**
+     * Start multi-select mode with the given document selected
+     */
+    private void enterSelectionMode(DocumentSummary document) {
+        adapter.setSelectionMode(true);
+        adapter.toggleSelection(document);
+        exitSelectionCallback.setEnabled(true);
+        updateSelectionBar();
+    }
+    
+    /**
+     * Leave multi-select mode and clear the selection
+     */
+    private void exitSelectionMode() {
+        adapter.setSelectionMode(false);
+        exitSelectionCallback.setEnabled(false);
+        updateSelectionBar();
+    }
+    
+    /**
+     * Show the selection actions and count, or hide them outside of multi-select mode
+     */
+    private void updateSelectionBar() {
+        if (binding == null) {
+            return;
+        }
+        
+        if (adapter.isSelectionMode()) {
+            int count = adapter.getSelectedIds().length;
+            binding.textSelectionCount.setText(count + " selected");
+            binding.btnSelectionMove.setEnabled(count > 0);
+            binding.btnSelectionDelete.setEnabled(count > 0);
+            binding.layoutSelectionActions.setVisibility(View.VISIBLE);
+        } else {
+            binding.layoutSelectionActions.setVisibility(View.GONE);
+        }
+    }
+    
+    /**
+     * Move all selected documents to a category chosen by the user
+     */
+    private void showMoveSelectionDialog() {
+        long[] ids = adapter.getSelectedIds();
+        if (ids.length == 0) {
+            return;
+        }
+        
+        AlertDialog.Builder builder = new AlertDialog.Builder(requireContext());
+        builder.setTitle("Move " + ids.length + " documents to");
+        builder.setItems(categories, (dialog, which) -> {
+            String category = categories[which];
+            repository.updateCategory(ids, category, updated -> {
+                if (binding == null) {
+                    return;
+                }
+                
+                // The list itself is updated through the change bus
+                Toast.makeText(requireContext(), updated + " documents moved to " + category,
+                        Toast.LENGTH_SHORT).show();
+                exitSelectionMode();
+            });
+        });
+        builder.setNegativeButton("Cancel", null);
+        builder.show();
+    }
+    
+    /**
+     * Confirm and delete all selected documents together with their images
+     */
+    private void confirmSelectionDeletion() {
+        long[] ids = adapter.getSelectedIds();
+        if (ids.length == 0) {
+            return;
+        }
+        List<DocumentSummary> selected = adapter.getSelectedDocuments();
+        
+        AlertDialog.Builder builder = new AlertDialog.Builder(requireContext());
+        builder.setTitle("Delete Documents");
+        builder.setMessage("Are you sure you want to delete " + ids.length + " documents?");
+        
+        builder.setPositiveButton("Delete", (dialog, which) -> {
+            repository.write(() -> {
+                List<String> originals = repository.getRepository().getOriginalPaths(ids);
+                int deleted = repository.getRepository().deleteDocuments(ids);
+                
+                // The originals of edited documents go with them
+                for (String original : originals) {
+                    new File(original).delete();
+                }
+                
+                // Also delete the image files
+                for (DocumentSummary document : selected) {
+                    if (document.getImagePath() != null && !document.getImagePath().isEmpty()) {
+                        File imageFile = new File(document.getImagePath());
+                        if (imageFile.exists()) {
+                            imageFile.delete();
+                        }
+                        BitmapCache.getInstance().invalidate(imageFile.getAbsolutePath());
+                    }
+                }
+                return deleted;
+            }, deleted -> {
+                if (binding == null) {
+                    return;
+                }
+                
+                Toast.makeText(requireContext(), deleted + " documents deleted", Toast.LENGTH_SHORT).show();
+                exitSelectionMode();
+            });
+        });
+        
+        builder.setNegativeButton("Cancel", null);
+        builder.show();
     }
     
     /**
      * Handle document click
      */
     @Override
-    public void onDocumentClick(ExtractedDocument document) {
+    public void onDocumentClick(DocumentSummary document) {
+        if (adapter.isSelectionMode()) {
+            adapter.toggleSelection(document);
+            updateSelectionBar();
+            return;
+        }
+        
         // Navigate to document viewer fragment
         Log.d(TAG, "Opening document: " + document.getFileName());
         
@@ -186,7 +348,13 @@ public class LibraryFragment extends Fragment implements DocumentAdapter.Documen
      * Handle document long click
      */
     @Override
-    public boolean onDocumentLongClick(ExtractedDocument document) {
+    public boolean onDocumentLongClick(DocumentSummary document) {
+        if (adapter.isSelectionMode()) {
+            adapter.toggleSelection(document);
+            updateSelectionBar();
+            return true;
+        }
+        
         // Show options dialog (delete, etc.)
         showDocumentOptionsDialog(document);
         return true;
@@ -195,11 +363,11 @@ public class LibraryFragment extends Fragment implements DocumentAdapter.Documen
     /**
      * Show dialog with document options
      */
-    private void showDocumentOptionsDialog(ExtractedDocument document) {
+    private void showDocumentOptionsDialog(DocumentSummary document) {
         AlertDialog.Builder builder = new AlertDialog.Builder(requireContext());
         builder.setTitle(document.getFileName());
         
-        String[] options = {"View", "Share", "Delete"};
+        String[] options = {"View", "Share", "Delete", "Select"};
         
         builder.setItems(options, (dialog, which) -> {
             switch (which) {
@@ -215,6 +383,10 @@ public class LibraryFragment extends Fragment implements DocumentAdapter.Documen
                     // Delete document
                     confirmDocumentDeletion(document);
                     break;
+                case 3:
+                    // Start selecting multiple documents
+                    enterSelectionMode(document);
+                    break;
             }
         });
         
@@ -225,7 +397,7 @@ public class LibraryFragment extends Fragment implements DocumentAdapter.Documen
     /**
      * Share document content and image
      */
-    private void shareDocument(ExtractedDocument document) {
+    private void shareDocument(DocumentSummary document) {
         // Create document viewer fragment to handle sharing
         DocumentViewerFragment fragment = DocumentViewerFragment.newInstance(document.getId());
         
@@ -240,26 +412,43 @@ public class LibraryFragment extends Fragment implements DocumentAdapter.Documen
     /**
      * Confirm document deletion
      */
-    private void confirmDocumentDeletion(ExtractedDocument document) {
+    private void confirmDocumentDeletion(DocumentSummary document) {
         AlertDialog.Builder builder = new AlertDialog.Builder(requireContext());
         builder.setTitle("Delete Document");
         builder.setMessage("Are you sure you want to delete '" + document.getFileName() + "'?");
         
         builder.setPositiveButton("Delete", (dialog, which) -> {
-            // Delete from repository
-            boolean deleted = repository.deleteDocument(document.getId());
-            
-            if (deleted) {
-                Toast.makeText(requireContext(), "Document deleted", Toast.LENGTH_SHORT).show();
+            long[] ids = {document.getId()};
+            repository.write(() -> {
+                List<String> originals = repository.getRepository().getOriginalPaths(ids);
+                boolean deleted = repository.getRepository().deleteDocument(document.getId());
                 
-                // Refresh the current category view
-                int selectedTab = binding.tabLayout.getSelectedTabPosition();
-                if (selectedTab < categories.length) {
-                    filterDocumentsByCategory(selectedTab);
+                // Also delete the image and, for an edited document, its original
+                if (deleted) {
+                    for (String original : originals) {
+                        new File(original).delete();
+                    }
+                    if (document.getImagePath() != null && !document.getImagePath().isEmpty()) {
+                        File imageFile = new File(document.getImagePath());
+                        if (imageFile.exists()) {
+                            imageFile.delete();
+                        }
+                        BitmapCache.getInstance().invalidate(imageFile.getAbsolutePath());
+                    }
                 }
-            } else {
-                Toast.makeText(requireContext(), "Error deleting document", Toast.LENGTH_SHORT).show();
-            }
+                return deleted;
+            }, deleted -> {
+                if (binding == null) {
+                    return;
+                }
+                
+                if (deleted) {
+                    // The row is removed through the change bus
+                    Toast.makeText(requireContext(), "Document deleted", Toast.LENGTH_SHORT).show();
+                } else {
+                    Toast.makeText(requireContext(), "Error deleting document", Toast.LENGTH_SHORT).show();
+                }
+            });
         });
         
         builder.setNegativeButton("Cancel", null);
@@ -270,6 +459,17 @@ public class LibraryFragment extends Fragment implements DocumentAdapter.Documen
     public void onDestroyView() {
         super.onDestroyView();
         Log.d(TAG, "onDestroyView: Cleaning up library fragment");
+        if (repository != null) {
+            repository.getChangeBus().unregister(changeListener);
+        }
+        if (pager != null) {
+            pager.release();
+            pager = null;
+        }
+        if (prefetcher != null) {
+            prefetcher.detach();
+            prefetcher = null;
+        }
         binding = null;
     }
 } 
\ No newline at end of file
@@ -5,39 +5,150 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
+import com.quang.escan.model.DocumentSearchResult;
+import com.quang.escan.model.DocumentSummary;
 import com.quang.escan.model.ExtractedDocument;
 
-import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
 
 /**
  * Repository for managing document storage and retrieval
  */
 public class LibraryRepository {
     private static final String TAG = "LibraryRepository";
-    private static final String DATABASE_NAME = "escan_documents.db";
-    private static final int DATABASE_VERSION = 1;
+    static final String DATABASE_NAME = "escan_documents.db";
+    private static final int DATABASE_VERSION = 7;
 
     // Database tables and columns
-    private static final String TABLE_DOCUMENTS = "documents";
-    private static final String COLUMN_ID = "id";
-    private static final String COLUMN_FILE_NAME = "file_name";
-    private static final String COLUMN_CATEGORY = "category";
-    private static final String COLUMN_EXTRACTED_TEXT = "extracted_text";
-    private static final String COLUMN_IMAGE_PATH = "image_path";
-    private static final String COLUMN_CREATION_DATE = "creation_date";
+    static final String TABLE_DOCUMENTS = "documents";
+    static final String COLUMN_ID = "id";
+    static final String COLUMN_FILE_NAME = "file_name";
+    static final String COLUMN_CATEGORY = "category";
+    static final String COLUMN_EXTRACTED_TEXT = "extracted_text";
+    static final String COLUMN_IMAGE_PATH = "image_path";
+    // Legacy formatted date, still written for older readers but never read
+    static final String COLUMN_CREATION_DATE = "creation_date";
+    // Creation time in epoch milliseconds
+    static final String COLUMN_CREATED_AT = "created_at";
+    // How extracted_text is stored, see TextCodec
+    static final String COLUMN_TEXT_CODEC = "text_codec";
+    // Character count of the plain extracted text
+    static final String COLUMN_TEXT_LENGTH = "text_length";
+    // ThumbnailStore key of the image; empty when no thumbnail can be made
+    static final String COLUMN_THUMBNAIL_KEY = "thumbnail_key";
+    // BlurHash of the thumbnail, shown while it loads; empty when there is none
+    static final String COLUMN_BLUR_HASH = "blur_hash";
+    // Untouched image the edited image_path is rendered from; NULL when only the edited image exists
+    static final String COLUMN_ORIGINAL_PATH = "original_path";
+    // EditRecipe bytes applied to the original; NULL without one
+    static final String COLUMN_EDIT_RECIPE = "edit_recipe";
+    // EditRecipe.RENDER_VERSION image_path was rendered with; older ones are rendered again
+    static final String COLUMN_RENDER_VERSION = "render_version";
 
+    // Columns needed by list screens; never includes the extracted text itself
+    private static final String[] SUMMARY_PROJECTION = {
+            COLUMN_ID,
+            COLUMN_FILE_NAME,
+            COLUMN_CATEGORY,
+            COLUMN_CREATED_AT,
+            COLUMN_IMAGE_PATH,
+            COLUMN_TEXT_LENGTH,
+            COLUMN_THUMBNAIL_KEY,
+            COLUMN_BLUR_HASH
+    };
+
+    // Number of words around each match in search snippets
+    private static final int SNIPPET_TOKENS = 16;
+
+    // Hot queries are kept as constant SQL text so every call hits the
+    // connection's compiled statement cache instead of being re-prepared
+    private static final String SUMMARY_COLUMNS = String.join(", ", SUMMARY_PROJECTION);
+    private static final String SUMMARY_ORDER =
+            " ORDER BY " + COLUMN_CREATED_AT + " DESC, " + COLUMN_ID + " DESC LIMIT ?";
+    private static final String KEYSET_AFTER = "(" + COLUMN_CREATED_AT + " < ? OR (" +
+            COLUMN_CREATED_AT + " = ? AND " + COLUMN_ID + " < ?))";
+
+    private static final String SQL_DOCUMENT_BY_ID = "SELECT * FROM " + TABLE_DOCUMENTS +
+            " WHERE " + COLUMN_ID + " = ?";
+    private static final String SQL_CATEGORY_BY_ID = "SELECT " + COLUMN_CATEGORY +
+            " FROM " + TABLE_DOCUMENTS + " WHERE " + COLUMN_ID + " = ?";
+    private static final String SQL_EXTRACTED_TEXT_BY_ID = "SELECT " + COLUMN_EXTRACTED_TEXT +
+            ", " + COLUMN_TEXT_CODEC + " FROM " + TABLE_DOCUMENTS + " WHERE " + COLUMN_ID + " = ?";
+    private static final String SQL_RESTORE_PLAIN_TEXT = "UPDATE " + TABLE_DOCUMENTS +
+            " SET " + COLUMN_EXTRACTED_TEXT + " = ?, " + COLUMN_TEXT_CODEC + " = " + TextCodec.CODEC_PLAIN +
+            " WHERE " + COLUMN_ID + " = ?";
+    private static final String SQL_RECENT_PAGE = "SELECT " + SUMMARY_COLUMNS +
+            " FROM " + TABLE_DOCUMENTS + SUMMARY_ORDER;
+    private static final String SQL_RECENT_PAGE_AFTER = "SELECT " + SUMMARY_COLUMNS +
+            " FROM " + TABLE_DOCUMENTS + " WHERE " + KEYSET_AFTER + SUMMARY_ORDER;
+    private static final String SQL_CATEGORY_PAGE = "SELECT " + SUMMARY_COLUMNS +
+            " FROM " + TABLE_DOCUMENTS + " WHERE " + COLUMN_CATEGORY + " = ?" + SUMMARY_ORDER;
+    private static final String SQL_CATEGORY_PAGE_AFTER = "SELECT " + SUMMARY_COLUMNS +
+            " FROM " + TABLE_DOCUMENTS + " WHERE " + COLUMN_CATEGORY + " = ? AND " +
+            KEYSET_AFTER + SUMMARY_ORDER;
+
+    // Singleton instance
+    private static volatile LibraryRepository instance;
+
+    // Only used by write paths, which all run on the single database writer thread
     private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
     private final DatabaseHelper dbHelper;
+    private final DatabaseConfig config;
+    private final DocumentCache cache;
+    private final DocumentChangeBus changeBus = new DocumentChangeBus();
+    // Rows written since the last optimize/checkpoint; only touched on the writer thread
+    private int writesSinceMaintenance;
+
+    /**
+     * Get singleton instance of LibraryRepository.
+     * Calls on the returned repository block; UI code should use {@link AsyncLibraryRepository}.
+     */
+    public static LibraryRepository getInstance(Context context) {
+        if (instance == null) {
+            synchronized (LibraryRepository.class) {
+                if (instance == null) {
+                    instance = new LibraryRepository(context.getApplicationContext(), DatabaseConfig.DEFAULT);
+                }
+            }
+        }
+        return instance;
+    }
 
     public LibraryRepository(Context context) {
-        dbHelper = new DatabaseHelper(context);
+        this(context, DatabaseConfig.DEFAULT);
+    }
+
+    public LibraryRepository(Context context, DatabaseConfig config) {
+        this.config = config;
+        dbHelper = new DatabaseHelper(context, config);
+        cache = new DocumentCache(DocumentCache.DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @return The cache in front of this repository, for its hit and miss counters
+     */
+    public DocumentCache getCache() {
+        return cache;
+    }
+
+    /**
+     * @return The bus that announces every committed write to the documents table
+     */
+    public DocumentChangeBus getChangeBus() {
+        return changeBus;
     }
 
     /**
@@ -51,15 +162,94 @@ public class LibraryRepository {
 
         values.put(COLUMN_FILE_NAME, document.getFileName());
         values.put(COLUMN_CATEGORY, document.getCategory());
-        values.put(COLUMN_EXTRACTED_TEXT, document.getExtractedText());
+        putExtractedText(values, document.getExtractedText());
         values.put(COLUMN_IMAGE_PATH, document.getImagePath());
+        values.put(COLUMN_THUMBNAIL_KEY, document.getThumbnailKey());
+        values.put(COLUMN_BLUR_HASH, document.getBlurHash());
+        values.put(COLUMN_ORIGINAL_PATH, document.getOriginalPath());
+        values.put(COLUMN_EDIT_RECIPE, document.getEditRecipe());
+        values.put(COLUMN_RENDER_VERSION, document.getRenderVersion());
         values.put(COLUMN_CREATION_DATE, dateFormat.format(document.getCreationDate()));
+        values.put(COLUMN_CREATED_AT, document.getCreationDate().getTime());
 
-        long id = db.insert(TABLE_DOCUMENTS, null, values);
+        long id;
+        db.beginTransaction();
+        try {
+            id = db.insert(TABLE_DOCUMENTS, null, values);
+            if (id != -1) {
+                DocumentSearchIndex.insert(db, id, document.getFileName(), document.getExtractedText());
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
         Log.d(TAG, "Document saved with ID: " + id);
+        cache.invalidateCategories(document.getCategory());
+        if (id != -1) {
+            changeBus.publish(DocumentChangeBus.Type.INSERT, new long[]{id}, document.getCategory());
+        }
+        recordWrites(1);
         return id;
     }
     
+    /**
+     * Save several documents in a single transaction
+     * @param documents The documents to save; their IDs are set on success
+     * @return The IDs of the saved documents, in the same order
+     */
+    public long[] saveDocuments(List<ExtractedDocument> documents) {
+        long[] ids = new long[documents.size()];
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+        db.beginTransaction();
+        try (SQLiteStatement insert = db.compileStatement("INSERT INTO " + TABLE_DOCUMENTS + " (" +
+                COLUMN_FILE_NAME + ", " + COLUMN_CATEGORY + ", " + COLUMN_EXTRACTED_TEXT + ", " +
+                COLUMN_IMAGE_PATH + ", " + COLUMN_CREATION_DATE + ", " + COLUMN_CREATED_AT + ", " +
+                COLUMN_TEXT_CODEC + ", " + COLUMN_TEXT_LENGTH + ", " + COLUMN_THUMBNAIL_KEY + ", " +
+                COLUMN_BLUR_HASH + ", " + COLUMN_ORIGINAL_PATH + ", " + COLUMN_EDIT_RECIPE + ", " +
+                COLUMN_RENDER_VERSION + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+
+            for (int i = 0; i < documents.size(); i++) {
+                ExtractedDocument document = documents.get(i);
+                insert.clearBindings();
+                insert.bindString(1, document.getFileName());
+                insert.bindString(2, document.getCategory());
+                String text = document.getExtractedText();
+                TextCodec.bind(insert, 3, 7, text, config.getCompressionThresholdChars());
+                bindNullableString(insert, 4, document.getImagePath());
+                insert.bindString(5, dateFormat.format(document.getCreationDate()));
+                insert.bindLong(6, document.getCreationDate().getTime());
+                insert.bindLong(8, text != null ? text.length() : 0);
+                bindNullableString(insert, 9, document.getThumbnailKey());
+                bindNullableString(insert, 10, document.getBlurHash());
+                bindNullableString(insert, 11, document.getOriginalPath());
+                if (document.getEditRecipe() == null) {
+                    insert.bindNull(12);
+                } else {
+                    insert.bindBlob(12, document.getEditRecipe());
+                }
+                insert.bindLong(13, document.getRenderVersion());
+
+                ids[i] = insert.executeInsert();
+                document.setId(ids[i]);
+                DocumentSearchIndex.insert(db, ids[i], document.getFileName(), text);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        Log.d(TAG, "Saved " + ids.length + " documents in one transaction");
+        String[] categories = new String[documents.size()];
+        for (int i = 0; i < categories.length; i++) {
+            categories[i] = documents.get(i).getCategory();
+        }
+        cache.invalidateCategories(categories);
+        changeBus.publish(DocumentChangeBus.Type.INSERT, ids, categories);
+        recordWrites(ids.length);
+        return ids;
+    }
+
     /**
      * Update an existing document in the database
      * @param document The document to update
@@ -67,20 +257,42 @@ public class LibraryRepository {
      */
     public long updateDocument(ExtractedDocument document) {
         SQLiteDatabase db = dbHelper.getWritableDatabase();
+        String oldCategory = queryCategory(db, document.getId());
         ContentValues values = new ContentValues();
 
         values.put(COLUMN_FILE_NAME, document.getFileName());
         values.put(COLUMN_CATEGORY, document.getCategory());
-        values.put(COLUMN_EXTRACTED_TEXT, document.getExtractedText());
+        putExtractedText(values, document.getExtractedText());
         values.put(COLUMN_IMAGE_PATH, document.getImagePath());
+        values.put(COLUMN_THUMBNAIL_KEY, document.getThumbnailKey());
+        values.put(COLUMN_BLUR_HASH, document.getBlurHash());
         
-        // Don't update creation date - it should remain as is
+        // Don't update creation date - it should remain as is.
+        // Edits go through setEditRecipe, so a stale copy cannot undo a render.
 
         String whereClause = COLUMN_ID + " = ?";
         String[] whereArgs = {String.valueOf(document.getId())};
         
-        int rowsAffected = db.update(TABLE_DOCUMENTS, values, whereClause, whereArgs);
+        int rowsAffected;
+        db.beginTransaction();
+        try {
+            removeFromSearchIndex(db, document.getId());
+            rowsAffected = db.update(TABLE_DOCUMENTS, values, whereClause, whereArgs);
+            if (rowsAffected > 0) {
+                DocumentSearchIndex.insert(db, document.getId(), document.getFileName(),
+                        document.getExtractedText());
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
         Log.d(TAG, "Document updated, rows affected: " + rowsAffected);
+        cache.invalidateDocument(document.getId(), oldCategory, document.getCategory());
+        if (rowsAffected > 0) {
+            changeBus.publish(DocumentChangeBus.Type.UPDATE, new long[]{document.getId()},
+                    oldCategory, document.getCategory());
+        }
+        recordWrites(rowsAffected);
         return rowsAffected;
     }
 
@@ -90,22 +302,19 @@ public class LibraryRepository {
      * @return The document, or null if not found
      */
     public ExtractedDocument getDocumentById(long documentId) {
+        ExtractedDocument cached = cache.getDocument(documentId);
+        if (cached != null) {
+            return cached;
+        }
+
+        long cacheVersion = cache.version();
         SQLiteDatabase db = dbHelper.getReadableDatabase();
-        
-        String selection = COLUMN_ID + " = ?";
-        String[] selectionArgs = {String.valueOf(documentId)};
-        
-        try (Cursor cursor = db.query(
-                TABLE_DOCUMENTS,
-                null,
-                selection,
-                selectionArgs,
-                null,
-                null,
-                null)) {
-            
+
+        try (Cursor cursor = db.rawQuery(SQL_DOCUMENT_BY_ID, new String[]{String.valueOf(documentId)})) {
             if (cursor != null && cursor.moveToFirst()) {
-                return cursorToDocument(cursor);
+                ExtractedDocument document = cursorToDocument(cursor);
+                cache.putDocument(document, cacheVersion);
+                return document;
             }
         }
         
@@ -144,7 +353,7 @@ public class LibraryRepository {
                 selectionArgs,
                 null,
                 null,
-                COLUMN_CREATION_DATE + " DESC")) {
+                COLUMN_CREATED_AT + " DESC, " + COLUMN_ID + " DESC")) {
 
             if (cursor != null && cursor.moveToFirst()) {
                 do {
@@ -157,6 +366,260 @@ public class LibraryRepository {
         return documents;
     }
 
+    /**
+     * Get the extracted text of a single document
+     * @param documentId The ID of the document
+     * @return The extracted text, or null if the document does not exist or has no text
+     */
+    public String getExtractedText(long documentId) {
+        ExtractedDocument cached = cache.getDocument(documentId);
+        if (cached != null) {
+            return cached.getExtractedText();
+        }
+
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+
+        try (Cursor cursor = db.rawQuery(SQL_EXTRACTED_TEXT_BY_ID, new String[]{String.valueOf(documentId)})) {
+            if (cursor != null && cursor.moveToFirst()) {
+                return TextCodec.read(cursor, 0, 1);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Get summaries of all documents, newest first
+     * @return A list of document summaries
+     */
+    public List<DocumentSummary> getAllDocumentSummaries() {
+        return getDocumentSummariesByCategory(null);
+    }
+
+    /**
+     * Get summaries of documents by category, newest first.
+     * Unlike {@link #getDocumentsByCategory(String)} this never loads the extracted text.
+     * @param category The category to filter by, or null for all documents
+     * @return A list of document summaries in the specified category
+     */
+    public List<DocumentSummary> getDocumentSummariesByCategory(String category) {
+        List<DocumentSummary> summaries = new ArrayList<>();
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+
+        String selection = null;
+        String[] selectionArgs = null;
+
+        if (category != null && !category.isEmpty()) {
+            selection = COLUMN_CATEGORY + " = ?";
+            selectionArgs = new String[]{category};
+        }
+
+        try (Cursor cursor = db.query(
+                TABLE_DOCUMENTS,
+                SUMMARY_PROJECTION,
+                selection,
+                selectionArgs,
+                null,
+                null,
+                COLUMN_CREATED_AT + " DESC, " + COLUMN_ID + " DESC")) {
+
+            while (cursor != null && cursor.moveToNext()) {
+                summaries.add(cursorToSummary(cursor));
+            }
+        }
+
+        return summaries;
+    }
+
+    /**
+     * Get the most recent documents
+     * @param limit Maximum number of documents to return
+     * @return Up to limit document summaries, newest first
+     */
+    public List<DocumentSummary> getRecentDocumentSummaries(int limit) {
+        return getDocumentSummariesPage(null, null, limit);
+    }
+
+    /**
+     * Get one page of document summaries using keyset pagination on
+     * (creation date DESC, id DESC). Each page is a bounded index walk that
+     * starts right after the previous page, so page cost does not grow with
+     * how far the user has scrolled.
+     * @param category The category to filter by, or null for all documents
+     * @param after The last summary of the previous page, or null for the first page
+     * @param limit Maximum number of summaries to return
+     * @return The next page of summaries, empty when there are no more documents
+     */
+    public List<DocumentSummary> getDocumentSummariesPage(String category, DocumentSummary after, int limit) {
+        List<DocumentSummary> summaries = cache.getPage(category, after, limit);
+        if (summaries != null) {
+            return summaries;
+        }
+
+        summaries = new ArrayList<>();
+        long cacheVersion = cache.version();
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+
+        boolean hasCategory = category != null && !category.isEmpty();
+        List<String> args = new ArrayList<>(5);
+        String sql;
+
+        if (hasCategory) {
+            args.add(category);
+        }
+        if (after != null) {
+            String afterDate = String.valueOf(after.getCreationDate().getTime());
+            args.add(afterDate);
+            args.add(afterDate);
+            args.add(String.valueOf(after.getId()));
+            sql = hasCategory ? SQL_CATEGORY_PAGE_AFTER : SQL_RECENT_PAGE_AFTER;
+        } else {
+            sql = hasCategory ? SQL_CATEGORY_PAGE : SQL_RECENT_PAGE;
+        }
+        args.add(String.valueOf(limit));
+
+        try (Cursor cursor = db.rawQuery(sql, args.toArray(new String[0]))) {
+            while (cursor != null && cursor.moveToNext()) {
+                summaries.add(cursorToSummary(cursor));
+            }
+        }
+
+        cache.putPage(category, after, limit, summaries, cacheVersion);
+        return summaries;
+    }
+
+    /**
+     * Get the current summaries of specific documents, for patching rows after an update
+     * @param documentIds The IDs to look up
+     * @return Summaries of the documents that still exist, in no particular order
+     */
+    public List<DocumentSummary> getDocumentSummaries(long[] documentIds) {
+        List<DocumentSummary> summaries = new ArrayList<>(documentIds.length);
+        if (documentIds.length == 0) {
+            return summaries;
+        }
+
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        StringBuilder placeholders = new StringBuilder();
+        String[] args = new String[documentIds.length];
+        for (int i = 0; i < documentIds.length; i++) {
+            placeholders.append(i == 0 ? "?" : ", ?");
+            args[i] = String.valueOf(documentIds[i]);
+        }
+
+        try (Cursor cursor = db.query(
+                TABLE_DOCUMENTS,
+                SUMMARY_PROJECTION,
+                COLUMN_ID + " IN (" + placeholders + ")",
+                args,
+                null,
+                null,
+                null)) {
+
+            while (cursor != null && cursor.moveToNext()) {
+                summaries.add(cursorToSummary(cursor));
+            }
+        }
+
+        return summaries;
+    }
+
+    /**
+     * Full-text search over document names and extracted text
+     * @param query The user's search query
+     * @param limit Maximum number of results to return
+     * @param offset Number of top-ranked results to skip
+     * @return Matching documents ordered by relevance, best first
+     */
+    public List<DocumentSearchResult> searchDocuments(String query, int limit, int offset) {
+        String match = DocumentSearchIndex.toMatchExpression(query);
+        if (match == null || limit <= 0 || offset < 0) {
+            return Collections.emptyList();
+        }
+
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+
+        // Rank every match from its matchinfo blob, keeping only the best offset + limit
+        int wanted = offset + limit;
+        PriorityQueue<double[]> topHits = new PriorityQueue<>(wanted, (a, b) -> Double.compare(a[1], b[1]));
+        String rankQuery = "SELECT docid, matchinfo(" + DocumentSearchIndex.TABLE_FTS + ", '" +
+                DocumentSearchIndex.MATCHINFO_FORMAT + "') FROM " + DocumentSearchIndex.TABLE_FTS +
+                " WHERE " + DocumentSearchIndex.TABLE_FTS + " MATCH ?";
+
+        try (Cursor cursor = db.rawQuery(rankQuery, new String[]{match})) {
+            while (cursor.moveToNext()) {
+                double score = DocumentSearchIndex.bm25(cursor.getBlob(1));
+                if (topHits.size() < wanted) {
+                    topHits.add(new double[]{cursor.getLong(0), score});
+                } else if (score > topHits.peek()[1]) {
+                    topHits.poll();
+                    topHits.add(new double[]{cursor.getLong(0), score});
+                }
+            }
+        }
+
+        List<double[]> ranked = new ArrayList<>(topHits);
+        ranked.sort((a, b) -> Double.compare(b[1], a[1]));
+        if (ranked.size() <= offset) {
+            return Collections.emptyList();
+        }
+        ranked = ranked.subList(offset, ranked.size());
+
+        // Fetch details for the requested page only; snippets are built from the
+        // decoded text because FTS4 cannot read compressed values
+        List<String> terms = DocumentSearchIndex.terms(query);
+        Map<Long, DocumentSearchResult> resultsById = new HashMap<>();
+        StringBuilder placeholders = new StringBuilder();
+        String[] args = new String[ranked.size()];
+        for (int i = 0; i < ranked.size(); i++) {
+            placeholders.append(i == 0 ? "?" : ", ?");
+            args[i] = String.valueOf((long) ranked.get(i)[0]);
+        }
+
+        String detailQuery = "SELECT " + COLUMN_ID + ", " + COLUMN_FILE_NAME + ", " + COLUMN_CATEGORY +
+                ", " + COLUMN_IMAGE_PATH + ", " + COLUMN_CREATED_AT +
+                ", " + COLUMN_EXTRACTED_TEXT + ", " + COLUMN_TEXT_CODEC +
+                " FROM " + TABLE_DOCUMENTS +
+                " WHERE " + COLUMN_ID + " IN (" + placeholders + ")";
+
+        Map<Long, Double> scores = new HashMap<>();
+        for (double[] hit : ranked) {
+            scores.put((long) hit[0], hit[1]);
+        }
+
+        try (Cursor cursor = db.rawQuery(detailQuery, args)) {
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(0);
+                String fileName = cursor.getString(1);
+                String snippet = DocumentSearchIndex.snippet(TextCodec.read(cursor, 5, 6), terms, SNIPPET_TOKENS);
+                if (snippet == null) {
+                    // The match was in the file name
+                    snippet = DocumentSearchIndex.snippet(fileName, terms, SNIPPET_TOKENS);
+                }
+                resultsById.put(id, new DocumentSearchResult(
+                        id,
+                        fileName,
+                        cursor.getString(2),
+                        cursor.getString(3),
+                        new Date(cursor.getLong(4)),
+                        snippet,
+                        scores.get(id)));
+            }
+        }
+
+        List<DocumentSearchResult> results = new ArrayList<>(ranked.size());
+        for (double[] hit : ranked) {
+            DocumentSearchResult result = resultsById.get((long) hit[0]);
+            if (result != null) {
+                results.add(result);
+            }
+        }
+
+        // The query itself is document content; keep it out of the log
+        Log.d(TAG, "Search for " + terms.size() + " terms returned " + results.size() + " results");
+        return results;
+    }
+
     /**
      * Delete a document
      * @param documentId The ID of the document to delete
@@ -164,13 +627,418 @@ public class LibraryRepository {
      */
     public boolean deleteDocument(long documentId) {
         SQLiteDatabase db = dbHelper.getWritableDatabase();
-        int rowsDeleted = db.delete(
-                TABLE_DOCUMENTS,
-                COLUMN_ID + " = ?",
-                new String[]{String.valueOf(documentId)});
+        String oldCategory = queryCategory(db, documentId);
+        int rowsDeleted;
+        db.beginTransaction();
+        try {
+            removeFromSearchIndex(db, documentId);
+            rowsDeleted = db.delete(
+                    TABLE_DOCUMENTS,
+                    COLUMN_ID + " = ?",
+                    new String[]{String.valueOf(documentId)});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        cache.invalidateDocument(documentId, oldCategory);
+        if (rowsDeleted > 0) {
+            changeBus.publish(DocumentChangeBus.Type.DELETE, new long[]{documentId}, oldCategory);
+        }
+        recordWrites(rowsDeleted);
         return rowsDeleted > 0;
     }
 
+    /**
+     * Delete several documents in a single transaction
+     * @param documentIds The IDs of the documents to delete
+     * @return The number of documents deleted
+     */
+    public int deleteDocuments(long[] documentIds) {
+        int deleted = 0;
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+        db.beginTransaction();
+        try (SQLiteStatement delete = db.compileStatement(
+                "DELETE FROM " + TABLE_DOCUMENTS + " WHERE " + COLUMN_ID + " = ?")) {
+
+            for (long documentId : documentIds) {
+                removeFromSearchIndex(db, documentId);
+                delete.bindLong(1, documentId);
+                deleted += delete.executeUpdateDelete();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        Log.d(TAG, "Deleted " + deleted + " documents in one transaction");
+        invalidateDocuments(documentIds);
+        changeBus.publish(DocumentChangeBus.Type.DELETE, documentIds, (String[]) null);
+        recordWrites(deleted);
+        return deleted;
+    }
+
+    /**
+     * Move several documents to a category in a single transaction
+     * @param documentIds The IDs of the documents to update
+     * @param category The new category
+     * @return The number of documents updated
+     */
+    public int updateCategory(long[] documentIds, String category) {
+        int updated = 0;
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+        db.beginTransaction();
+        try (SQLiteStatement update = db.compileStatement("UPDATE " + TABLE_DOCUMENTS +
+                " SET " + COLUMN_CATEGORY + " = ? WHERE " + COLUMN_ID + " = ?")) {
+
+            update.bindString(1, category);
+            for (long documentId : documentIds) {
+                update.bindLong(2, documentId);
+                updated += update.executeUpdateDelete();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        Log.d(TAG, "Moved " + updated + " documents to " + category);
+        invalidateDocuments(documentIds);
+        changeBus.publish(DocumentChangeBus.Type.UPDATE, documentIds, (String[]) null);
+        recordWrites(updated);
+        return updated;
+    }
+
+    /**
+     * Run query planner maintenance and fold the WAL back into the database file.
+     * Call on the writer thread; it is cheap when little has changed.
+     */
+    public void runMaintenance() {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        // Re-analyzes only tables whose statistics have drifted
+        runPragma(db, "PRAGMA optimize");
+        // PASSIVE never blocks readers; anything still in use is checkpointed next time
+        runPragma(db, "PRAGMA wal_checkpoint(PASSIVE)");
+        writesSinceMaintenance = 0;
+        Log.d(TAG, "Database maintenance done, " + cache);
+    }
+
+    /**
+     * Compress existing rows whose text is over the threshold but still stored plain.
+     * The search index is unaffected because the indexed text does not change.
+     * @param batchSize Maximum number of rows to compress in this call
+     * @return The number of rows compressed; less than batchSize when none are left
+     */
+    public int recompressBatch(int batchSize) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        int threshold = config.getCompressionThresholdChars();
+        int compressed = 0;
+
+        db.beginTransaction();
+        try {
+            // Read the whole batch first: updated rows drop out of the WHERE clause,
+            // which would shift a cursor window that is refilled mid-iteration
+            List<Long> ids = new ArrayList<>(batchSize);
+            List<String> texts = new ArrayList<>(batchSize);
+            try (Cursor cursor = db.rawQuery("SELECT " + COLUMN_ID + ", " + COLUMN_EXTRACTED_TEXT +
+                            " FROM " + TABLE_DOCUMENTS +
+                            " WHERE " + COLUMN_TEXT_CODEC + " = " + TextCodec.CODEC_PLAIN +
+                            " AND " + COLUMN_TEXT_LENGTH + " > ? LIMIT ?",
+                    new String[]{String.valueOf(threshold), String.valueOf(batchSize)})) {
+                while (cursor.moveToNext()) {
+                    ids.add(cursor.getLong(0));
+                    texts.add(cursor.getString(1));
+                }
+            }
+
+            try (SQLiteStatement update = db.compileStatement("UPDATE " + TABLE_DOCUMENTS +
+                    " SET " + COLUMN_EXTRACTED_TEXT + " = ?, " + COLUMN_TEXT_CODEC + " = ?" +
+                    " WHERE " + COLUMN_ID + " = ?")) {
+                for (int i = 0; i < ids.size(); i++) {
+                    TextCodec.bind(update, 1, 2, texts.get(i), threshold);
+                    update.bindLong(3, ids.get(i));
+                    update.executeUpdateDelete();
+                    update.clearBindings();
+                    compressed++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        if (compressed > 0) {
+            Log.d(TAG, "Compressed text of " + compressed + " documents");
+            recordWrites(compressed);
+        }
+        return compressed;
+    }
+
+    /**
+     * Get documents that have an image but no thumbnail key or BlurHash yet, for the thumbnail backfill
+     * @param limit Maximum number of documents to return
+     * @return Image paths by document ID
+     */
+    public Map<Long, String> getImagePathsMissingThumbnail(int limit) {
+        Map<Long, String> imagePaths = new HashMap<>();
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+
+        try (Cursor cursor = db.rawQuery("SELECT " + COLUMN_ID + ", " + COLUMN_IMAGE_PATH +
+                        " FROM " + TABLE_DOCUMENTS +
+                        " WHERE (" + COLUMN_THUMBNAIL_KEY + " IS NULL OR " + COLUMN_BLUR_HASH + " IS NULL)" +
+                        " AND " + COLUMN_IMAGE_PATH + " IS NOT NULL" +
+                        " LIMIT ?",
+                new String[]{String.valueOf(limit)})) {
+            while (cursor.moveToNext()) {
+                imagePaths.put(cursor.getLong(0), cursor.getString(1));
+            }
+        }
+
+        return imagePaths;
+    }
+
+    /**
+     * Store thumbnail keys and BlurHashes made by the backfill, in a single transaction
+     * @param thumbnailKeys Keys by document ID; an empty key marks an image that cannot be thumbnailed
+     * @param blurHashes BlurHashes by document ID, for the same documents; empty when there is none
+     * @return The number of documents updated
+     */
+    public int setThumbnails(Map<Long, String> thumbnailKeys, Map<Long, String> blurHashes) {
+        int updated = 0;
+        long[] documentIds = new long[thumbnailKeys.size()];
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+        db.beginTransaction();
+        try (SQLiteStatement update = db.compileStatement("UPDATE " + TABLE_DOCUMENTS +
+                " SET " + COLUMN_THUMBNAIL_KEY + " = ?, " + COLUMN_BLUR_HASH + " = ?" +
+                " WHERE " + COLUMN_ID + " = ?")) {
+
+            int i = 0;
+            for (Map.Entry<Long, String> entry : thumbnailKeys.entrySet()) {
+                documentIds[i++] = entry.getKey();
+                String blurHash = blurHashes.get(entry.getKey());
+                update.bindString(1, entry.getValue());
+                update.bindString(2, blurHash != null ? blurHash : "");
+                update.bindLong(3, entry.getKey());
+                updated += update.executeUpdateDelete();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        Log.d(TAG, "Stored thumbnails of " + updated + " documents");
+        invalidateDocuments(documentIds);
+        changeBus.publish(DocumentChangeBus.Type.UPDATE, documentIds, (String[]) null);
+        recordWrites(updated);
+        return updated;
+    }
+
+    /**
+     * @return Every thumbnail key in use, for sweeping orphaned thumbnail files
+     */
+    public Set<String> getThumbnailKeys() {
+        Set<String> keys = new HashSet<>();
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+
+        try (Cursor cursor = db.rawQuery("SELECT DISTINCT " + COLUMN_THUMBNAIL_KEY +
+                " FROM " + TABLE_DOCUMENTS + " WHERE " + COLUMN_THUMBNAIL_KEY + " <> ''", null)) {
+            while (cursor.moveToNext()) {
+                keys.add(cursor.getString(0));
+            }
+        }
+
+        return keys;
+    }
+
+    /**
+     * @return The originals kept for the documents, for deleting them with the documents
+     */
+    public List<String> getOriginalPaths(long[] documentIds) {
+        List<String> paths = new ArrayList<>();
+        if (documentIds.length == 0) {
+            return paths;
+        }
+
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        StringBuilder placeholders = new StringBuilder();
+        String[] args = new String[documentIds.length];
+        for (int i = 0; i < documentIds.length; i++) {
+            placeholders.append(i == 0 ? "?" : ", ?");
+            args[i] = String.valueOf(documentIds[i]);
+        }
+
+        try (Cursor cursor = db.rawQuery("SELECT " + COLUMN_ORIGINAL_PATH + " FROM " + TABLE_DOCUMENTS +
+                " WHERE " + COLUMN_ID + " IN (" + placeholders + ") AND " +
+                COLUMN_ORIGINAL_PATH + " IS NOT NULL", args)) {
+            while (cursor.moveToNext()) {
+                paths.add(cursor.getString(0));
+            }
+        }
+
+        return paths;
+    }
+
+    /**
+     * Replace the edits of a document. Its image is rendered again by the
+     * background render job, which also makes new thumbnails.
+     * @param recipe EditRecipe bytes over the document's original
+     * @return True if the document exists and has an original to render from
+     */
+    public boolean setEditRecipe(long documentId, byte[] recipe) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        int updated;
+        try (SQLiteStatement update = db.compileStatement("UPDATE " + TABLE_DOCUMENTS +
+                " SET " + COLUMN_EDIT_RECIPE + " = ?, " + COLUMN_RENDER_VERSION + " = 0" +
+                " WHERE " + COLUMN_ID + " = ? AND " + COLUMN_ORIGINAL_PATH + " IS NOT NULL")) {
+            update.bindBlob(1, recipe);
+            update.bindLong(2, documentId);
+            updated = update.executeUpdateDelete();
+        }
+
+        long[] documentIds = {documentId};
+        invalidateDocuments(documentIds);
+        if (updated > 0) {
+            changeBus.publish(DocumentChangeBus.Type.UPDATE, documentIds, (String[]) null);
+        }
+        recordWrites(updated);
+        return updated > 0;
+    }
+
+    /**
+     * Get documents whose image was rendered from their recipe by an older
+     * {@code EditRecipe.RENDER_VERSION}, or not yet at all, for the render job
+     * @param renderVersion The current render version
+     * @param limit Maximum number of documents to return
+     */
+    public List<ExtractedDocument> getDocumentsToRender(int renderVersion, int limit) {
+        List<ExtractedDocument> documents = new ArrayList<>();
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+
+        try (Cursor cursor = db.rawQuery("SELECT * FROM " + TABLE_DOCUMENTS +
+                        " WHERE " + COLUMN_EDIT_RECIPE + " IS NOT NULL" +
+                        " AND " + COLUMN_ORIGINAL_PATH + " IS NOT NULL" +
+                        " AND ifnull(" + COLUMN_RENDER_VERSION + ", 0) < ?" +
+                        " LIMIT ?",
+                new String[]{String.valueOf(renderVersion), String.valueOf(limit)})) {
+            while (cursor.moveToNext()) {
+                documents.add(cursorToDocument(cursor));
+            }
+        }
+
+        return documents;
+    }
+
+    /**
+     * Record renders of documents' images, in a single transaction. The thumbnails
+     * of rendered images show the old render, so they are cleared for the thumbnail backfill.
+     * @param rendered Whether each document's image was rendered, by ID. Ones that failed
+     * keep their last image and are not tried again until the render version changes.
+     * @param renderVersion The render version used
+     * @return The number of documents updated
+     */
+    public int setRendered(Map<Long, Boolean> rendered, int renderVersion) {
+        int updated = 0;
+        long[] documentIds = new long[rendered.size()];
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+        db.beginTransaction();
+        try (SQLiteStatement newImage = db.compileStatement("UPDATE " + TABLE_DOCUMENTS +
+                " SET " + COLUMN_RENDER_VERSION + " = ?, " + COLUMN_THUMBNAIL_KEY + " = NULL, " +
+                COLUMN_BLUR_HASH + " = NULL WHERE " + COLUMN_ID + " = ?");
+             SQLiteStatement sameImage = db.compileStatement("UPDATE " + TABLE_DOCUMENTS +
+                     " SET " + COLUMN_RENDER_VERSION + " = ? WHERE " + COLUMN_ID + " = ?")) {
+
+            int i = 0;
+            for (Map.Entry<Long, Boolean> entry : rendered.entrySet()) {
+                documentIds[i++] = entry.getKey();
+                SQLiteStatement update = entry.getValue() ? newImage : sameImage;
+                update.bindLong(1, renderVersion);
+                update.bindLong(2, entry.getKey());
+                updated += update.executeUpdateDelete();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        Log.d(TAG, "Stored renders of " + updated + " documents");
+        invalidateDocuments(documentIds);
+        changeBus.publish(DocumentChangeBus.Type.UPDATE, documentIds, (String[]) null);
+        recordWrites(updated);
+        return updated;
+    }
+
+    /**
+     * Drop cached rows after a bulk write. Their previous categories are not
+     * looked up, so every cached list is dropped as well.
+     */
+    private void invalidateDocuments(long[] documentIds) {
+        for (long documentId : documentIds) {
+            cache.invalidateDocument(documentId);
+        }
+        cache.invalidateCategories((String[]) null);
+    }
+
+    /**
+     * Remove a document from the search index; call inside the transaction that
+     * updates or deletes it. FTS4 reads the indexed values back from the
+     * documents table to remove them, so compressed text is first put back as
+     * plain text. Readers never see that intermediate state.
+     */
+    private static void removeFromSearchIndex(SQLiteDatabase db, long documentId) {
+        try (Cursor cursor = db.rawQuery(SQL_EXTRACTED_TEXT_BY_ID, new String[]{String.valueOf(documentId)})) {
+            if (!cursor.moveToFirst()) {
+                return;
+            }
+            if (cursor.getInt(1) != TextCodec.CODEC_PLAIN) {
+                db.execSQL(SQL_RESTORE_PLAIN_TEXT, new Object[]{TextCodec.read(cursor, 0, 1), documentId});
+            }
+        }
+        DocumentSearchIndex.delete(db, documentId);
+    }
+
+    private void putExtractedText(ContentValues values, String text) {
+        TextCodec.put(values, COLUMN_EXTRACTED_TEXT, COLUMN_TEXT_CODEC, COLUMN_TEXT_LENGTH,
+                text, config.getCompressionThresholdChars());
+    }
+
+    /**
+     * @return The stored category of a document, or null if it does not exist
+     */
+    private static String queryCategory(SQLiteDatabase db, long documentId) {
+        try (Cursor cursor = db.rawQuery(SQL_CATEGORY_BY_ID, new String[]{String.valueOf(documentId)})) {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        }
+    }
+
+    /**
+     * Count written rows and run maintenance once enough have accumulated
+     */
+    private void recordWrites(int rows) {
+        writesSinceMaintenance += rows;
+        if (writesSinceMaintenance >= config.getWritesBetweenMaintenance()) {
+            runMaintenance();
+        }
+    }
+
+    /**
+     * Run a PRAGMA that may return a row; execSQL rejects those on Android
+     */
+    private static void runPragma(SQLiteDatabase db, String pragma) {
+        try (Cursor cursor = db.rawQuery(pragma, null)) {
+            cursor.moveToFirst();
+        }
+    }
+
+    private static void bindNullableString(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
     /**
      * Convert a database cursor to a document object
      * @param cursor The cursor to convert
@@ -182,26 +1050,67 @@ public class LibraryRepository {
         document.setId(cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_ID)));
         document.setFileName(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_FILE_NAME)));
         document.setCategory(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_CATEGORY)));
-        document.setExtractedText(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_EXTRACTED_TEXT)));
+        document.setExtractedText(TextCodec.read(cursor,
+                cursor.getColumnIndexOrThrow(COLUMN_EXTRACTED_TEXT),
+                cursor.getColumnIndexOrThrow(COLUMN_TEXT_CODEC)));
         document.setImagePath(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_IMAGE_PATH)));
+        document.setThumbnailKey(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_THUMBNAIL_KEY)));
+        document.setBlurHash(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_BLUR_HASH)));
+        document.setOriginalPath(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_ORIGINAL_PATH)));
+        document.setEditRecipe(cursor.getBlob(cursor.getColumnIndexOrThrow(COLUMN_EDIT_RECIPE)));
+        document.setRenderVersion(cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_RENDER_VERSION)));
 
-        String dateString = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_CREATION_DATE));
-        try {
-            document.setCreationDate(dateFormat.parse(dateString));
-        } catch (ParseException e) {
-            Log.e(TAG, "Error parsing date: " + dateString, e);
-            document.setCreationDate(new Date());
-        }
+        document.setCreationDate(new Date(cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_CREATED_AT))));
 
         return document;
     }
 
+    /**
+     * Convert a cursor over {@link #SUMMARY_PROJECTION} to a summary object
+     * @param cursor The cursor to convert
+     * @return The summary object
+     */
+    private DocumentSummary cursorToSummary(Cursor cursor) {
+        return new DocumentSummary(
+                cursor.getLong(0),
+                cursor.getString(1),
+                cursor.getString(2),
+                new Date(cursor.getLong(3)),
+                cursor.getString(4),
+                cursor.getString(6),
+                cursor.getString(7),
+                cursor.getInt(5));
+    }
+
     /**
      * Database helper class
      */
     private static class DatabaseHelper extends SQLiteOpenHelper {
-        DatabaseHelper(Context context) {
+        private final MigrationRunner migrationRunner =
+                new MigrationRunner(DatabaseMigrations.all(), MigrationRunner.DEFAULT_BATCH_SIZE);
+
+        private final DatabaseConfig config;
+
+        DatabaseHelper(Context context, DatabaseConfig config) {
             super(context, DATABASE_NAME, null, DATABASE_VERSION);
+            this.config = config;
+            // Readers see the last committed snapshot while the writer thread saves,
+            // and the framework opens a pool of read-only connections for the reader pool
+            setWriteAheadLoggingEnabled(true);
+        }
+
+        @Override
+        public void onConfigure(SQLiteDatabase db) {
+            super.onConfigure(db);
+            db.setMaxSqlCacheSize(config.getStatementCacheSize());
+            // Only takes effect before the first table is created
+            runPragma(db, "PRAGMA page_size = " + config.getPageSizeBytes());
+            // cache_size and mmap_size are per connection; onConfigure only sees the
+            // primary connection, pooled readers keep the platform defaults (see DatabaseConfig)
+            runPragma(db, "PRAGMA cache_size = -" + config.getCacheSizeKb());
+            runPragma(db, "PRAGMA mmap_size = " + config.getMmapSizeBytes());
+            // Durable at every checkpoint; a power loss may drop only the last commits
+            runPragma(db, "PRAGMA synchronous = NORMAL");
         }
 
         @Override
@@ -212,16 +1121,35 @@ public class LibraryRepository {
                     COLUMN_CATEGORY + " TEXT NOT NULL, " +
                     COLUMN_EXTRACTED_TEXT + " TEXT, " +
                     COLUMN_IMAGE_PATH + " TEXT, " +
-                    COLUMN_CREATION_DATE + " TEXT NOT NULL);";
+                    COLUMN_CREATION_DATE + " TEXT NOT NULL, " +
+                    COLUMN_CREATED_AT + " INTEGER, " +
+                    COLUMN_TEXT_CODEC + " INTEGER NOT NULL DEFAULT " + TextCodec.CODEC_PLAIN + ", " +
+                    COLUMN_TEXT_LENGTH + " INTEGER, " +
+                    COLUMN_THUMBNAIL_KEY + " TEXT, " +
+                    COLUMN_BLUR_HASH + " TEXT, " +
+                    COLUMN_ORIGINAL_PATH + " TEXT, " +
+                    COLUMN_EDIT_RECIPE + " BLOB, " +
+                    COLUMN_RENDER_VERSION + " INTEGER);";
 
             db.execSQL(createTableQuery);
+            DatabaseMigrations.createListIndexes(db);
+            DocumentSearchIndex.createTable(db, TABLE_DOCUMENTS, COLUMN_FILE_NAME, COLUMN_EXTRACTED_TEXT);
+            MigrationRunner.createStateTable(db);
         }
 
         @Override
         public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-            // Handle database upgrades if needed
-            db.execSQL("DROP TABLE IF EXISTS " + TABLE_DOCUMENTS);
-            onCreate(db);
+            // Never drop user data; apply each versioned migration in order
+            migrationRunner.upgrade(db, oldVersion, newVersion);
+        }
+
+        @Override
+        public void onOpen(SQLiteDatabase db) {
+            super.onOpen(db);
+            // Finish data backfills, including ones interrupted on a previous run
+            if (!db.isReadOnly()) {
+                migrationRunner.runPendingBackfills(db);
+            }
         }
     }
 } 
\ No newline at end of file
@@ -0,0 +1,127 @@
+package com.quang.escan.ui.library;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.List;
+
+/**
+ * Applies {@link DatabaseMigration}s in version order and drives their
+ * batched backfills to completion.
+ *
+ * Pending backfills are recorded in a small bookkeeping table during the
+ * upgrade, and cleared once a backfill reports no more rows, so progress
+ * survives process death.
+ */
+class MigrationRunner {
+    private static final String TAG = "MigrationRunner";
+
+    static final String TABLE_MIGRATION_STATE = "migration_state";
+    private static final String COLUMN_VERSION = "version";
+    private static final String COLUMN_BACKFILL_DONE = "backfill_done";
+
+    static final int DEFAULT_BATCH_SIZE = 500;
+
+    private final List<DatabaseMigration> migrations;
+    private final int batchSize;
+
+    MigrationRunner(List<DatabaseMigration> migrations, int batchSize) {
+        this.migrations = migrations;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Create the bookkeeping table, for new and upgraded databases alike
+     */
+    static void createStateTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_MIGRATION_STATE + " (" +
+                COLUMN_VERSION + " INTEGER PRIMARY KEY, " +
+                COLUMN_BACKFILL_DONE + " INTEGER NOT NULL DEFAULT 0)");
+    }
+
+    /**
+     * Apply the schema part of every migration between the two versions.
+     * Called from onUpgrade, inside its transaction.
+     */
+    void upgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        createStateTable(db);
+
+        for (DatabaseMigration migration : migrations) {
+            int version = migration.getVersion();
+            if (version <= oldVersion || version > newVersion) {
+                continue;
+            }
+
+            Log.d(TAG, "Migrating schema to version " + version);
+            migration.migrateSchema(db);
+
+            if (migration.hasBackfill()) {
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_VERSION, version);
+                values.put(COLUMN_BACKFILL_DONE, 0);
+                db.insertWithOnConflict(TABLE_MIGRATION_STATE, null, values,
+                        SQLiteDatabase.CONFLICT_REPLACE);
+            }
+        }
+    }
+
+    /**
+     * Run every pending backfill to completion, one batch per transaction.
+     * Must be called outside of any transaction, e.g. from onOpen.
+     */
+    void runPendingBackfills(SQLiteDatabase db) {
+        for (DatabaseMigration migration : migrations) {
+            if (!migration.hasBackfill() || !isBackfillPending(db, migration.getVersion())) {
+                continue;
+            }
+
+            long start = System.currentTimeMillis();
+            int batches = 0;
+            boolean more = true;
+
+            while (more) {
+                db.beginTransaction();
+                try {
+                    more = migration.backfillBatch(db, batchSize);
+                    if (!more) {
+                        markBackfillDone(db, migration.getVersion());
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                batches++;
+            }
+
+            Log.d(TAG, "Backfill for version " + migration.getVersion() + " finished in " +
+                    batches + " batches, " + (System.currentTimeMillis() - start) + " ms");
+        }
+    }
+
+    /**
+     * Whether any migration still has rows to backfill
+     */
+    static boolean hasPendingBackfills(SQLiteDatabase db) {
+        try (Cursor cursor = db.rawQuery("SELECT 1 FROM " + TABLE_MIGRATION_STATE +
+                " WHERE " + COLUMN_BACKFILL_DONE + " = 0 LIMIT 1", null)) {
+            return cursor.moveToFirst();
+        }
+    }
+
+    private static boolean isBackfillPending(SQLiteDatabase db, int version) {
+        try (Cursor cursor = db.rawQuery("SELECT 1 FROM " + TABLE_MIGRATION_STATE +
+                        " WHERE " + COLUMN_VERSION + " = ? AND " + COLUMN_BACKFILL_DONE + " = 0",
+                new String[]{String.valueOf(version)})) {
+            return cursor.moveToFirst();
+        }
+    }
+
+    private static void markBackfillDone(SQLiteDatabase db, int version) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_BACKFILL_DONE, 1);
+        db.update(TABLE_MIGRATION_STATE, values, COLUMN_VERSION + " = ?",
+                new String[]{String.valueOf(version)});
+    }
+}
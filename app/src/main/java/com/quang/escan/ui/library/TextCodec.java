@@ -0,0 +1,114 @@
+package com.quang.escan.ui.library;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteStatement;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Storage encoding of the extracted_text column.
+ *
+ * Text longer than the configured threshold is stored as a Deflate BLOB and
+ * flagged in the text_codec column; shorter text stays plain TEXT, where the
+ * saving would not pay for the CPU. Decoding streams straight from the BLOB
+ * into the result, without an intermediate copy of the UTF-8 bytes.
+ */
+class TextCodec {
+    // Values of the text_codec column
+    static final int CODEC_PLAIN = 0;
+    static final int CODEC_DEFLATE = 1;
+
+    private static final int BUFFER_CHARS = 4096;
+
+    private TextCodec() {
+        // Utility class
+    }
+
+    /**
+     * @return The codec to store the given text with
+     */
+    static int codecFor(String text, int thresholdChars) {
+        return text != null && text.length() > thresholdChars ? CODEC_DEFLATE : CODEC_PLAIN;
+    }
+
+    /**
+     * Put the encoded text, its codec and its length into insert or update values
+     */
+    static void put(ContentValues values, String textColumn, String codecColumn, String lengthColumn,
+                    String text, int thresholdChars) {
+        int codec = codecFor(text, thresholdChars);
+        if (codec == CODEC_DEFLATE) {
+            values.put(textColumn, compress(text));
+        } else {
+            values.put(textColumn, text);
+        }
+        values.put(codecColumn, codec);
+        values.put(lengthColumn, text != null ? text.length() : 0);
+    }
+
+    /**
+     * Bind the encoded text and its codec to a compiled statement
+     * @return The codec that was bound
+     */
+    static int bind(SQLiteStatement statement, int textIndex, int codecIndex, String text, int thresholdChars) {
+        int codec = codecFor(text, thresholdChars);
+        if (text == null) {
+            statement.bindNull(textIndex);
+        } else if (codec == CODEC_DEFLATE) {
+            statement.bindBlob(textIndex, compress(text));
+        } else {
+            statement.bindString(textIndex, text);
+        }
+        statement.bindLong(codecIndex, codec);
+        return codec;
+    }
+
+    /**
+     * Read and decode the text from a cursor row
+     */
+    static String read(Cursor cursor, int textIndex, int codecIndex) {
+        if (cursor.isNull(textIndex)) {
+            return null;
+        }
+        if (cursor.getInt(codecIndex) == CODEC_DEFLATE) {
+            return decompress(cursor.getBlob(textIndex));
+        }
+        return cursor.getString(textIndex);
+    }
+
+    static byte[] compress(String text) {
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(utf8.length / 3 + 16);
+        try (DeflaterOutputStream deflater = new DeflaterOutputStream(out)) {
+            deflater.write(utf8);
+        } catch (IOException e) {
+            // Only in-memory streams are involved
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    static String decompress(byte[] compressed) {
+        StringBuilder text = new StringBuilder(compressed.length * 3);
+        char[] buffer = new char[BUFFER_CHARS];
+        try (Reader reader = new InputStreamReader(
+                new InflaterInputStream(new ByteArrayInputStream(compressed)), StandardCharsets.UTF_8)) {
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                text.append(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Corrupt compressed text", e);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,173 @@
+package com.quang.escan.ui.library;
+
+import android.util.Log;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.GridLayoutManager;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.quang.escan.image.BitmapCache;
+import com.quang.escan.image.ImageLoader;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * Warms the bitmap cache with the thumbnails of rows about to scroll into
+ * view, so cells already hold their image when they appear.
+ *
+ * The window of rows ahead follows the scroll direction and grows with the
+ * scroll speed: a fling looks further ahead than a slow drag. Decodes run at
+ * low priority behind visible rows, and requests for rows that left the
+ * window, such as after a change of direction, are cancelled before they
+ * start. The window is capped so prefetched thumbnails fill at most a share
+ * of {@link BitmapCache} and never evict the rows on screen.
+ */
+public class ThumbnailPrefetcher {
+    private static final String TAG = "ThumbnailPrefetcher";
+
+    // Rows prefetched even when scrolling slowly
+    private static final int MIN_ROWS_AHEAD = 2;
+    private static final int MAX_ROWS_AHEAD = 10;
+    // How far ahead a fling is covered: roughly the time to decode the window
+    private static final int LOOKAHEAD_FRAMES = 12;
+    // At most this share of the bitmap cache holds prefetched thumbnails
+    private static final int CACHE_SHARE_DIVISOR = 3;
+
+    private final DocumentAdapter adapter;
+    private final ImageLoader imageLoader;
+    private final int targetSizePx;
+    private final int maxItems;
+
+    // Prefetches queued or running, by adapter position
+    private final Map<Integer, Future<?>> pending = new HashMap<>();
+    private RecyclerView attachedView;
+
+    private final RecyclerView.OnScrollListener scrollListener = new RecyclerView.OnScrollListener() {
+        @Override
+        public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+            if (dy != 0) {
+                prefetch(recyclerView, dy);
+            }
+        }
+    };
+
+    public ThumbnailPrefetcher(DocumentAdapter adapter) {
+        this.adapter = adapter;
+        this.imageLoader = ImageLoader.getInstance();
+        this.targetSizePx = DocumentAdapter.THUMBNAIL_SIZE.getMaxEdgePx();
+        // Thumbnails are at most targetSizePx square at 4 bytes per pixel
+        long bytesPerItem = 4L * targetSizePx * targetSizePx;
+        this.maxItems = (int) Math.max(1,
+                BitmapCache.getInstance().getMaxSizeBytes() / CACHE_SHARE_DIVISOR / bytesPerItem);
+    }
+
+    /**
+     * Prefetch as the given RecyclerView scrolls. Works with LinearLayoutManager
+     * and its subclasses, including GridLayoutManager.
+     */
+    public void attachTo(RecyclerView recyclerView) {
+        detach();
+        attachedView = recyclerView;
+        recyclerView.addOnScrollListener(scrollListener);
+    }
+
+    /**
+     * Stop listening and cancel every prefetch that has not started
+     */
+    public void detach() {
+        if (attachedView != null) {
+            attachedView.removeOnScrollListener(scrollListener);
+            attachedView = null;
+        }
+        cancelOutside(0, -1);
+    }
+
+    private void prefetch(RecyclerView recyclerView, int dy) {
+        RecyclerView.LayoutManager layoutManager = recyclerView.getLayoutManager();
+        if (!(layoutManager instanceof LinearLayoutManager)) {
+            return;
+        }
+        LinearLayoutManager linear = (LinearLayoutManager) layoutManager;
+        int first = linear.findFirstVisibleItemPosition();
+        int last = linear.findLastVisibleItemPosition();
+        if (first == RecyclerView.NO_POSITION || last == RecyclerView.NO_POSITION) {
+            return;
+        }
+
+        int span = layoutManager instanceof GridLayoutManager
+                ? ((GridLayoutManager) layoutManager).getSpanCount() : 1;
+        int items = Math.min(maxItems, rowsAhead(recyclerView, dy) * span);
+
+        // Nearest rows first: the prefetch queue runs in submission order
+        int start;
+        int end;
+        if (dy > 0) {
+            start = last + 1;
+            end = Math.min(adapter.getItemCount() - 1, last + items);
+            cancelOutside(start, end);
+            for (int position = start; position <= end; position++) {
+                request(position);
+            }
+        } else {
+            start = Math.max(0, first - items);
+            end = first - 1;
+            cancelOutside(start, end);
+            for (int position = end; position >= start; position--) {
+                request(position);
+            }
+        }
+    }
+
+    /**
+     * @return Rows to look ahead at the current speed, estimated from this frame's scroll distance
+     */
+    private static int rowsAhead(RecyclerView recyclerView, int dy) {
+        View child = recyclerView.getChildAt(0);
+        int rowHeight = child != null ? child.getHeight() : 0;
+        if (rowHeight <= 0) {
+            return MIN_ROWS_AHEAD;
+        }
+        int rows = (int) Math.ceil((double) Math.abs(dy) * LOOKAHEAD_FRAMES / rowHeight);
+        return Math.max(MIN_ROWS_AHEAD, Math.min(MAX_ROWS_AHEAD, rows));
+    }
+
+    private void request(int position) {
+        Future<?> existing = pending.get(position);
+        if (existing != null && !existing.isDone()) {
+            return;
+        }
+        Future<?> future = imageLoader.prefetch(adapter.getThumbnailPath(position), targetSizePx);
+        if (future != null) {
+            pending.put(position, future);
+        } else {
+            pending.remove(position);
+        }
+    }
+
+    /**
+     * Cancel prefetches outside [start, end]; ones already decoding finish into the cache
+     */
+    private void cancelOutside(int start, int end) {
+        int cancelled = 0;
+        for (Iterator<Map.Entry<Integer, Future<?>>> it = pending.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Integer, Future<?>> entry = it.next();
+            int position = entry.getKey();
+            Future<?> future = entry.getValue();
+            if (future.isDone()) {
+                it.remove();
+            } else if (position < start || position > end) {
+                future.cancel(false);
+                it.remove();
+                cancelled++;
+            }
+        }
+        if (cancelled > 0) {
+            Log.d(TAG, "Cancelled " + cancelled + " prefetches scrolled past");
+        }
+    }
+}
@@ -2,7 +2,6 @@ package com.quang.escan.ui.ocr;
 
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Bundle;
 import android.text.TextUtils;
@@ -15,13 +14,20 @@ import androidx.appcompat.app.AppCompatActivity;
 
 import com.quang.escan.R;
 import com.quang.escan.databinding.ActivitySaveExtractedTextBinding;
+import com.quang.escan.image.BitmapCache;
+import com.quang.escan.image.BitmapDecoder;
+import com.quang.escan.image.BitmapPool;
+import com.quang.escan.image.EditRecipe;
+import com.quang.escan.image.PreviewMemoryOverlay;
+import com.quang.escan.image.ThumbnailStore;
 import com.quang.escan.model.ExtractedDocument;
-import com.quang.escan.ui.library.LibraryRepository;
+import com.quang.escan.ui.library.AsyncLibraryRepository;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
@@ -38,16 +44,21 @@ public class SaveExtractedTextActivity extends AppCompatActivity {
     public static final String EXTRA_IMAGE_URI = "extra_image_uri";
     public static final String EXTRA_EXTRACTED_TEXT = "extra_extracted_text";
     public static final String EXTRA_FEATURE_TYPE = "feature_type";
+    // With an edited image: the original it was rendered from, and the EditRecipe bytes
+    public static final String EXTRA_ORIGINAL_URI = "extra_original_uri";
+    public static final String EXTRA_EDIT_RECIPE = "extra_edit_recipe";
     private static final int MAX_DISPLAY_WIDTH = 800;
     private static final int FEATURE_EXTRACT_TEXT = 0;
     private static final int FEATURE_EXTRACT_HANDWRITING = 1;
     
     private ActivitySaveExtractedTextBinding binding;
-    private LibraryRepository libraryRepository;
+    private AsyncLibraryRepository libraryRepository;
     private Uri imageUri;
     private Bitmap imageBitmap;
     private String extractedText;
     private String imageUriString;
+    private String originalUriString;
+    private byte[] editRecipe;
     private int featureType = FEATURE_EXTRACT_TEXT; // Default to text extraction
     
     @Override
@@ -56,8 +67,11 @@ public class SaveExtractedTextActivity extends AppCompatActivity {
         binding = ActivitySaveExtractedTextBinding.inflate(getLayoutInflater());
         setContentView(binding.getRoot());
         
+        // Debug builds show what the previews on screen cost
+        PreviewMemoryOverlay.attachIfDebuggable(this);
+        
         // Initialize repository
-        libraryRepository = new LibraryRepository(this);
+        libraryRepository = AsyncLibraryRepository.getInstance(this);
         
         // Get feature type from intent
         featureType = getIntent().getIntExtra(EXTRA_FEATURE_TYPE, FEATURE_EXTRACT_TEXT);
@@ -113,6 +127,10 @@ public class SaveExtractedTextActivity extends AppCompatActivity {
                 loadImage();
             }
             
+            // The image may be a render of edits over an original
+            originalUriString = intent.getStringExtra(EXTRA_ORIGINAL_URI);
+            editRecipe = intent.getByteArrayExtra(EXTRA_EDIT_RECIPE);
+            
             // Get feature type
             featureType = intent.getIntExtra(EXTRA_FEATURE_TYPE, FEATURE_EXTRACT_TEXT);
         }
@@ -161,27 +179,20 @@ public class SaveExtractedTextActivity extends AppCompatActivity {
             imageUri = Uri.parse(imageUriString);
             Log.d(TAG, "Loading image from URI: " + imageUri);
             
-            try (InputStream inputStream = getContentResolver().openInputStream(imageUri)) {
-                if (inputStream != null) {
-                    imageBitmap = BitmapFactory.decodeStream(inputStream);
-                    
-                    if (imageBitmap != null) {
-                        // Scale bitmap if too large
-                        if (imageBitmap.getWidth() > MAX_DISPLAY_WIDTH) {
-                            float scaleFactor = (float) MAX_DISPLAY_WIDTH / imageBitmap.getWidth();
-                            int newHeight = (int) (imageBitmap.getHeight() * scaleFactor);
-                            
-                            imageBitmap = Bitmap.createScaledBitmap(
-                                    imageBitmap, MAX_DISPLAY_WIDTH, newHeight, true);
-                        }
-                        
-                        binding.imagePreview.setImageBitmap(imageBitmap);
-                    } else {
-                        Log.e(TAG, "Failed to decode bitmap from URI");
-                        binding.imagePreview.setImageResource(android.R.drawable.ic_menu_gallery);
-                    }
-                }
+            // Coming back from a configuration change or another screen reuses the decoded image
+            BitmapCache bitmapCache = BitmapCache.getInstance();
+            imageBitmap = bitmapCache.get(imageUriString, MAX_DISPLAY_WIDTH);
+            if (imageBitmap != null) {
+                binding.imagePreview.setImageBitmap(imageBitmap);
+                return;
             }
+
+            // Decoded straight to at most MAX_DISPLAY_WIDTH wide, in the cheapest format that
+            // can be shown; saving decodes its own software copy
+            imageBitmap = BitmapDecoder.decode(this, imageUri, MAX_DISPLAY_WIDTH, Integer.MAX_VALUE,
+                    BitmapDecoder.Purpose.PREVIEW);
+            bitmapCache.put(imageUriString, MAX_DISPLAY_WIDTH, imageBitmap);
+            binding.imagePreview.setImageBitmap(imageBitmap);
         } catch (Exception e) {
             Log.e(TAG, "Error loading image", e);
             binding.imagePreview.setImageResource(android.R.drawable.ic_menu_gallery);
@@ -211,26 +222,63 @@ public class SaveExtractedTextActivity extends AppCompatActivity {
         document.setExtractedText(extractedText);
         document.setCreationDate(new Date());
         
-        // Save the image if available
-        if (imageBitmap != null) {
-            String imagePath = saveImageToStorage(imageBitmap, fileName);
-            document.setImagePath(imagePath);
-        }
-        
-        // Save to repository
-        long documentId = libraryRepository.saveDocument(document);
+        // Prevent double submission while the save runs in the background
+        binding.btnSave.setEnabled(false);
         
-        if (documentId > 0) {
-            Toast.makeText(this, "Document saved successfully", Toast.LENGTH_SHORT).show();
-            
-            // Navigate to library fragment
-            navigateToLibrary(category);
-        } else {
-            Toast.makeText(this, "Error saving document", Toast.LENGTH_SHORT).show();
-        }
+        final boolean hasImage = imageBitmap != null;
+        final String selectedCategory = category;
+        // The image files are written on the image thread; the writer only inserts the row
+        libraryRepository.saveDocument(() -> {
+            // Save the image if available
+            if (hasImage) {
+                String imagePath = saveImageToStorage(fileName);
+                document.setImagePath(imagePath);
+                if (imagePath != null && editRecipe != null && originalUriString != null) {
+                    saveOriginal(document, fileName);
+                }
+                document.setThumbnailKey(createThumbnails(imagePath));
+                document.setBlurHash(createBlurHash(document.getThumbnailKey()));
+            }
+            return document;
+        }, new AsyncLibraryRepository.Callback<Long>() {
+            @Override
+            public void onResult(Long documentId) {
+                if (isFinishing() || isDestroyed()) {
+                    return;
+                }
+                
+                if (documentId > 0) {
+                    Toast.makeText(SaveExtractedTextActivity.this,
+                            "Document saved successfully", Toast.LENGTH_SHORT).show();
+                    
+                    // Navigate to library fragment
+                    navigateToLibrary(selectedCategory);
+                } else {
+                    onSaveFailed();
+                }
+            }
+
+            @Override
+            public void onError(Exception e) {
+                Log.e(TAG, "Error saving document", e);
+                if (!isFinishing() && !isDestroyed()) {
+                    onSaveFailed();
+                }
+            }
+        });
+    }
+
+    private void onSaveFailed() {
+        binding.btnSave.setEnabled(true);
+        Toast.makeText(this, "Error saving document", Toast.LENGTH_SHORT).show();
     }
     
-    private String saveImageToStorage(Bitmap bitmap, String fileName) {
+    /**
+     * Write the image at preview width. The preview bitmap may be a hardware or
+     * RGB_565 bitmap, so the pixels are decoded again in full precision.
+     * @return The saved path, or null if it could not be written
+     */
+    private String saveImageToStorage(String fileName) {
         File directory = new File(getExternalFilesDir(null), "scans");
         if (!directory.exists()) {
             directory.mkdirs();
@@ -239,12 +287,77 @@ public class SaveExtractedTextActivity extends AppCompatActivity {
         String imageFileName = fileName + ".jpg";
         File imageFile = new File(directory, imageFileName);
         
+        // A document saved earlier under the same name may still be cached
+        BitmapCache.getInstance().invalidate(imageFile.getAbsolutePath());
+        
+        Bitmap bitmap = null;
         try (FileOutputStream out = new FileOutputStream(imageFile)) {
+            bitmap = BitmapDecoder.decode(this, imageUri, MAX_DISPLAY_WIDTH, Integer.MAX_VALUE,
+                    BitmapDecoder.Purpose.EXPORT);
             bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
             return imageFile.getAbsolutePath();
         } catch (IOException e) {
             Log.e(TAG, "Error saving image", e);
             return null;
+        } finally {
+            BitmapPool.getInstance().release(bitmap);
+        }
+    }
+    
+    /**
+     * Keep the original of an edited image byte for byte, with the recipe, so
+     * the saved image can be rendered again from it instead of from a re-encoded
+     * copy. The image saved is then the cached render. Without the original the
+     * document keeps only that image, as documents saved before recipes did.
+     */
+    private void saveOriginal(ExtractedDocument document, String fileName) {
+        File originalFile = new File(new File(getExternalFilesDir(null), "scans"), fileName + ".original");
+        try (InputStream in = getContentResolver().openInputStream(Uri.parse(originalUriString));
+             OutputStream out = new FileOutputStream(originalFile)) {
+            if (in == null) {
+                throw new IOException("Cannot open " + originalUriString);
+            }
+            in.transferTo(out);
+        } catch (IOException e) {
+            Log.e(TAG, "Error saving original image", e);
+            originalFile.delete();
+            return;
+        }
+        document.setOriginalPath(originalFile.getAbsolutePath());
+        document.setEditRecipe(editRecipe);
+        // The image was rendered from the recipe just now
+        document.setRenderVersion(EditRecipe.RENDER_VERSION);
+    }
+    
+    /**
+     * Write the list thumbnails now, so list screens never decode the full image
+     * @return The thumbnail key, or null to leave it to the background backfill
+     */
+    private String createThumbnails(String imagePath) {
+        if (imagePath == null) {
+            return null;
+        }
+        try {
+            return ThumbnailStore.getInstance(this).createThumbnails(new File(imagePath));
+        } catch (IOException e) {
+            Log.e(TAG, "Error creating thumbnails", e);
+            return null;
+        }
+    }
+    
+    /**
+     * Compute the placeholder list rows show while the thumbnail loads
+     * @return The BlurHash, or null to leave it to the background backfill
+     */
+    private String createBlurHash(String thumbnailKey) {
+        if (!ThumbnailStore.isValidKey(thumbnailKey)) {
+            return null;
+        }
+        try {
+            return ThumbnailStore.getInstance(this).createBlurHash(thumbnailKey);
+        } catch (IOException e) {
+            Log.e(TAG, "Error creating BlurHash", e);
+            return null;
         }
     }
     
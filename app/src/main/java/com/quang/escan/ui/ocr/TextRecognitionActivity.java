@@ -2,7 +2,6 @@ package com.quang.escan.ui.ocr;
 
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Bundle;
 import android.provider.MediaStore;
@@ -17,10 +16,10 @@ import androidx.appcompat.app.AppCompatActivity;
 
 import com.quang.escan.R;
 import com.quang.escan.databinding.ActivityTextRecognitionBinding;
+import com.quang.escan.image.BitmapDecoder;
 import com.quang.escan.ml.TextRecognitionHelper;
 
 import java.io.IOException;
-import java.io.InputStream;
 
 /**
  * Activity for text recognition with multiple language support
@@ -31,7 +30,6 @@ public class TextRecognitionActivity extends AppCompatActivity
     private static final String TAG = "TextRecognitionActivity";
     public static final String EXTRA_IMAGE_URI = "extra_image_uri";
     public static final String EXTRA_FEATURE_TYPE = "feature_type";
-    private static final int MAX_DISPLAY_WIDTH = 800;
     private static final int FEATURE_EXTRACT_TEXT = 0;
     private static final int FEATURE_EXTRACT_HANDWRITING = 1;
     
@@ -187,6 +185,7 @@ public class TextRecognitionActivity extends AppCompatActivity
                 intent.putExtra(SaveExtractedTextActivity.EXTRA_EXTRACTED_TEXT, text);
                 // Pass the feature type to save activity
                 intent.putExtra(EXTRA_FEATURE_TYPE, featureType);
+                putEditRecipe(intent);
                 startActivity(intent);
             } else {
                 Toast.makeText(this, "No text or image to save", Toast.LENGTH_SHORT).show();
@@ -201,36 +200,17 @@ public class TextRecognitionActivity extends AppCompatActivity
         }
         
         try {
-            // Load image for display
-            InputStream inputStream = getContentResolver().openInputStream(imageUri);
-            if (inputStream != null) {
-                // Decode image size first
-                BitmapFactory.Options options = new BitmapFactory.Options();
-                options.inJustDecodeBounds = true;
-                BitmapFactory.decodeStream(getContentResolver().openInputStream(imageUri), null, options);
-                
-                // Calculate sample size to reduce memory usage
-                int sampleSize = 1;
-                if (options.outWidth > MAX_DISPLAY_WIDTH) {
-                    sampleSize = Math.round((float) options.outWidth / (float) MAX_DISPLAY_WIDTH);
-                }
-                
-                // Decode with sample size
-                options = new BitmapFactory.Options();
-                options.inSampleSize = sampleSize;
-                
-                inputStream = getContentResolver().openInputStream(imageUri);
-                imageBitmap = BitmapFactory.decodeStream(inputStream, null, options);
-                
-                // Display image
-                binding.imagePreview.setImageBitmap(imageBitmap);
-                
-                // Show the UI now that we have an image
-                binding.layoutControls.setVisibility(View.VISIBLE);
-                
-                // Start recognition automatically
-                recognizeText();
-            }
+            // Load image for display and recognition, sized for OCR in a single pass
+            imageBitmap = BitmapDecoder.decode(this, imageUri, BitmapDecoder.Purpose.OCR);
+            
+            // Display image
+            binding.imagePreview.setImageBitmap(imageBitmap);
+            
+            // Show the UI now that we have an image
+            binding.layoutControls.setVisibility(View.VISIBLE);
+            
+            // Start recognition automatically
+            recognizeText();
         } catch (IOException e) {
             Log.e(TAG, "Error loading image", e);
             Toast.makeText(this, "Error loading image", Toast.LENGTH_SHORT).show();
@@ -309,6 +289,20 @@ public class TextRecognitionActivity extends AppCompatActivity
         });
     }
     
+    /**
+     * Pass on the original and the edits of an edited image, so the library
+     * stores those rather than the rendered copy recognized here
+     */
+    private void putEditRecipe(Intent intent) {
+        Intent received = getIntent();
+        byte[] recipe = received.getByteArrayExtra(SaveExtractedTextActivity.EXTRA_EDIT_RECIPE);
+        String originalUri = received.getStringExtra(SaveExtractedTextActivity.EXTRA_ORIGINAL_URI);
+        if (recipe != null && originalUri != null) {
+            intent.putExtra(SaveExtractedTextActivity.EXTRA_EDIT_RECIPE, recipe);
+            intent.putExtra(SaveExtractedTextActivity.EXTRA_ORIGINAL_URI, originalUri);
+        }
+    }
+    
     private void launchSaveActivity() {
         Intent intent = new Intent(this, SaveExtractedTextActivity.class);
         intent.putExtra(SaveExtractedTextActivity.EXTRA_EXTRACTED_TEXT, 
@@ -317,7 +311,14 @@ public class TextRecognitionActivity extends AppCompatActivity
         
         // Pass the feature type to save activity
         intent.putExtra(EXTRA_FEATURE_TYPE, featureType);
+        putEditRecipe(intent);
         
         startActivity(intent);
     }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        textRecognitionHelper.release();
+    }
 } 
\ No newline at end of file
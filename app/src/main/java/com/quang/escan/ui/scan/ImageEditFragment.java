@@ -1,15 +1,18 @@
 package com.quang.escan.ui.scan;
 
+import android.app.AlertDialog;
+import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Matrix;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.ImageView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
@@ -25,9 +28,29 @@ import com.google.mlkit.vision.barcode.common.Barcode;
 import com.google.mlkit.vision.common.InputImage;
 import com.quang.escan.R;
 import com.quang.escan.databinding.FragmentImageEditBinding;
+import com.quang.escan.image.BitmapDecoder;
+import com.quang.escan.image.BitmapPool;
+import com.quang.escan.image.Deskew;
+import com.quang.escan.image.DocumentDetector;
+import com.quang.escan.image.DocumentFilter;
+import com.quang.escan.image.EditPipeline;
+import com.quang.escan.image.EditRecipe;
+import com.quang.escan.image.EditRenderer;
+import com.quang.escan.image.ImageRotation;
+import com.quang.escan.image.Quad;
+import com.quang.escan.ui.ocr.SaveExtractedTextActivity;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Fragment for editing a captured image
@@ -40,13 +63,32 @@ public class ImageEditFragment extends Fragment {
     private static final String ARG_FOR_TEXT_RECOGNITION = "for_text_recognition";
     private static final String ARG_FOR_QR_SCAN = "for_qr_scan";
     private static final String ARG_FEATURE_TYPE = "feature_type";
+    private static final long ROTATE_ANIMATION_MS = 200;
+    private static final int JPEG_QUALITY = 90;
+    // Choices of the Enhance dialog; no filter restores the unfiltered image
+    private static final String[] FILTER_NAMES = {"Original", "Black & white", "Grayscale"};
+    private static final DocumentFilter.Mode[] FILTER_MODES = {
+            null, DocumentFilter.Mode.SAUVOLA, DocumentFilter.Mode.GRAYSCALE};
     
     private FragmentImageEditBinding binding;
     private NavController navController;
     private String imagePath;
+    // Preview of the file, no larger than the screen; edits are in its pixels
     private Bitmap originalBitmap;
+    // originalBitmap with the edits, or originalBitmap itself without any
     private Bitmap currentBitmap;
     private int rotationDegrees = 0;
+    // Crops the file does not have yet, then the filter shown over them;
+    // kept apart to switch filters without stacking them
+    private EditPipeline pageEdits = EditPipeline.EMPTY;
+    private DocumentFilter.Mode shownFilter;
+    // Pixels of an original, read once by the first edit over it; only touched on editExecutor
+    private Bitmap rasterSource;
+    private EditPipeline.Raster originalPixels;
+    // A crop or filter is running in the background; one at a time
+    private boolean editRunning = false;
+    private final ExecutorService editExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
     private boolean isForTextRecognition = false;
     private boolean isForQrScan = false;
     private int featureType = -1;
@@ -107,14 +149,9 @@ public class ImageEditFragment extends Fragment {
             featureType = args.getInt("feature_type", -1);
         }
         
-        // Load and display the image
+        // Load and display the image; QR codes are scanned once it is loaded
         if (imagePath != null) {
             loadImage();
-            
-            // If this is for QR scanning, scan the image immediately
-            if (isForQrScan && originalBitmap != null) {
-                scanQrCode(originalBitmap);
-            }
         } else {
             showToast("No image provided");
             navigateUp();
@@ -125,7 +162,8 @@ public class ImageEditFragment extends Fragment {
     }
 
     /**
-     * Load image from path
+     * Load image from path. The preview is decoded on editExecutor, with the
+     * buttons disabled until it is shown.
      */
     private void loadImage() {
         if (imagePath == null || imagePath.isEmpty()) {
@@ -135,52 +173,113 @@ public class ImageEditFragment extends Fragment {
             return;
         }
 
-        try {
-            // First try to parse as a URI
-            Uri imageUri = Uri.parse(imagePath);
-            
-            // Check if it's a content URI
-            if (imageUri.getScheme() != null && (imageUri.getScheme().equals("content") || 
-                                                 imageUri.getScheme().equals("file"))) {
-                Log.d(TAG, "Loading image from URI: " + imageUri);
-                
-                // Load bitmap from content resolver
-                try (InputStream stream = requireContext().getContentResolver().openInputStream(imageUri)) {
-                    if (stream != null) {
-                        originalBitmap = BitmapFactory.decodeStream(stream);
-                    }
-                }
-            } else {
-                // Treat as a file path
-                File imageFile = new File(imagePath);
-                if (!imageFile.exists()) {
-                    Log.e(TAG, "Image file does not exist: " + imagePath);
-                    showToast("Error: Image file not found");
-                    navController.navigateUp();
-                    return;
+        // First try to parse as a URI
+        Uri imageUri = Uri.parse(imagePath);
+        boolean isUri = imageUri.getScheme() != null && (imageUri.getScheme().equals("content") ||
+                                                         imageUri.getScheme().equals("file"));
+        File imageFile = new File(imagePath);
+        if (!isUri && !imageFile.exists()) {
+            Log.e(TAG, "Image file does not exist: " + imagePath);
+            showToast("Error: Image file not found");
+            navController.navigateUp();
+            return;
+        }
+
+        Context context = requireContext().getApplicationContext();
+        // Load a preview no larger than the screen; the full image is only read to save
+        int edge = BitmapDecoder.screenEdgePx(context);
+        setSaving(true);
+        editExecutor.execute(() -> {
+            Bitmap loaded = null;
+            Exception failure = null;
+            try {
+                if (isUri) {
+                    Log.d(TAG, "Loading image from URI: " + imageUri);
+                    loaded = BitmapDecoder.decode(context, imageUri, edge, edge, BitmapDecoder.Purpose.EXPORT);
+                } else {
+                    loaded = BitmapDecoder.decode(imageFile, edge, edge, BitmapDecoder.Purpose.EXPORT);
                 }
-                
-                // Load bitmap from file
-                originalBitmap = BitmapFactory.decodeFile(imagePath);
+            } catch (Exception e) {
+                failure = e;
             }
-            
-            if (originalBitmap == null) {
-                Log.e(TAG, "Failed to decode bitmap from: " + imagePath);
-                showToast("Error: Could not load image");
+            Bitmap original = loaded;
+            Exception loadFailure = failure;
+            mainHandler.post(() -> onImageLoaded(original, loadFailure));
+        });
+    }
+
+    private void onImageLoaded(Bitmap original, Exception failure) {
+        setSaving(false);
+        if (binding == null || failure != null || original == null) {
+            BitmapPool.getInstance().release(original);
+            if (binding != null) {
+                Log.e(TAG, "Error loading image: " + imagePath, failure);
+                showToast("Error loading image" + (failure != null ? ": " + failure.getMessage() : ""));
                 navController.navigateUp();
-                return;
             }
+            return;
+        }
 
-            currentBitmap = originalBitmap;
-            binding.imagePreview.setImageBitmap(currentBitmap);
-            Log.d(TAG, "Image loaded successfully");
-        } catch (Exception e) {
-            Log.e(TAG, "Error loading image", e);
-            showToast("Error loading image: " + e.getMessage());
-            navController.navigateUp();
+        originalBitmap = original;
+        currentBitmap = originalBitmap;
+        binding.imagePreview.setImageBitmap(currentBitmap);
+        restoreEdits();
+        Log.d(TAG, "Image loaded successfully");
+
+        // If this is for QR scanning, scan the image immediately
+        if (isForQrScan) {
+            scanQrCode(originalBitmap);
         }
     }
 
+    /**
+     * Show again the edits made before the view was last destroyed. They are
+     * only kept in memory: the watermark screen, for one, draws over them as
+     * a recipe and comes back here without anything written.
+     */
+    private void restoreEdits() {
+        if (rotationDegrees != 0) {
+            ImageView preview = binding.imagePreview;
+            preview.setRotation(rotationDegrees);
+            // Fitting the turned image needs the size of the view
+            preview.post(() -> {
+                if (binding != null && currentBitmap != null) {
+                    float scale = rotatedPreviewScale(preview, currentBitmap, rotationDegrees);
+                    preview.setScaleX(scale);
+                    preview.setScaleY(scale);
+                }
+            });
+        }
+
+        EditPipeline page = pageEdits;
+        DocumentFilter.Mode filter = shownFilter;
+        EditPipeline edits = shownEdits();
+        if (edits.isEmpty()) {
+            return;
+        }
+        binding.btnCrop.setEnabled(false);
+        binding.btnEnhance.setEnabled(false);
+        editRunning = true;
+        Bitmap original = originalBitmap;
+        editExecutor.execute(() -> {
+            Bitmap result = null;
+            try {
+                result = render(original, edits);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Error restoring edits", e);
+            }
+            Bitmap restored = result;
+            mainHandler.post(() -> {
+                if (restored == null) {
+                    // Showing the original, so it is all there is to save
+                    pageEdits = EditPipeline.EMPTY;
+                    shownFilter = null;
+                }
+                onEditFinished(page, filter, restored, "Could not restore edits");
+            });
+        });
+    }
+
     /**
      * Setup click listeners for UI elements
      */
@@ -191,31 +290,27 @@ public class ImageEditFragment extends Fragment {
         // Crop image button
         binding.btnCrop.setOnClickListener(v -> cropImage());
         
+        // Enhance button - pick a document filter
+        binding.btnEnhance.setOnClickListener(v -> showEnhanceDialog());
+        
         // Watermark button - navigate to watermark fragment
         binding.btnWatermark.setOnClickListener(v -> {
             if (imagePath == null) {
                 showToast("Image not available");
                 return;
             }
-            
-            // Save rotated image if needed
-            if (rotationDegrees > 0 && currentBitmap != null) {
-                // Save the current bitmap to the same file
-                try {
-                    java.io.FileOutputStream out = new java.io.FileOutputStream(imagePath);
-                    currentBitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
-                    out.flush();
-                    out.close();
-                } catch (Exception e) {
-                    Log.e(TAG, "Error saving rotated image", e);
-                    showToast("Error saving changes: " + e.getMessage());
-                    return;
-                }
+            if (editRunning) {
+                showToast("Please wait for the edit to finish");
+                return;
             }
             
-            // Navigate to watermark fragment
+            // The watermark screen draws over the edits as a recipe; the file stays as captured
             Bundle args = new Bundle();
             args.putString("imagePath", imagePath);
+            EditRecipe recipe = pendingRecipe();
+            if (recipe != null) {
+                args.putByteArray("editRecipe", recipe.toBytes());
+            }
             navController.navigate(R.id.action_image_edit_to_watermark, args);
         });
         
@@ -238,14 +333,17 @@ public class ImageEditFragment extends Fragment {
                 }
             } else {
                 // Handle normal flow
-                showToast("Image processed successfully");
-                navigateUp();
+                saveEdits(() -> {
+                    showToast("Image processed successfully");
+                    navigateUp();
+                });
             }
         });
     }
 
     /**
-     * Rotate the image by 90 degrees clockwise
+     * Rotate the image by 90 degrees clockwise.
+     * Only the preview is turned here; the edited copy is saved once, by {@link #saveEdits}.
      */
     private void rotateImage() {
         if (currentBitmap == null) {
@@ -253,39 +351,444 @@ public class ImageEditFragment extends Fragment {
             return;
         }
 
+        rotationDegrees = (rotationDegrees + 90) % 360;
+        
+        // Turn the view, not the pixels: constant time whatever the image size.
+        // The rotation keeps counting up so the animation never spins backwards.
+        ImageView preview = binding.imagePreview;
+        float scale = rotatedPreviewScale(preview, currentBitmap, rotationDegrees);
+        preview.animate()
+                .rotation(preview.getRotation() + 90)
+                .scaleX(scale)
+                .scaleY(scale)
+                .setDuration(ROTATE_ANIMATION_MS);
+        Log.d(TAG, "Image rotated to " + rotationDegrees + " degrees");
+    }
+
+    /**
+     * @return Scale that fits a fitCenter image back inside its view after a quarter turn
+     */
+    private static float rotatedPreviewScale(ImageView view, Bitmap bitmap, int degrees) {
+        int viewWidth = view.getWidth() - view.getPaddingLeft() - view.getPaddingRight();
+        int viewHeight = view.getHeight() - view.getPaddingTop() - view.getPaddingBottom();
+        if (degrees % 180 == 0 || viewWidth <= 0 || viewHeight <= 0) {
+            return 1f;
+        }
+        float fit = Math.min((float) viewWidth / bitmap.getWidth(), (float) viewHeight / bitmap.getHeight());
+        float shownWidth = bitmap.getWidth() * fit;
+        float shownHeight = bitmap.getHeight() * fit;
+        return Math.min(viewWidth / shownHeight, viewHeight / shownWidth);
+    }
+
+    /**
+     * @return The edits shown in the preview, without the rotation of the view
+     */
+    private EditPipeline shownEdits() {
+        return shownFilter == null ? pageEdits : pageEdits.filter(shownFilter, true);
+    }
+
+    /**
+     * @return The pending edits and rotation over the original, or null if there are none
+     */
+    private EditRecipe pendingRecipe() {
+        EditPipeline edits = shownEdits().rotate(rotationDegrees);
+        if (edits.isEmpty() || originalBitmap == null) {
+            return null;
+        }
+        return new EditRecipe(edits, originalBitmap.getWidth(), originalBitmap.getHeight());
+    }
+
+    /**
+     * Save the image with the pending edits and rotation as a copy in app
+     * storage; the original, captured or picked, is never written. A rotation
+     * alone of a JPEG file copies its bytes and rewrites the copy's EXIF
+     * orientation, which loses nothing and decodes no pixel; anything else
+     * re-encodes the pixels. Either runs on editExecutor, with the buttons
+     * disabled meanwhile.
+     * @param onSaved Run on the main thread once the edits are saved
+     */
+    private void saveEdits(Runnable onSaved) {
+        EditRecipe recipe = pendingRecipe();
+        if (recipe == null || currentBitmap == null) {
+            onSaved.run();
+            return;
+        }
+        if (editRunning) {
+            // The edit would land on the image after it is saved
+            showToast("Please wait for the edit to finish");
+            return;
+        }
+
+        EditPipeline edits = shownEdits();
+        int degrees = rotationDegrees;
+        File imageFile = getImageFile();
+        Context context = requireContext().getApplicationContext();
+        setSaving(true);
+        editExecutor.execute(() -> {
+            File copy = null;
+            Exception failure = null;
+            try {
+                copy = saveEditedCopy(context, recipe, imageFile, edits.isEmpty() ? degrees : null);
+            } catch (Exception e) {
+                failure = e;
+            }
+            File savedCopy = copy;
+            Exception saveFailure = failure;
+            mainHandler.post(() -> onEditsSaved(saveFailure, savedCopy, onSaved));
+        });
+    }
+
+    /**
+     * Report where the edited copy was saved, or why it could not be
+     */
+    private void onEditsSaved(Exception failure, File copy, Runnable onSaved) {
+        setSaving(false);
+        if (failure != null) {
+            Log.e(TAG, "Error saving edited image", failure);
+            showToast("Error saving changes: " + failure.getMessage());
+            return;
+        }
+        // The original is as it was, so the edits shown still apply to it
+        Log.d(TAG, "Saved edited copy " + copy);
+        showToast("Image saved: " + copy.getAbsolutePath());
+        onSaved.run();
+    }
+
+    /**
+     * Mark a load or save as running, as an edit would be, and keep the buttons
+     * from starting another edit or leaving the screen until it is done
+     */
+    private void setSaving(boolean saving) {
+        editRunning = saving;
+        if (binding == null) {
+            return;
+        }
+        View[] buttons = {binding.btnRotate, binding.btnCrop, binding.btnEnhance,
+                binding.btnWatermark, binding.btnNext};
+        for (View button : buttons) {
+            button.setEnabled(!saving);
+        }
+    }
+
+    /**
+     * Render the edits over the full image, in one pass where they allow. Blocks.
+     * @return The edited image from the pool
+     */
+    private Bitmap renderFullImage(Context context, EditRecipe recipe) throws IOException {
+        File imageFile = getImageFile();
+        Bitmap full = imageFile != null
+                ? BitmapDecoder.decode(context, imageFile, BitmapDecoder.Purpose.EXPORT)
+                : BitmapDecoder.decode(context, Uri.parse(imagePath), BitmapDecoder.Purpose.EXPORT);
+        // Edits were made on the preview; they scale to the full image
+        return EditRenderer.renderAndRelease(recipe.edits, full, recipe.referenceWidth, recipe.referenceHeight);
+    }
+
+    /**
+     * Save the edited image into app storage, leaving the original as it is. Blocks.
+     * @param imageFile The original's file, or null for a content URI
+     * @param rotationOnly Degrees to rotate by if they are the only edit, else null
+     * @return The saved copy
+     */
+    private File saveEditedCopy(Context context, EditRecipe recipe, File imageFile,
+                                Integer rotationOnly) throws IOException {
+        File directory = new File(context.getExternalFilesDir(null), "EScan/Images");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date());
+        File copy = new File(directory, "EDITED_" + timeStamp + ".jpg");
         try {
-            rotationDegrees = (rotationDegrees + 90) % 360;
-            Matrix matrix = new Matrix();
-            matrix.postRotate(90);
-            currentBitmap = Bitmap.createBitmap(
-                    currentBitmap, 
-                    0, 
-                    0, 
-                    currentBitmap.getWidth(), 
-                    currentBitmap.getHeight(),
-                    matrix, 
-                    true);
-            
-            binding.imagePreview.setImageBitmap(currentBitmap);
-            Log.d(TAG, "Image rotated to " + rotationDegrees + " degrees");
-        } catch (Exception e) {
-            Log.e(TAG, "Error rotating image", e);
-            showToast("Error rotating image: " + e.getMessage());
+            if (rotationOnly != null && imageFile != null && ImageRotation.canRotateLosslessly(imageFile)) {
+                try (InputStream in = new FileInputStream(imageFile);
+                     OutputStream out = new FileOutputStream(copy)) {
+                    in.transferTo(out);
+                }
+                ImageRotation.rotate(copy, rotationOnly);
+            } else {
+                writeRendered(context, recipe, copy);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Never leave half a copy behind
+            copy.delete();
+            throw e;
+        }
+        return copy;
+    }
+
+    /**
+     * Render the edits over the full image and write it as a JPEG. Blocks.
+     */
+    private void writeRendered(Context context, EditRecipe recipe, File target) throws IOException {
+        Bitmap edited = renderFullImage(context, recipe);
+        try (OutputStream out = new FileOutputStream(target)) {
+            if (!edited.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out)) {
+                throw new IOException("Cannot write " + target);
+            }
+        } finally {
+            BitmapPool.getInstance().release(edited);
         }
     }
 
     /**
-     * Crop the image
+     * Render the edits over the full image into the cache, leaving the original as captured. Blocks.
+     * @return The rendered image
+     */
+    private File writeEditedCopy(Context context, EditRecipe recipe) throws IOException {
+        File directory = new File(context.getCacheDir(), "edited");
+        // Only the latest copy is read; older ones belong to flows already left
+        File[] previous = directory.listFiles();
+        if (previous != null) {
+            for (File file : previous) {
+                file.delete();
+            }
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+
+        // A new name each time, as viewers cache images by their URI
+        File copy = new File(directory, "EDITED_" + System.currentTimeMillis() + ".jpg");
+        writeRendered(context, recipe, copy);
+        return copy;
+    }
+
+    /**
+     * @return The image as a file, or null if it is only reachable through a content URI
+     */
+    private File getImageFile() {
+        Uri imageUri = Uri.parse(imagePath);
+        if ("content".equals(imageUri.getScheme())) {
+            return null;
+        }
+        if ("file".equals(imageUri.getScheme())) {
+            return new File(imageUri.getPath());
+        }
+        return new File(imagePath);
+    }
+
+    /**
+     * Crop the image to the document found in it, straightening its perspective
+     * and the skew of its text. Without a document, only the skew is corrected.
+     * Detection and rendering run in the background; the edited copy is saved by {@link #saveEdits}.
      */
     private void cropImage() {
-        // Implementation needed
-        showToast("Crop feature coming soon");
+        if (currentBitmap == null || editRunning) {
+            Log.e(TAG, "Cannot crop null bitmap or during another edit");
+            return;
+        }
+
+        binding.btnCrop.setEnabled(false);
+        editRunning = true;
+        Bitmap original = originalBitmap;
+        Bitmap shown = currentBitmap;
+        EditPipeline page = pageEdits;
+        DocumentFilter.Mode filter = shownFilter;
+        editExecutor.execute(() -> {
+            EditPipeline cropped = null;
+            Bitmap result = null;
+            try {
+                Quad found = findPage(shown);
+                if (found != null) {
+                    // The filter stays on top of the crop, so it can still be switched
+                    cropped = page.warp(found);
+                    result = render(original, filter == null ? cropped : cropped.filter(filter, true));
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Error cropping image", e);
+            }
+            EditPipeline cropEdits = cropped;
+            Bitmap cropResult = result;
+            mainHandler.post(() -> onEditFinished(cropEdits, filter, cropResult,
+                    "No document edges or skew found"));
+        });
+    }
+
+    /**
+     * Find the page and the skew of its text on small copies of the image shown. Blocks.
+     * @return Corners to warp in the image's pixels, both corrections in one,
+     * or null if there was nothing to correct
+     */
+    private static Quad findPage(Bitmap source) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        long start = System.nanoTime();
+        Bitmap skewCopy = scaledCopy(source, Deskew.ESTIMATION_EDGE_PX);
+        Bitmap detectionCopy = scaledCopy(skewCopy, DocumentDetector.DETECTION_EDGE_PX);
+        int skewWidth = skewCopy.getWidth();
+        int skewHeight = skewCopy.getHeight();
+        int detectionWidth = detectionCopy.getWidth();
+        int detectionHeight = detectionCopy.getHeight();
+        int[] skewPixels = pixelsOf(skewCopy);
+        int[] detectionPixels = pixelsOf(detectionCopy);
+        recycleCopy(detectionCopy, source);
+        recycleCopy(skewCopy, source);
+
+        Quad found = DocumentDetector.detect(detectionPixels, detectionWidth, detectionHeight);
+        // The skew is measured inside the page, as it will be once warped upright
+        Quad skewPage = found == null ? null
+                : found.scale((float) skewWidth / detectionWidth, (float) skewHeight / detectionHeight);
+        double skew = Deskew.estimateAngle(skewPixels, skewWidth, skewHeight, skewPage);
+        boolean straighten = Math.abs(skew) >= Deskew.MIN_CORRECTION_DEGREES;
+        Log.d(TAG, "Page " + found + ", skew " + skew + " degrees, found in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+        if (found == null && !straighten) {
+            return null;
+        }
+
+        Quad page = found == null ? Quad.of(width, height)
+                : found.scale((float) width / detectionWidth, (float) height / detectionHeight).clamp(width, height);
+        return straighten ? Deskew.straighten(page, skew) : page;
+    }
+
+    /**
+     * @return A copy no longer than the edge, or the bitmap itself if it is small enough
+     */
+    private static Bitmap scaledCopy(Bitmap bitmap, int maxEdgePx) {
+        float scale = Math.min(1f, (float) maxEdgePx / Math.max(bitmap.getWidth(), bitmap.getHeight()));
+        int scaledWidth = Math.max(1, Math.round(bitmap.getWidth() * scale));
+        int scaledHeight = Math.max(1, Math.round(bitmap.getHeight() * scale));
+        return Bitmap.createScaledBitmap(bitmap, scaledWidth, scaledHeight, true);
+    }
+
+    private static int[] pixelsOf(Bitmap bitmap) {
+        int[] pixels = new int[bitmap.getWidth() * bitmap.getHeight()];
+        bitmap.getPixels(pixels, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
+        return pixels;
+    }
+
+    private static void recycleCopy(Bitmap copy, Bitmap source) {
+        if (copy != source && !copy.isRecycled()) {
+            copy.recycle();
+        }
+    }
+
+    /**
+     * Render edits over the original preview, all of them in as few passes as they allow.
+     * Runs on editExecutor. Blocks.
+     * @return The edited preview from the pool
+     */
+    private Bitmap render(Bitmap original, EditPipeline edits) {
+        if (rasterSource != original) {
+            originalPixels = EditRenderer.rasterOf(original);
+            rasterSource = original;
+        }
+        return EditRenderer.render(edits, originalPixels, originalPixels.width, originalPixels.height);
+    }
+
+    /**
+     * Give the original preview back to the pool. The pool may hand the same
+     * bitmap out again with other pixels, so the copy read from it is dropped
+     * too, on editExecutor, after any render already queued.
+     */
+    private void releaseOriginal() {
+        BitmapPool.getInstance().release(originalBitmap);
+        editExecutor.execute(() -> {
+            rasterSource = null;
+            originalPixels = null;
+        });
     }
 
     /**
-     * Launch the TextRecognitionActivity to process the image
+     * Show an edit rendered in the background
+     * @param page Crops of the edit
+     * @param filter Filter shown over the crops
+     * @param result The edited preview, or null if the edit failed or found nothing to do
+     */
+    private void onEditFinished(EditPipeline page, DocumentFilter.Mode filter, Bitmap result, String failure) {
+        editRunning = false;
+        // The view may be gone meanwhile
+        if (binding == null) {
+            BitmapPool.getInstance().release(result);
+            return;
+        }
+        binding.btnCrop.setEnabled(true);
+        binding.btnEnhance.setEnabled(true);
+        if (result == null) {
+            showToast(failure);
+            return;
+        }
+
+        if (currentBitmap != originalBitmap) {
+            BitmapPool.getInstance().release(currentBitmap);
+        }
+        currentBitmap = result;
+        pageEdits = page;
+        shownFilter = filter;
+        ImageView preview = binding.imagePreview;
+        preview.setImageBitmap(currentBitmap);
+        // A crop has another shape than the photo, so a turned preview needs refitting
+        float scale = rotatedPreviewScale(preview, currentBitmap, rotationDegrees);
+        preview.setScaleX(scale);
+        preview.setScaleY(scale);
+    }
+
+    /**
+     * Offer the document filters, marking the one shown
+     */
+    private void showEnhanceDialog() {
+        if (currentBitmap == null || editRunning) {
+            return;
+        }
+        int checked = 0;
+        for (int i = 0; i < FILTER_MODES.length; i++) {
+            if (FILTER_MODES[i] == shownFilter) {
+                checked = i;
+            }
+        }
+        new AlertDialog.Builder(requireContext())
+                .setTitle("Enhance")
+                .setSingleChoiceItems(FILTER_NAMES, checked, (dialog, which) -> {
+                    dialog.dismiss();
+                    applyFilter(FILTER_MODES[which]);
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    /**
+     * Show the image through a document filter, or without one for null.
+     * The filter replaces the one shown rather than stacking on it, and the
+     * preview is rendered again from the original in the background.
+     */
+    private void applyFilter(DocumentFilter.Mode mode) {
+        if (mode == shownFilter || editRunning) {
+            return;
+        }
+        EditPipeline page = pageEdits;
+        if (mode == null && page.isEmpty()) {
+            // Back to the image as decoded; nothing to render
+            onEditFinished(page, null, originalBitmap, null);
+            return;
+        }
+
+        binding.btnEnhance.setEnabled(false);
+        editRunning = true;
+        Bitmap original = originalBitmap;
+        editExecutor.execute(() -> {
+            Bitmap result = null;
+            try {
+                result = render(original, mode == null ? page : page.filter(mode, true));
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Error filtering image", e);
+            }
+            Bitmap filterResult = result;
+            mainHandler.post(() -> onEditFinished(page, mode, filterResult, "Could not enhance image"));
+        });
+    }
+
+    /**
+     * Launch the TextRecognitionActivity to process the image.
+     * With edits, it reads a rendered copy, and the original and the recipe
+     * travel along so the library keeps the original untouched.
      */
     private void launchTextRecognition() {
+        EditRecipe recipe = pendingRecipe();
+        if (recipe != null && editRunning) {
+            // The edit would land on the image after it is rendered
+            showToast("Please wait for the edit to finish");
+            return;
+        }
+
         try {
             Uri imageUri;
             if (imagePath.startsWith("content:") || imagePath.startsWith("file:")) {
@@ -297,10 +800,44 @@ public class ImageEditFragment extends Fragment {
             }
             
             Intent intent = new Intent(requireContext(), com.quang.escan.ui.ocr.TextRecognitionActivity.class);
-            intent.putExtra(com.quang.escan.ui.ocr.TextRecognitionActivity.EXTRA_IMAGE_URI, imageUri.toString());
             // Pass feature type to distinguish between text and handwriting recognition
             intent.putExtra("feature_type", featureType);
-            startActivity(intent);
+            if (recipe == null) {
+                intent.putExtra(com.quang.escan.ui.ocr.TextRecognitionActivity.EXTRA_IMAGE_URI, imageUri.toString());
+                startActivity(intent);
+                return;
+            }
+
+            // The copy is rendered at full size on editExecutor, like a save
+            intent.putExtra(SaveExtractedTextActivity.EXTRA_ORIGINAL_URI, imageUri.toString());
+            intent.putExtra(SaveExtractedTextActivity.EXTRA_EDIT_RECIPE, recipe.toBytes());
+            Context context = requireContext().getApplicationContext();
+            setSaving(true);
+            editExecutor.execute(() -> {
+                File copy = null;
+                Exception failure = null;
+                try {
+                    copy = writeEditedCopy(context, recipe);
+                } catch (Exception e) {
+                    failure = e;
+                }
+                File editedCopy = copy;
+                Exception copyFailure = failure;
+                mainHandler.post(() -> {
+                    setSaving(false);
+                    if (copyFailure != null) {
+                        Log.e(TAG, "Error rendering image for recognition", copyFailure);
+                        showToast("Error launching recognition: " + copyFailure.getMessage());
+                        return;
+                    }
+                    if (binding == null) {
+                        return;
+                    }
+                    intent.putExtra(com.quang.escan.ui.ocr.TextRecognitionActivity.EXTRA_IMAGE_URI,
+                            Uri.fromFile(editedCopy).toString());
+                    startActivity(intent);
+                });
+            });
         } catch (Exception e) {
             Log.e(TAG, "Error launching recognition", e);
             showToast("Error launching recognition: " + e.getMessage());
@@ -328,7 +865,8 @@ public class ImageEditFragment extends Fragment {
             BarcodeScanner scanner = BarcodeScanning.getClient(options);
             
             // Create input image from bitmap
-            InputImage image = InputImage.fromBitmap(bitmap, 0);
+            // The preview may be turned without the pixels being rotated yet
+            InputImage image = InputImage.fromBitmap(bitmap, rotationDegrees);
             
             // Process the image
             scanner.process(image)
@@ -399,17 +937,24 @@ public class ImageEditFragment extends Fragment {
         super.onDestroyView();
         Log.d(TAG, "onDestroyView: Cleaning up resources");
         
-        // Clean up bitmaps to avoid memory leaks
-        if (originalBitmap != null && !originalBitmap.isRecycled()) {
-            originalBitmap.recycle();
-            originalBitmap = null;
-        }
-        
-        if (currentBitmap != null && !currentBitmap.isRecycled() && currentBitmap != originalBitmap) {
-            currentBitmap.recycle();
-            currentBitmap = null;
+        // Give the bitmaps back to the pool for the next image, unless a crop
+        // or filter still reads one; then they are left to the garbage collector
+        if (!editRunning) {
+            if (currentBitmap != originalBitmap) {
+                BitmapPool.getInstance().release(currentBitmap);
+            }
+            releaseOriginal();
         }
+        currentBitmap = null;
+        originalBitmap = null;
         
         binding = null;
     }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        // An edit still running finishes and hands its bitmap back to the pool
+        editExecutor.shutdown();
+    }
 } 
\ No newline at end of file
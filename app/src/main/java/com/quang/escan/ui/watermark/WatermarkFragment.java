@@ -1,13 +1,15 @@
 package com.quang.escan.ui.watermark;
 
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Color;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
 import android.provider.MediaStore;
 import android.text.Editable;
 import android.text.TextWatcher;
@@ -31,6 +33,11 @@ import androidx.navigation.Navigation;
 
 import com.quang.escan.R;
 import com.quang.escan.databinding.FragmentWatermarkBinding;
+import com.quang.escan.image.BitmapDecoder;
+import com.quang.escan.image.BitmapPool;
+import com.quang.escan.image.EditPipeline;
+import com.quang.escan.image.EditRecipe;
+import com.quang.escan.image.EditRenderer;
 import com.quang.escan.model.ExtractedDocument;
 import com.quang.escan.ui.library.LibraryRepository;
 import com.quang.escan.util.FileHelper;
@@ -43,16 +50,27 @@ import java.io.OutputStream;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class WatermarkFragment extends Fragment {
     private static final String TAG = "WatermarkFragment";
     private static final String ARG_IMAGE_PATH = "imagePath";
+    private static final String ARG_EDIT_RECIPE = "editRecipe";
 
     private FragmentWatermarkBinding binding;
     private NavController navController;
     private String imagePath;
     private Bitmap originalBitmap;
     private Bitmap watermarkedBitmap;
+    // Edits made before this screen, over the image as captured; the file itself is never edited
+    private EditRecipe recipe;
+    // The edits and the watermark: drawn on the preview, then again on the full image when saved
+    private EditPipeline watermark;
+    // A load, watermark or save is running in the background; one at a time
+    private boolean rendering = false;
+    private final ExecutorService renderExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
     private int selectedColor = Color.WHITE;
     private int transparency = 150; // Default transparency (0-255)
 
@@ -61,7 +79,11 @@ public class WatermarkFragment extends Fragment {
         super.onCreate(savedInstanceState);
         if (getArguments() != null) {
             imagePath = getArguments().getString(ARG_IMAGE_PATH);
-            Log.d(TAG, "Received image path: " + imagePath);
+            byte[] recipeBytes = getArguments().getByteArray(ARG_EDIT_RECIPE);
+            if (recipeBytes != null) {
+                recipe = EditRecipe.fromBytes(recipeBytes);
+            }
+            Log.d(TAG, "Received image path: " + imagePath + ", edited: " + (recipe != null));
         }
     }
 
@@ -94,32 +116,76 @@ public class WatermarkFragment extends Fragment {
         setupClickListeners();
     }
     
+    /**
+     * Decode the preview and render the edits over it, in the background
+     */
     private void loadImage() {
-        try {
-            File imageFile = new File(imagePath);
-            if (!imageFile.exists()) {
-                Log.e(TAG, "Image file does not exist: " + imagePath);
-                showToast("Error: Image file not found");
-                navigateUp();
-                return;
+        File imageFile = new File(imagePath);
+        if (!imageFile.exists()) {
+            Log.e(TAG, "Image file does not exist: " + imagePath);
+            showToast("Error: Image file not found");
+            navigateUp();
+            return;
+        }
+
+        int edge = BitmapDecoder.screenEdgePx(requireContext());
+        EditRecipe edited = recipe;
+        setRendering(true);
+        renderExecutor.execute(() -> {
+            Bitmap original = null;
+            Bitmap shown = null;
+            Exception failure = null;
+            try {
+                // Load a preview no larger than the screen; the full image is only read to save
+                original = BitmapDecoder.decode(imageFile, edge, edge, BitmapDecoder.Purpose.EXPORT);
+                if (edited != null && !edited.edits.isEmpty()) {
+                    // Shown with the edits until a watermark is applied, which draws both
+                    shown = EditRenderer.render(edited.edits, original,
+                            edited.referenceWidth, edited.referenceHeight);
+                }
+            } catch (Exception e) {
+                failure = e;
             }
-            
-            // Load bitmap from file
-            originalBitmap = BitmapFactory.decodeFile(imagePath);
-            
-            if (originalBitmap == null) {
-                Log.e(TAG, "Failed to decode bitmap from: " + imagePath);
-                showToast("Error: Could not load image");
+            Bitmap loaded = original;
+            Bitmap loadedEdits = shown;
+            Exception loadFailure = failure;
+            mainHandler.post(() -> onImageLoaded(loaded, loadedEdits, loadFailure));
+        });
+    }
+
+    /**
+     * @param edited The preview with the edits, or null if there are none
+     */
+    private void onImageLoaded(Bitmap original, Bitmap edited, Exception failure) {
+        setRendering(false);
+        if (binding == null || failure != null || original == null) {
+            BitmapPool.getInstance().release(edited);
+            BitmapPool.getInstance().release(original);
+            if (binding != null) {
+                Log.e(TAG, "Error loading image: " + imagePath, failure);
+                showToast("Error loading image" + (failure != null ? ": " + failure.getMessage() : ""));
                 navigateUp();
-                return;
             }
+            return;
+        }
 
-            binding.imagePreview.setImageBitmap(originalBitmap);
-            Log.d(TAG, "Image loaded successfully");
-        } catch (Exception e) {
-            Log.e(TAG, "Error loading image", e);
-            showToast("Error loading image: " + e.getMessage());
-            navigateUp();
+        originalBitmap = original;
+        watermarkedBitmap = edited;
+        if (recipe == null) {
+            recipe = new EditRecipe(EditPipeline.EMPTY, original.getWidth(), original.getHeight());
+        }
+        binding.imagePreview.setImageBitmap(edited != null ? edited : original);
+        Log.d(TAG, "Image loaded successfully");
+    }
+
+    /**
+     * Keep the buttons from starting another render while one runs
+     */
+    private void setRendering(boolean running) {
+        rendering = running;
+        if (binding != null) {
+            binding.btnApplyWatermark.setEnabled(!running);
+            binding.btnSave.setEnabled(!running);
         }
     }
     
@@ -132,6 +198,9 @@ public class WatermarkFragment extends Fragment {
     }
     
     private void applyWatermark() {
+        if (rendering) {
+            return;
+        }
         if (originalBitmap == null) {
             showToast("No image to watermark");
             return;
@@ -143,71 +212,132 @@ public class WatermarkFragment extends Fragment {
             return;
         }
 
-        try {
-            int selectedId = binding.radioGroupWatermarkStyle.getCheckedRadioButtonId();
-            
-            if (selectedId == R.id.radioHorizontal) {
-                watermarkedBitmap = WatermarkUtils.addHorizontalTextWatermark(originalBitmap, watermarkText);
-            } else if (selectedId == R.id.radioVertical) {
-                watermarkedBitmap = WatermarkUtils.addVerticalTextWatermark(originalBitmap, watermarkText);
-            } else if (selectedId == R.id.radioDiagonal) {
-                watermarkedBitmap = WatermarkUtils.addDiagonalTextWatermark(originalBitmap, watermarkText, 45);
-            } else if (selectedId == R.id.radioTiled) {
-                watermarkedBitmap = WatermarkUtils.addTiledTextWatermark(originalBitmap, watermarkText, 150, 150);
-            } else {
-                // Default to horizontal
-                watermarkedBitmap = WatermarkUtils.addHorizontalTextWatermark(originalBitmap, watermarkText);
-            }
-            
-            if (watermarkedBitmap != null) {
-                binding.imagePreview.setImageBitmap(watermarkedBitmap);
-                binding.btnSave.setEnabled(true);
-                showToast("Watermark applied");
-            } else {
-                showToast("Failed to apply watermark");
+        int selectedId = binding.radioGroupWatermarkStyle.getCheckedRadioButtonId();
+        WatermarkUtils.Style style;
+        if (selectedId == R.id.radioVertical) {
+            style = WatermarkUtils.Style.VERTICAL;
+        } else if (selectedId == R.id.radioDiagonal) {
+            style = WatermarkUtils.Style.DIAGONAL;
+        } else if (selectedId == R.id.radioTiled) {
+            style = WatermarkUtils.Style.TILED;
+        } else {
+            // Default to horizontal
+            style = WatermarkUtils.Style.HORIZONTAL;
+        }
+        EditPipeline edits = recipe.edits.overlay(
+                WatermarkUtils.overlay(style, watermarkText, Color.argb(150, 255, 255, 255)));
+
+        // Drawn on the preview in the background
+        Bitmap original = originalBitmap;
+        EditRecipe edited = recipe;
+        setRendering(true);
+        renderExecutor.execute(() -> {
+            Bitmap result = null;
+            try {
+                result = EditRenderer.render(edits, original, edited.referenceWidth, edited.referenceHeight);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Error applying watermark", e);
             }
-        } catch (Exception e) {
-            Log.e(TAG, "Error applying watermark", e);
-            showToast("Error applying watermark: " + e.getMessage());
+            Bitmap rendered = result;
+            mainHandler.post(() -> onWatermarkApplied(edits, rendered));
+        });
+    }
+
+    /**
+     * @param rendered The watermarked preview, or null if drawing it failed
+     */
+    private void onWatermarkApplied(EditPipeline edits, Bitmap rendered) {
+        setRendering(false);
+        if (binding == null) {
+            BitmapPool.getInstance().release(rendered);
+            return;
         }
+        if (rendered == null) {
+            showToast("Failed to apply watermark");
+            return;
+        }
+
+        Bitmap previous = watermarkedBitmap;
+        watermark = edits;
+        watermarkedBitmap = rendered;
+        binding.imagePreview.setImageBitmap(watermarkedBitmap);
+        // The previous attempt is off screen now; reuse it for the next one
+        if (previous != null && previous != originalBitmap) {
+            BitmapPool.getInstance().release(previous);
+        }
+        showToast("Watermark applied");
     }
     
     private void saveWatermarkedImage() {
-        if (watermarkedBitmap == null) {
+        if (watermark == null) {
             showToast("Apply watermark first");
             return;
         }
-        
-        try {
-            // Create a new file name with timestamp
-            String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date());
-            String newFileName = "WATERMARKED_" + timeStamp + ".jpg";
-            
-            // Get directory for saved images
-            File storageDir = new File(requireContext().getExternalFilesDir(null), "EScan/Images");
-            if (!storageDir.exists()) {
-                storageDir.mkdirs();
-            }
-            
-            File outputFile = new File(storageDir, newFileName);
-            
-            // Save the watermarked bitmap
-            try (FileOutputStream out = new FileOutputStream(outputFile)) {
-                watermarkedBitmap.compress(Bitmap.CompressFormat.JPEG, 100, out);
-                out.flush();
-            }
-            
-            showToast("Image saved: " + outputFile.getAbsolutePath());
-            
-            // Return to the home screen
-            if (getActivity() != null) {
-                navigateUp();
+        if (rendering) {
+            return;
+        }
+
+        // The full image is decoded, drawn and encoded in the background
+        Context context = requireContext().getApplicationContext();
+        EditPipeline edits = watermark;
+        EditRecipe edited = recipe;
+        setRendering(true);
+        renderExecutor.execute(() -> {
+            File saved = null;
+            Exception failure = null;
+            try {
+                saved = writeWatermarkedImage(context, edits, edited);
+            } catch (IOException | RuntimeException e) {
+                failure = e;
             }
-            
-        } catch (IOException e) {
-            Log.e(TAG, "Error saving watermarked image", e);
-            showToast("Error saving image: " + e.getMessage());
+            File outputFile = saved;
+            Exception saveFailure = failure;
+            mainHandler.post(() -> {
+                setRendering(false);
+                if (saveFailure != null) {
+                    Log.e(TAG, "Error saving watermarked image", saveFailure);
+                    showToast("Error saving image: " + saveFailure.getMessage());
+                    return;
+                }
+                showToast("Image saved: " + outputFile.getAbsolutePath());
+                
+                // Return to the home screen
+                if (getActivity() != null) {
+                    navigateUp();
+                }
+            });
+        });
+    }
+
+    /**
+     * Draw the edits and watermark again on the full image, where the preview had them. Blocks.
+     * @return The saved image
+     */
+    private File writeWatermarkedImage(Context context, EditPipeline edits, EditRecipe edited) throws IOException {
+        // Create a new file name with timestamp
+        String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date());
+        String newFileName = "WATERMARKED_" + timeStamp + ".jpg";
+        
+        // Get directory for saved images
+        File storageDir = new File(context.getExternalFilesDir(null), "EScan/Images");
+        if (!storageDir.exists()) {
+            storageDir.mkdirs();
+        }
+        
+        File outputFile = new File(storageDir, newFileName);
+        
+        Bitmap full = BitmapDecoder.decode(context, new File(imagePath), BitmapDecoder.Purpose.EXPORT);
+        Bitmap watermarkedFull = EditRenderer.renderAndRelease(edits, full,
+                edited.referenceWidth, edited.referenceHeight);
+        
+        // Save the watermarked bitmap
+        try (FileOutputStream out = new FileOutputStream(outputFile)) {
+            watermarkedFull.compress(Bitmap.CompressFormat.JPEG, 100, out);
+            out.flush();
+        } finally {
+            BitmapPool.getInstance().release(watermarkedFull);
         }
+        return outputFile;
     }
     
     private void showToast(String message) {
@@ -226,17 +356,24 @@ public class WatermarkFragment extends Fragment {
     public void onDestroyView() {
         super.onDestroyView();
         
-        // Clean up bitmaps to avoid memory leaks
-        if (originalBitmap != null && !originalBitmap.isRecycled()) {
-            originalBitmap.recycle();
-            originalBitmap = null;
-        }
-        
-        if (watermarkedBitmap != null && !watermarkedBitmap.isRecycled()) {
-            watermarkedBitmap.recycle();
-            watermarkedBitmap = null;
+        // Give bitmaps back to the pool for the next image, unless a render
+        // still reads one; then they are left to the garbage collector
+        if (!rendering) {
+            if (watermarkedBitmap != null && watermarkedBitmap != originalBitmap) {
+                BitmapPool.getInstance().release(watermarkedBitmap);
+            }
+            BitmapPool.getInstance().release(originalBitmap);
         }
+        watermarkedBitmap = null;
+        originalBitmap = null;
         
         binding = null;
     }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        // A render still running finishes; its result goes back to the pool
+        renderExecutor.shutdown();
+    }
 } 
\ No newline at end of file
@@ -2,49 +2,77 @@ package com.quang.escan.util;
 
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
-import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.Typeface;
 
+import com.quang.escan.image.BitmapPool;
+import com.quang.escan.image.EditPipeline;
+
 /**
  * Utility class for adding watermarks to images
+ *
+ * {@link #overlay} gives text watermarks as an edit, drawn at render time.
  */
 public class WatermarkUtils {
 
     /**
-     * Adds a horizontal text watermark at the bottom center of the image
+     * Where the text goes, for {@link #overlay}
+     */
+    public enum Style {
+        HORIZONTAL, VERTICAL, DIAGONAL, TILED
+    }
+
+    /**
+     * A text watermark to draw as an {@link EditPipeline} edit, at whatever size the
+     * image is rendered. Diagonal text is turned 45 degrees; tiles are 150 pixels
+     * apart at the size the edit was made.
      *
-     * @param source Source bitmap to watermark
+     * @param style Where the text goes
      * @param watermarkText Text to use as watermark
      * @param color Color of the watermark text (including alpha for transparency)
-     * @return A new bitmap with the watermark applied
      */
-    public static Bitmap addHorizontalTextWatermark(Bitmap source, String watermarkText, int color) {
-        if (source == null) {
-            throw new IllegalArgumentException("Source bitmap cannot be null");
-        }
-        
-        if (watermarkText == null || watermarkText.isEmpty()) {
-            return source;
-        }
-        
-        int width = source.getWidth();
-        int height = source.getHeight();
-        
-        // Create a new bitmap with the same dimensions
-        Bitmap result = Bitmap.createBitmap(width, height, source.getConfig());
-        
-        // Create canvas and draw the original bitmap
-        Canvas canvas = new Canvas(result);
-        canvas.drawBitmap(source, 0, 0, null);
-        
-        // Setup paint for text
+    public static EditPipeline.Overlay overlay(Style style, String watermarkText, int color) {
+        return (width, height, scale) -> {
+            // Pooled bitmaps come out transparent, so only the text is in the layer
+            Bitmap layer = BitmapPool.getInstance().acquire(width, height, Bitmap.Config.ARGB_8888);
+            try {
+                Canvas canvas = new Canvas(layer);
+                switch (style) {
+                    case VERTICAL:
+                        drawVertical(canvas, width, height, watermarkText, color);
+                        break;
+                    case DIAGONAL:
+                        drawDiagonal(canvas, width, height, watermarkText, 45, color);
+                        break;
+                    case TILED:
+                        int spacing = Math.max(1, Math.round(150 * scale));
+                        drawTiled(canvas, width, height, watermarkText, spacing, spacing, color);
+                        break;
+                    default:
+                        drawHorizontal(canvas, width, height, watermarkText, color);
+                        break;
+                }
+                int[] pixels = new int[width * height];
+                layer.getPixels(pixels, 0, width, 0, 0, width, height);
+                return pixels;
+            } finally {
+                BitmapPool.getInstance().release(layer);
+            }
+        };
+    }
+
+    private static Paint textPaint(int color, Paint.Align align) {
         Paint paint = new Paint();
         paint.setColor(color);
-        paint.setTextAlign(Paint.Align.CENTER);
+        paint.setTextAlign(align);
         paint.setTypeface(Typeface.create(Typeface.DEFAULT, Typeface.BOLD));
+        return paint;
+    }
+
+    private static void drawHorizontal(Canvas canvas, int width, int height, String watermarkText, int color) {
+        Paint paint = textPaint(color, Paint.Align.CENTER);
         
         // Calculate text size based on bitmap width (about 5% of image width)
         float textSize = width * 0.05f;
@@ -57,53 +85,10 @@ public class WatermarkUtils {
         
         // Draw the text
         canvas.drawText(watermarkText, xPos, yPos, paint);
-        
-        return result;
-    }
-    
-    /**
-     * Adds a horizontal text watermark with default white color
-     *
-     * @param source Source bitmap to watermark
-     * @param watermarkText Text to use as watermark
-     * @return A new bitmap with the watermark applied
-     */
-    public static Bitmap addHorizontalTextWatermark(Bitmap source, String watermarkText) {
-        return addHorizontalTextWatermark(source, watermarkText, Color.argb(150, 255, 255, 255));
     }
-    
-    /**
-     * Adds a vertical text watermark on the right side of the image
-     *
-     * @param source Source bitmap to watermark
-     * @param watermarkText Text to use as watermark
-     * @param color Color of the watermark text (including alpha for transparency)
-     * @return A new bitmap with the watermark applied
-     */
-    public static Bitmap addVerticalTextWatermark(Bitmap source, String watermarkText, int color) {
-        if (source == null) {
-            throw new IllegalArgumentException("Source bitmap cannot be null");
-        }
-        
-        if (watermarkText == null || watermarkText.isEmpty()) {
-            return source;
-        }
-        
-        int width = source.getWidth();
-        int height = source.getHeight();
-        
-        // Create a new bitmap with the same dimensions
-        Bitmap result = Bitmap.createBitmap(width, height, source.getConfig());
-        
-        // Create canvas and draw the original bitmap
-        Canvas canvas = new Canvas(result);
-        canvas.drawBitmap(source, 0, 0, null);
-        
-        // Setup paint for text
-        Paint paint = new Paint();
-        paint.setColor(color);
-        paint.setTextAlign(Paint.Align.CENTER);
-        paint.setTypeface(Typeface.create(Typeface.DEFAULT, Typeface.BOLD));
+
+    private static void drawVertical(Canvas canvas, int width, int height, String watermarkText, int color) {
+        Paint paint = textPaint(color, Paint.Align.CENTER);
         
         // Calculate text size based on bitmap height (about 5% of image height)
         float textSize = height * 0.04f;
@@ -124,55 +109,11 @@ public class WatermarkUtils {
         
         // Restore to the previous matrix
         canvas.restore();
-        
-        return result;
     }
-    
-    /**
-     * Adds a vertical text watermark with default white color
-     *
-     * @param source Source bitmap to watermark
-     * @param watermarkText Text to use as watermark
-     * @return A new bitmap with the watermark applied
-     */
-    public static Bitmap addVerticalTextWatermark(Bitmap source, String watermarkText) {
-        return addVerticalTextWatermark(source, watermarkText, Color.argb(150, 255, 255, 255));
-    }
-    
-    /**
-     * Adds a diagonal text watermark across the image
-     *
-     * @param source Source bitmap to watermark
-     * @param watermarkText Text to use as watermark
-     * @param angle Angle of the watermark in degrees
-     * @param color Color of the watermark text (including alpha for transparency)
-     * @return A new bitmap with the watermark applied
-     */
-    public static Bitmap addDiagonalTextWatermark(Bitmap source, String watermarkText, 
-                                                 float angle, int color) {
-        if (source == null) {
-            throw new IllegalArgumentException("Source bitmap cannot be null");
-        }
-        
-        if (watermarkText == null || watermarkText.isEmpty()) {
-            return source;
-        }
-        
-        int width = source.getWidth();
-        int height = source.getHeight();
-        
-        // Create a new bitmap with the same dimensions
-        Bitmap result = Bitmap.createBitmap(width, height, source.getConfig());
-        
-        // Create canvas and draw the original bitmap
-        Canvas canvas = new Canvas(result);
-        canvas.drawBitmap(source, 0, 0, null);
-        
-        // Setup paint for text
-        Paint paint = new Paint();
-        paint.setColor(color);
-        paint.setTextAlign(Paint.Align.CENTER);
-        paint.setTypeface(Typeface.create(Typeface.DEFAULT, Typeface.BOLD));
+
+    private static void drawDiagonal(Canvas canvas, int width, int height, String watermarkText,
+                                     float angle, int color) {
+        Paint paint = textPaint(color, Paint.Align.CENTER);
         
         // Calculate text size based on image dimensions
         float textSize = Math.min(width, height) * 0.06f;
@@ -193,57 +134,11 @@ public class WatermarkUtils {
         
         // Restore canvas state
         canvas.restore();
-        
-        return result;
     }
-    
-    /**
-     * Adds a diagonal text watermark with default white color
-     *
-     * @param source Source bitmap to watermark
-     * @param watermarkText Text to use as watermark
-     * @param angle Angle of the watermark in degrees
-     * @return A new bitmap with the watermark applied
-     */
-    public static Bitmap addDiagonalTextWatermark(Bitmap source, String watermarkText, float angle) {
-        return addDiagonalTextWatermark(source, watermarkText, angle, Color.argb(150, 255, 255, 255));
-    }
-    
-    /**
-     * Adds a tiled text watermark pattern across the entire image
-     *
-     * @param source Source bitmap to watermark
-     * @param watermarkText Text to use as watermark
-     * @param horizontalSpacing Horizontal spacing between watermarks
-     * @param verticalSpacing Vertical spacing between watermarks
-     * @param color Color of the watermark text (including alpha for transparency)
-     * @return A new bitmap with the watermark applied
-     */
-    public static Bitmap addTiledTextWatermark(Bitmap source, String watermarkText, 
-                                             int horizontalSpacing, int verticalSpacing, int color) {
-        if (source == null) {
-            throw new IllegalArgumentException("Source bitmap cannot be null");
-        }
-        
-        if (watermarkText == null || watermarkText.isEmpty()) {
-            return source;
-        }
-        
-        int width = source.getWidth();
-        int height = source.getHeight();
-        
-        // Create a new bitmap with the same dimensions
-        Bitmap result = Bitmap.createBitmap(width, height, source.getConfig());
-        
-        // Create canvas and draw the original bitmap
-        Canvas canvas = new Canvas(result);
-        canvas.drawBitmap(source, 0, 0, null);
-        
-        // Setup paint for text
-        Paint paint = new Paint();
-        paint.setColor(color);
-        paint.setTextAlign(Paint.Align.LEFT);
-        paint.setTypeface(Typeface.create(Typeface.DEFAULT, Typeface.BOLD));
+
+    private static void drawTiled(Canvas canvas, int width, int height, String watermarkText,
+                                  int horizontalSpacing, int verticalSpacing, int color) {
+        Paint paint = textPaint(color, Paint.Align.LEFT);
         
         // Calculate text size
         float textSize = Math.min(width, height) * 0.04f;
@@ -258,10 +153,9 @@ public class WatermarkUtils {
         // Calculate rotation for the text (diagonal)
         float angle = -30;
         
-        // Create a temporary bitmap for rotated text
-        Bitmap textBitmap = Bitmap.createBitmap(textWidth + 20, textHeight * 2, Bitmap.Config.ARGB_8888);
+        // Create a temporary bitmap for rotated text, transparent when acquired
+        Bitmap textBitmap = BitmapPool.getInstance().acquire(textWidth + 20, textHeight * 2, Bitmap.Config.ARGB_8888);
         Canvas textCanvas = new Canvas(textBitmap);
-        textCanvas.drawColor(Color.TRANSPARENT); // Transparent background
         
         // Draw text onto the temporary bitmap
         textCanvas.drawText(watermarkText, 10, textHeight + 5, paint);
@@ -281,85 +175,8 @@ public class WatermarkUtils {
             }
         }
         
-        // Recycle the temporary bitmaps to free up memory
-        textBitmap.recycle();
-        rotatedTextBitmap.recycle();
-        
-        return result;
-    }
-    
-    /**
-     * Adds a tiled text watermark with default white color
-     *
-     * @param source Source bitmap to watermark
-     * @param watermarkText Text to use as watermark
-     * @param horizontalSpacing Horizontal spacing between watermarks
-     * @param verticalSpacing Vertical spacing between watermarks
-     * @return A new bitmap with the watermark applied
-     */
-    public static Bitmap addTiledTextWatermark(Bitmap source, String watermarkText, 
-                                           int horizontalSpacing, int verticalSpacing) {
-        return addTiledTextWatermark(source, watermarkText, horizontalSpacing, verticalSpacing, 
-                                  Color.argb(150, 255, 255, 255));
-    }
-    
-    /**
-     * Adds an image watermark to the source bitmap
-     *
-     * @param source Source bitmap to watermark
-     * @param watermarkImage Image to use as a watermark
-     * @param padding Padding from the edge of the source image
-     * @return A new bitmap with the watermark applied
-     */
-    public static Bitmap addImageWatermark(Bitmap source, Bitmap watermarkImage, int padding) {
-        if (source == null) {
-            throw new IllegalArgumentException("Source bitmap cannot be null");
-        }
-        
-        if (watermarkImage == null) {
-            return source;
-        }
-        
-        int width = source.getWidth();
-        int height = source.getHeight();
-        
-        // Create a new bitmap with the same dimensions
-        Bitmap result = Bitmap.createBitmap(width, height, source.getConfig());
-        
-        // Create canvas and draw the original bitmap
-        Canvas canvas = new Canvas(result);
-        canvas.drawBitmap(source, 0, 0, null);
-        
-        // Calculate watermark size (max 20% of the source width)
-        int maxWatermarkWidth = width / 5;
-        float scale = (float) maxWatermarkWidth / watermarkImage.getWidth();
-        
-        // If the watermark is smaller than maxWatermarkWidth, don't upscale it
-        if (scale > 1) {
-            scale = 1;
-        }
-        
-        int scaledWidth = (int) (watermarkImage.getWidth() * scale);
-        int scaledHeight = (int) (watermarkImage.getHeight() * scale);
-        
-        // Create scaled bitmap
-        Bitmap scaledWatermark = Bitmap.createScaledBitmap(
-                watermarkImage, scaledWidth, scaledHeight, true);
-        
-        // Calculate position (bottom right with padding)
-        int left = width - scaledWidth - padding;
-        int top = height - scaledHeight - padding;
-        
-        // Create a paint with translucent effect
-        Paint paint = new Paint();
-        paint.setAlpha(128); // 50% opacity
-        
-        // Draw the watermark image
-        canvas.drawBitmap(scaledWatermark, left, top, paint);
-        
-        // Recycle the scaled bitmap
-        scaledWatermark.recycle();
-        
-        return result;
+        // Return the temporary bitmaps for the next watermark
+        BitmapPool.getInstance().release(textBitmap);
+        BitmapPool.getInstance().release(rotatedTextBitmap);
     }
-} 
\ No newline at end of file
+}
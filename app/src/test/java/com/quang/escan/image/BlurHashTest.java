@@ -0,0 +1,113 @@
+package com.quang.escan.image;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round trips and format checks for {@link BlurHash}, run on the JVM
+ */
+public class BlurHashTest {
+
+    private static int[] solid(int width, int height, int color) {
+        int[] pixels = new int[width * height];
+        java.util.Arrays.fill(pixels, color);
+        return pixels;
+    }
+
+    /**
+     * Black on the left to white on the right
+     */
+    private static int[] horizontalGradient(int width, int height) {
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int gray = x * 255 / (width - 1);
+                pixels[y * width + x] = 0xFF000000 | (gray << 16) | (gray << 8) | gray;
+            }
+        }
+        return pixels;
+    }
+
+    private static void assertColorNear(int expected, int actual, int tolerance) {
+        for (int shift = 0; shift <= 16; shift += 8) {
+            int difference = Math.abs(((expected >> shift) & 0xFF) - ((actual >> shift) & 0xFF));
+            assertTrue(String.format("Expected %08x but was %08x", expected, actual), difference <= tolerance);
+        }
+    }
+
+    @Test
+    public void singleComponentEncodesAverageColor() {
+        // Size flag 0, no AC maximum, then 0xFFFFFF in four base 83 digits
+        assertEquals("00TSUA", BlurHash.encode(solid(8, 8, 0xFFFFFFFF), 8, 8, 1, 1));
+    }
+
+    @Test
+    public void hashLengthFollowsComponentCount() {
+        String hash = BlurHash.encode(horizontalGradient(32, 32), 32, 32,
+                BlurHash.COMPONENTS_X, BlurHash.COMPONENTS_Y);
+
+        assertEquals(4 + 2 * BlurHash.COMPONENTS_X * BlurHash.COMPONENTS_Y, hash.length());
+        assertTrue(BlurHash.isValid(hash));
+    }
+
+    @Test
+    public void averageColorRoundTrips() {
+        int color = 0xFF3C78B4;
+        String hash = BlurHash.encode(solid(24, 32, color), 24, 32, 1, 1);
+
+        int[] decoded = BlurHash.decode(hash, 16, 16, 1);
+        for (int pixel : decoded) {
+            assertColorNear(color, pixel, 1);
+        }
+    }
+
+    @Test
+    public void gradientKeepsItsDirection() {
+        String hash = BlurHash.encode(horizontalGradient(32, 32), 32, 32,
+                BlurHash.COMPONENTS_X, BlurHash.COMPONENTS_Y);
+
+        int[] decoded = BlurHash.decode(hash, 32, 32, 1);
+        int left = decoded[16 * 32] & 0xFF;
+        int middle = decoded[16 * 32 + 16] & 0xFF;
+        int right = decoded[16 * 32 + 31] & 0xFF;
+        assertTrue(left < middle);
+        assertTrue(middle < right);
+    }
+
+    @Test
+    public void decodedPixelsAreOpaque() {
+        String hash = BlurHash.encode(solid(4, 4, 0x00FF0000), 4, 4, 2, 2);
+
+        for (int pixel : BlurHash.decode(hash, 4, 4, 1)) {
+            assertEquals(0xFF, pixel >>> 24);
+        }
+    }
+
+    @Test
+    public void encodingIsDeterministic() {
+        int[] pixels = horizontalGradient(20, 10);
+
+        assertEquals(BlurHash.encode(pixels, 20, 10, 4, 3), BlurHash.encode(pixels, 20, 10, 4, 3));
+    }
+
+    @Test
+    public void malformedHashesAreRejected() {
+        String hash = BlurHash.encode(horizontalGradient(8, 8), 8, 8, 3, 4);
+
+        assertFalse(BlurHash.isValid(null));
+        assertFalse(BlurHash.isValid("00TSU"));
+        assertFalse(BlurHash.isValid(hash.substring(0, hash.length() - 2)));
+        assertFalse(BlurHash.isValid(hash.substring(0, hash.length() - 1) + "!"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decodeThrowsOnMalformedHash() {
+        BlurHash.decode("not a hash", 4, 4, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void encodeRejectsTooManyComponents() {
+        BlurHash.encode(solid(4, 4, 0xFF000000), 4, 4, 10, 1);
+    }
+}
@@ -0,0 +1,135 @@
+package com.quang.escan.image;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Skew estimation and correction on synthetic pages, run on the JVM
+ */
+public class DeskewTest {
+
+    private static final int PAPER = 0xFFF0EEE6;
+    private static final int INK = 0xFF202020;
+
+    /**
+     * Rows of words on paper, turned clockwise about the centre
+     */
+    private static int[] page(int width, int height, double degrees) {
+        double radians = Math.toRadians(degrees);
+        double cos = Math.cos(radians);
+        double sin = Math.sin(radians);
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // Back into the level page
+                double dx = x + 0.5 - width / 2.0;
+                double dy = y + 0.5 - height / 2.0;
+                double u = dx * cos + dy * sin + width / 2.0;
+                double v = -dx * sin + dy * cos + height / 2.0;
+                pixels[y * width + x] = isInk(u, v, width, height) ? INK : PAPER;
+            }
+        }
+        return pixels;
+    }
+
+    private static boolean isInk(double u, double v, int width, int height) {
+        return u > width * 0.1 && u < width * 0.9 && v > height * 0.1 && v < height * 0.9
+                && (int) v % 24 >= 10 && (int) v % 24 < 17 && (int) u % 40 < 31;
+    }
+
+    @Test
+    public void measuresClockwiseSkew() {
+        assertEquals(3, Deskew.estimateAngle(page(600, 800, 3), 600, 800), 0.1);
+    }
+
+    @Test
+    public void measuresCounterclockwiseSkew() {
+        assertEquals(-7.5, Deskew.estimateAngle(page(600, 800, -7.5), 600, 800), 0.1);
+    }
+
+    @Test
+    public void levelTextIsLevel() {
+        assertEquals(0, Deskew.estimateAngle(page(600, 800, 0), 600, 800), 0.05);
+    }
+
+    @Test
+    public void blankPageHasNoSkew() {
+        int[] pixels = new int[400 * 300];
+        Arrays.fill(pixels, PAPER);
+
+        assertEquals(0, Deskew.estimateAngle(pixels, 400, 300), 0);
+    }
+
+    @Test
+    public void inputIsLeftUnchanged() {
+        int[] pixels = page(300, 400, 2);
+        int[] copy = pixels.clone();
+
+        Deskew.estimateAngle(pixels, 300, 400);
+
+        assertArrayEquals(copy, pixels);
+    }
+
+    @Test
+    public void straightenedWarpComesOutLevel() {
+        int[] pixels = page(600, 800, 4);
+        Quad corrected = Deskew.straighten(Quad.of(600, 800), 4);
+
+        int[] output = PerspectiveWarp.warp(pixels, 600, 800, corrected);
+
+        int width = PerspectiveWarp.outputWidth(corrected);
+        int height = PerspectiveWarp.outputHeight(corrected);
+        assertEquals(0, Deskew.estimateAngle(output, width, height), 0.15);
+    }
+
+    @Test
+    public void straightenedRectangleStaysInside() {
+        Quad region = Quad.of(600, 800);
+
+        Quad corrected = Deskew.straighten(region, -6);
+
+        for (int corner = 0; corner < 4; corner++) {
+            assertTrue(corrected.getX(corner) >= -1e-3 && corrected.getX(corner) <= 600 + 1e-3);
+            assertTrue(corrected.getY(corner) >= -1e-3 && corrected.getY(corner) <= 800 + 1e-3);
+        }
+        // Same proportions as the region, a little smaller
+        double ratio = corrected.sideLength(Quad.TOP_LEFT) / corrected.sideLength(Quad.TOP_RIGHT);
+        assertEquals(600.0 / 800, ratio, 1e-3);
+        assertTrue(corrected.area() < region.area());
+    }
+
+    @Test
+    public void noAngleKeepsRegion() {
+        Quad region = new Quad(12, 7, 290, 15, 284, 401, 3, 388);
+
+        Quad corrected = Deskew.straighten(region, 0);
+
+        for (int corner = 0; corner < 4; corner++) {
+            assertEquals(region.getX(corner), corrected.getX(corner), 1e-3);
+            assertEquals(region.getY(corner), corrected.getY(corner), 1e-3);
+        }
+    }
+
+    @Test
+    public void measuresSkewInsideRegion() {
+        // The skewed page sits inside a larger frame of table
+        int[] page = page(300, 400, -2);
+        int[] photo = new int[400 * 500];
+        Arrays.fill(photo, 0xFF4A3C30);
+        for (int y = 0; y < 400; y++) {
+            System.arraycopy(page, y * 300, photo, (y + 50) * 400 + 50, 300);
+        }
+
+        double angle = Deskew.estimateAngle(photo, 400, 500, new Quad(50, 50, 350, 50, 350, 450, 50, 450));
+
+        assertEquals(-2, angle, 0.15);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mismatchedSizeIsRejected() {
+        Deskew.estimateAngle(new int[10], 4, 4);
+    }
+}
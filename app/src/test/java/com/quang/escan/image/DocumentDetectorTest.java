@@ -0,0 +1,157 @@
+package com.quang.escan.image;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Page detection on synthetic photos, run on the JVM
+ */
+public class DocumentDetectorTest {
+
+    private static final int TABLE = 0xFF4A3C30;
+    private static final int PAPER = 0xFFF0EEE6;
+    private static final int INK = 0xFF202020;
+
+    /**
+     * A sheet of paper with lines of text, lying tilted on a grainy table
+     * @param scale Multiplies the size of the photo and the page together
+     */
+    private static int[] photo(int width, int height, Quad page, int scale) {
+        Random random = new Random(42);
+        int[] pixels = new int[width * height];
+        Quad scaled = page.scale(scale);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double px = x + 0.5;
+                double py = y + 0.5;
+                int color;
+                if (inside(scaled, px, py)) {
+                    // Text rows, in page coordinates, stop short of the page edges
+                    double[] uv = pageCoordinates(scaled, px, py);
+                    boolean text = uv[0] > 0.12 && uv[0] < 0.88 && uv[1] > 0.15 && uv[1] < 0.85
+                            && (int) (uv[1] * 40) % 3 == 0 && (int) (uv[0] * 25) % 6 != 5;
+                    color = text ? INK : PAPER;
+                } else {
+                    int grain = random.nextInt(25) - 12;
+                    color = shift(TABLE, grain);
+                }
+                pixels[y * width + x] = color;
+            }
+        }
+        return pixels;
+    }
+
+    private static int shift(int color, int amount) {
+        int r = Math.max(0, Math.min(255, ((color >> 16) & 0xFF) + amount));
+        int g = Math.max(0, Math.min(255, ((color >> 8) & 0xFF) + amount));
+        int b = Math.max(0, Math.min(255, (color & 0xFF) + amount));
+        return 0xFF000000 | (r << 16) | (g << 8) | b;
+    }
+
+    private static boolean inside(Quad quad, double x, double y) {
+        for (int corner = 0; corner < 4; corner++) {
+            int next = (corner + 1) % 4;
+            double cross = (quad.getX(next) - quad.getX(corner)) * (y - quad.getY(corner))
+                    - (quad.getY(next) - quad.getY(corner)) * (x - quad.getX(corner));
+            if (cross < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Rough position across and down the page, good enough to lay out text rows
+     */
+    private static double[] pageCoordinates(Quad quad, double x, double y) {
+        double left = distanceToSide(quad, Quad.BOTTOM_LEFT, x, y);
+        double right = distanceToSide(quad, Quad.TOP_RIGHT, x, y);
+        double top = distanceToSide(quad, Quad.TOP_LEFT, x, y);
+        double bottom = distanceToSide(quad, Quad.BOTTOM_RIGHT, x, y);
+        return new double[]{left / (left + right), top / (top + bottom)};
+    }
+
+    private static double distanceToSide(Quad quad, int corner, double x, double y) {
+        int next = (corner + 1) % 4;
+        double dx = quad.getX(next) - quad.getX(corner);
+        double dy = quad.getY(next) - quad.getY(corner);
+        return Math.abs(dx * (y - quad.getY(corner)) - dy * (x - quad.getX(corner))) / Math.hypot(dx, dy);
+    }
+
+    private static void assertCornersNear(Quad expected, Quad actual, double tolerance) {
+        assertNotNull("No page found", actual);
+        for (int corner = 0; corner < 4; corner++) {
+            double distance = Math.hypot(expected.getX(corner) - actual.getX(corner),
+                    expected.getY(corner) - actual.getY(corner));
+            assertTrue("Corner " + corner + " of " + actual + " is " + distance + " px from " + expected,
+                    distance <= tolerance);
+        }
+    }
+
+    @Test
+    public void findsTiltedPage() {
+        Quad page = new Quad(52, 30, 196, 42, 188, 232, 40, 222);
+
+        Quad found = DocumentDetector.detect(photo(240, 256, page, 1), 240, 256);
+
+        assertCornersNear(page, found, 3);
+    }
+
+    @Test
+    public void findsKeystonedPage() {
+        // Photographed from below: the top edge is shorter than the bottom
+        Quad page = new Quad(80, 36, 170, 36, 226, 236, 22, 236);
+
+        Quad found = DocumentDetector.detect(photo(256, 256, page, 1), 256, 256);
+
+        assertCornersNear(page, found, 3);
+    }
+
+    @Test
+    public void findsPageInFullSizePhoto() {
+        Quad page = new Quad(52, 30, 196, 42, 188, 232, 40, 222);
+        int scale = 5;
+
+        Quad found = DocumentDetector.detect(photo(240 * scale, 256 * scale, page, scale),
+                240 * scale, 256 * scale);
+
+        // Detection runs on a copy a fifth the size, so a copy pixel is five here
+        assertCornersNear(page.scale(scale), found, 3 * scale);
+    }
+
+    @Test
+    public void foundCornersAreClockwiseFromTopLeft() {
+        Quad page = new Quad(60, 50, 200, 30, 210, 220, 45, 200);
+
+        Quad found = DocumentDetector.detect(photo(256, 256, page, 1), 256, 256);
+
+        assertNotNull(found);
+        assertTrue(found.isConvex());
+        assertTrue(found.getX(Quad.TOP_LEFT) < found.getX(Quad.TOP_RIGHT));
+        assertTrue(found.getY(Quad.TOP_LEFT) < found.getY(Quad.BOTTOM_LEFT));
+    }
+
+    @Test
+    public void plainImageHasNoPage() {
+        int[] pixels = new int[200 * 150];
+        java.util.Arrays.fill(pixels, PAPER);
+
+        assertNull(DocumentDetector.detect(pixels, 200, 150));
+    }
+
+    @Test
+    public void smallPageIsIgnored() {
+        // Under a tenth of the photo: more likely a label or a card than the document
+        Quad page = new Quad(100, 100, 160, 100, 160, 160, 100, 160);
+
+        assertNull(DocumentDetector.detect(photo(256, 256, page, 1), 256, 256));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mismatchedSizeIsRejected() {
+        DocumentDetector.detect(new int[10], 4, 4);
+    }
+}
@@ -0,0 +1,172 @@
+package com.quang.escan.image;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Enhancement and binarization checks for {@link DocumentFilter}, run on the JVM
+ */
+public class DocumentFilterTest {
+
+    private static final int WIDTH = 600;
+    private static final int HEIGHT = 420;
+
+    private static int gray(int level) {
+        return 0xFF000000 | level * 0x010101;
+    }
+
+    /**
+     * Whether a pixel of the synthetic page is part of a letter: short thick strokes in rows
+     */
+    private static boolean isInk(int x, int y) {
+        return y % 30 >= 10 && y % 30 < 16 && x % 24 < 14 && x > 20 && x < WIDTH - 20;
+    }
+
+    /**
+     * A page lit from the left: paper fades from 235 to 95 into a shadow, and
+     * ink is always 70 darker than the paper around it. Ink on the bright side
+     * is lighter than paper in the shadow, so no single threshold separates them.
+     */
+    private static int[] shadowedPage() {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int paper = 235 - 140 * x / (WIDTH - 1);
+                pixels[y * WIDTH + x] = gray(isInk(x, y) ? paper - 70 : paper);
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * @return {share of ink pixels turned black, share of paper pixels turned white}
+     */
+    private static double[] accuracy(int[] pixels) {
+        int ink = 0;
+        int inkBlack = 0;
+        int paper = 0;
+        int paperWhite = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int pixel = pixels[y * WIDTH + x];
+                if (isInk(x, y)) {
+                    ink++;
+                    inkBlack += pixel == 0xFF000000 ? 1 : 0;
+                } else {
+                    paper++;
+                    paperWhite += pixel == 0xFFFFFFFF ? 1 : 0;
+                }
+            }
+        }
+        return new double[]{(double) inkBlack / ink, (double) paperWhite / paper};
+    }
+
+    @Test
+    public void sauvolaSeparatesInkFromShadowedPaper() {
+        int[] pixels = shadowedPage();
+
+        DocumentFilter.apply(pixels, WIDTH, HEIGHT, DocumentFilter.Mode.SAUVOLA, false, ForkJoinPool.commonPool());
+
+        double[] accuracy = accuracy(pixels);
+        assertTrue("Ink found: " + accuracy[0], accuracy[0] > 0.9);
+        assertTrue("Paper kept: " + accuracy[1], accuracy[1] > 0.95);
+    }
+
+    @Test
+    public void wolfSeparatesInkFromShadowedPaper() {
+        int[] pixels = shadowedPage();
+
+        DocumentFilter.apply(pixels, WIDTH, HEIGHT, DocumentFilter.Mode.WOLF, true, ForkJoinPool.commonPool());
+
+        double[] accuracy = accuracy(pixels);
+        assertTrue("Ink found: " + accuracy[0], accuracy[0] > 0.9);
+        assertTrue("Paper kept: " + accuracy[1], accuracy[1] > 0.95);
+    }
+
+    @Test
+    public void blankPageStaysWhite() {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        Arrays.fill(pixels, gray(200));
+
+        DocumentFilter.apply(pixels, WIDTH, HEIGHT, DocumentFilter.Mode.SAUVOLA, true, ForkJoinPool.commonPool());
+
+        for (int pixel : pixels) {
+            assertEquals(0xFFFFFFFF, pixel);
+        }
+    }
+
+    @Test
+    public void grayscaleModeKeepsLevelsAndDropsColor() {
+        int[] pixels = {0xFFFF0000, 0xFF00FF00, 0xFF0000FF, 0x80FFFFFF};
+
+        DocumentFilter.apply(pixels, 2, 2, DocumentFilter.Mode.GRAYSCALE, false, ForkJoinPool.commonPool());
+
+        // Green is brightest to the eye, blue darkest; alpha is dropped
+        assertEquals(gray(76), pixels[0]);
+        assertEquals(gray(149), pixels[1]);
+        assertEquals(gray(28), pixels[2]);
+        assertEquals(gray(255), pixels[3]);
+    }
+
+    @Test
+    public void contrastStretchReachesFullRange() {
+        int width = 300;
+        int height = 200;
+        byte[] gray = new byte[width * height];
+        for (int i = 0; i < gray.length; i++) {
+            gray[i] = (byte) (100 + i % 51);
+        }
+
+        DocumentFilter.stretchContrast(gray, width, height, ForkJoinPool.commonPool());
+
+        int min = 255;
+        int max = 0;
+        for (byte value : gray) {
+            min = Math.min(min, value & 0xFF);
+            max = Math.max(max, value & 0xFF);
+        }
+        assertEquals(0, min);
+        assertEquals(255, max);
+    }
+
+    @Test
+    public void resultDoesNotDependOnParallelism() {
+        // Not a whole number of tiles either way
+        int width = DocumentFilter.TILE_SIZE * 2 + 37;
+        int height = DocumentFilter.TILE_SIZE + 101;
+        int[] source = new int[width * height];
+        for (int i = 0; i < source.length; i++) {
+            source[i] = gray((i * 7919 + i / width * 31) % 256);
+        }
+
+        ForkJoinPool single = new ForkJoinPool(1);
+        ForkJoinPool several = new ForkJoinPool(4);
+        try {
+            for (DocumentFilter.Mode mode : DocumentFilter.Mode.values()) {
+                int[] sequential = source.clone();
+                int[] parallel = source.clone();
+                DocumentFilter.apply(sequential, width, height, mode, true, single);
+                DocumentFilter.apply(parallel, width, height, mode, true, several);
+                assertArrayEquals(sequential, parallel);
+            }
+        } finally {
+            single.shutdown();
+            several.shutdown();
+        }
+    }
+
+    @Test
+    public void windowGrowsWithTheImage() {
+        assertEquals(7, DocumentFilter.windowRadius(320, 240));
+        assertEquals(37, DocumentFilter.windowRadius(3000, 4000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mismatchedSizeIsRejected() {
+        DocumentFilter.apply(new int[10], 4, 4, DocumentFilter.Mode.SAUVOLA, false, ForkJoinPool.commonPool());
+    }
+}
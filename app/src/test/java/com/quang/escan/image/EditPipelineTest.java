@@ -0,0 +1,258 @@
+package com.quang.escan.image;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Fused rendering of {@link EditPipeline} against running its edits one by one, on the JVM
+ */
+public class EditPipelineTest {
+
+    private static final ForkJoinPool POOL = ForkJoinPool.commonPool();
+
+    private static EditPipeline.Raster randomImage(int width, int height, long seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+        return new EditPipeline.Raster(pixels, width, height);
+    }
+
+    /**
+     * A half-transparent band across the middle third, like a watermark
+     */
+    private static final EditPipeline.Overlay BAND = (width, height, scale) -> {
+        int[] layer = new int[width * height];
+        for (int y = height / 3; y < height * 2 / 3; y++) {
+            Arrays.fill(layer, y * width, (y + 1) * width, 0x80FFFFFF);
+        }
+        return layer;
+    };
+
+    /**
+     * Run every edit as a pipeline of its own, materializing the image after each
+     */
+    private static EditPipeline.Raster eagerly(EditPipeline.Raster image, EditPipeline... edits) {
+        for (EditPipeline edit : edits) {
+            image = edit.render(image, POOL);
+        }
+        return image;
+    }
+
+    private static EditPipeline fused(EditPipeline... edits) {
+        // Each edit is EMPTY plus one step; replay them onto one pipeline
+        EditPipeline pipeline = EditPipeline.EMPTY;
+        for (EditPipeline edit : edits) {
+            pipeline = pipeline.append(edit);
+        }
+        return pipeline;
+    }
+
+    private static void assertSameImage(EditPipeline.Raster expected, EditPipeline.Raster actual) {
+        assertEquals(expected.width, actual.width);
+        assertEquals(expected.height, actual.height);
+        assertArrayEquals(expected.pixels, actual.pixels);
+    }
+
+    @Test
+    public void turnsAndCropsMatchEagerEdits() {
+        EditPipeline.Raster source = randomImage(61, 40, 1);
+        EditPipeline[] edits = {
+                EditPipeline.EMPTY.rotate(90),
+                EditPipeline.EMPTY.crop(3, 5, 37, 52),
+                EditPipeline.EMPTY.rotate(180),
+                EditPipeline.EMPTY.crop(1, 0, 30, 40),
+                EditPipeline.EMPTY.rotate(-90)};
+
+        EditPipeline pipeline = fused(edits);
+
+        assertSameImage(eagerly(source, edits), pipeline.render(source, POOL));
+        assertEquals(1, pipeline.plan(61, 40, 61, 40).size());
+    }
+
+    @Test
+    public void warpBetweenTurnsMatchesEagerEdits() {
+        EditPipeline.Raster source = randomImage(120, 90, 2);
+        EditPipeline[] edits = {
+                EditPipeline.EMPTY.rotate(270),
+                EditPipeline.EMPTY.warp(new Quad(8.5f, 11, 80, 4, 86.25f, 110, 3, 117)),
+                EditPipeline.EMPTY.rotate(90),
+                EditPipeline.EMPTY.crop(4, 6, 70, 60)};
+
+        assertSameImage(eagerly(source, edits), fused(edits).render(source, POOL));
+    }
+
+    @Test
+    public void warpMatchesPerspectiveWarp() {
+        EditPipeline.Raster source = randomImage(100, 80, 3);
+        Quad quad = new Quad(10, 6, 91, 12, 88, 75, 4, 70);
+
+        EditPipeline.Raster rendered = EditPipeline.EMPTY.warp(quad).render(source, POOL);
+
+        assertArrayEquals(PerspectiveWarp.warp(source.pixels, 100, 80, quad), rendered.pixels);
+    }
+
+    @Test
+    public void pixelEditsFuseIntoTheResamplingPass() {
+        EditPipeline.Raster source = randomImage(64, 48, 4);
+        EditPipeline[] edits = {
+                EditPipeline.EMPTY.crop(4, 4, 60, 44),
+                EditPipeline.EMPTY.rotate(90),
+                EditPipeline.EMPTY.filter(DocumentFilter.Mode.GRAYSCALE, false),
+                EditPipeline.EMPTY.overlay(BAND)};
+
+        EditPipeline pipeline = fused(edits);
+
+        assertSameImage(eagerly(source, edits), pipeline.render(source, POOL));
+        assertEquals(1, pipeline.plan(64, 48, 64, 48).size());
+    }
+
+    @Test
+    public void wholeImageFilterEndsAPass() {
+        EditPipeline.Raster source = randomImage(300, 280, 5);
+        EditPipeline[] edits = {
+                EditPipeline.EMPTY.rotate(90),
+                EditPipeline.EMPTY.filter(DocumentFilter.Mode.SAUVOLA, true),
+                EditPipeline.EMPTY.overlay(BAND),
+                EditPipeline.EMPTY.crop(10, 20, 250, 260),
+                EditPipeline.EMPTY.filter(DocumentFilter.Mode.GRAYSCALE, false)};
+
+        EditPipeline pipeline = fused(edits);
+
+        assertSameImage(eagerly(source, edits), pipeline.render(source, POOL));
+        // Turn, then binarize; band; crop with grayscale
+        assertEquals(3, pipeline.plan(300, 280, 300, 280).size());
+    }
+
+    @Test
+    public void grayscaleMatchesDocumentFilter() {
+        EditPipeline.Raster source = randomImage(50, 30, 6);
+        int[] expected = source.pixels.clone();
+        DocumentFilter.apply(expected, 50, 30, DocumentFilter.Mode.GRAYSCALE, false, POOL);
+
+        EditPipeline.Raster rendered = EditPipeline.EMPTY.filter(DocumentFilter.Mode.GRAYSCALE, false)
+                .render(source, POOL);
+
+        assertArrayEquals(expected, rendered.pixels);
+    }
+
+    @Test
+    public void severalWarpsInterpolateOnce() {
+        // A smooth image, where one interpolation and two differ only by rounding
+        int width = 160;
+        int height = 120;
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                pixels[y * width + x] = 0xFF000000 | (x * 255 / width) << 16 | (y * 255 / height) << 8;
+            }
+        }
+        EditPipeline.Raster source = new EditPipeline.Raster(pixels, width, height);
+        EditPipeline[] edits = {
+                EditPipeline.EMPTY.warp(new Quad(10, 8, 150, 14, 146, 112, 6, 104)),
+                EditPipeline.EMPTY.warp(new Quad(5, 3, 130, 6, 128, 92, 2, 95))};
+
+        EditPipeline pipeline = fused(edits);
+        EditPipeline.Raster eager = eagerly(source, edits);
+        EditPipeline.Raster rendered = pipeline.render(source, POOL);
+
+        assertEquals(1, pipeline.plan(width, height, width, height).size());
+        assertEquals(eager.width, rendered.width);
+        assertEquals(eager.height, rendered.height);
+        for (int i = 0; i < eager.pixels.length; i++) {
+            for (int shift = 0; shift <= 16; shift += 8) {
+                int difference = Math.abs(((eager.pixels[i] >> shift) & 0xFF) - ((rendered.pixels[i] >> shift) & 0xFF));
+                assertTrue("Pixel " + i + " differs by " + difference, difference <= 2);
+            }
+        }
+    }
+
+    @Test
+    public void previewRendersAtItsOwnSize() {
+        // The same photo decoded at half size
+        EditPipeline.Raster full = randomImage(200, 100, 7);
+        int[] half = new int[100 * 50];
+        for (int y = 0; y < 50; y++) {
+            for (int x = 0; x < 100; x++) {
+                half[y * 100 + x] = full.pixels[y * 2 * 200 + x * 2];
+            }
+        }
+        EditPipeline pipeline = EditPipeline.EMPTY.crop(20, 10, 180, 90).rotate(90);
+
+        EditPipeline.Raster preview = pipeline.render(new EditPipeline.Raster(half, 100, 50), 200, 100, POOL);
+
+        assertArrayEquals(new int[]{80, 160}, pipeline.outputSize(200, 100));
+        assertEquals(40, preview.width);
+        assertEquals(80, preview.height);
+        // Whole pixels of the half-size image move, as they would at full size
+        EditPipeline.Raster expected = EditPipeline.EMPTY.crop(10, 5, 90, 45).rotate(90)
+                .render(new EditPipeline.Raster(half, 100, 50), POOL);
+        assertArrayEquals(expected.pixels, preview.pixels);
+    }
+
+    @Test
+    public void overlaySeesRenderedSizeAndScale() {
+        float[] seen = new float[3];
+        EditPipeline pipeline = EditPipeline.EMPTY.rotate(90).overlay((width, height, scale) -> {
+            seen[0] = width;
+            seen[1] = height;
+            seen[2] = scale;
+            return new int[width * height];
+        });
+
+        pipeline.render(randomImage(40, 30, 8), 80, 60, POOL);
+
+        assertArrayEquals(new float[]{30, 40, 0.5f}, seen, 0);
+    }
+
+    @Test
+    public void renderingLeavesSourceAlone() {
+        EditPipeline.Raster source = randomImage(40, 30, 9);
+        int[] copy = source.pixels.clone();
+
+        EditPipeline.EMPTY.filter(DocumentFilter.Mode.WOLF, true).overlay(BAND).render(source, POOL);
+        EditPipeline.Raster unchanged = EditPipeline.EMPTY.render(source, POOL);
+
+        assertArrayEquals(copy, source.pixels);
+        assertArrayEquals(copy, unchanged.pixels);
+        assertNotSame(source.pixels, unchanged.pixels);
+    }
+
+    @Test
+    public void renderingInPlaceReusesThePixels() {
+        EditPipeline.Raster source = randomImage(40, 30, 10);
+        EditPipeline pipeline = EditPipeline.EMPTY.filter(DocumentFilter.Mode.GRAYSCALE, false).overlay(BAND);
+        EditPipeline.Raster expected = pipeline.render(source, POOL);
+
+        EditPipeline.Raster rendered = pipeline.renderInPlace(source, 40, 30, POOL);
+
+        assertSame(source.pixels, rendered.pixels);
+        assertArrayEquals(expected.pixels, rendered.pixels);
+        assertSame(source, EditPipeline.EMPTY.renderInPlace(source, 40, 30, POOL));
+    }
+
+    @Test
+    public void fullTurnIsNoPass() {
+        EditPipeline pipeline = EditPipeline.EMPTY.rotate(90).rotate(90).rotate(180);
+
+        assertEquals(0, pipeline.plan(10, 10, 10, 10).stream().filter(pass -> pass.map != null).count());
+    }
+
+    @Test
+    public void blendsOverlayByItsAlpha() {
+        assertEquals(0xFF808080, EditPipeline.over(0x80FFFFFF, 0xFF000000));
+        assertEquals(0xFF123456, EditPipeline.over(0x00FFFFFF, 0xFF123456));
+        assertEquals(0xFFFFFFFF, EditPipeline.over(0xFFFFFFFF, 0xFF123456));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void partTurnIsRejected() {
+        EditPipeline.EMPTY.rotate(45);
+    }
+}
@@ -0,0 +1,97 @@
+package com.quang.escan.image;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Storing {@link EditRecipe}s and rendering them back, on the JVM
+ */
+public class EditRecipeTest {
+
+    private static final ForkJoinPool POOL = ForkJoinPool.commonPool();
+
+    private static EditPipeline.Raster randomImage(int width, int height, long seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+        return new EditPipeline.Raster(pixels, width, height);
+    }
+
+    private static EditRecipe everyEdit() {
+        EditPipeline edits = EditPipeline.EMPTY
+                .warp(new Quad(8.25f, 11, 150, 4, 146.5f, 110, 3, 117))
+                .crop(2, 3, 120, 100)
+                .filter(DocumentFilter.Mode.WOLF, true)
+                .filter(DocumentFilter.Mode.GRAYSCALE, false)
+                .rotate(270);
+        return new EditRecipe(edits, 160, 120);
+    }
+
+    @Test
+    public void storedRecipeRendersTheSame() {
+        EditRecipe recipe = everyEdit();
+        EditPipeline.Raster original = randomImage(160, 120, 1);
+
+        EditRecipe stored = EditRecipe.fromBytes(recipe.toBytes());
+
+        assertEquals(160, stored.referenceWidth);
+        assertEquals(120, stored.referenceHeight);
+        assertArrayEquals(recipe.outputSize(), stored.outputSize());
+        assertArrayEquals(recipe.render(original, POOL).pixels, stored.render(original, POOL).pixels);
+    }
+
+    @Test
+    public void recipeIsCompact() {
+        assertTrue(everyEdit().toBytes().length < 100);
+    }
+
+    @Test
+    public void emptyRecipeKeepsTheOriginal() {
+        EditRecipe stored = EditRecipe.fromBytes(new EditRecipe(EditPipeline.EMPTY, 40, 30).toBytes());
+        EditPipeline.Raster original = randomImage(40, 30, 2);
+
+        assertTrue(stored.edits.isEmpty());
+        assertArrayEquals(original.pixels, stored.render(original, POOL).pixels);
+    }
+
+    @Test
+    public void rendersFromAnOriginalOfAnotherSize() {
+        // Edits made on a 200x100 preview, rendered from the original at twice that
+        EditRecipe recipe = new EditRecipe(EditPipeline.EMPTY.crop(20, 10, 180, 90).rotate(90), 200, 100);
+
+        EditPipeline.Raster rendered = EditRecipe.fromBytes(recipe.toBytes())
+                .render(randomImage(400, 200, 3), POOL);
+
+        assertArrayEquals(new int[]{80, 160}, recipe.outputSize());
+        assertEquals(160, rendered.width);
+        assertEquals(320, rendered.height);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void overlayCannotBeStored() {
+        new EditRecipe(EditPipeline.EMPTY.overlay((width, height, scale) -> new int[width * height]), 10, 10)
+                .toBytes();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncatedRecipeIsRejected() {
+        byte[] bytes = everyEdit().toBytes();
+
+        EditRecipe.fromBytes(Arrays.copyOf(bytes, bytes.length - 3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownFormatIsRejected() {
+        byte[] bytes = everyEdit().toBytes();
+        bytes[0] = 99;
+
+        EditRecipe.fromBytes(bytes);
+    }
+}
@@ -0,0 +1,158 @@
+package com.quang.escan.image;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Geometry and resampling checks for {@link PerspectiveWarp}, run on the JVM
+ */
+public class PerspectiveWarpTest {
+
+    private static int[] randomPixels(int width, int height, long seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+        return pixels;
+    }
+
+    @Test
+    public void wholeImageQuadCopiesPixels() {
+        int[] source = randomPixels(37, 23, 1);
+
+        int[] output = PerspectiveWarp.warp(source, 37, 23, Quad.of(37, 23));
+
+        assertArrayEquals(source, output);
+    }
+
+    @Test
+    public void axisAlignedQuadCropsExactly() {
+        int[] source = randomPixels(64, 48, 2);
+        Quad quad = new Quad(10, 5, 50, 5, 50, 45, 10, 45);
+
+        int[] output = PerspectiveWarp.warp(source, 64, 48, quad);
+
+        assertEquals(40 * 40, output.length);
+        for (int y = 0; y < 40; y++) {
+            for (int x = 0; x < 40; x++) {
+                assertEquals(source[(y + 5) * 64 + x + 10], output[y * 40 + x]);
+            }
+        }
+    }
+
+    @Test
+    public void outputSizeFollowsLongestSides() {
+        // Wider at the bottom and taller on the right, like a page seen from its lower right
+        Quad quad = new Quad(20, 10, 80, 20, 100, 130, 0, 120);
+
+        assertEquals((int) Math.round(Math.hypot(100, 10)), PerspectiveWarp.outputWidth(quad));
+        assertEquals((int) Math.round(Math.hypot(20, 110)), PerspectiveWarp.outputHeight(quad));
+    }
+
+    @Test
+    public void homographyMapsSquareCornersToQuadCorners() {
+        Quad quad = new Quad(12, 7, 90, 15, 84, 101, 3, 88);
+        double[] m = PerspectiveWarp.squareToQuad(quad);
+        double[][] square = {{0, 0}, {1, 0}, {1, 1}, {0, 1}};
+
+        for (int corner = 0; corner < 4; corner++) {
+            double u = square[corner][0];
+            double v = square[corner][1];
+            double w = m[6] * u + m[7] * v + 1;
+            assertEquals(quad.getX(corner), (m[0] * u + m[1] * v + m[2]) / w, 1e-4);
+            assertEquals(quad.getY(corner), (m[3] * u + m[4] * v + m[5]) / w, 1e-4);
+        }
+    }
+
+    @Test
+    public void keystoneCentreLandsOnDiagonalCrossing() {
+        // A trapezoid; its projective centre is where the diagonals cross, not the average of the corners
+        int width = 200;
+        int height = 160;
+        Quad quad = new Quad(60, 20, 140, 20, 190, 150, 10, 150);
+        double[] crossing = diagonalCrossing(quad);
+        int[] source = new int[width * height];
+        java.util.Arrays.fill(source, 0xFF000000);
+        int cx = (int) crossing[0];
+        int cy = (int) crossing[1];
+        for (int y = cy - 2; y <= cy + 2; y++) {
+            for (int x = cx - 2; x <= cx + 2; x++) {
+                source[y * width + x] = 0xFFFFFFFF;
+            }
+        }
+
+        int outputWidth = PerspectiveWarp.outputWidth(quad);
+        int outputHeight = PerspectiveWarp.outputHeight(quad);
+        int[] output = PerspectiveWarp.warp(source, width, height, quad);
+
+        int centre = output[(outputHeight / 2) * outputWidth + outputWidth / 2];
+        assertEquals(0xFF, centre & 0xFF);
+        // A quarter of the way in is far from the marker
+        assertEquals(0, output[(outputHeight / 4) * outputWidth + outputWidth / 4] & 0xFF);
+    }
+
+    @Test
+    public void resultDoesNotDependOnParallelism() {
+        int[] source = randomPixels(300, 400, 3);
+        Quad quad = new Quad(31.5f, 12.25f, 270, 40, 290, 390, 5, 360.75f);
+        int outputWidth = 240;
+        // Many bands deep
+        int outputHeight = PerspectiveWarp.BAND_ROWS * 9 + 5;
+
+        int[] sequential = new int[outputWidth * outputHeight];
+        int[] parallel = new int[outputWidth * outputHeight];
+        ForkJoinPool single = new ForkJoinPool(1);
+        ForkJoinPool several = new ForkJoinPool(4);
+        try {
+            PerspectiveWarp.warp(source, 300, 400, quad, sequential, outputWidth, outputHeight, single);
+            PerspectiveWarp.warp(source, 300, 400, quad, parallel, outputWidth, outputHeight, several);
+        } finally {
+            single.shutdown();
+            several.shutdown();
+        }
+
+        assertArrayEquals(sequential, parallel);
+    }
+
+    @Test
+    public void bilinearSamplingBlendsNeighbours() {
+        int[] source = {0xFF000000, 0xFFC8C8C8};
+
+        // Halfway between the two pixel centres
+        int blended = PerspectiveWarp.sampleBilinear(source, 2, 1, 1.0, 0.5);
+
+        assertEquals(0xFF646464, blended);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void degenerateQuadIsRejected() {
+        Quad line = new Quad(0, 0, 10, 10, 20, 20, 30, 30);
+
+        PerspectiveWarp.warp(new int[100], 10, 10, line);
+    }
+
+    /**
+     * @return Where the two diagonals of a quad cross
+     */
+    private static double[] diagonalCrossing(Quad quad) {
+        double x1 = quad.getX(Quad.TOP_LEFT);
+        double y1 = quad.getY(Quad.TOP_LEFT);
+        double x2 = quad.getX(Quad.BOTTOM_RIGHT);
+        double y2 = quad.getY(Quad.BOTTOM_RIGHT);
+        double x3 = quad.getX(Quad.TOP_RIGHT);
+        double y3 = quad.getY(Quad.TOP_RIGHT);
+        double x4 = quad.getX(Quad.BOTTOM_LEFT);
+        double y4 = quad.getY(Quad.BOTTOM_LEFT);
+        double denominator = (x1 - x2) * (y3 - y4) - (y1 - y2) * (x3 - x4);
+        double a = x1 * y2 - y1 * x2;
+        double b = x3 * y4 - y3 * x4;
+        return new double[]{
+                (a * (x3 - x4) - (x1 - x2) * b) / denominator,
+                (a * (y3 - y4) - (y1 - y2) * b) / denominator};
+    }
+}
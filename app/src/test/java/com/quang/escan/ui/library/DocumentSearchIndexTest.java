@@ -0,0 +1,137 @@
+package com.quang.escan.ui.library;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Query parsing, snippets and ranking of {@link DocumentSearchIndex}, run on the JVM
+ */
+public class DocumentSearchIndexTest {
+
+    /**
+     * A matchinfo('pcnalx') blob for one row
+     * @param hits Per phrase and column: hits in this row, hits in all rows, rows with a hit
+     */
+    private static byte[] matchInfo(int rows, int[] averageLengths, int[] lengths, int[][] hits) {
+        int columns = averageLengths.length;
+        ByteBuffer buffer = ByteBuffer.allocate(4 * (3 + 2 * columns + 3 * hits.length))
+                .order(ByteOrder.nativeOrder());
+        buffer.putInt(hits.length / columns).putInt(columns).putInt(rows);
+        for (int length : averageLengths) {
+            buffer.putInt(length);
+        }
+        for (int length : lengths) {
+            buffer.putInt(length);
+        }
+        for (int[] hit : hits) {
+            buffer.putInt(hit[0]).putInt(hit[1]).putInt(hit[2]);
+        }
+        return buffer.array();
+    }
+
+    @Test
+    public void quotesEveryTermAndPrefixesTheLast() {
+        assertEquals("\"invoice\" \"march*\"", DocumentSearchIndex.toMatchExpression("  Invoice   MARCH "));
+    }
+
+    @Test
+    public void stripsOperatorsFromTerms() {
+        assertEquals("\"foo\" \"bar*\"", DocumentSearchIndex.toMatchExpression("\"foo\" b*ar*"));
+    }
+
+    @Test
+    public void dropsWordsWithoutLettersOrDigits() {
+        assertEquals(Collections.singletonList("foo"), DocumentSearchIndex.terms("foo -"));
+        assertEquals("\"foo*\"", DocumentSearchIndex.toMatchExpression("foo - ..."));
+        assertEquals(Arrays.asList("c++", "2024"), DocumentSearchIndex.terms("c++ ! 2024"));
+    }
+
+    @Test
+    public void queryWithoutTermsHasNoExpression() {
+        assertNull(DocumentSearchIndex.toMatchExpression(null));
+        assertNull(DocumentSearchIndex.toMatchExpression("   "));
+        assertNull(DocumentSearchIndex.toMatchExpression("- \"\" *"));
+    }
+
+    @Test
+    public void snippetMarksWholeTermsAndTheLastPrefix() {
+        String snippet = DocumentSearchIndex.snippet("Tax invoice for March, paid in full",
+                DocumentSearchIndex.terms("invoice mar"), 10);
+
+        assertEquals("Tax <b>invoice</b> for <b>March</b>, paid in full", snippet);
+    }
+
+    @Test
+    public void snippetFoldsDiacriticsLikeTheTokenizer() {
+        String snippet = DocumentSearchIndex.snippet("Le caf\u00e9 est pr\u00eat",
+                DocumentSearchIndex.terms("CAFE pret"), 10);
+
+        assertEquals("Le <b>caf\u00e9</b> est <b>pr\u00eat</b>", snippet);
+    }
+
+    @Test
+    public void snippetCentresTheDensestWindow() {
+        String text = "one two three four five six seven eight nine ten eleven twelve";
+
+        String snippet = DocumentSearchIndex.snippet(text, DocumentSearchIndex.terms("seven eight"), 4);
+
+        assertEquals("\u2026six <b>seven</b> <b>eight</b> nine\u2026", snippet);
+    }
+
+    @Test
+    public void snippetWithoutHitsIsNull() {
+        assertNull(DocumentSearchIndex.snippet("nothing to see", DocumentSearchIndex.terms("invoice"), 10));
+        assertNull(DocumentSearchIndex.snippet(null, DocumentSearchIndex.terms("invoice"), 10));
+    }
+
+    @Test
+    public void moreHitsScoreHigher() {
+        int[] average = {3, 100};
+        int[] lengths = {3, 100};
+        double once = DocumentSearchIndex.bm25(matchInfo(1000, average, lengths,
+                new int[][]{{0, 0, 0}, {1, 50, 20}}));
+        double often = DocumentSearchIndex.bm25(matchInfo(1000, average, lengths,
+                new int[][]{{0, 0, 0}, {5, 50, 20}}));
+
+        assertTrue(often > once);
+        assertTrue(once > 0);
+    }
+
+    @Test
+    public void nameHitsOutweighTextHits() {
+        int[] average = {3, 100};
+        int[] lengths = {3, 100};
+        double inName = DocumentSearchIndex.bm25(matchInfo(1000, average, lengths,
+                new int[][]{{1, 20, 20}, {0, 0, 0}}));
+        double inText = DocumentSearchIndex.bm25(matchInfo(1000, average, lengths,
+                new int[][]{{0, 0, 0}, {1, 20, 20}}));
+
+        assertTrue(inName > inText);
+    }
+
+    @Test
+    public void rareTermsOutweighCommonOnes() {
+        int[] average = {3, 100};
+        int[] lengths = {3, 100};
+        double rare = DocumentSearchIndex.bm25(matchInfo(1000, average, lengths,
+                new int[][]{{0, 0, 0}, {1, 5, 5}}));
+        double common = DocumentSearchIndex.bm25(matchInfo(1000, average, lengths,
+                new int[][]{{0, 0, 0}, {1, 900, 900}}));
+
+        assertTrue(rare > common);
+        // Clamped so a term in nearly every row still counts for a little
+        assertTrue(common > 0);
+    }
+
+    @Test
+    public void noHitsScoreZero() {
+        assertEquals(0.0, DocumentSearchIndex.bm25(matchInfo(10, new int[]{3, 100}, new int[]{3, 100},
+                new int[][]{{0, 0, 0}, {0, 0, 0}})), 0);
+    }
+}